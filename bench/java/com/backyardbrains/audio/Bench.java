@@ -0,0 +1,94 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Timing loop shared by the microbenchmarks under {@code bench/java}. Each
+ * benchmark is a plain {@code main()} that runs on a desktop JVM, built
+ * straight from the app sources:
+ * 
+ * <pre>
+ * javac -d bench-out -sourcepath src:bench/java:bench/shim \
+ *     bench/java/com/backyardbrains/audio/RingBufferBench.java
+ * java -cp bench-out com.backyardbrains.audio.RingBufferBench
+ * </pre>
+ * 
+ * {@code bench/shim} stands in for the few Android classes the measured code
+ * touches. Numbers are the median of several timed rounds after warm-up.
+ */
+final class Bench {
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int ROUNDS = 11;
+	/** audio rate the per-second figures are quoted at */
+	static final int SAMPLE_RATE = 44100;
+
+	/** written by benchmark bodies so their results aren't optimised away */
+	static volatile long sink;
+
+	interface Body {
+		void run(int iterations) throws Exception;
+	}
+
+	private Bench() {
+	}
+
+	/**
+	 * @return median nanoseconds per iteration of {@code body}
+	 */
+	static double nanosPerIteration(int iterations, Body body)
+			throws Exception {
+		for (int r = 0; r < WARMUP_ROUNDS; r++) {
+			body.run(iterations);
+		}
+		final long[] times = new long[ROUNDS];
+		for (int r = 0; r < ROUNDS; r++) {
+			final long start = System.nanoTime();
+			body.run(iterations);
+			times[r] = System.nanoTime() - start;
+		}
+		Arrays.sort(times);
+		return times[ROUNDS / 2] / (double) iterations;
+	}
+
+	/**
+	 * @return microseconds spent per second of audio when each block of
+	 *         {@code blockSamples} samples costs {@code nanosPerBlock}
+	 */
+	static double microsPerAudioSecond(double nanosPerBlock, int blockSamples) {
+		return nanosPerBlock * SAMPLE_RATE / blockSamples / 1000;
+	}
+
+	/**
+	 * @return a native-order block of {@code samples} 16-bit samples of a
+	 *         noisy sine, as the capture thread hands them out
+	 */
+	static ByteBuffer block(int samples) {
+		final ByteBuffer b = ByteBuffer.allocateDirect(samples * 2).order(
+				ByteOrder.nativeOrder());
+		for (int i = 0; i < samples; i++) {
+			b.putShort((short) (8000 * Math.sin(i * 0.05) + (i * 7919 % 401) - 200));
+		}
+		b.clear();
+		return b;
+	}
+}
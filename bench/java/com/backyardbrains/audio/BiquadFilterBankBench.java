@@ -0,0 +1,59 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Cost per block of filtering with 1 to {@link BiquadFilterBank#MAX_SECTIONS}
+ * sections. A cascade costs the same whatever its coefficients, so every
+ * section is a hum notch at the next multiple of 50 Hz.
+ */
+public class BiquadFilterBankBench {
+	private static final int BLOCK_SAMPLES = 1024;
+	private static final int BLOCKS = 2000;
+
+	public static void main(String[] args) throws Exception {
+		final ByteBuffer block = Bench.block(BLOCK_SAMPLES);
+		System.out.println(BLOCK_SAMPLES + "-sample blocks, "
+				+ Bench.SAMPLE_RATE + " Hz mono");
+		System.out.println("sections   us/block   us per audio second");
+		for (int n = 1; n <= BiquadFilterBank.MAX_SECTIONS; n++) {
+			final double[][] sections = new double[n][];
+			for (int s = 0; s < n; s++) {
+				sections[s] = BiquadFilterBank.notch(Bench.SAMPLE_RATE,
+						50 * (s + 1), 30);
+			}
+			final BiquadFilterBank bank = new BiquadFilterBank();
+			bank.setSections(sections);
+			final double ns = Bench.nanosPerIteration(BLOCKS,
+					new Bench.Body() {
+						@Override
+						public void run(int iterations) {
+							for (int i = 0; i < iterations; i++) {
+								bank.process(block);
+							}
+							Bench.sink += block.getShort(0);
+						}
+					});
+			System.out.println(String.format("%8d %10.1f %21.0f", n,
+					ns / 1000, Bench.microsPerAudioSecond(ns, BLOCK_SAMPLES)));
+		}
+	}
+}
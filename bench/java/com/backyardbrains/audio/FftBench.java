@@ -0,0 +1,59 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+/**
+ * Time for one windowed power spectrum at every size the spectrum mode
+ * offers, and what share of a mic block's period that takes. A desktop JVM
+ * is many times faster than a low-end phone, so the share should stay small
+ * here to leave room on the device.
+ */
+public class FftBench {
+	/** a small mic block, which leaves the least time per transform */
+	private static final int BLOCK_SAMPLES = 512;
+	private static final int TRANSFORMS = 200;
+
+	public static void main(String[] args) throws Exception {
+		final double blockPeriodNs = 1e9 * BLOCK_SAMPLES / Bench.SAMPLE_RATE;
+		System.out.println(String.format(
+				"one transform per %d-sample block (%.1f ms at %d Hz)",
+				BLOCK_SAMPLES, blockPeriodNs / 1e6, Bench.SAMPLE_RATE));
+		System.out.println(" size   us/transform   % of block period");
+		for (int size = Fft.MIN_SIZE; size <= Fft.MAX_SIZE; size *= 2) {
+			final Fft fft = new Fft(size);
+			final short[] samples = new short[size];
+			for (int i = 0; i < size; i++) {
+				samples[i] = (short) (8000 * Math.sin(i * 0.05) + (i * 7919 % 401) - 200);
+			}
+			final float[] power = new float[fft.getBins()];
+			final double ns = Bench.nanosPerIteration(TRANSFORMS,
+					new Bench.Body() {
+						@Override
+						public void run(int iterations) {
+							for (int i = 0; i < iterations; i++) {
+								fft.powerSpectrum(samples, 0, power);
+							}
+							Bench.sink += Float.floatToIntBits(power[1]);
+						}
+					});
+			System.out.println(String.format("%5d %14.1f %19.2f", size,
+					ns / 1000, 100 * ns / blockPeriodNs));
+		}
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Ingest cost per block of {@link RingBuffer} against the shift-based
+ * history it replaced, at the live history size and a range of block sizes.
+ */
+public class RingBufferBench {
+	private static final int HISTORY_SIZE = 131072;
+	private static final int[] BLOCK_SIZES = { 64, 256, 1024, 4096 };
+	private static final int BLOCKS = 2000;
+
+	/**
+	 * The old history: every block shifts the whole array down and copies
+	 * itself onto the end.
+	 */
+	static class ShiftRingBuffer {
+		private final short[] buffer;
+
+		ShiftRingBuffer(int size) {
+			buffer = new short[size];
+		}
+
+		void add(final ByteBuffer incoming) {
+			incoming.clear();
+			final ShortBuffer sb = incoming.asShortBuffer();
+			System.arraycopy(buffer, sb.capacity(), buffer, 0, buffer.length
+					- sb.capacity());
+			sb.get(buffer, buffer.length - sb.capacity(), sb.capacity());
+		}
+
+		short last() {
+			return buffer[buffer.length - 1];
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		System.out.println("history " + HISTORY_SIZE + " samples, "
+				+ Bench.SAMPLE_RATE + " Hz");
+		System.out.println("block   shift ns/block   ring ns/block"
+				+ "   shift us/s   ring us/s");
+		for (final int blockSize : BLOCK_SIZES) {
+			final ByteBuffer block = Bench.block(blockSize);
+			final ShiftRingBuffer shift = new ShiftRingBuffer(HISTORY_SIZE);
+			final RingBuffer ring = new RingBuffer(HISTORY_SIZE);
+			final double shiftNs = Bench.nanosPerIteration(BLOCKS,
+					new Bench.Body() {
+						@Override
+						public void run(int iterations) {
+							for (int i = 0; i < iterations; i++) {
+								shift.add(block);
+							}
+							Bench.sink += shift.last();
+						}
+					});
+			final double ringNs = Bench.nanosPerIteration(BLOCKS,
+					new Bench.Body() {
+						@Override
+						public void run(int iterations) {
+							for (int i = 0; i < iterations; i++) {
+								ring.add(block);
+							}
+							Bench.sink += ring.getWritten();
+						}
+					});
+			System.out.println(String.format("%5d %16.0f %15.0f %12.0f %11.0f",
+					blockSize, shiftNs, ringNs,
+					Bench.microsPerAudioSecond(shiftNs, blockSize),
+					Bench.microsPerAudioSecond(ringNs, blockSize)));
+		}
+	}
+}
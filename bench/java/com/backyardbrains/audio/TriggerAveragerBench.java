@@ -0,0 +1,135 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+
+/**
+ * Cost per block of keeping the triggered average with 50, 500 and 5000
+ * sweeps held, once the average is full. Every block carries one spike, so
+ * each completes a sweep and evicts the oldest. {@link TriggerAverager} is
+ * set against the boxed re-summing of every held sweep that it replaced.
+ */
+public class TriggerAveragerBench {
+	private static final int[] SWEEP_COUNTS = { 50, 500, 5000 };
+	private static final int BLOCK_SAMPLES = 2048;
+	private static final int SPIKE_HEIGHT = 10000;
+	private static final int THRESHOLD = 4000;
+	private static final int BLOCKS = 200;
+	/** the old average is so slow at the larger counts that fewer will do */
+	private static final int OLD_BLOCKS = 10;
+
+	/**
+	 * The old averaging step: every block re-adds every held sweep, one
+	 * boxed {@code Integer} at a time.
+	 */
+	static class BoxedAverage {
+		private final int maxsize;
+		private final ArrayList<short[]> sweeps = new ArrayList<short[]>();
+		private short[] averagedSamples;
+
+		BoxedAverage(int maxsize) {
+			this.maxsize = maxsize;
+		}
+
+		void push(short[] sweep) {
+			while (sweeps.size() >= maxsize) {
+				sweeps.remove(0);
+			}
+			sweeps.add(sweep);
+			if (averagedSamples == null) {
+				averagedSamples = new short[sweep.length];
+			}
+			for (int i = 0; i < averagedSamples.length; i++) {
+				Integer curAvg = 0;
+				for (short[] prev : sweeps) {
+					curAvg += prev[i];
+				}
+				curAvg /= sweeps.size();
+				averagedSamples[i] = curAvg.shortValue();
+			}
+		}
+
+		short first() {
+			return averagedSamples[0];
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		final ByteBuffer block = spikeBlock();
+		System.out.println(BLOCK_SAMPLES + "-sample blocks, one sweep each");
+		System.out.println("sweeps   running sum ns/block   boxed ns/block");
+		for (final int sweeps : SWEEP_COUNTS) {
+			final TriggerAverager averager = new TriggerAverager(sweeps);
+			((TriggerAverager.TriggerHandler) averager.getHandler())
+					.setThreshold(THRESHOLD);
+			averager.setMaxBlockSamples(BLOCK_SAMPLES);
+			for (int i = 0; i <= sweeps; i++) {
+				averager.push(block);
+			}
+			if (averager.getAveragedSamples() == null) {
+				throw new IllegalStateException("No sweeps were triggered");
+			}
+			final double runningNs = Bench.nanosPerIteration(BLOCKS,
+					new Bench.Body() {
+						@Override
+						public void run(int iterations) {
+							for (int i = 0; i < iterations; i++) {
+								averager.push(block);
+							}
+							Bench.sink += averager.getAveragedSamples()[0];
+						}
+					});
+
+			final int sweepLength = averager.getAveragedSamples().length;
+			final BoxedAverage boxed = new BoxedAverage(sweeps);
+			for (int i = 0; i < sweeps; i++) {
+				boxed.sweeps.add(new short[sweepLength]);
+			}
+			final double boxedNs = Bench.nanosPerIteration(OLD_BLOCKS,
+					new Bench.Body() {
+						@Override
+						public void run(int iterations) {
+							for (int i = 0; i < iterations; i++) {
+								boxed.push(new short[sweepLength]);
+							}
+							Bench.sink += boxed.first();
+						}
+					});
+			System.out.println(String.format("%6d %22.0f %16.0f", sweeps,
+					runningNs, boxedNs));
+		}
+	}
+
+	/**
+	 * @return a block of low noise with one spike in the middle
+	 */
+	private static ByteBuffer spikeBlock() {
+		final ByteBuffer b = ByteBuffer.allocateDirect(BLOCK_SAMPLES * 2)
+				.order(ByteOrder.nativeOrder());
+		for (int i = 0; i < BLOCK_SAMPLES; i++) {
+			b.putShort((short) (i == BLOCK_SAMPLES / 2 ? SPIKE_HEIGHT
+					: (i * 7919 % 401) - 200));
+		}
+		b.clear();
+		return b;
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * Cost of writing a second of mono audio: the old per-sample
+ * {@code writeShort(Short.reverseBytes(..))} path into memory, against
+ * {@link WavWriter} on a real file, fed blocks in native order (copied as
+ * raw bytes on a little-endian machine) and in the opposite order (swapped
+ * in bulk).
+ */
+public class WavWriterBench {
+	private static final int BLOCK_SAMPLES = 1024;
+	private static final int BLOCKS = 2000;
+
+	public static void main(String[] args) throws Exception {
+		final ByteBuffer nativeBlock = Bench.block(BLOCK_SAMPLES);
+		final ByteBuffer swappedBlock = ByteBuffer
+				.allocateDirect(BLOCK_SAMPLES * 2)
+				.order(nativeBlock.order() == ByteOrder.BIG_ENDIAN ? ByteOrder.LITTLE_ENDIAN
+						: ByteOrder.BIG_ENDIAN);
+		swappedBlock.asShortBuffer().put(nativeBlock.asShortBuffer());
+
+		final ByteArrayOutputStream memory = new ByteArrayOutputStream(
+				BLOCKS * BLOCK_SAMPLES * 2);
+		final double perSampleNs = Bench.nanosPerIteration(BLOCKS,
+				new Bench.Body() {
+					@Override
+					public void run(int iterations) throws Exception {
+						memory.reset();
+						final DataOutputStream out = new DataOutputStream(
+								new BufferedOutputStream(memory));
+						for (int i = 0; i < iterations; i++) {
+							nativeBlock.clear();
+							final ShortBuffer sb = nativeBlock.asShortBuffer();
+							while (sb.hasRemaining()) {
+								out.writeShort(Short.reverseBytes(sb.get()));
+							}
+						}
+						out.flush();
+						Bench.sink += memory.size();
+					}
+				});
+		final double nativeNs = Bench.nanosPerIteration(BLOCKS,
+				new WriterBody(nativeBlock));
+		final double swappedNs = Bench.nanosPerIteration(BLOCKS,
+				new WriterBody(swappedBlock));
+
+		System.out.println(BLOCK_SAMPLES + "-sample blocks, " + Bench.SAMPLE_RATE
+				+ " Hz mono, native order " + ByteOrder.nativeOrder());
+		report("per-sample writeShort (memory)", perSampleNs);
+		report("WavWriter, native order (file)", nativeNs);
+		report("WavWriter, swapped order (file)", swappedNs);
+	}
+
+	private static void report(String label, double nanosPerBlock) {
+		final double micros = Bench.microsPerAudioSecond(nanosPerBlock,
+				BLOCK_SAMPLES);
+		System.out.println(String.format(
+				"%-32s %9.0f us per audio second, %7.0fx real time", label,
+				micros, 1e6 / micros));
+	}
+
+	/**
+	 * Writes a fresh file each round so it never grows past a few MB.
+	 */
+	private static class WriterBody implements Bench.Body {
+		private final ByteBuffer block;
+
+		WriterBody(ByteBuffer block) {
+			this.block = block;
+		}
+
+		@Override
+		public void run(int iterations) throws Exception {
+			final File file = File.createTempFile("wavbench", ".wav");
+			try {
+				final WavWriter writer = new WavWriter(file, Bench.SAMPLE_RATE,
+						1);
+				for (int i = 0; i < iterations; i++) {
+					block.clear();
+					writer.write(block);
+				}
+				writer.close();
+				Bench.sink += writer.getDataBytes();
+			} finally {
+				file.delete();
+			}
+		}
+	}
+}
@@ -34,11 +34,13 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.view.MotionEvent;
 import android.widget.FrameLayout;
+import android.widget.TextView;
 
 import com.backyardbrains.audio.AudioService;
 import com.backyardbrains.audio.AudioService.AudioServiceBinder;
 import com.backyardbrains.drawing.ContinuousGLSurfaceView;
 import com.backyardbrains.drawing.ThresholdRenderer;
+import com.backyardbrains.view.LabelChannel;
 import com.backyardbrains.view.UIFactory;
 
 
@@ -61,6 +63,7 @@ public class BackyardAndroidActivity extends Activity {
 	private FrameLayout mainscreenGLLayout;
 	private SharedPreferences settings;
 	protected AudioService mAudioService;
+	private LabelChannel labelChannel;
 	private int mBindingsCount;
 
 
@@ -71,6 +74,13 @@ public class BackyardAndroidActivity extends Activity {
 		return mAudioService;
 	}
 
+	/**
+	 * @return where renderers send the scale labels for this activity
+	 */
+	public LabelChannel getLabelChannel() {
+		return labelChannel;
+	}
+
 	@Override
 	public void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
@@ -83,20 +93,40 @@ public class BackyardAndroidActivity extends Activity {
 		mainscreenGLLayout = (FrameLayout) findViewById(R.id.glContainer);
 
 		UIFactory.getUi().setupLabels(this);
+		labelChannel = new LabelChannel(this,
+				(TextView) findViewById(R.id.millisecondsView),
+				(TextView) findViewById(R.id.mVLabelView),
+				(TextView) findViewById(R.id.firingRateView));
 		UIFactory.setupMsLineView(this);
 		UIFactory.setupRecordingButtons(this);
 		UIFactory.setupSampleSlider(this);
 		
 
-		BackyardBrainsApplication application = (BackyardBrainsApplication) getApplication();
-		application.startAudioService();
-		bindAudioService(true);
+		if (usesAudioService()) {
+			BackyardBrainsApplication application = (BackyardBrainsApplication) getApplication();
+			application.startAudioService();
+			bindAudioService(true);
+		}
 	    }
 
+	/**
+	 * @return true if this activity shows live audio and so needs the
+	 *         {@link AudioService} running and bound
+	 */
+	protected boolean usesAudioService() {
+		return true;
+	}
+
 	protected void reassignSurfaceView() {
+		if (mAndroidSurface != null) {
+			mAndroidSurface.stopListening();
+		}
 		mAndroidSurface = null;
 		mainscreenGLLayout.removeAllViews();
 		setGlSurface();
+		if (mAudioService != null) {
+			mAndroidSurface.listenTo(mAudioService);
+		}
 		mainscreenGLLayout.addView(mAndroidSurface);
 		enableUiForActivity();
 		Log.d(getClass().getCanonicalName(),
@@ -134,6 +164,12 @@ public class BackyardAndroidActivity extends Activity {
 		case R.id.threshold:
 			startActivity(new Intent(this, TriggerActivity.class));
 			return true;
+		case R.id.spectrum:
+			startActivity(new Intent(this, SpectrumActivity.class));
+			return true;
+		case R.id.spectrogram:
+			startActivity(new Intent(this, SpectrogramActivity.class));
+			return true;
 		default:
 			return super.onOptionsItemSelected(item);
 		}
@@ -150,6 +186,9 @@ public class BackyardAndroidActivity extends Activity {
 
 	@Override
 	protected void onPause() {
+		if (mAndroidSurface != null) {
+			mAndroidSurface.stopListening();
+		}
 		mAndroidSurface = null;
 		UIFactory.getUi().unregisterReceivers(this);
 		super.onPause();
@@ -180,9 +219,11 @@ public class BackyardAndroidActivity extends Activity {
 
 	@Override
 	protected void onDestroy() {
-		bindAudioService(false);
-		BackyardBrainsApplication application = (BackyardBrainsApplication) getApplication();
-		application.stopAudioService();
+		if (usesAudioService()) {
+			bindAudioService(false);
+			BackyardBrainsApplication application = (BackyardBrainsApplication) getApplication();
+			application.stopAudioService();
+		}
 		super.onDestroy();
 	}
 
@@ -242,6 +283,9 @@ public class BackyardAndroidActivity extends Activity {
 			AudioServiceBinder binder = (AudioServiceBinder) service;
 			mAudioService = binder.getService();
 			mAudioServiceIsBound = true;
+			if (mAndroidSurface != null) {
+				mAndroidSurface.listenTo(mAudioService);
+			}
 			Log.d(getClass().getCanonicalName(), "Service connected and bound");
 		}
 
@@ -252,6 +296,9 @@ public class BackyardAndroidActivity extends Activity {
 		 */
 		@Override
 		public void onServiceDisconnected(ComponentName arg0) {
+			if (mAndroidSurface != null) {
+				mAndroidSurface.stopListening();
+			}
 			mAudioService = null;
 			mAudioServiceIsBound = false;
 			Log.d(getClass().getCanonicalName(), "Service disconnected.");
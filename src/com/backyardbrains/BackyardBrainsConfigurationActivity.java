@@ -19,10 +19,15 @@
 
 package com.backyardbrains;
 
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.Arrays;
+
 import android.app.Activity;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.os.Bundle;
+import android.os.Environment;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -33,6 +38,9 @@ import android.widget.ArrayAdapter;
 import android.widget.Spinner;
 import android.widget.Toast;
 
+import com.backyardbrains.audio.MicrophoneSource;
+import com.backyardbrains.drawing.ContinuousGLSurfaceView;
+
 public class BackyardBrainsConfigurationActivity extends Activity {
 
 	private SharedPreferences prefs;
@@ -60,6 +68,129 @@ public class BackyardBrainsConfigurationActivity extends Activity {
 		spinner.setSelection(adapter.getPosition(preferencesSpeed), true);
 		spinner.setOnItemSelectedListener(new SpeedSelectedListener());
 
+		final String sourcePrefsKey = getResources().getString(
+				R.string.audio_source);
+		final String microphone = getResources().getString(
+				R.string.source_microphone);
+		ArrayAdapter<CharSequence> sourceAdapter = new ArrayAdapter<CharSequence>(
+				this, android.R.layout.simple_spinner_item);
+		sourceAdapter.add(microphone);
+		sourceAdapter.add(getResources().getString(R.string.source_synthetic));
+		for (String name : listRecordings()) {
+			sourceAdapter.add(name);
+		}
+		setUpSettingSpinner(R.id.audio_source_spinner, sourceAdapter,
+				sourcePrefsKey, microphone,
+				new SettingSelectedListener(sourcePrefsKey));
+		final String replaySpeedPrefsKey = getResources().getString(
+				R.string.replay_speed);
+		setUpSettingSpinner(R.id.replay_speed_spinner,
+				R.array.replay_speeds_array, replaySpeedPrefsKey,
+				getResources().getString(R.string.replay_speed_real_time),
+				new SettingSelectedListener(replaySpeedPrefsKey));
+		final String frameRatePrefsKey = getResources().getString(
+				R.string.max_frame_rate);
+		setUpSettingSpinner(R.id.frame_rate_spinner, R.array.frame_rates_array,
+				frameRatePrefsKey, String
+						.valueOf(ContinuousGLSurfaceView.DEFAULT_MAX_FRAME_RATE),
+				new SettingSelectedListener(frameRatePrefsKey));
+		final String fftSizePrefsKey = getResources().getString(
+				R.string.fft_size);
+		setUpSettingSpinner(R.id.fft_size_spinner, R.array.fft_sizes_array,
+				fftSizePrefsKey, "4096", new SettingSelectedListener(
+						fftSizePrefsKey));
+		final String fftAveragesPrefsKey = getResources().getString(
+				R.string.fft_averages);
+		setUpSettingSpinner(R.id.fft_averages_spinner,
+				R.array.fft_averages_array, fftAveragesPrefsKey, "4",
+				new SettingSelectedListener(fftAveragesPrefsKey));
+
+		final String off = getResources().getString(R.string.filter_off);
+		setUpFilterSpinner(R.id.hum_filter_spinner, R.array.hum_filters_array,
+				R.string.hum_filter, off);
+		setUpFilterSpinner(R.id.high_pass_filter_spinner,
+				R.array.high_pass_filters_array, R.string.high_pass_filter, off);
+		setUpFilterSpinner(R.id.low_pass_filter_spinner,
+				R.array.low_pass_filters_array, R.string.low_pass_filter, off);
+		setUpFilterSpinner(R.id.band_pass_filter_spinner,
+				R.array.band_pass_filters_array, R.string.band_pass_filter, off);
+		setUpFilterSpinner(R.id.record_filtered_spinner,
+				R.array.record_filtered_array, R.string.record_filtered,
+				getResources().getString(R.string.record_filtered_no));
+
+		final String auto = getResources().getString(R.string.sample_rate_auto);
+		final String sampleRatePrefsKey = getResources().getString(
+				R.string.sample_rate);
+		ArrayAdapter<CharSequence> sampleRateAdapter = new ArrayAdapter<CharSequence>(
+				this, android.R.layout.simple_spinner_item);
+		sampleRateAdapter.add(auto);
+		for (int rate : MicrophoneSource.getSupportedSampleRates()) {
+			sampleRateAdapter.add(String.valueOf(rate));
+		}
+		setUpSettingSpinner(R.id.sample_rate_spinner, sampleRateAdapter,
+				sampleRatePrefsKey, auto,
+				new SettingSelectedListener(sampleRatePrefsKey));
+		final String decimatePrefsKey = getResources().getString(
+				R.string.decimate_to);
+		setUpSettingSpinner(R.id.decimate_to_spinner,
+				R.array.decimate_to_array, decimatePrefsKey, off,
+				new SettingSelectedListener(decimatePrefsKey));
+		final String channelCountPrefsKey = getResources().getString(
+				R.string.channel_count);
+		setUpSettingSpinner(R.id.channel_count_spinner,
+				R.array.channel_counts_array, channelCountPrefsKey, "1",
+				new SettingSelectedListener(channelCountPrefsKey));
+		final String triggerChannelPrefsKey = getResources().getString(
+				R.string.trigger_channel);
+		setUpSettingSpinner(R.id.trigger_channel_spinner,
+				R.array.trigger_channels_array, triggerChannelPrefsKey, "1",
+				new SettingSelectedListener(triggerChannelPrefsKey));
+	}
+
+	/**
+	 * @return the names of the WAV files in the BackyardBrains directory,
+	 *         which can be replayed in place of the microphone
+	 */
+	private String[] listRecordings() {
+		final File dir = new File(Environment.getExternalStorageDirectory()
+				+ "/BackyardBrains/");
+		final String[] names = dir.list(new FilenameFilter() {
+			@Override
+			public boolean accept(File d, String name) {
+				return name.toLowerCase().endsWith(".wav");
+			}
+		});
+		if (names == null) {
+			return new String[0];
+		}
+		Arrays.sort(names);
+		return names;
+	}
+
+	private void setUpFilterSpinner(int spinnerId, int arrayId,
+			int prefsKeyId, String defaultValue) {
+		final String prefsKey = getResources().getString(prefsKeyId);
+		setUpSettingSpinner(spinnerId, arrayId, prefsKey, defaultValue,
+				new FilterSettingSelectedListener(prefsKey));
+	}
+
+	private void setUpSettingSpinner(int spinnerId, int arrayId,
+			String prefsKey, String defaultValue,
+			OnItemSelectedListener listener) {
+		setUpSettingSpinner(spinnerId, ArrayAdapter.createFromResource(this,
+				arrayId, android.R.layout.simple_spinner_item), prefsKey,
+				defaultValue, listener);
+	}
+
+	private void setUpSettingSpinner(int spinnerId,
+			ArrayAdapter<CharSequence> adapter, String prefsKey,
+			String defaultValue, OnItemSelectedListener listener) {
+		Spinner spinner = (Spinner) findViewById(spinnerId);
+		adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+		spinner.setAdapter(adapter);
+		spinner.setSelection(
+				adapter.getPosition(prefs.getString(prefsKey, defaultValue)), true);
+		spinner.setOnItemSelectedListener(listener);
 	}
 
 	@Override
@@ -84,6 +215,12 @@ public class BackyardBrainsConfigurationActivity extends Activity {
 		case R.id.threshold:
 			startActivity(new Intent(this, TriggerActivity.class));
 			return true;
+		case R.id.spectrum:
+			startActivity(new Intent(this, SpectrumActivity.class));
+			return true;
+		case R.id.spectrogram:
+			startActivity(new Intent(this, SpectrogramActivity.class));
+			return true;
 		default:
 			return super.onOptionsItemSelected(item);
 		}
@@ -105,4 +242,46 @@ public class BackyardBrainsConfigurationActivity extends Activity {
 	    }
 	}	
 
+	/**
+	 * Stores a setting; whatever uses it reads it the next time it needs it.
+	 */
+	public class SettingSelectedListener implements
+			OnItemSelectedListener {
+		private final String prefsKey;
+
+		public SettingSelectedListener(String prefsKey) {
+			this.prefsKey = prefsKey;
+		}
+
+		public void onItemSelected(AdapterView<?> parent, View view, int pos,
+				long id) {
+			SharedPreferences.Editor ed = prefs.edit();
+			ed.putString(prefsKey, parent.getItemAtPosition(pos).toString());
+			ed.commit();
+		}
+
+		public void onNothingSelected(AdapterView<?> parent) {
+			// Do nothing.
+		}
+	}
+
+	/**
+	 * Stores a filter setting and tells the service, which redesigns the
+	 * filters straight away.
+	 */
+	public class FilterSettingSelectedListener extends
+			SettingSelectedListener {
+
+		public FilterSettingSelectedListener(String prefsKey) {
+			super(prefsKey);
+		}
+
+		@Override
+		public void onItemSelected(AdapterView<?> parent, View view, int pos,
+				long id) {
+			super.onItemSelected(parent, view, pos, id);
+			sendBroadcast(new Intent("BYBFilterSettingsChanged"));
+		}
+	}
+
 }
@@ -23,28 +23,61 @@ import java.io.File;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.ListActivity;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.graphics.Bitmap;
 import android.media.MediaPlayer;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Environment;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ArrayAdapter;
 import android.widget.EditText;
+import android.widget.ImageView;
 import android.widget.ListAdapter;
 import android.widget.ListView;
 import android.widget.TextView;
 
+import com.backyardbrains.audio.PeakSummary;
+import com.backyardbrains.audio.RecordingIndex;
+import com.backyardbrains.audio.RecordingInfo;
+
 public class FileListActivity extends ListActivity {
 
+	private static final String TAG = FileListActivity.class.getCanonicalName();
+	private static final String INDEX_FILENAME = "recordings.idx";
+	private static final int THUMBNAIL_WIDTH = 120;
+	private static final int THUMBNAIL_HEIGHT = 40;
+	private static final int THUMBNAIL_CACHE_SIZE = 64;
+	private static final int THUMBNAIL_COLOR = 0xff00ff00;
 	private File bybDirectory;
+	private RecordingIndex recordingIndex;
+	private ScanFilesTask scanTask;
+	/** most recently shown thumbnails, keyed by path and modification time */
+	private final Map<String, Bitmap> thumbnails = new LinkedHashMap<String, Bitmap>(
+			THUMBNAIL_CACHE_SIZE, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Bitmap> eldest) {
+			return size() > THUMBNAIL_CACHE_SIZE;
+		}
+	};
+	/** keys of thumbnails being drawn, so a row rebound meanwhile waits */
+	private final Set<String> loadingThumbnails = new HashSet<String>();
 
 	@Override
 	public void onCreate(Bundle savedInstanceState) {
@@ -53,31 +86,91 @@ public class FileListActivity extends ListActivity {
 
 		bybDirectory = new File(Environment.getExternalStorageDirectory()
 				+ "/BackyardBrains/");
-		rescanFiles();
+		recordingIndex = new RecordingIndex(new File(getFilesDir(),
+				INDEX_FILENAME));
+		scanTask = new ScanFilesTask(true);
+		scanTask.execute();
 	}
 
 	@Override
 	protected void onDestroy() {
+		if (scanTask != null) {
+			scanTask.cancel(false);
+		}
 		bybDirectory = null;
+		thumbnails.clear();
 		super.onDestroy();
 	}
+
+	/**
+	 * Re-check the recordings directory in the background; only files that
+	 * changed since they were indexed are opened.
+	 */
 	void rescanFiles() {
-		
-		File[] files = bybDirectory.listFiles();
+		if (scanTask != null) {
+			scanTask.cancel(false);
+		}
+		scanTask = new ScanFilesTask(false);
+		scanTask.execute();
+	}
 
-		if(files != null) {
-			ListAdapter adapter = new FileListAdapter(this,
-				R.layout.file_list_row_layout, files);
-			setListAdapter(adapter);
+	private void showRecordings(List<RecordingInfo> recordings) {
+		ListAdapter adapter = new FileListAdapter(this,
+				R.layout.file_list_row_layout, recordings);
+		setListAdapter(adapter);
+	}
+
+	/**
+	 * Shows the cached index as soon as it is read (when asked to), then
+	 * the result of rescanning the directory.
+	 */
+	private class ScanFilesTask extends
+			AsyncTask<Void, List<RecordingInfo>, List<RecordingInfo>> {
+		private final boolean showCachedFirst;
+
+		ScanFilesTask(boolean showCachedFirst) {
+			this.showCachedFirst = showCachedFirst;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		protected List<RecordingInfo> doInBackground(Void... params) {
+			if (showCachedFirst) {
+				publishProgress(recordingIndex.load());
+			}
+			if (isCancelled() || bybDirectory == null) {
+				return null;
+			}
+			final List<RecordingInfo> recordings = recordingIndex
+					.scan(bybDirectory);
+			Log.d(TAG, "Indexed " + recordings.size() + " recordings, "
+					+ recordingIndex.getLastRescanned() + " rescanned");
+			return recordings;
+		}
+
+		@Override
+		protected void onProgressUpdate(List<RecordingInfo>... cached) {
+			if (!cached[0].isEmpty()) {
+				showRecordings(cached[0]);
+			}
+		}
+
+		@Override
+		protected void onPostExecute(List<RecordingInfo> recordings) {
+			if (recordings != null && !isCancelled()) {
+				showRecordings(recordings);
+			}
 		}
 	}
 	
 	@Override
 	protected void onListItemClick(ListView l, View v, int position, long id) {
-		final File f = (File) this.getListAdapter().getItem(position);
+		final File f = ((RecordingInfo) this.getListAdapter().getItem(position))
+				.getFile();
 
 		final CharSequence[] actions = { "Email this file", "Play this file",
-				"Rename this file", "Delete this file" };
+				"Review this file", "Show spectrogram", "Rename this file",
+				"Delete this file" };
 
 		AlertDialog.Builder builder = new AlertDialog.Builder(this);
 		builder.setTitle("Choose an action");
@@ -94,9 +187,15 @@ public class FileListActivity extends ListActivity {
 					playAudioFile(f);
 					break;
 				case 2:
-					renameFile(f);
+					reviewFile(f);
 					break;
 				case 3:
+					showSpectrogram(f);
+					break;
+				case 4:
+					renameFile(f);
+					break;
+				case 5:
 					deleteFile(f);
 					break;
 				}
@@ -133,6 +232,18 @@ public class FileListActivity extends ListActivity {
 		}
 	}
 
+	private void reviewFile(File f) {
+		Intent i = new Intent(this, ReviewActivity.class);
+		i.putExtra(ReviewActivity.EXTRA_RECORDING, f.getAbsolutePath());
+		startActivity(i);
+	}
+
+	private void showSpectrogram(File f) {
+		Intent i = new Intent(this, SpectrogramActivity.class);
+		i.putExtra(SpectrogramActivity.EXTRA_RECORDING, f.getAbsolutePath());
+		startActivity(i);
+	}
+
 	protected void deleteFile(final File f) {
 		AlertDialog.Builder builder = new AlertDialog.Builder(this);
 		builder.setTitle("Delete File");
@@ -142,6 +253,7 @@ public class FileListActivity extends ListActivity {
 				if(!f.delete()) {
 					throw new IllegalStateException("Could not delete " + f.getName());
 				}
+				PeakSummary.sidecarFor(f).delete();
 				rescanFiles();
 			}
 		});
@@ -164,6 +276,12 @@ public class FileListActivity extends ListActivity {
 				if(!f.renameTo(newFile)) {
 					throw new IllegalStateException("Could not rename file to " + newFile.getAbsolutePath());
 				}
+				// a sidecar that can't follow is rebuilt when next shown
+				final File peaks = PeakSummary.sidecarFor(f);
+				if (peaks.exists()
+						&& !peaks.renameTo(PeakSummary.sidecarFor(newFile))) {
+					peaks.delete();
+				}
 				rescanFiles();
 			}
 		});
@@ -175,18 +293,111 @@ public class FileListActivity extends ListActivity {
 		public TextView filenameView;
 		public TextView filesizeView;
 		public TextView filedateView;
+		public ImageView thumbnailView;
+		/** the recording the row currently shows */
+		public File file;
+	}
+
+	private static String thumbnailKey(RecordingInfo recording) {
+		return recording.getFile().getAbsolutePath() + ":"
+				+ recording.getLastModified();
+	}
+
+	/**
+	 * Draws a recording's overview from its peak summary, building the
+	 * summary first with one streaming read if the recording predates
+	 * sidecars or was changed after its sidecar was written. The recording
+	 * in progress gets no overview until it is finished.
+	 */
+	private class LoadThumbnailTask extends AsyncTask<Void, Void, Bitmap> {
+		private final FileListViewHolder holder;
+		private final RecordingInfo recording;
+
+		LoadThumbnailTask(FileListViewHolder holder, RecordingInfo recording) {
+			this.holder = holder;
+			this.recording = recording;
+		}
+
+		@Override
+		protected Bitmap doInBackground(Void... params) {
+			final File wav = recording.getFile();
+			if (PeakSummary.isBeingWritten(PeakSummary.sidecarFor(wav))) {
+				return null;
+			}
+			try {
+				if (!PeakSummary.hasCurrentSidecar(wav)) {
+					PeakSummary.generate(wav);
+				}
+				return drawThumbnail(PeakSummary.open(PeakSummary
+						.sidecarFor(wav)));
+			} catch (IOException e) {
+				Log.w(TAG, "No overview for " + wav.getName() + ": "
+						+ e.getMessage());
+				return null;
+			}
+		}
+
+		@Override
+		protected void onPostExecute(Bitmap thumbnail) {
+			loadingThumbnails.remove(thumbnailKey(recording));
+			if (thumbnail == null) {
+				return;
+			}
+			thumbnails.put(thumbnailKey(recording), thumbnail);
+			if (recording.getFile().equals(holder.file)) {
+				holder.thumbnailView.setImageBitmap(thumbnail);
+			}
+		}
 	}
 
-	private class FileListAdapter extends ArrayAdapter<File> {
+	/**
+	 * Render one column per pixel from the coarsest level that still gives
+	 * each column at least one bucket, scaled to the loudest peak.
+	 */
+	static Bitmap drawThumbnail(PeakSummary summary) {
+		final int width = THUMBNAIL_WIDTH;
+		final int height = THUMBNAIL_HEIGHT;
+		final long samplesPerColumn = Math.max(1, summary.getSampleCount()
+				/ width);
+		final int level = Math.max(0, summary.levelFor(samplesPerColumn));
+		final int bucketsPerColumn = (int) Math.max(1, samplesPerColumn
+				/ PeakSummary.getBucketSize(level));
+		final short[] lo = new short[width];
+		final short[] hi = new short[width];
+		final int columns = summary.readColumns(level, 0, bucketsPerColumn,
+				width, lo, hi);
+		int peak = 1;
+		for (int c = 0; c < columns; c++) {
+			peak = Math.max(peak, Math.max(-lo[c], hi[c]));
+		}
+		final int[] pixels = new int[width * height];
+		final int mid = height / 2;
+		for (int c = 0; c < columns; c++) {
+			final int top = Math.max(0, mid - hi[c] * mid / peak);
+			final int bottom = Math.min(height - 1, mid - lo[c] * mid / peak);
+			for (int y = top; y <= bottom; y++) {
+				pixels[y * width + c] = THUMBNAIL_COLOR;
+			}
+		}
+		final Bitmap bitmap = Bitmap.createBitmap(width, height,
+				Bitmap.Config.ARGB_8888);
+		bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
+		return bitmap;
+	}
+
+	private class FileListAdapter extends ArrayAdapter<RecordingInfo> {
 
 		private Activity mContext;
-		private File[] mFiles;
+		private List<RecordingInfo> mRecordings;
+		private final SimpleDateFormat dateFormat = new SimpleDateFormat(
+				"MMM d, yyyy HH:mm a");
+		private final Date date = new Date();
 
 		public FileListAdapter(Activity context, int textViewResourceId,
-				File[] objects) {
+				List<RecordingInfo> objects) {
 			super(context, textViewResourceId, objects);
 			mContext = context;
-			mFiles = objects;
+			mRecordings = objects;
 		}
 
 		@Override
@@ -205,22 +416,33 @@ public class FileListActivity extends ListActivity {
 						.findViewById(R.id.filesize);
 				holder.filedateView = (TextView) rowView
 						.findViewById(R.id.file_date);
+				holder.thumbnailView = (ImageView) rowView
+						.findViewById(R.id.thumbnail);
 				rowView.setTag(holder);
 			} else {
 				holder = (FileListViewHolder) rowView.getTag();
 			}
-			holder.filenameView.setText(mFiles[position].getName());
-			holder.filesizeView.setText(getWaveLengthString(mFiles[position]
-					.length()));
-			holder.filedateView.setText(new SimpleDateFormat(
-					"MMM d, yyyy HH:mm a").format(new Date(mFiles[position]
-					.lastModified())));
+			final RecordingInfo recording = mRecordings.get(position);
+			holder.filenameView.setText(recording.getFile().getName());
+			holder.filesizeView.setText(getWaveLengthString(recording));
+			date.setTime(recording.getLastModified());
+			holder.filedateView.setText(dateFormat.format(date));
+			holder.file = recording.getFile();
+			final String key = thumbnailKey(recording);
+			final Bitmap thumbnail = thumbnails.get(key);
+			holder.thumbnailView.setImageBitmap(thumbnail);
+			if (thumbnail == null && recording.hasValidHeader()
+					&& loadingThumbnails.add(key)) {
+				new LoadThumbnailTask(holder, recording).execute();
+			}
 			return rowView;
 		}
 
-		private CharSequence getWaveLengthString(long length) {
-			length -= 44;
-			long seconds = length / 88200;
+		private CharSequence getWaveLengthString(RecordingInfo recording) {
+			if (!recording.hasValidHeader()) {
+				return "?";
+			}
+			long seconds = recording.getDurationMillis() / 1000;
 
 			if (seconds >= 60) {
 				long minutes = seconds / 60;
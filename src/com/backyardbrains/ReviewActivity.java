@@ -0,0 +1,142 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains;
+
+import java.io.File;
+import java.io.IOException;
+
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.util.Log;
+import android.widget.Toast;
+
+import com.backyardbrains.audio.MappedRecording;
+import com.backyardbrains.audio.PeakSummary;
+import com.backyardbrains.drawing.ReviewGlSurfaceView;
+import com.backyardbrains.view.UIFactory;
+
+/**
+ * Lets the user scrub and zoom through a saved recording. The file is
+ * mapped rather than loaded, so this works the same for a few seconds of
+ * audio as for an hour of it; the live audio service is left alone.
+ */
+public class ReviewActivity extends BackyardAndroidActivity {
+
+	private static final String TAG = ReviewActivity.class.getCanonicalName();
+	/** absolute path of the WAV file to review */
+	public static final String EXTRA_RECORDING = "recording";
+
+	private volatile MappedRecording recording;
+	private OpenRecordingTask openTask;
+
+	@Override
+	public void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+		final String path = getIntent().getStringExtra(EXTRA_RECORDING);
+		if (path == null) {
+			finish();
+			return;
+		}
+		openTask = new OpenRecordingTask();
+		openTask.execute(new File(path));
+	}
+
+	@Override
+	protected void onDestroy() {
+		if (openTask != null) {
+			openTask.cancel(false);
+		}
+		final MappedRecording r = recording;
+		recording = null;
+		if (r != null) {
+			r.close();
+		}
+		super.onDestroy();
+	}
+
+	@Override
+	protected boolean usesAudioService() {
+		return false;
+	}
+
+	/**
+	 * @return the recording being reviewed, or null until it is open
+	 */
+	public MappedRecording getRecording() {
+		return recording;
+	}
+
+	@Override
+	protected void setGlSurface() {
+		mAndroidSurface = new ReviewGlSurfaceView(this);
+	}
+
+	@Override
+	protected void enableUiForActivity() {
+		UIFactory.hideRecordingButtons(this);
+		UIFactory.hideSampleSliderBox(this);
+	}
+
+	/**
+	 * Builds the peak summary first if the recording doesn't have an up to
+	 * date one, so zooming out never has to read the whole file.
+	 */
+	private class OpenRecordingTask extends
+			AsyncTask<File, Void, MappedRecording> {
+
+		@Override
+		protected MappedRecording doInBackground(File... params) {
+			final File wav = params[0];
+			if (!PeakSummary.hasCurrentSidecar(wav)) {
+				try {
+					PeakSummary.generate(wav);
+				} catch (IOException e) {
+					Log.w(TAG, "No peak summary for " + wav.getName() + ": "
+							+ e.getMessage());
+				}
+			}
+			try {
+				return new MappedRecording(wav);
+			} catch (IOException e) {
+				Log.w(TAG, "Couldn't open " + wav.getName() + ": "
+						+ e.getMessage());
+				return null;
+			}
+		}
+
+		@Override
+		protected void onPostExecute(MappedRecording opened) {
+			if (opened == null) {
+				Toast.makeText(ReviewActivity.this,
+						"Couldn't open this recording", Toast.LENGTH_LONG)
+						.show();
+				finish();
+				return;
+			}
+			if (isCancelled() || isFinishing()) {
+				opened.close();
+				return;
+			}
+			recording = opened;
+			if (mAndroidSurface != null) {
+				mAndroidSurface.requestRender();
+			}
+		}
+	}
+}
@@ -0,0 +1,170 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains;
+
+import java.io.File;
+import java.io.IOException;
+
+import android.content.Intent;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+import android.widget.Toast;
+
+import com.backyardbrains.audio.AudioService;
+import com.backyardbrains.audio.MappedRecording;
+import com.backyardbrains.audio.SpectrogramEngine;
+import com.backyardbrains.drawing.SpectrogramGlSurfaceView;
+import com.backyardbrains.view.UIFactory;
+
+/**
+ * Shows a scrolling spectrogram of the live input or, when started with
+ * {@link #EXTRA_RECORDING}, an overview of a whole saved recording. The
+ * overview is computed off the UI thread from the mapped file and leaves
+ * the live audio service alone.
+ */
+public class SpectrogramActivity extends BackyardAndroidActivity {
+
+	private static final String TAG = SpectrogramActivity.class
+			.getCanonicalName();
+	/** absolute path of the WAV file to overview */
+	public static final String EXTRA_RECORDING = "recording";
+
+	private volatile SpectrogramEngine overview;
+	private OverviewTask overviewTask;
+
+	@Override
+	public void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+		final String path = getRecordingPath();
+		if (path != null) {
+			overviewTask = new OverviewTask();
+			overviewTask.execute(new File(path));
+		}
+	}
+
+	@Override
+	protected void onDestroy() {
+		if (overviewTask != null) {
+			overviewTask.cancel(false);
+		}
+		super.onDestroy();
+	}
+
+	@Override
+	protected void onResume() {
+		super.onResume();
+		if (usesAudioService()) {
+			broadcastToggleSpectrogram(true);
+		}
+	}
+
+	@Override
+	protected void onPause() {
+		if (usesAudioService()) {
+			broadcastToggleSpectrogram(false);
+		}
+		super.onPause();
+	}
+
+	private String getRecordingPath() {
+		return getIntent().getStringExtra(EXTRA_RECORDING);
+	}
+
+	@Override
+	protected boolean usesAudioService() {
+		return getRecordingPath() == null;
+	}
+
+	/**
+	 * @return the recording's overview, the service's live spectrogram, or
+	 *         null while neither is available
+	 */
+	public SpectrogramEngine getSpectrogramEngine() {
+		if (!usesAudioService()) {
+			return overview;
+		}
+		final AudioService service = getmAudioService();
+		return service != null ? service.getSpectrogramEngine() : null;
+	}
+
+	private void broadcastToggleSpectrogram(boolean b) {
+		Intent i = new Intent("BYBToggleSpectrogram").putExtra(
+				"spectrogramMode", b);
+		sendBroadcast(i);
+	}
+
+	@Override
+	protected void setGlSurface() {
+		mAndroidSurface = new SpectrogramGlSurfaceView(this);
+	}
+
+	@Override
+	protected void enableUiForActivity() {
+		UIFactory.hideRecordingButtons(this);
+		UIFactory.hideSampleSliderBox(this);
+	}
+
+	private class OverviewTask extends
+			AsyncTask<File, Void, SpectrogramEngine> {
+
+		@Override
+		protected SpectrogramEngine doInBackground(File... params) {
+			final File wav = params[0];
+			MappedRecording recording = null;
+			try {
+				recording = new MappedRecording(wav);
+				final long started = SystemClock.uptimeMillis();
+				final SpectrogramEngine engine = SpectrogramEngine.overview(
+						recording, SpectrogramEngine.DEFAULT_SIZE,
+						SpectrogramEngine.DEFAULT_COLUMNS);
+				Log.d(TAG, "Spectrogram of " + wav.getName() + " took "
+						+ (SystemClock.uptimeMillis() - started) + " ms");
+				return engine;
+			} catch (IOException e) {
+				Log.w(TAG, "Couldn't read " + wav.getName() + ": "
+						+ e.getMessage());
+				return null;
+			} finally {
+				if (recording != null) {
+					recording.close();
+				}
+			}
+		}
+
+		@Override
+		protected void onPostExecute(SpectrogramEngine engine) {
+			if (engine == null) {
+				Toast.makeText(SpectrogramActivity.this,
+						"Couldn't open this recording", Toast.LENGTH_LONG)
+						.show();
+				finish();
+				return;
+			}
+			if (isCancelled() || isFinishing()) {
+				return;
+			}
+			overview = engine;
+			if (mAndroidSurface != null) {
+				mAndroidSurface.requestRender();
+			}
+		}
+	}
+}
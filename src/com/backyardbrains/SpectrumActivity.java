@@ -0,0 +1,59 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.backyardbrains;
+
+import android.content.Intent;
+
+import com.backyardbrains.drawing.SpectrumGlSurfaceView;
+import com.backyardbrains.view.UIFactory;
+
+/**
+ * Shows the averaged spectrum of the live input. The service only runs the
+ * transforms while this activity is in front.
+ */
+public class SpectrumActivity extends BackyardAndroidActivity {
+
+	@Override
+	protected void setGlSurface() {
+		mAndroidSurface = new SpectrumGlSurfaceView(this);
+	}
+
+	@Override
+	protected void onResume() {
+		super.onResume();
+		broadcastToggleSpectrum(true);
+	}
+
+	@Override
+	protected void onPause() {
+		broadcastToggleSpectrum(false);
+		super.onPause();
+	}
+
+
+	private void broadcastToggleSpectrum(boolean b) {
+		Intent i = new Intent("BYBToggleSpectrum").putExtra("spectrumMode", b);
+		sendBroadcast(i);
+	}
+
+	@Override
+	protected void enableUiForActivity() {
+		UIFactory.hideRecordingButtons(this);
+		UIFactory.hideSampleSliderBox(this);
+	}
+}
@@ -0,0 +1,41 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+/**
+ * Told by {@link AudioService} when something worth redrawing has arrived.
+ * Callbacks come on the service's consumer threads, so implementations
+ * should only flag or schedule work, not do it.
+ */
+public interface AudioDataListener {
+	/**
+	 * A new block has been added to the display history.
+	 */
+	public void onNewSamples();
+
+	/**
+	 * The trigger average has changed.
+	 */
+	public void onNewTriggerAverage();
+
+	/**
+	 * The averaged spectrum or the spectrogram has changed.
+	 */
+	public void onNewSpectrum();
+}
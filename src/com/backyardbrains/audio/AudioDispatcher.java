@@ -0,0 +1,444 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import android.util.Log;
+
+/**
+ * Fans each block from the capture thread out to any number of
+ * {@link ReceivesAudio} consumers, each on its own thread.
+ * 
+ * Published blocks are copied into a fixed ring of preallocated slots and
+ * stamped with an increasing sequence number. Every consumer keeps its own
+ * cursor into that ring and catches up at its own pace, so a slow SD card
+ * write or an expensive trigger scan no longer holds up the next read from
+ * the source. What happens when a consumer falls behind is decided per
+ * consumer by its {@link SlowConsumerPolicy}.
+ * 
+ * A consumer that may be lapped copies its blocks out of the ring before
+ * handing them over. Each slot carries a stamp, odd while the producer is
+ * writing a block into it and even once it is done, which the consumer
+ * checks before and after copying (a seqlock), so a block that was
+ * overwritten under it is counted as dropped and never delivered.
+ * 
+ * The stamps alone do not keep the payload accesses in place: a plain load
+ * may be performed after a later volatile load, and a plain store before an
+ * earlier volatile store. Both sides therefore pair a volatile store with a
+ * volatile load of a field nobody else writes, between the stamp and the
+ * payload, relying on the StoreLoad barrier the JSR-133 cookbook puts
+ * between the two. Android's and the desktop VMs emit a full fence there
+ * (dmb ish, mfence or a locked add), which also keeps the payload loads
+ * before the second stamp check and the payload stores after the odd stamp.
+ */
+public class AudioDispatcher implements ReceivesAudio {
+	private static final String TAG = AudioDispatcher.class.getCanonicalName();
+
+	public enum SlowConsumerPolicy {
+		/**
+		 * never lose a block; the capture thread waits once the ring is full
+		 */
+		BLOCK,
+		/**
+		 * skip straight to the newest block once the consumer is more than
+		 * half a ring behind
+		 */
+		DROP,
+		/**
+		 * hand over every pending block in one contiguous buffer, dropping
+		 * only if the consumer is more than half a ring behind
+		 */
+		COALESCE
+	}
+
+	private final ByteBuffer[] slots;
+	/** {@link #writingStamp(long)} or {@link #doneStamp(long)} of each slot */
+	private final AtomicLongArray stamps;
+	private final int mask;
+	private final int blockSizeInBytes;
+	private final ArrayList<Consumer> consumers = new ArrayList<Consumer>();
+	/** sequence of the newest published block, -1 before the first */
+	private volatile long published = -1;
+	private boolean producerWaiting;
+	private volatile boolean running;
+	/** only ever read, by the producer, to fence the stamp off the payload */
+	private volatile int producerFence;
+
+	/**
+	 * @param ringSize
+	 *            number of blocks held, rounded up to a power of two
+	 * @param blockSizeInBytes
+	 *            the exact size of every block that will be published
+	 */
+	public AudioDispatcher(int ringSize, int blockSizeInBytes) {
+		final int capacity = roundRingSize(ringSize);
+		this.blockSizeInBytes = blockSizeInBytes;
+		slots = new ByteBuffer[capacity];
+		for (int i = 0; i < capacity; i++) {
+			slots[i] = ByteBuffer.allocateDirect(blockSizeInBytes);
+			slots[i].order(ByteOrder.nativeOrder());
+		}
+		mask = capacity - 1;
+		stamps = new AtomicLongArray(capacity);
+	}
+
+	private static long writingStamp(long seq) {
+		return seq * 2 + 1;
+	}
+
+	private static long doneStamp(long seq) {
+		return seq * 2 + 2;
+	}
+
+	/**
+	 * @return the most samples one delivery can hold from a dispatcher of
+	 *         {@code ringSize} blocks of {@code blockSizeInSamples}, which is
+	 *         what a {@link SlowConsumerPolicy#COALESCE} consumer is handed
+	 *         when it is as far behind as it is let fall
+	 */
+	public static int getMaxDeliveredSamples(int ringSize,
+			int blockSizeInSamples) {
+		return roundRingSize(ringSize) / 2 * blockSizeInSamples;
+	}
+
+	private static int roundRingSize(int ringSize) {
+		int capacity = Integer.highestOneBit(Math.max(ringSize, 2));
+		if (capacity < ringSize) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	/**
+	 * Register a consumer. Must be called before {@link #start()}.
+	 * 
+	 * @return a handle for reading the consumer's lag statistics
+	 */
+	public synchronized Consumer addConsumer(String name,
+			ReceivesAudio receiver, SlowConsumerPolicy policy) {
+		if (running) {
+			throw new IllegalStateException("Dispatcher already started");
+		}
+		final Consumer c = new Consumer(name, receiver, policy);
+		consumers.add(c);
+		return c;
+	}
+
+	public synchronized void start() {
+		running = true;
+		for (Consumer c : consumers) {
+			c.start();
+		}
+	}
+
+	/**
+	 * Stop every consumer thread. Blocks that have not been consumed yet are
+	 * discarded.
+	 */
+	public void stop() {
+		synchronized (this) {
+			running = false;
+			notifyAll();
+		}
+		for (Consumer c : consumers) {
+			c.interrupt();
+			Log.d(TAG, c.toString());
+		}
+	}
+
+	/**
+	 * Copy a block into the next slot and wake the consumers. Called from
+	 * the capture thread only.
+	 */
+	@Override
+	public void receiveAudio(ByteBuffer audioInfo) {
+		final long seq = published + 1;
+		synchronized (this) {
+			while (running && seq - minimumBlockingCursor() > slots.length) {
+				producerWaiting = true;
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+			producerWaiting = false;
+		}
+		final int index = (int) (seq & mask);
+		final ByteBuffer slot = slots[index];
+		audioInfo.clear();
+		if (audioInfo.remaining() != blockSizeInBytes) {
+			throw new IllegalArgumentException("Expected blocks of "
+					+ blockSizeInBytes + " bytes, got " + audioInfo.remaining());
+		}
+		stamps.set(index, writingStamp(seq));
+		// StoreLoad: no payload store may be seen before the odd stamp
+		if (producerFence != 0) {
+			throw new IllegalStateException();
+		}
+		slot.clear();
+		slot.put(audioInfo);
+		stamps.set(index, doneStamp(seq));
+		synchronized (this) {
+			published = seq;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * @return the sequence of the last block every {@link SlowConsumerPolicy#BLOCK}
+	 *         consumer has finished with
+	 */
+	private long minimumBlockingCursor() {
+		long min = Long.MAX_VALUE;
+		for (int i = 0; i < consumers.size(); i++) {
+			final Consumer c = consumers.get(i);
+			if (c.policy == SlowConsumerPolicy.BLOCK && c.cursor < min) {
+				min = c.cursor;
+			}
+		}
+		return min == Long.MAX_VALUE ? published : min;
+	}
+
+	private synchronized long awaitPublished(long after)
+			throws InterruptedException {
+		while (running && published <= after) {
+			wait();
+		}
+		return published;
+	}
+
+	private synchronized void signalProducer() {
+		if (producerWaiting) {
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Lets a receiver place what it is given on one clock shared by all
+	 * consumers, even though each receiver only counts what reaches it and
+	 * may have blocks dropped or coalesced.
+	 * 
+	 * @return the stream index of the first sample of the buffer being
+	 *         delivered to the calling consumer thread, or -1 if it is not
+	 *         a consumer thread
+	 */
+	public static long getDeliveringSample() {
+		final Thread t = Thread.currentThread();
+		return t instanceof Consumer ? ((Consumer) t).getDeliveringSample() : -1;
+	}
+
+	public long getPublished() {
+		return published;
+	}
+
+	public int getRingSize() {
+		return slots.length;
+	}
+
+	/**
+	 * One consumer thread with its own cursor and its own views of the slots,
+	 * so it never disturbs another consumer's buffer position.
+	 */
+	public class Consumer extends Thread {
+		private final ReceivesAudio receiver;
+		private final SlowConsumerPolicy policy;
+		private final ByteBuffer[] views;
+		/**
+		 * where blocks are copied out to unless the policy is
+		 * {@link SlowConsumerPolicy#BLOCK}; copies[k] spans k + 1 blocks
+		 */
+		private final ByteBuffer[] copies;
+		/** sequence of the last block this consumer finished */
+		private volatile long cursor = -1;
+		private volatile long delivered;
+		private volatile long dropped;
+		private volatile long maxLag;
+		/** only ever written, by this consumer, to fence the copy off */
+		private volatile int consumerFence;
+		/** stream index of the first sample being handed to the receiver */
+		private long deliveringSample = -1;
+
+		Consumer(String name, ReceivesAudio receiver, SlowConsumerPolicy policy) {
+			super(name);
+			setDaemon(true);
+			this.receiver = receiver;
+			this.policy = policy;
+			views = new ByteBuffer[slots.length];
+			for (int i = 0; i < slots.length; i++) {
+				views[i] = slots[i].duplicate();
+				views[i].order(ByteOrder.nativeOrder());
+			}
+			if (policy != SlowConsumerPolicy.BLOCK) {
+				final int maxBlocks = policy == SlowConsumerPolicy.COALESCE
+						? slots.length / 2 : 1;
+				final ByteBuffer whole = ByteBuffer.allocateDirect(maxBlocks
+						* blockSizeInBytes);
+				copies = new ByteBuffer[maxBlocks];
+				for (int k = 0; k < maxBlocks; k++) {
+					whole.clear();
+					whole.limit((k + 1) * blockSizeInBytes);
+					copies[k] = whole.slice();
+					copies[k].order(ByteOrder.nativeOrder());
+				}
+			} else {
+				copies = null;
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (running) {
+					final long newest = awaitPublished(cursor);
+					if (!running) {
+						break;
+					}
+					consume(newest);
+				}
+			} catch (InterruptedException e) {
+				// stopping
+			}
+		}
+
+		private void consume(long newest) {
+			long next = cursor + 1;
+			long lag = newest - cursor;
+			if (lag > maxLag) {
+				maxLag = lag;
+			}
+			if (policy != SlowConsumerPolicy.BLOCK && lag > slots.length / 2) {
+				final long keep = policy == SlowConsumerPolicy.DROP ? 1
+						: slots.length / 2;
+				dropped += lag - keep;
+				next = newest - keep + 1;
+			}
+
+			if (policy == SlowConsumerPolicy.BLOCK) {
+				// the producer waits for us, so the slot can be lent as it is
+				deliveringSample = next * (blockSizeInBytes / 2);
+				final ByteBuffer view = views[(int) (next & mask)];
+				view.clear();
+				receiver.receiveAudio(view);
+				delivered++;
+				cursor = next;
+				signalProducer();
+				return;
+			}
+
+			final long last = policy == SlowConsumerPolicy.COALESCE ? newest
+					: next;
+			long first = next;
+			ByteBuffer out = null;
+			while (first <= last) {
+				out = copies[(int) (last - first)];
+				final long intact = copyOut(first, last, out);
+				if (intact == first) {
+					break;
+				}
+				// the producer lapped us while we were copying
+				dropped += intact - first;
+				first = intact;
+			}
+			if (first <= last) {
+				deliveringSample = first * (blockSizeInBytes / 2);
+				receiver.receiveAudio(out);
+				delivered += last - first + 1;
+			}
+			cursor = last;
+			signalProducer();
+		}
+
+		/**
+		 * Copy the blocks {@code first..last} into {@code out}, one after
+		 * another.
+		 * 
+		 * @return the first of those blocks that was not overwritten while
+		 *         it was being copied; everything from it on is intact
+		 */
+		private long copyOut(long first, long last, ByteBuffer out) {
+			out.clear();
+			long intact = first;
+			for (long s = first; s <= last; s++) {
+				final int index = (int) (s & mask);
+				if (stamps.get(index) != doneStamp(s)) {
+					intact = s + 1;
+				}
+				final ByteBuffer view = views[index];
+				view.clear();
+				out.put(view);
+			}
+			// StoreLoad: every payload load is done before the stamps are
+			// read again
+			consumerFence = 0;
+			// a slot is only ever rewritten with a later block, so one that
+			// still holds its block now held it throughout
+			for (long s = intact; s <= last; s++) {
+				if (stamps.get((int) (s & mask)) != doneStamp(s)) {
+					intact = s + 1;
+				}
+			}
+			out.clear();
+			return intact;
+		}
+
+		/**
+		 * @return the index, counted over everything published, of the first
+		 *         sample of the buffer being delivered
+		 */
+		public long getDeliveringSample() {
+			return deliveringSample;
+		}
+
+		/**
+		 * @return how many published blocks this consumer has yet to finish
+		 */
+		public long getLag() {
+			return published - cursor;
+		}
+
+		public long getMaxLag() {
+			return maxLag;
+		}
+
+		public long getDeliveredBlocks() {
+			return delivered;
+		}
+
+		public long getDroppedBlocks() {
+			return dropped;
+		}
+
+		public SlowConsumerPolicy getPolicy() {
+			return policy;
+		}
+
+		@Override
+		public String toString() {
+			return getName() + " (" + policy + "): delivered " + delivered
+					+ ", dropped " + dropped + ", lag " + getLag()
+					+ ", max lag " + maxLag;
+		}
+	}
+}
@@ -19,7 +19,9 @@
 
 package com.backyardbrains.audio;
 
+import java.io.File;
 import java.nio.ByteBuffer;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import android.app.Notification;
 import android.app.NotificationManager;
@@ -29,7 +31,10 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.os.AsyncTask;
 import android.os.Binder;
+import android.os.Environment;
 import android.os.Handler;
 import android.os.IBinder;
 import android.util.Log;
@@ -68,17 +73,66 @@ public class AudioServiceBinder extends Binder {
 	private final IBinder mBinder = new AudioServiceBinder();
 	//private int mBindingsCount;
 
+	/** blocks of slack between the capture thread and its consumers */
+	private static final int DISPATCH_RING_SIZE = 64;
+	/**
+	 * longest wait for the capture thread to finish its block on shutdown;
+	 * closing the source normally returns its read at once
+	 */
+	private static final long MIC_THREAD_JOIN_MS = 500;
+	/** samples of live history kept for each channel, about 3 seconds */
+	private static final int HISTORY_SIZE = 131072;
 	private MicListener micThread;
-	private RingBuffer audioBuffer;
+	/**
+	 * one per channel; the trigger channel's also feeds the analysis
+	 * consumers
+	 */
+	private volatile AudioDispatcher[] dispatchers;
+	/** feeds the recorder alone, so it can be given raw or filtered audio */
+	private volatile AudioDispatcher recordingDispatcher;
+	private BiquadFilterBank filterBank = new BiquadFilterBank();
+	private volatile boolean recordFiltered;
+	private FilterSettingsListener filterSettingsListener;
+	private ChannelSplitter splitter;
+	private volatile int channelCount = 1;
+	/** the channel whose spikes drive averaging, sorting and the spectra */
+	private volatile int triggerChannel;
+	private RingBuffer[] audioBuffers;
+	private MinMaxPyramid[] audioSummaries;
+	/**
+	 * where the stream clock of the current capture starts in the channel
+	 * histories, which carry on from one capture to the next
+	 */
+	private long streamBase;
 	private RecordingSaver mRecordingSaverInstance;
+	private final Object recordingLock = new Object();
+	private final CopyOnWriteArrayList<AudioDataListener> dataListeners =
+			new CopyOnWriteArrayList<AudioDataListener>();
 
 	private NotificationManager mNM;
 	private TriggerAverager triggerAverager;
-	private boolean triggerMode;
+	private volatile SpikeSorter spikeSorter;
+	private FiringRateMeter firingRateMeter;
+	private SpectrumAnalyzer spectrumAnalyzer;
+	private volatile boolean spectrumMode;
+	private ToggleSpectrumListener toggleSpectrum;
+	private volatile SpectrogramEngine spectrogramEngine;
+	private volatile boolean spectrogramMode;
+	private ToggleSpectrogramListener toggleSpectrogram;
+	private volatile boolean triggerMode;
 	private ToggleTriggerListener toggleTrigger;
 	private SetSampleSizeListener sampleSizeListener;
-	private long lastSamplesReceivedTimestamp;
 	private int micListenerBufferSizeInSamples;
+	/** rate of the stream handed to the consumers, after any decimation */
+	private volatile int sampleRate = TriggerAverager.DEFAULT_SAMPLE_RATE;
+	private PolyphaseDecimator decimator;
+	/** takes decimated blocks on to the filters and dispatchers */
+	private final ReceivesAudio decimatedReceiver = new ReceivesAudio() {
+		@Override
+		public void receiveAudio(ByteBuffer audioInfo) {
+			publish(audioInfo);
+		}
+	};
 
 	/**
 	 * @return the micListenerBufferSizeInSamples
@@ -88,26 +142,99 @@ public class AudioServiceBinder extends Binder {
 	}
 
 	/**
-	 * @return the lastSamplesReceivedTimestamp
+	 * @return the rate, in samples per second, of everything the service
+	 *         hands out
 	 */
-	public long getLastSamplesReceivedTimestamp() {
-		return lastSamplesReceivedTimestamp;
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * @return how many channels are being captured, each with its own
+	 *         history
+	 */
+	public int getChannelCount() {
+		return channelCount;
+	}
+
+	public int getTriggerChannel() {
+		return triggerChannel;
 	}
 
 	/**
-	 * return a byte array with in the appropriate order representing the last
-	 * 1.5 seconds of audio or so
+	 * return the circular history holding the last 3 seconds of audio or so.
+	 * Readers should pull only the window they need out of it.
 	 * 
-	 * @return a ordinate-corrected version of the audio buffer
+	 * @return the live audio history of the trigger channel
 	 */
-	public short[] getAudioBuffer() {
-		return audioBuffer.getArray();
+	public RingBuffer getAudioRingBuffer() {
+		return getAudioRingBuffer(triggerChannel);
+	}
+
+	/**
+	 * @return the live audio history of {@code channel}; every channel's
+	 *         history is indexed by the same sample clock
+	 */
+	public RingBuffer getAudioRingBuffer(int channel) {
+		return audioBuffers[channel];
 	}
 	
+	/**
+	 * @return a min/max summary of the same history as
+	 *         {@link #getAudioRingBuffer()}, for drawing zoomed-out views
+	 */
+	public MinMaxPyramid getAudioSummary() {
+		return getAudioSummary(triggerChannel);
+	}
+
+	public MinMaxPyramid getAudioSummary(int channel) {
+		return audioSummaries[channel];
+	}
+
+	/**
+	 * @return the live spike sorter, for its per-cluster counts and mean
+	 *         waveforms
+	 */
+	public SpikeSorter getSpikeSorter() {
+		return spikeSorter;
+	}
+
+	/**
+	 * @return firing rates of the spikes the sorter finds, and their
+	 *         histogram around each trigger
+	 */
+	public FiringRateMeter getFiringRateMeter() {
+		return firingRateMeter;
+	}
+
+	/**
+	 * @return the averaged spectrum of the newest samples, kept up to date
+	 *         while a spectrum view is showing
+	 */
+	public SpectrumAnalyzer getSpectrumAnalyzer() {
+		return spectrumAnalyzer;
+	}
+
+	/**
+	 * @return the live spectrogram, kept up to date while a spectrogram
+	 *         view is showing
+	 */
+	public SpectrogramEngine getSpectrogramEngine() {
+		return spectrogramEngine;
+	}
+
 	public short[] getTriggerBuffer() {
 		return triggerAverager.getAveragedSamples();
 	}
 
+	/**
+	 * @return the average of {@code channel} around the trigger channel's
+	 *         triggers, or null before the first sweep
+	 */
+	public short[] getTriggerBuffer(int channel) {
+		return triggerAverager.getAveragedSamples(channel);
+	}
+
 	public void setMicListenerBufferSizeInSamples(int i) {
 		micListenerBufferSizeInSamples = i;
 	}
@@ -124,15 +251,27 @@ public class AudioServiceBinder extends Binder {
 
 		registerRecordingToggleReceiver(true);
 
-		audioBuffer = new RingBuffer(131072);
-		audioBuffer.zeroFill();
-		
 		registerTriggerToggleReceiver(true);
 		triggerAverager = new TriggerAverager(50);
 		triggerMode = false;
+		firingRateMeter = new FiringRateMeter();
+		firingRateMeter.setPsthWindowMillis(
+				triggerAverager.getPreTriggerMillis(),
+				triggerAverager.getPostTriggerMillis());
+		triggerAverager.setTriggerListener(firingRateMeter);
+
+		registerSpectrumToggleReceiver(true);
+		spectrumAnalyzer = new SpectrumAnalyzer();
+		spectrumMode = false;
+
+		registerSpectrogramToggleReceiver(true);
+		spectrogramMode = false;
 
 		registerSetSampleSizeReceiver(true);
+		registerFilterSettingsReceiver(true);
 		
+		new RepairRecordingsTask().execute(System.currentTimeMillis());
+
 		turnOnMicThread();
 	}
 	
@@ -153,7 +292,10 @@ public class AudioServiceBinder extends Binder {
 	public void onDestroy() {
 		registerRecordingToggleReceiver(false);
 		registerTriggerToggleReceiver(false);
+		registerSpectrumToggleReceiver(false);
+		registerSpectrogramToggleReceiver(false);
 		registerSetSampleSizeReceiver(false);
+		registerFilterSettingsReceiver(false);
 		turnOffMicThread();
 		super.onDestroy();
 	}
@@ -183,8 +325,38 @@ public class AudioServiceBinder extends Binder {
 	 * notification via {@link AudioService#showNotification()}
 	 */
 	public void turnOnMicThread() {
+		final SharedPreferences prefs = getSharedPreferences(
+				getString(R.string.global_prefs), Context.MODE_WORLD_READABLE);
+		final int readSpeedDivisor = Integer.parseInt(prefs.getString(
+				getString(R.string.microphone_read_speed), "1"));
 		micThread = null;
-		micThread = new MicListener();
+		micThread = new MicListener(createAudioSource(prefs), readSpeedDivisor);
+		final int channels = micThread.getChannelCount();
+		final int captureRate = micThread.getSampleRate();
+		final int captureBlock = micThread.getBlockSizeInSamples();
+		final int factor = PolyphaseDecimator.factorFor(captureRate,
+				readHertz(prefs, R.string.decimate_to));
+		if (factor > 1) {
+			decimator = new PolyphaseDecimator(factor, Math.max(1,
+					captureBlock / factor), channels);
+			micListenerBufferSizeInSamples = decimator.getOutputBlockSamples();
+		} else {
+			decimator = null;
+			micListenerBufferSizeInSamples = captureBlock;
+		}
+		setChannels(channels, readTriggerChannel(prefs, channels));
+		setSampleRate(captureRate / factor);
+		Log.d(TAG, "Capturing " + channels + " channels at " + captureRate
+				+ " Hz, handing out " + sampleRate + " Hz, triggering on channel "
+				+ (triggerChannel + 1));
+		dispatchers = new AudioDispatcher[channels];
+		for (int c = 0; c < channels; c++) {
+			dispatchers[c] = createDispatcher(c, micListenerBufferSizeInSamples);
+			dispatchers[c].start();
+		}
+		recordingDispatcher = createRecordingDispatcher(micListenerBufferSizeInSamples
+				* channels);
+		recordingDispatcher.start();
 		micThread.start(AudioService.this);
 		mNM = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
 		showNotification(true);
@@ -192,12 +364,138 @@ public class AudioServiceBinder extends Binder {
 	}
 
 	/**
-	 * Clean up {@link MicListener} resources and remove notification
+	 * Give each channel its own history, filter state and averaging, and
+	 * split the capture blocks into them. Called before the dispatchers
+	 * start, so no consumer is running.
+	 */
+	private void setChannels(int channels, int trigger) {
+		if (audioBuffers == null || audioBuffers.length != channels) {
+			final RingBuffer[] buffers = new RingBuffer[channels];
+			final MinMaxPyramid[] summaries = new MinMaxPyramid[channels];
+			for (int c = 0; c < channels; c++) {
+				buffers[c] = new RingBuffer(HISTORY_SIZE);
+				buffers[c].zeroFill();
+				summaries[c] = new MinMaxPyramid(buffers[c].getCapacity());
+			}
+			audioBuffers = buffers;
+			audioSummaries = summaries;
+		}
+		// start every history at the same sample, as the renderers draw
+		// them all up to the trigger channel's newest
+		long start = 0;
+		for (RingBuffer b : audioBuffers) {
+			start = Math.max(start, b.getWritten());
+		}
+		for (int c = 0; c < channels; c++) {
+			audioBuffers[c].skipTo(start);
+			audioSummaries[c].skipTo(start);
+		}
+		streamBase = start;
+		filterBank = new BiquadFilterBank(channels);
+		splitter = new ChannelSplitter(channels, micListenerBufferSizeInSamples);
+		triggerAverager.setChannels(channels, trigger);
+		triggerAverager.setMaxBlockSamples(getMaxDeliveredSamples());
+		triggerChannel = trigger;
+		channelCount = channels;
+	}
+
+	/**
+	 * Size everything that works in samples for {@code rate}. Called before
+	 * the dispatchers start, so no consumer is running.
+	 */
+	private void setSampleRate(int rate) {
+		sampleRate = rate;
+		triggerAverager.setSampleRate(rate);
+		firingRateMeter.setSampleRate(rate);
+		final SpikeSorter sorter = new SpikeSorter(rate);
+		sorter.setMaxBlockSamples(getMaxDeliveredSamples());
+		sorter.setSpikeListener(firingRateMeter);
+		spikeSorter = sorter;
+		spectrumAnalyzer.setSampleRate(rate);
+		spectrogramEngine = new SpectrogramEngine(rate,
+				SpectrogramEngine.DEFAULT_SIZE, SpectrogramEngine.DEFAULT_HOP,
+				SpectrogramEngine.DEFAULT_COLUMNS);
+		applyFilterSettings();
+	}
+
+	/**
+	 * @return the longest block a consumer of one channel can be handed at
+	 *         once
+	 */
+	private int getMaxDeliveredSamples() {
+		return AudioDispatcher.getMaxDeliveredSamples(DISPATCH_RING_SIZE,
+				micListenerBufferSizeInSamples);
+	}
+
+	/**
+	 * Pick the {@link AudioSource} named by the audio source preference: the
+	 * microphone (the default), a generated spike train, or the name of a
+	 * WAV file in the BackyardBrains directory. A file is replayed in a loop
+	 * in real time, or once as fast as it can be read, as the replay speed
+	 * preference says.
+	 */
+	private AudioSource createAudioSource(SharedPreferences prefs) {
+		final String microphone = getString(R.string.source_microphone);
+		final String choice = prefs.getString(
+				getString(R.string.audio_source), microphone);
+		if (getString(R.string.source_synthetic).equals(choice)) {
+			return new SyntheticSpikeSource(readCaptureRate(prefs), 20f,
+					(short) 8000, 300f, true, System.currentTimeMillis());
+		}
+		if (!microphone.equals(choice)) {
+			final File wav = new File(Environment.getExternalStorageDirectory()
+					+ "/BackyardBrains/", choice);
+			if (wav.canRead()) {
+				final boolean realTime = !getString(R.string.replay_speed_fast)
+						.equals(prefs.getString(getString(R.string.replay_speed),
+								null));
+				return new WavFileSource(wav, realTime, realTime);
+			}
+			Log.w(TAG, "Cannot read " + wav + ", falling back to microphone");
+		}
+		return new MicrophoneSource(readCaptureRate(prefs),
+				readInt(prefs, R.string.channel_count, 1));
+	}
+
+	/**
+	 * @return the channel the preferences pick to trigger on, counted from
+	 *         0 and kept within the channels there are
+	 */
+	private int readTriggerChannel(SharedPreferences prefs, int channels) {
+		final int channel = readInt(prefs, R.string.trigger_channel, 1) - 1;
+		return Math.max(0, Math.min(channels - 1, channel));
+	}
+
+	/**
+	 * @return the capture rate the preferences ask for, or the usual 44.1
+	 *         kHz if they leave it to the device
+	 */
+	private int readCaptureRate(SharedPreferences prefs) {
+		final int rate = readHertz(prefs, R.string.sample_rate);
+		return rate > 0 ? rate : MicrophoneSource.SAMPLE_RATES[0];
+	}
+
+	/**
+	 * Clean up {@link MicListener} resources and remove notification. The
+	 * capture thread is given a moment to leave its loop before the
+	 * dispatchers go; a block still in flight after that finds them gone and
+	 * is dropped by {@link #publish(ByteBuffer)}.
 	 */
 	public void turnOffMicThread() {
 		if (micThread != null) {
 			micThread.requestStop();
+			try {
+				micThread.join(MIC_THREAD_JOIN_MS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
 			micThread = null;
+			for (AudioDispatcher d : dispatchers) {
+				d.stop();
+			}
+			dispatchers = null;
+			recordingDispatcher.stop();
+			recordingDispatcher = null;
 			Log.d(TAG, "Mic Thread Shut Off");
 		}
 		showNotification(false);
@@ -229,6 +527,37 @@ public class AudioServiceBinder extends Binder {
 		}
 	}
 
+	private void registerSpectrumToggleReceiver(boolean reg) {
+		if (reg) {
+			IntentFilter intentFilter = new IntentFilter("BYBToggleSpectrum");
+			toggleSpectrum = new ToggleSpectrumListener();
+			registerReceiver(toggleSpectrum, intentFilter);
+		} else {
+			unregisterReceiver(toggleSpectrum);
+		}
+	}
+
+	private void registerSpectrogramToggleReceiver(boolean reg) {
+		if (reg) {
+			IntentFilter intentFilter = new IntentFilter("BYBToggleSpectrogram");
+			toggleSpectrogram = new ToggleSpectrogramListener();
+			registerReceiver(toggleSpectrogram, intentFilter);
+		} else {
+			unregisterReceiver(toggleSpectrogram);
+		}
+	}
+
+	private void registerFilterSettingsReceiver(boolean reg) {
+		if (reg) {
+			IntentFilter intentFilter = new IntentFilter(
+					"BYBFilterSettingsChanged");
+			filterSettingsListener = new FilterSettingsListener();
+			registerReceiver(filterSettingsListener, intentFilter);
+		} else {
+			unregisterReceiver(filterSettingsListener);
+		}
+	}
+
 	private void registerSetSampleSizeReceiver(boolean reg) {
 		if (reg) {
 			IntentFilter intentFilter = new IntentFilter("setSampleSize");
@@ -262,23 +591,236 @@ public class AudioServiceBinder extends Binder {
 	}
 
 	/**
-	 * On receiving audio, add it to the RingBuffer. If we're recording, also
-	 * dispatch it to the RecordingSaver instance.
+	 * On receiving audio, bring it down to {@link #getSampleRate()} if the
+	 * preferences ask for decimation, run it through the
+	 * {@link BiquadFilterBank}, split it into channels once with the
+	 * {@link ChannelSplitter} and publish each channel to its own
+	 * {@link AudioDispatcher}. Those hand the channel to its RingBuffer and
+	 * the TriggerAverager, and the trigger channel also to the SpikeSorter,
+	 * the SpectrumAnalyzer and the SpectrogramEngine, each on its own thread.
+	 * The RecordingSaver is fed by a dispatcher of its own, still
+	 * interleaved, before or after filtering as the preferences say.
 	 * 
-	 * @see com.backyardbrains.audio.RecievesAudio#receiveAudio(byte[])
+	 * @see com.backyardbrains.audio.ReceivesAudio#receiveAudio(ByteBuffer)
 	 */
 	@Override
 	public void receiveAudio(ByteBuffer audioInfo) {
-		audioBuffer.add(audioInfo);
-		lastSamplesReceivedTimestamp = System.currentTimeMillis();
-		if(triggerMode) {
-//			Log.d(TAG, "Pushing audio to triggerAverager, length: "+audioInfo.capacity());
-			triggerAverager.push(audioInfo);
+		final PolyphaseDecimator d = decimator;
+		if (d != null) {
+			d.process(audioInfo, decimatedReceiver);
+		} else {
+			publish(audioInfo);
+		}
+	}
+
+	/**
+	 * Hand a capture block to the recorder and the channel dispatchers. The
+	 * dispatchers are read once, as {@link #turnOffMicThread()} may tear
+	 * them down while the capture thread is finishing a block.
+	 */
+	private void publish(ByteBuffer audioInfo) {
+		final AudioDispatcher recorder = recordingDispatcher;
+		final AudioDispatcher[] channels = dispatchers;
+		if (recorder == null || channels == null) {
+			return;
 		}
-		if (mRecordingSaverInstance != null) {
-			recordAudio(audioInfo);
+		final boolean filteredRecording = recordFiltered;
+		if (!filteredRecording) {
+			recorder.receiveAudio(audioInfo);
 		}
+		filterBank.process(audioInfo);
+		if (filteredRecording) {
+			recorder.receiveAudio(audioInfo);
+		}
+		final ByteBuffer[] lanes = splitter.split(audioInfo);
+		for (int c = 0; c < lanes.length; c++) {
+			channels[c].receiveAudio(lanes[c]);
+		}
+	}
+
+	/**
+	 * Build a dispatcher for blocks of one channel of the given size, with
+	 * consumers for the channel's display buffer and the trigger averager.
+	 * The trigger channel's also gets the spike sorter, the spectrum
+	 * analyzer and the spectrogram. The spike sorter works from the trigger
+	 * threshold and idles until one has been set. Every channel's dispatcher
+	 * is handed one block per capture block, so they share a stream clock,
+	 * on which the averager lines the channels up and places its triggers,
+	 * and the sorter its spikes, for the {@link FiringRateMeter}.
+	 */
+	private AudioDispatcher createDispatcher(final int channel,
+			int blockSizeInSamples) {
+		final AudioDispatcher d = new AudioDispatcher(DISPATCH_RING_SIZE,
+				blockSizeInSamples * 2);
+		final boolean triggering = channel == triggerChannel;
+		final String lane = channelCount > 1 ? " " + (channel + 1) : "";
+		final RingBuffer buffer = audioBuffers[channel];
+		final MinMaxPyramid summary = audioSummaries[channel];
+		final long base = streamBase;
+		d.addConsumer("BYB display buffer" + lane, new ReceivesAudio() {
+			@Override
+			public void receiveAudio(ByteBuffer audioInfo) {
+				// a lane whose consumer missed some blocks is padded out
+				// with silence, so every lane stays on the stream clock
+				final long at = base + AudioDispatcher.getDeliveringSample();
+				buffer.skipTo(at);
+				summary.skipTo(at);
+				buffer.add(audioInfo);
+				summary.add(audioInfo);
+				if (!triggering) {
+					return;
+				}
+				for (AudioDataListener l : dataListeners) {
+					l.onNewSamples();
+				}
+			}
+		}, AudioDispatcher.SlowConsumerPolicy.COALESCE);
+		d.addConsumer("BYB trigger averager" + lane, new ReceivesAudio() {
+			@Override
+			public void receiveAudio(ByteBuffer audioInfo) {
+				if (triggerMode
+						&& triggerAverager.push(channel, audioInfo,
+								AudioDispatcher.getDeliveringSample())) {
+					notifyTriggerAverageChanged();
+				}
+			}
+		}, AudioDispatcher.SlowConsumerPolicy.COALESCE);
+		if (!triggering) {
+			return d;
+		}
+		d.addConsumer("BYB spike sorter", new ReceivesAudio() {
+			@Override
+			public void receiveAudio(ByteBuffer audioInfo) {
+				final int threshold = triggerAverager.getTriggerValue();
+				if (threshold != spikeSorter.getThreshold()) {
+					spikeSorter.setThreshold(threshold);
+					firingRateMeter.reset();
+				}
+				spikeSorter.push(audioInfo,
+						AudioDispatcher.getDeliveringSample());
+			}
+		}, AudioDispatcher.SlowConsumerPolicy.COALESCE);
+		d.addConsumer("BYB spectrum analyzer", new ReceivesAudio() {
+			@Override
+			public void receiveAudio(ByteBuffer audioInfo) {
+				if (spectrumMode && spectrumAnalyzer.push(audioInfo)) {
+					for (AudioDataListener l : dataListeners) {
+						l.onNewSpectrum();
+					}
+				}
+			}
+		}, AudioDispatcher.SlowConsumerPolicy.COALESCE);
+		d.addConsumer("BYB spectrogram", new ReceivesAudio() {
+			@Override
+			public void receiveAudio(ByteBuffer audioInfo) {
+				if (spectrogramMode && spectrogramEngine.push(audioInfo) > 0) {
+					for (AudioDataListener l : dataListeners) {
+						l.onNewSpectrum();
+					}
+				}
+			}
+		}, AudioDispatcher.SlowConsumerPolicy.COALESCE);
+		return d;
+	}
+
+	/**
+	 * Build a dispatcher whose only consumer is the recorder. It never drops
+	 * a block, so the capture thread waits if the disk falls a whole ring
+	 * behind.
+	 */
+	private AudioDispatcher createRecordingDispatcher(int blockSizeInSamples) {
+		final AudioDispatcher d = new AudioDispatcher(DISPATCH_RING_SIZE,
+				blockSizeInSamples * 2);
+		d.addConsumer("BYB recorder", new ReceivesAudio() {
+			@Override
+			public void receiveAudio(ByteBuffer audioInfo) {
+				recordAudio(audioInfo);
+			}
+		}, AudioDispatcher.SlowConsumerPolicy.BLOCK);
+		return d;
+	}
+
+	/**
+	 * Design the filter cascade from the global preferences and hand it to
+	 * the capture thread, which picks it up with its next block.
+	 */
+	private void applyFilterSettings() {
+		final SharedPreferences prefs = getSharedPreferences(
+				getString(R.string.global_prefs), Context.MODE_WORLD_READABLE);
+		final int humHz = readHertz(prefs, R.string.hum_filter);
+		int highPassHz = readHertz(prefs, R.string.high_pass_filter);
+		int lowPassHz = readHertz(prefs, R.string.low_pass_filter);
+		final int[] band = readBand(prefs, R.string.band_pass_filter);
+		if (band != null) {
+			// the preset stands in for the separate cutoffs
+			highPassHz = band[0];
+			lowPassHz = band[1];
+		}
+		filterBank.setSections(BiquadFilterBank.design(sampleRate, humHz,
+				highPassHz, lowPassHz));
+		recordFiltered = getString(R.string.record_filtered_yes).equals(
+				prefs.getString(getString(R.string.record_filtered),
+						getString(R.string.record_filtered_no)));
+		Log.d(TAG, "Filtering with " + filterBank.getSectionCount()
+				+ " sections; recording " + (recordFiltered ? "filtered" : "raw")
+				+ " audio");
+	}
+
+	/**
+	 * @return the frequency stored under {@code keyId}, or 0 if it is off
+	 *         or unset
+	 */
+	private int readHertz(SharedPreferences prefs, int keyId) {
+		return readInt(prefs, keyId, 0);
+	}
+
+	/**
+	 * @return the number stored under {@code keyId}, or
+	 *         {@code defaultValue} if there is none
+	 */
+	private int readInt(SharedPreferences prefs, int keyId, int defaultValue) {
+		try {
+			return Integer.parseInt(prefs.getString(getString(keyId),
+					String.valueOf(defaultValue)));
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * @return the low and high cutoffs of the band-pass preset stored under
+	 *         {@code keyId} as "low-high", or null if it is off or unset
+	 */
+	private int[] readBand(SharedPreferences prefs, int keyId) {
+		final String band = prefs.getString(getString(keyId), "");
+		final int dash = band.indexOf('-');
+		if (dash < 0) {
+			return null;
+		}
+		try {
+			return new int[] { Integer.parseInt(band.substring(0, dash)),
+					Integer.parseInt(band.substring(dash + 1)) };
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Ask to be told when new samples or a new trigger average are ready to
+	 * draw.
+	 */
+	public void addAudioDataListener(AudioDataListener listener) {
+		dataListeners.addIfAbsent(listener);
+	}
+
+	public void removeAudioDataListener(AudioDataListener listener) {
+		dataListeners.remove(listener);
+	}
 
+	private void notifyTriggerAverageChanged() {
+		for (AudioDataListener l : dataListeners) {
+			l.onNewTriggerAverage();
+		}
 	}
 
 	/**
@@ -287,44 +829,86 @@ public class AudioServiceBinder extends Binder {
 	 * @param audioInfo
 	 */
 	private void recordAudio(ByteBuffer audioInfo) {
-		audioInfo.clear();
-		try {
-			mRecordingSaverInstance.receiveAudio(audioInfo);
-		} catch (IllegalStateException e) {
-			Log.w(getClass().getCanonicalName(),
-					"Ignoring bytes received while not synced: "
-							+ e.getMessage());
+		synchronized (recordingLock) {
+			if (mRecordingSaverInstance == null) {
+				return;
+			}
+			audioInfo.clear();
+			try {
+				mRecordingSaverInstance.receiveAudio(audioInfo);
+			} catch (IllegalStateException e) {
+				Log.w(getClass().getCanonicalName(),
+						"Ignoring bytes received while not synced: "
+								+ e.getMessage());
+			}
 		}
 	}
 
+	/**
+	 * @return the dispatcher feeding the trigger channel's consumers, for
+	 *         reading their lag statistics; null while the mic thread is off
+	 */
+	public AudioDispatcher getDispatcher() {
+		final AudioDispatcher[] d = dispatchers;
+		return d != null ? d[triggerChannel] : null;
+	}
+
 	public boolean startRecording() {
-		if (mRecordingSaverInstance != null) {
-			return false;
-		}
-		Long theTime = (Long) System.currentTimeMillis();
-		try {
-			mRecordingSaverInstance = new RecordingSaver(theTime.toString());
-		} catch (IllegalStateException e) {
-			Toast.makeText(getApplicationContext(),
-					"No SD Card is available. Recording is disabled",
-					Toast.LENGTH_LONG).show();
+		synchronized (recordingLock) {
+			if (mRecordingSaverInstance != null) {
+				return false;
+			}
+			Long theTime = (Long) System.currentTimeMillis();
+			try {
+				mRecordingSaverInstance = new RecordingSaver(theTime.toString(),
+						sampleRate, channelCount);
+			} catch (IllegalStateException e) {
+				Toast.makeText(getApplicationContext(),
+						"No SD Card is available. Recording is disabled",
+						Toast.LENGTH_LONG).show();
+			}
+			return true;
 		}
-		return true;
 	}
 
 	public boolean stopRecording() {
-		if (mRecordingSaverInstance != null) {
-			mRecordingSaverInstance.finishRecording();
-			mRecordingSaverInstance = null;
-			return true;
+		synchronized (recordingLock) {
+			if (mRecordingSaverInstance != null) {
+				mRecordingSaverInstance.finishRecording();
+				mRecordingSaverInstance = null;
+				return true;
+			}
+			return false;
 		}
-		return false;
 	}
 	
 	public Handler getTriggerHandler() {
 		return triggerAverager.getHandler();
 	}
 
+	/**
+	 * Fix up recordings left unfinished by a previous process, skipping
+	 * anything modified after the given time so a recording started in the
+	 * meantime is not touched.
+	 */
+	private static class RepairRecordingsTask extends
+			AsyncTask<Long, Void, Integer> {
+		@Override
+		protected Integer doInBackground(Long... params) {
+			final File bybDirectory = new File(
+					Environment.getExternalStorageDirectory()
+							+ "/BackyardBrains/");
+			return WavRecovery.repairDirectory(bybDirectory, params[0]);
+		}
+
+		@Override
+		protected void onPostExecute(Integer repaired) {
+			if (repaired > 0) {
+				Log.d(TAG, "Repaired " + repaired + " unfinished recordings");
+			}
+		}
+	}
+
 	private class ToggleRecordingListener extends BroadcastReceiver {
 		@Override
 		public void onReceive(android.content.Context context,
@@ -348,11 +932,67 @@ public class AudioServiceBinder extends Binder {
 		
 	}
 	
+	/**
+	 * Spectra are only computed while a spectrum view is showing; the size
+	 * and averaging are read from the preferences each time one opens.
+	 */
+	private class ToggleSpectrumListener extends BroadcastReceiver {
+
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			final boolean on = intent.getBooleanExtra("spectrumMode", false);
+			if (on) {
+				final SharedPreferences prefs = getSharedPreferences(
+						getString(R.string.global_prefs),
+						Context.MODE_WORLD_READABLE);
+				try {
+					spectrumAnalyzer.configure(Integer.parseInt(prefs.getString(
+							getString(R.string.fft_size),
+							String.valueOf(SpectrumAnalyzer.DEFAULT_SIZE))),
+							Integer.parseInt(prefs.getString(
+									getString(R.string.fft_averages),
+									String.valueOf(SpectrumAnalyzer.DEFAULT_AVERAGES))));
+				} catch (IllegalArgumentException e) {
+					Log.w(TAG, "Ignoring spectrum settings: " + e.getMessage());
+				}
+			}
+			spectrumMode = on;
+			Log.d(TAG, "Switched spectrumMode to " + spectrumMode);
+		}
+	}
+
+	/**
+	 * The spectrogram only runs while a spectrogram view is showing, and
+	 * starts from a fresh window each time so it doesn't join audio across
+	 * the gap.
+	 */
+	private class ToggleSpectrogramListener extends BroadcastReceiver {
+
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			final boolean on = intent.getBooleanExtra("spectrogramMode", false);
+			if (on) {
+				spectrogramEngine.reset();
+			}
+			spectrogramMode = on;
+			Log.d(TAG, "Switched spectrogramMode to " + spectrogramMode);
+		}
+	}
+
+	private class FilterSettingsListener extends BroadcastReceiver {
+
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			applyFilterSettings();
+		}
+	}
+
 	private class SetSampleSizeListener extends BroadcastReceiver {
 
 		@Override
 		public void onReceive(Context context, Intent intent) {
 			triggerAverager.setMaxsize(intent.getIntExtra("newSampleSize", 1));
+			notifyTriggerAverageChanged();
 			Log.d(TAG, "Set triggeraverager sample size to "+triggerAverager.getMaxsize()); 
 		}
 		
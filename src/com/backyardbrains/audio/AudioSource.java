@@ -0,0 +1,62 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Anything that can feed 16-bit PCM into a {@link MicListener}, with the
+ * channels interleaved frame by frame when there is more than one. The
+ * microphone is one source; recorded files and synthetic signals let the
+ * rest of the pipeline run without one.
+ */
+public interface AudioSource {
+	/**
+	 * Acquire whatever the source needs and start producing samples.
+	 */
+	public void open() throws IOException;
+
+	/**
+	 * Fill {@code dst} with up to {@code sizeInBytes} bytes of native-order
+	 * 16-bit PCM, starting at position zero. Blocks until data is available.
+	 * 
+	 * @return the number of bytes read, or a value &lt;= 0 when the source
+	 *         is exhausted or failed
+	 */
+	public int read(ByteBuffer dst, int sizeInBytes) throws IOException;
+
+	/**
+	 * Release the source. May be called from another thread to interrupt a
+	 * blocked {@link #read(ByteBuffer, int)}.
+	 */
+	public void close();
+
+	public int getSampleRate();
+
+	/**
+	 * @return how many interleaved channels each frame holds
+	 */
+	public int getChannelCount();
+
+	/**
+	 * @return the natural read size of this source in bytes
+	 */
+	public int getBufferSizeInBytes();
+}
@@ -0,0 +1,198 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A cascade of up to {@link #MAX_SECTIONS} second-order sections that
+ * filters native-order blocks in place. Filtering allocates nothing: the
+ * section state is preallocated, and new coefficients are designed on the
+ * caller's thread with {@link #setSections(double[][])} and handed over as
+ * one immutable set, which the filtering thread picks up at the start of
+ * its next block. Interleaved multi-channel blocks are filtered with the
+ * same cascade and separate state for each channel.
+ * 
+ * The section design methods follow the usual audio-EQ cookbook formulas
+ * and return {b0, b1, b2, a1, a2} normalised so that a0 is 1.
+ */
+public class BiquadFilterBank {
+	public static final int MAX_SECTIONS = 8;
+	/** Q of a second-order Butterworth section */
+	public static final double BUTTERWORTH_Q = Math.sqrt(0.5);
+	/** hum is notched at the mains frequency and this many multiples */
+	public static final int HUM_HARMONICS = 4;
+	/** narrow enough to leave spikes alone: 50 Hz loses under 2 Hz */
+	private static final double HUM_Q = 30;
+
+	private volatile double[] pending = new double[0];
+	private double[] coefficients = pending;
+	private final int channels;
+	/**
+	 * transposed direct form II state, two values per section, one run of
+	 * sections per channel
+	 */
+	private final double[] state;
+
+	public BiquadFilterBank() {
+		this(1);
+	}
+
+	/**
+	 * @param channels
+	 *            how many channels the blocks interleave
+	 */
+	public BiquadFilterBank(int channels) {
+		if (channels < 1) {
+			throw new IllegalArgumentException("Bad channel count " + channels);
+		}
+		this.channels = channels;
+		state = new double[channels * MAX_SECTIONS * 2];
+	}
+
+	/**
+	 * Replace the cascade. Each section is {b0, b1, b2, a1, a2}; none means
+	 * the blocks pass through untouched. The filter state starts over when
+	 * the new set is picked up.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             for more than {@link #MAX_SECTIONS} sections or a section
+	 *             that isn't five coefficients
+	 */
+	public void setSections(double[][] sections) {
+		if (sections.length > MAX_SECTIONS) {
+			throw new IllegalArgumentException("At most " + MAX_SECTIONS
+					+ " sections, got " + sections.length);
+		}
+		final double[] packed = new double[sections.length * 5];
+		for (int s = 0; s < sections.length; s++) {
+			if (sections[s].length != 5) {
+				throw new IllegalArgumentException("Section " + s + " has "
+						+ sections[s].length + " coefficients");
+			}
+			System.arraycopy(sections[s], 0, packed, s * 5, 5);
+		}
+		pending = packed;
+	}
+
+	/**
+	 * @return how many sections the next block will be filtered with
+	 */
+	public int getSectionCount() {
+		return pending.length / 5;
+	}
+
+	/**
+	 * Filter the whole of {@code block}, native-order 16-bit samples with
+	 * {@link #getChannelCount()} channels interleaved, in place, clipping to
+	 * the sample range. Called from one thread only.
+	 */
+	public void process(ByteBuffer block) {
+		final double[] c = pending;
+		if (c != coefficients) {
+			coefficients = c;
+			for (int i = 0; i < state.length; i++) {
+				state[i] = 0;
+			}
+		}
+		final int sections = c.length / 5;
+		if (sections == 0) {
+			return;
+		}
+		final int frameBytes = channels * 2;
+		final int end = block.capacity() - block.capacity() % frameBytes;
+		for (int ch = 0; ch < channels; ch++) {
+			final int first = ch * MAX_SECTIONS * 2;
+			for (int i = ch * 2; i < end; i += frameBytes) {
+				double x = block.getShort(i);
+				int z = first;
+				for (int s = 0, k = 0; s < sections; s++, k += 5, z += 2) {
+					final double y = c[k] * x + state[z];
+					state[z] = c[k + 1] * x - c[k + 3] * y + state[z + 1];
+					state[z + 1] = c[k + 2] * x - c[k + 4] * y;
+					x = y;
+				}
+				final long rounded = Math.round(x);
+				block.putShort(i, (short) Math.max(Short.MIN_VALUE,
+						Math.min(Short.MAX_VALUE, rounded)));
+			}
+		}
+	}
+
+	public int getChannelCount() {
+		return channels;
+	}
+
+	/**
+	 * Design the cascade for the filter settings; 0 turns a part off. Hum is
+	 * notched at {@code humHz} and its first harmonics below Nyquist. A
+	 * high-pass and a low-pass together make a band-pass with a flat
+	 * passband.
+	 */
+	public static double[][] design(double sampleRate, int humHz,
+			int highPassHz, int lowPassHz) {
+		final double nyquist = sampleRate / 2;
+		final double[][] sections = new double[MAX_SECTIONS][];
+		int n = 0;
+		if (highPassHz > 0 && highPassHz < nyquist) {
+			sections[n++] = highPass(sampleRate, highPassHz, BUTTERWORTH_Q);
+		}
+		if (lowPassHz > 0 && lowPassHz < nyquist) {
+			sections[n++] = lowPass(sampleRate, lowPassHz, BUTTERWORTH_Q);
+		}
+		for (int h = 1; humHz > 0 && h <= HUM_HARMONICS
+				&& humHz * h < nyquist; h++) {
+			sections[n++] = notch(sampleRate, humHz * h, HUM_Q);
+		}
+		final double[][] used = new double[n][];
+		System.arraycopy(sections, 0, used, 0, n);
+		return used;
+	}
+
+	/**
+	 * A notch at {@code f0} whose -3 dB width is {@code f0 / q}.
+	 */
+	public static double[] notch(double sampleRate, double f0, double q) {
+		final double w = 2 * Math.PI * f0 / sampleRate;
+		final double alpha = Math.sin(w) / (2 * q);
+		final double cos = Math.cos(w);
+		return normalise(1, -2 * cos, 1, 1 + alpha, -2 * cos, 1 - alpha);
+	}
+
+	public static double[] highPass(double sampleRate, double fc, double q) {
+		final double w = 2 * Math.PI * fc / sampleRate;
+		final double alpha = Math.sin(w) / (2 * q);
+		final double cos = Math.cos(w);
+		return normalise((1 + cos) / 2, -(1 + cos), (1 + cos) / 2,
+				1 + alpha, -2 * cos, 1 - alpha);
+	}
+
+	public static double[] lowPass(double sampleRate, double fc, double q) {
+		final double w = 2 * Math.PI * fc / sampleRate;
+		final double alpha = Math.sin(w) / (2 * q);
+		final double cos = Math.cos(w);
+		return normalise((1 - cos) / 2, 1 - cos, (1 - cos) / 2, 1 + alpha,
+				-2 * cos, 1 - alpha);
+	}
+
+	private static double[] normalise(double b0, double b1, double b2,
+			double a0, double a1, double a2) {
+		return new double[] { b0 / a0, b1 / a0, b2 / a0, a1 / a0, a2 / a0 };
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.backyardbrains.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * Deinterleaves multi-channel blocks from the capture thread into one block
+ * per channel, so everything downstream keeps working on plain mono
+ * buffers. Each block is split once, and the per-channel blocks are
+ * preallocated and reused, so a receiver has to copy a block before the
+ * next split, as {@link AudioDispatcher} does. Mono blocks are handed
+ * through as they are.
+ */
+public class ChannelSplitter {
+	private final int channels;
+	private final int samplesPerChannel;
+	private final ByteBuffer[] lanes;
+	/** native-order views of {@link #lanes} */
+	private final ShortBuffer[] laneSamples;
+
+	/**
+	 * @param samplesPerChannel
+	 *            how many samples of each channel every block holds
+	 */
+	public ChannelSplitter(int channels, int samplesPerChannel) {
+		if (channels < 1 || samplesPerChannel < 1) {
+			throw new IllegalArgumentException("Bad channel count " + channels
+					+ " or block size " + samplesPerChannel);
+		}
+		this.channels = channels;
+		this.samplesPerChannel = samplesPerChannel;
+		lanes = new ByteBuffer[channels];
+		laneSamples = new ShortBuffer[channels];
+		if (channels > 1) {
+			for (int c = 0; c < channels; c++) {
+				lanes[c] = ByteBuffer.allocateDirect(samplesPerChannel * 2);
+				lanes[c].order(ByteOrder.nativeOrder());
+				laneSamples[c] = lanes[c].asShortBuffer();
+			}
+		}
+	}
+
+	/**
+	 * Split {@code interleaved}, native-order 16-bit frames, into one block
+	 * per channel.
+	 * 
+	 * @return the block of each channel, valid until the next call
+	 * @throws IllegalArgumentException
+	 *             if the block isn't the size given to the constructor
+	 */
+	public ByteBuffer[] split(ByteBuffer interleaved) {
+		if (interleaved.capacity() != samplesPerChannel * channels * 2) {
+			throw new IllegalArgumentException("Expected blocks of "
+					+ samplesPerChannel * channels * 2 + " bytes, got "
+					+ interleaved.capacity());
+		}
+		if (channels == 1) {
+			lanes[0] = interleaved;
+			return lanes;
+		}
+		final int frameBytes = channels * 2;
+		for (int c = 0; c < channels; c++) {
+			final ShortBuffer lane = laneSamples[c];
+			int at = c * 2;
+			for (int f = 0; f < samplesPerChannel; f++, at += frameBytes) {
+				lane.put(f, interleaved.getShort(at));
+			}
+			lanes[c].clear();
+		}
+		return lanes;
+	}
+
+	public int getChannelCount() {
+		return channels;
+	}
+
+	public int getSamplesPerChannel() {
+		return samplesPerChannel;
+	}
+}
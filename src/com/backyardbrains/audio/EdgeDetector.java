@@ -0,0 +1,131 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+/**
+ * Finds threshold crossings in a sample stream. A positive threshold fires
+ * on rising edges and a negative one on falling edges, matching how the
+ * threshold line is dragged above or below zero.
+ * 
+ * After firing, the detector disarms. It re-arms only once the dead time
+ * has elapsed and the signal is back past the threshold by the hysteresis
+ * margin, so one spike that rides above the threshold for many samples, or
+ * rings around it, produces exactly one event, and every event is a fresh
+ * crossing rather than the signal merely still being high when the dead
+ * time runs out. State carries across blocks.
+ */
+public class EdgeDetector {
+	private int threshold;
+	private int hysteresis;
+	private int deadTimeSamples;
+	private boolean armed;
+	/** absolute index of the next sample to be scanned */
+	private long position;
+	private long lastEvent = Long.MIN_VALUE / 2;
+
+	public EdgeDetector(int threshold, int hysteresis, int deadTimeSamples) {
+		this.threshold = threshold;
+		this.hysteresis = Math.max(0, hysteresis);
+		this.deadTimeSamples = Math.max(0, deadTimeSamples);
+	}
+
+	/**
+	 * Scan {@code samples[offset..offset+length)} and write the index within
+	 * {@code samples} of each crossing to {@code events}.
+	 * 
+	 * @return how many events were written; crossings beyond
+	 *         {@code events.length} are still consumed but not reported
+	 */
+	public int scan(short[] samples, int offset, int length, int[] events) {
+		int found = 0;
+		final boolean rising = threshold >= 0;
+		final int rearmLevel = rising ? threshold - hysteresis : threshold
+				+ hysteresis;
+		final int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			final int s = samples[i];
+			if (armed) {
+				if (rising ? s > threshold : s < threshold) {
+					armed = false;
+					lastEvent = position;
+					if (found < events.length) {
+						events[found] = i;
+					}
+					found++;
+				}
+			} else if ((rising ? s < rearmLevel : s > rearmLevel)
+					&& position - lastEvent >= deadTimeSamples) {
+				armed = true;
+			}
+			position++;
+		}
+		return Math.min(found, events.length);
+	}
+
+	/**
+	 * @return the largest number of events a block of {@code length}
+	 *         samples can produce
+	 */
+	public int maxEventsPerBlock(int length) {
+		return length / Math.max(deadTimeSamples, 1) + 1;
+	}
+
+	public int getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * Move the threshold. The detector disarms until the signal has been on
+	 * the quiet side of the new level.
+	 */
+	public void setThreshold(int threshold) {
+		this.threshold = threshold;
+		armed = false;
+	}
+
+	public int getHysteresis() {
+		return hysteresis;
+	}
+
+	public void setHysteresis(int hysteresis) {
+		this.hysteresis = Math.max(0, hysteresis);
+	}
+
+	public int getDeadTimeSamples() {
+		return deadTimeSamples;
+	}
+
+	public void setDeadTimeSamples(int deadTimeSamples) {
+		this.deadTimeSamples = Math.max(0, deadTimeSamples);
+	}
+
+	/**
+	 * @return the absolute index of the next sample to be scanned
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * @return the absolute index of the most recent event
+	 */
+	public long getLastEvent() {
+		return lastEvent;
+	}
+}
@@ -0,0 +1,158 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+/**
+ * Power spectrum of a block of real samples through a Hann window. The N
+ * real samples are packed into an N/2-point complex FFT (even samples as
+ * the real part, odd as the imaginary) and the two halves are separated
+ * afterwards, which halves the work of a plain complex transform.
+ * 
+ * The window, twiddle factors and bit-reversal permutation are computed
+ * once per size and the working arrays are reused, so a transform
+ * allocates nothing.
+ */
+public class Fft {
+	public static final int MIN_SIZE = 1024;
+	public static final int MAX_SIZE = 16384;
+
+	private final int size;
+	private final int half;
+	private final float[] window;
+	/** scales a bin's power so a full-scale sine reads 1 */
+	private final float powerScale;
+	/** e^(2 pi i j / half), for the complex transform */
+	private final float[] cos;
+	private final float[] sin;
+	/** e^(2 pi i k / size), for separating the real spectrum */
+	private final float[] splitCos;
+	private final float[] splitSin;
+	private final int[] bitReverse;
+	private final float[] re;
+	private final float[] im;
+
+	/**
+	 * @param size
+	 *            a power of two from {@link #MIN_SIZE} to {@link #MAX_SIZE}
+	 */
+	public Fft(int size) {
+		if (size < MIN_SIZE || size > MAX_SIZE || Integer.bitCount(size) != 1) {
+			throw new IllegalArgumentException("Unsupported FFT size " + size);
+		}
+		this.size = size;
+		half = size / 2;
+
+		window = new float[size];
+		double windowSum = 0;
+		for (int i = 0; i < size; i++) {
+			window[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * i / size));
+			windowSum += window[i];
+		}
+		// a sine of amplitude A puts (A * windowSum / 2)^2 into its bin
+		final double fullScale = windowSum / 2 * 32768;
+		powerScale = (float) (1 / (fullScale * fullScale));
+
+		cos = new float[half / 2];
+		sin = new float[half / 2];
+		for (int j = 0; j < half / 2; j++) {
+			cos[j] = (float) Math.cos(2 * Math.PI * j / half);
+			sin[j] = (float) Math.sin(2 * Math.PI * j / half);
+		}
+		splitCos = new float[half + 1];
+		splitSin = new float[half + 1];
+		for (int k = 0; k <= half; k++) {
+			splitCos[k] = (float) Math.cos(2 * Math.PI * k / size);
+			splitSin[k] = (float) Math.sin(2 * Math.PI * k / size);
+		}
+		bitReverse = new int[half];
+		final int bits = Integer.numberOfTrailingZeros(half);
+		for (int i = 0; i < half; i++) {
+			bitReverse[i] = Integer.reverse(i) >>> (32 - bits);
+		}
+		re = new float[half];
+		im = new float[half];
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * @return how many bins {@link #powerSpectrum(short[], int, float[])}
+	 *         fills: DC to Nyquist inclusive
+	 */
+	public int getBins() {
+		return half + 1;
+	}
+
+	/**
+	 * Transform {@code getSize()} samples starting at {@code offset} and
+	 * write the power of each bin, relative to a full-scale sine, to
+	 * {@code out}.
+	 */
+	public void powerSpectrum(short[] in, int offset, float[] out) {
+		final float[] re = this.re;
+		final float[] im = this.im;
+		for (int k = 0; k < half; k++) {
+			final int i = offset + 2 * k;
+			final int r = bitReverse[k];
+			re[r] = in[i] * window[2 * k];
+			im[r] = in[i + 1] * window[2 * k + 1];
+		}
+
+		for (int len = 2; len <= half; len <<= 1) {
+			final int span = len >> 1;
+			final int step = half / len;
+			for (int start = 0; start < half; start += len) {
+				for (int j = 0, t = 0; j < span; j++, t += step) {
+					final float wr = cos[t];
+					final float wi = -sin[t];
+					final int a = start + j;
+					final int b = a + span;
+					final float tr = wr * re[b] - wi * im[b];
+					final float ti = wr * im[b] + wi * re[b];
+					re[b] = re[a] - tr;
+					im[b] = im[a] - ti;
+					re[a] += tr;
+					im[a] += ti;
+				}
+			}
+		}
+
+		// X[k] = E[k] + e^(-2 pi i k / size) O[k], where E and O are the
+		// transforms of the even and odd samples recovered from Z
+		for (int k = 0; k <= half; k++) {
+			final int p = k == half ? 0 : k;
+			final int m = k == 0 ? 0 : half - k;
+			final float zr = re[p];
+			final float zi = im[p];
+			final float cr = re[m];
+			final float ci = -im[m];
+			final float er = (zr + cr) * 0.5f;
+			final float ei = (zi + ci) * 0.5f;
+			final float or = (zr - cr) * 0.5f;
+			final float oi = (zi - ci) * 0.5f;
+			final float c = splitCos[k];
+			final float s = splitSin[k];
+			final float xr = er + c * oi - s * or;
+			final float xi = ei - c * or - s * oi;
+			out[k] = (xr * xr + xi * xi) * powerScale;
+		}
+	}
+}
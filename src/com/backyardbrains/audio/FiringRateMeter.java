@@ -0,0 +1,305 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+/**
+ * Turns the stream of detected spikes into firing rates. Rates are kept
+ * over several sliding windows at once, a short history of the rate is
+ * kept for plotting, and a peri-stimulus time histogram (PSTH) is built
+ * from the spikes around each trigger reported by the
+ * {@link TriggerAverager}.
+ * 
+ * Spike times, pending triggers, the rate history and the histogram all
+ * live in fixed-size primitive rings, so memory stays the same however long
+ * the meter runs. Spikes and triggers arrive on different threads; every
+ * entry point is synchronized.
+ */
+public class FiringRateMeter implements SpikeSorter.SpikeListener,
+		TriggerAverager.TriggerListener {
+
+	/** widths of the sliding windows rates are measured over */
+	public static final float[] WINDOW_MILLIS = { 100, 1000, 10000 };
+	/** rate history points, one per shortest window */
+	public static final int RATE_HISTORY_LENGTH = 300;
+	public static final int PSTH_BINS = 50;
+	/**
+	 * spike times remembered; enough for the longest window up to this
+	 * many spikes per 10 s
+	 */
+	private static final int SPIKE_CAPACITY = 16384;
+	private static final int MAX_PENDING_TRIGGERS = 64;
+
+	private final long[] spikeTimes = new long[SPIKE_CAPACITY];
+	/** spikes ever seen; spike n lives at n % SPIKE_CAPACITY */
+	private long spikeTotal;
+	private final long[] windowSamples = new long[WINDOW_MILLIS.length];
+	/** oldest spike still inside each window */
+	private final long[] windowTail = new long[WINDOW_MILLIS.length];
+	private long startPosition = -1;
+	private long position;
+
+	private final float[] rateHistory = new float[RATE_HISTORY_LENGTH];
+	private long rateHistoryTotal;
+	private long binEnd;
+	private int binCount;
+
+	private final long[] pendingTriggers = new long[MAX_PENDING_TRIGGERS];
+	private int pendingHead;
+	private int pendingCount;
+	private int psthPreSamples;
+	private int psthPostSamples;
+	private final int[] psthCounts = new int[PSTH_BINS];
+	private long psthTriggers;
+	private int sampleRate = TriggerAverager.DEFAULT_SAMPLE_RATE;
+
+	public FiringRateMeter() {
+		setWindows();
+		setPsthWindowMillis(TriggerAverager.DEFAULT_PRE_TRIGGER_MS,
+				TriggerAverager.DEFAULT_POST_TRIGGER_MS);
+	}
+
+	/**
+	 * Forget every spike, trigger and rate, as when the threshold changes.
+	 */
+	public synchronized void reset() {
+		spikeTotal = 0;
+		for (int w = 0; w < windowTail.length; w++) {
+			windowTail[w] = 0;
+		}
+		startPosition = -1;
+		rateHistoryTotal = 0;
+		binCount = 0;
+		pendingCount = 0;
+		resetPsth();
+	}
+
+	/**
+	 * Follow a change in the stream's sample rate, keeping the windows and
+	 * histogram as long in milliseconds. Everything starts over.
+	 */
+	public synchronized void setSampleRate(int rate) {
+		if (rate == sampleRate) {
+			return;
+		}
+		final float preMs = getPsthPreMillis();
+		final float postMs = getPsthPostMillis();
+		sampleRate = rate;
+		setWindows();
+		setPsthWindowMillis(preMs, postMs);
+		reset();
+	}
+
+	private void setWindows() {
+		for (int w = 0; w < WINDOW_MILLIS.length; w++) {
+			windowSamples[w] = msToSamples(WINDOW_MILLIS[w]);
+		}
+	}
+
+	/**
+	 * Match the histogram to the trigger averager's sweep. The histogram
+	 * starts over.
+	 */
+	public synchronized void setPsthWindowMillis(float preMs, float postMs) {
+		psthPreSamples = Math.max(0, msToSamples(preMs));
+		psthPostSamples = Math.max(1, msToSamples(postMs));
+		pendingCount = 0;
+		resetPsth();
+	}
+
+	private void resetPsth() {
+		for (int b = 0; b < PSTH_BINS; b++) {
+			psthCounts[b] = 0;
+		}
+		psthTriggers = 0;
+	}
+
+	@Override
+	public synchronized void onSpike(long sampleIndex, int cluster) {
+		advanceTo(sampleIndex);
+		spikeTimes[(int) (spikeTotal % SPIKE_CAPACITY)] = sampleIndex;
+		spikeTotal++;
+		binCount++;
+	}
+
+	@Override
+	public synchronized void onStreamPosition(long sampleIndex) {
+		advanceTo(sampleIndex);
+	}
+
+	/**
+	 * Queue a trigger until the spikes after it have been seen. If too many
+	 * are waiting the oldest is given up.
+	 */
+	@Override
+	public synchronized void onTrigger(long sampleIndex) {
+		if (pendingCount == MAX_PENDING_TRIGGERS) {
+			pendingHead = (pendingHead + 1) % MAX_PENDING_TRIGGERS;
+			pendingCount--;
+		}
+		pendingTriggers[(pendingHead + pendingCount) % MAX_PENDING_TRIGGERS] = sampleIndex;
+		pendingCount++;
+	}
+
+	/**
+	 * Every spike before {@code now} has been reported: close off rate
+	 * history bins, slide the windows and fold finished triggers into the
+	 * histogram.
+	 */
+	private void advanceTo(long now) {
+		if (startPosition < 0) {
+			startPosition = now;
+			binEnd = now + windowSamples[0];
+		}
+		if (now <= position) {
+			return;
+		}
+		position = now;
+
+		final long binSamples = windowSamples[0];
+		if (now - binEnd > RATE_HISTORY_LENGTH * binSamples) {
+			// a long gap; everything in the history is zero now
+			final long skipped = (now - binEnd) / binSamples;
+			rateHistoryTotal += skipped;
+			binEnd += skipped * binSamples;
+			for (int i = 0; i < RATE_HISTORY_LENGTH; i++) {
+				rateHistory[i] = 0;
+			}
+			binCount = 0;
+		}
+		while (now >= binEnd) {
+			rateHistory[(int) (rateHistoryTotal % RATE_HISTORY_LENGTH)] = binCount
+					* 1000f / WINDOW_MILLIS[0];
+			rateHistoryTotal++;
+			binCount = 0;
+			binEnd += binSamples;
+		}
+
+		final long oldest = Math.max(0, spikeTotal - SPIKE_CAPACITY);
+		for (int w = 0; w < windowTail.length; w++) {
+			long tail = Math.max(windowTail[w], oldest);
+			while (tail < spikeTotal
+					&& spikeTimes[(int) (tail % SPIKE_CAPACITY)] <= now
+							- windowSamples[w]) {
+				tail++;
+			}
+			windowTail[w] = tail;
+		}
+
+		while (pendingCount > 0) {
+			final long trigger = pendingTriggers[pendingHead];
+			if (trigger + psthPostSamples > now) {
+				break;
+			}
+			pendingHead = (pendingHead + 1) % MAX_PENDING_TRIGGERS;
+			pendingCount--;
+			addToPsth(trigger);
+		}
+	}
+
+	/**
+	 * Bin the remembered spikes that fall in the window around
+	 * {@code trigger}.
+	 */
+	private void addToPsth(long trigger) {
+		final long from = trigger - psthPreSamples;
+		final long length = psthPreSamples + psthPostSamples;
+		// spike times are in order, so find the first one in the window
+		long lo = Math.max(0, spikeTotal - SPIKE_CAPACITY);
+		long hi = spikeTotal;
+		while (lo < hi) {
+			final long mid = (lo + hi) >>> 1;
+			if (spikeTimes[(int) (mid % SPIKE_CAPACITY)] < from) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		for (long n = lo; n < spikeTotal; n++) {
+			final long offset = spikeTimes[(int) (n % SPIKE_CAPACITY)] - from;
+			if (offset >= length) {
+				break;
+			}
+			psthCounts[(int) (offset * PSTH_BINS / length)]++;
+		}
+		psthTriggers++;
+	}
+
+	/**
+	 * @return spikes per second over the last {@code WINDOW_MILLIS[window]},
+	 *         or over everything so far if the meter is younger than that
+	 */
+	public synchronized float getRate(int window) {
+		if (startPosition < 0) {
+			return 0;
+		}
+		final long span = Math.min(windowSamples[window], position
+				- startPosition);
+		if (span <= 0) {
+			return 0;
+		}
+		return (spikeTotal - windowTail[window]) * (float) sampleRate / span;
+	}
+
+	/**
+	 * Copy the rate history, oldest first, into {@code dst}.
+	 * 
+	 * @return how many points were copied
+	 */
+	public synchronized int getRateHistory(float[] dst) {
+		final int n = (int) Math.min(Math.min(rateHistoryTotal,
+				RATE_HISTORY_LENGTH), dst.length);
+		for (int i = 0; i < n; i++) {
+			dst[i] = rateHistory[(int) ((rateHistoryTotal - n + i) % RATE_HISTORY_LENGTH)];
+		}
+		return n;
+	}
+
+	/**
+	 * Copy the histogram into {@code dst} as spikes per second in each bin,
+	 * averaged over the triggers so far. Bin 0 starts
+	 * {@link #getPsthPreMillis()} before the trigger.
+	 * 
+	 * @return the number of triggers averaged
+	 */
+	public synchronized long getPsth(float[] dst) {
+		final float binSeconds = (psthPreSamples + psthPostSamples)
+				/ (float) sampleRate / PSTH_BINS;
+		for (int b = 0; b < PSTH_BINS; b++) {
+			dst[b] = psthTriggers > 0 ? psthCounts[b] / (psthTriggers * binSeconds)
+					: 0;
+		}
+		return psthTriggers;
+	}
+
+	public synchronized float getPsthPreMillis() {
+		return psthPreSamples * 1000f / sampleRate;
+	}
+
+	public synchronized float getPsthPostMillis() {
+		return psthPostSamples * 1000f / sampleRate;
+	}
+
+	public synchronized long getSpikeTotal() {
+		return spikeTotal;
+	}
+
+	private int msToSamples(float ms) {
+		return Math.round(ms * sampleRate / 1000);
+	}
+}
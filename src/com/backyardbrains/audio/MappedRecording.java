@@ -0,0 +1,213 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+import android.util.Log;
+
+/**
+ * Random access to the samples of a 16-bit recording without reading it
+ * into the heap. The data chunk is mapped a page at a time as samples from
+ * that page are asked for, and only the last few pages stay mapped, so an
+ * hour-long file costs no more memory than a short one. Samples are
+ * addressed per channel; a multi-channel file is picked apart as it is
+ * read.
+ * 
+ * When the recording has a {@link PeakSummary} it is opened too, so callers
+ * can draw zoomed-out views from that instead of the samples.
+ */
+public class MappedRecording {
+	private static final String TAG = MappedRecording.class.getCanonicalName();
+	/** samples of each channel per mapped page */
+	public static final int PAGE_SAMPLES = 1 << 20;
+	private static final int MAPPED_PAGES = 4;
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final long dataOffset;
+	private final long sampleCount;
+	private final int sampleRate;
+	private final int channels;
+	private final PeakSummary summary;
+	/** which page each slot holds, or -1 */
+	private final long[] pageIndex = new long[MAPPED_PAGES];
+	private final ShortBuffer[] pages = new ShortBuffer[MAPPED_PAGES];
+	private int nextSlot;
+
+	/**
+	 * Open {@code wav} and, if it has a current sidecar, its peak summary.
+	 * 
+	 * @throws IOException
+	 *             if the file can't be read or isn't 16-bit
+	 */
+	public MappedRecording(File wav) throws IOException {
+		file = wav;
+		raf = new RandomAccessFile(wav, "r");
+		try {
+			channel = raf.getChannel();
+			final WavHeader header = WavHeader.read(channel);
+			if (header.getBitsPerSample() != 16 || header.getChannels() < 1) {
+				throw new IOException("Only 16-bit recordings can be reviewed");
+			}
+			channels = header.getChannels();
+			dataOffset = header.getDataOffset();
+			sampleCount = header.getDataSize() / header.getBlockAlign();
+			sampleRate = header.getSampleRate();
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+		summary = openSummary(wav, channels);
+		for (int i = 0; i < MAPPED_PAGES; i++) {
+			pageIndex[i] = -1;
+		}
+	}
+
+	private static PeakSummary openSummary(File wav, int channels) {
+		if (!PeakSummary.hasCurrentSidecar(wav)) {
+			return null;
+		}
+		try {
+			final PeakSummary summary = PeakSummary.open(PeakSummary
+					.sidecarFor(wav));
+			if (summary.getChannels() != channels) {
+				throw new IOException("summary has " + summary.getChannels()
+						+ " channels");
+			}
+			return summary;
+		} catch (IOException e) {
+			Log.w(TAG, "Ignoring peak summary of " + wav.getName() + ": "
+					+ e.getMessage());
+			return null;
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return how many samples each channel holds
+	 */
+	public long getSampleCount() {
+		return sampleCount;
+	}
+
+	public int getChannels() {
+		return channels;
+	}
+
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * @return the recording's peak summary, or null if it has none
+	 */
+	public PeakSummary getSummary() {
+		return summary;
+	}
+
+	/**
+	 * Copy {@code length} samples of the first channel starting at
+	 * {@code first} into {@code dst}, stopping at the end of the recording.
+	 * 
+	 * @return the number of samples copied
+	 */
+	public int readRange(long first, short[] dst, int offset, int length)
+			throws IOException {
+		return readRange(0, first, dst, offset, length);
+	}
+
+	/**
+	 * As {@link #readRange(long, short[], int, int)} for {@code channel}.
+	 */
+	public synchronized int readRange(int channel, long first, short[] dst,
+			int offset, int length) throws IOException {
+		if (first < 0) {
+			first = 0;
+		}
+		final int total = (int) Math.max(0,
+				Math.min(length, sampleCount - first));
+		int copied = 0;
+		while (copied < total) {
+			final long sample = first + copied;
+			final ShortBuffer page = page(sample / PAGE_SAMPLES);
+			final int inPage = (int) (sample % PAGE_SAMPLES);
+			final int n = Math.min(total - copied, page.limit() / channels
+					- inPage);
+			if (channels == 1) {
+				page.position(inPage);
+				page.get(dst, offset + copied, n);
+			} else {
+				int at = inPage * channels + channel;
+				for (int i = 0; i < n; i++, at += channels) {
+					dst[offset + copied + i] = page.get(at);
+				}
+			}
+			copied += n;
+		}
+		return copied;
+	}
+
+	/**
+	 * @return the mapped page, mapping it in place of the oldest one if
+	 *         needed
+	 */
+	private ShortBuffer page(long index) throws IOException {
+		for (int i = 0; i < MAPPED_PAGES; i++) {
+			if (pageIndex[i] == index) {
+				return pages[i];
+			}
+		}
+		final long first = index * PAGE_SAMPLES;
+		final long samples = Math.min(PAGE_SAMPLES, sampleCount - first);
+		final int slot = nextSlot;
+		nextSlot = (nextSlot + 1) % MAPPED_PAGES;
+		pages[slot] = channel
+				.map(FileChannel.MapMode.READ_ONLY,
+						dataOffset + first * 2 * channels,
+						samples * 2 * channels).order(ByteOrder.LITTLE_ENDIAN)
+				.asShortBuffer();
+		pageIndex[slot] = index;
+		return pages[slot];
+	}
+
+	/**
+	 * Release the file. Mapped pages go once they are no longer referenced.
+	 */
+	public synchronized void close() {
+		for (int i = 0; i < MAPPED_PAGES; i++) {
+			pages[i] = null;
+			pageIndex[i] = -1;
+		}
+		try {
+			raf.close();
+		} catch (IOException e) {
+			Log.w(TAG, "Couldn't close " + file.getName());
+		}
+	}
+}
@@ -20,21 +20,13 @@
 package com.backyardbrains.audio;
 
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 
-import android.content.Context;
-import android.content.SharedPreferences;
-import android.media.AudioFormat;
-import android.media.AudioRecord;
-import android.media.MediaRecorder.AudioSource;
 import android.util.Log;
 
-import com.backyardbrains.R;
-
 /**
- * A specialized thread to manage Android's {@link AudioRecord} objects and
- * continuously poll out information to an accompanying {@link RecievesAudio}
- * interface.
+ * A specialized thread that continuously polls an {@link AudioSource} (the
+ * microphone by default) and pushes each block out to an accompanying
+ * {@link ReceivesAudio} interface.
  * 
  * @author Nathan Dotz <nate@backyardbrains.com>
  * 
@@ -43,44 +35,65 @@ public class MicListener extends Thread {
 	private static final String TAG = MicListener.class.getCanonicalName();
 
 	/**
-	 * @TODO turn this into a list of sample rates to loop over
+	 * blocks kept in flight; the service copies each block out before
+	 * returning, so the loop only ever needs the one it is filling
 	 */
-	private static final int sampleRate = 44100;
-	private boolean mDone = false;
-	private AudioRecord recorder;
-	private ByteBuffer audioInfo;
+	private static final int BLOCK_POOL_SIZE = 1;
+	private volatile boolean mDone = false;
+	private final AudioSource source;
+	private final int readAmt;
+	private SampleBlockPool blockPool;
 	private ReceivesAudio service;
-	private int buffersize;
 
 	/**
-	 * Find the appropriate buffer size for working on this device and allocate
-	 * space for the audioInfo {@link ByteBuffer} based on that size, then tell
-	 * Android we'll be using high-priority audio-processing.
+	 * Listen to the device microphone, reading a full buffer each time.
 	 */
 	MicListener() {
-		setBufferSize();
-		audioInfo = ByteBuffer.allocateDirect(buffersize);
-		audioInfo.order(ByteOrder.nativeOrder());
-		android.os.Process
-				.setThreadPriority(android.os.Process.THREAD_PRIORITY_URGENT_AUDIO);
+		this(new MicrophoneSource(), 1);
+	}
+
+	/**
+	 * @param source
+	 *            where samples come from
+	 * @param readSpeedDivisor
+	 *            read blocks this many times smaller than the source's
+	 *            natural buffer size
+	 */
+	public MicListener(AudioSource source, int readSpeedDivisor) {
+		this.source = source;
+		final int frameBytes = 2 * source.getChannelCount();
+		final int wanted = source.getBufferSizeInBytes() / readSpeedDivisor;
+		readAmt = Math.max(frameBytes, wanted - wanted % frameBytes);
 	}
 
-	private void setBufferSize() {
-		buffersize = AudioRecord.getMinBufferSize(sampleRate,
-				AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
-		Log.d(TAG, "Found buffer size of :" + buffersize);
+	/**
+	 * @return the number of samples of each channel handed out per block
+	 */
+	public int getBlockSizeInSamples() {
+		return readAmt / 2 / source.getChannelCount();
+	}
+
+	public int getSampleRate() {
+		return source.getSampleRate();
+	}
+
+	/**
+	 * @return how many channels are interleaved in each block
+	 */
+	public int getChannelCount() {
+		return source.getChannelCount();
 	}
 
 	/**
 	 * An alternate to {@link Thread#start()}, which allows us to provide a
-	 * service which implements {@link RecievesAudio} then start the thread as
+	 * service which implements {@link ReceivesAudio} then start the thread as
 	 * normal. This allows for {@link MicListener#run()} to poll the
-	 * implementing interface with new data from {@link AudioRecord} as it
+	 * implementing interface with new data from the {@link AudioSource} as it
 	 * becomes available.
 	 * 
 	 * @see com.backyardbrains.audio.AudioService#turnOnMicThread()
 	 * @param svc
-	 *            the service that implements the {@link RecievesAudio}
+	 *            the service that implements the {@link ReceivesAudio}
 	 */
 	public void start(ReceivesAudio svc) {
 		service = svc;
@@ -94,88 +107,64 @@ public class MicListener extends Thread {
 	}
 
 	/**
-	 * Get a new recorder, check to see that we can actually record, start
-	 * recording, and then continuously read audio from the recording interface,
+	 * Open the source, tell Android we'll be using high-priority
+	 * audio-processing, and then continuously read audio from the source,
 	 * while pushing it out to the receiving service that implements
-	 * {@link RecievesAudio} (set in {@link MicListener#start(RecievesAudio)}.
+	 * {@link ReceivesAudio} (set in {@link MicListener#start(ReceivesAudio)}.
 	 * 
 	 * @see java.lang.Thread#run()
 	 */
 	@Override
 	public void run() {
 		Log.d(TAG, "Thread Launched");
-		recorder = null;
-
-		final String prefsname = ((AudioService) service).getResources().getString(R.string.global_prefs);
-		final String speedPrefsKey = ((AudioService) service).getResources().getString(R.string.microphone_read_speed);
-		
-		SharedPreferences prefs = ((AudioService) service).getSharedPreferences(prefsname, Context.MODE_WORLD_READABLE);
-		String preferencesSpeed = prefs.getString(speedPrefsKey, "1");
-		final int readSpeedDivisor = Integer.parseInt(preferencesSpeed);
+		android.os.Process
+				.setThreadPriority(android.os.Process.THREAD_PRIORITY_URGENT_AUDIO);
 		try {
-			recorder = newRecorder();
-			if (recorder.getState() != AudioRecord.STATE_INITIALIZED) {
-				throw new RuntimeException(recorder.toString());
-			}
-			Log.d(TAG, "Recorder Created");
-
-			recorder.startRecording();
-			Log.d(TAG, "Recorder Started");
-			int readAmt = audioInfo.limit()/readSpeedDivisor;
-			((AudioService) service).setMicListenerBufferSizeInSamples(readAmt/2);
-			while (!mDone && recorder.read(audioInfo, readAmt) > 0) {
-				audioInfo.clear();
-				byte[] swapper = new byte[readAmt];
-				audioInfo.get(swapper);
-				ByteBuffer derp = ByteBuffer.wrap(swapper);
-				derp.order(ByteOrder.nativeOrder());
-				synchronized (service) {
-					service.receiveAudio(derp);
+			source.open();
+			blockPool = new SampleBlockPool(readAmt, BLOCK_POOL_SIZE);
+			while (!mDone) {
+				final SampleBlock block = blockPool.acquire();
+				try {
+					final ByteBuffer audioInfo = block.getBuffer();
+					final int read = source.read(audioInfo, readAmt);
+					if (read <= 0) {
+						break;
+					}
+					// a short final read from a file: pad with silence
+					audioInfo.position(read);
+					while (audioInfo.hasRemaining()) {
+						audioInfo.put((byte) 0);
+					}
+					audioInfo.clear();
+					service.receiveAudio(audioInfo);
+				} finally {
+					block.release();
 				}
-				audioInfo.clear();
 			}
 		} catch (Throwable e) {
-			Log.e(TAG, "Could not open audio souce", e);
+			if (!mDone) {
+				Log.e(TAG, "Could not open audio souce", e);
+			}
 		} finally {
 			if (!mDone)
 				requestStop();
 		}
 	}
 
-	private void stopRecorder() {
-		try {
-			recorder.stop();
-			recorder.release();
-		} catch (IllegalStateException e) {
-			Log.w(TAG, "Caught Illegal State Exception: " + e.toString());
-		}
-		recorder = null;
-		Log.d(TAG, "Recorder Released");
-	}
-
 	/**
-	 * Convenience function for spitting out new {@link AudioRecord} objects
-	 * 
-	 * @return an {@link AudioRecord} object preset to match the rest of the
-	 *         application
+	 * @return the pool feeding the capture loop, or null before the source
+	 *         has opened; its allocation count should stay at zero
 	 */
-	private AudioRecord newRecorder() {
-		return new AudioRecord(AudioSource.DEFAULT, sampleRate,
-				AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT,
-				buffersize);
+	public SampleBlockPool getBlockPool() {
+		return blockPool;
 	}
 
 	/**
-	 * clean up {@link AudioRecord} resource before exiting thread.
+	 * clean up the {@link AudioSource} before exiting thread.
 	 */
 	public void requestStop() {
 		mDone = true;
-		if (recorder != null) {
-			if (recorder.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING) {
-				stopRecorder();
-			}
-			recorder = null;
-		}
+		source.close();
 		// @TODO - figure out why joining here causes service to not stop.
 	}
 }
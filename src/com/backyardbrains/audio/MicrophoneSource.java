@@ -0,0 +1,187 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+import android.util.Log;
+
+/**
+ * Live audio from the device's default input through {@link AudioRecord},
+ * at the preferred rate if the device supports it and otherwise at the
+ * first of {@link #SAMPLE_RATES} it does. Stereo inputs such as a
+ * two-channel SpikerBox can be opened as stereo, in which case the
+ * samples come out interleaved; a device that can't record stereo at any
+ * rate falls back to mono.
+ */
+public class MicrophoneSource implements AudioSource {
+	private static final String TAG = MicrophoneSource.class
+			.getCanonicalName();
+
+	/** rates to fall back on, most useful first */
+	public static final int[] SAMPLE_RATES = { 44100, 48000, 22050, 16000,
+			11025, 8000 };
+	/** read size to use if the device rejects every rate */
+	private static final int FALLBACK_BUFFER_SIZE = 4096;
+	private final int sampleRate;
+	private final int channels;
+	private AudioRecord recorder;
+	private int buffersize;
+
+	public MicrophoneSource() {
+		this(SAMPLE_RATES[0]);
+	}
+
+	public MicrophoneSource(int preferredRate) {
+		this(preferredRate, 1);
+	}
+
+	/**
+	 * @param preferredChannels
+	 *            1 for mono, 2 for stereo
+	 */
+	public MicrophoneSource(int preferredRate, int preferredChannels) {
+		int channelCount = preferredChannels == 2 ? 2 : 1;
+		int rate = findRate(preferredRate, channelCount);
+		if (rate <= 0 && channelCount == 2) {
+			Log.w(TAG, "No stereo input, recording mono");
+			channelCount = 1;
+			rate = findRate(preferredRate, channelCount);
+		}
+		int size = getMinBufferSize(rate, channelCount);
+		if (size <= 0) {
+			Log.w(TAG, "No sample rate reported a buffer size");
+			rate = SAMPLE_RATES[0];
+			size = FALLBACK_BUFFER_SIZE * channelCount;
+		}
+		sampleRate = rate;
+		channels = channelCount;
+		buffersize = size;
+		Log.d(TAG, "Recording " + channels + " channels at " + sampleRate
+				+ " Hz, buffer size of " + buffersize);
+	}
+
+	/**
+	 * @return {@code preferredRate} if the device can record
+	 *         {@code channelCount} channels at it, otherwise the first of
+	 *         {@link #SAMPLE_RATES} it can, or -1 if none
+	 */
+	private static int findRate(int preferredRate, int channelCount) {
+		if (getMinBufferSize(preferredRate, channelCount) > 0) {
+			return preferredRate;
+		}
+		for (int rate : SAMPLE_RATES) {
+			if (getMinBufferSize(rate, channelCount) > 0) {
+				return rate;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the smallest buffer 16-bit recording of {@code channelCount}
+	 *         channels at {@code rate} needs, or a value &lt;= 0 if the
+	 *         device can't record that way
+	 */
+	private static int getMinBufferSize(int rate, int channelCount) {
+		if (rate <= 0) {
+			return -1;
+		}
+		return AudioRecord.getMinBufferSize(rate,
+				getChannelConfig(channelCount), AudioFormat.ENCODING_PCM_16BIT);
+	}
+
+	private static int getChannelConfig(int channelCount) {
+		return channelCount == 2 ? AudioFormat.CHANNEL_IN_STEREO
+				: AudioFormat.CHANNEL_IN_MONO;
+	}
+
+	/**
+	 * @return those of {@link #SAMPLE_RATES} the device reports it can
+	 *         record at
+	 */
+	public static int[] getSupportedSampleRates() {
+		final int[] supported = new int[SAMPLE_RATES.length];
+		int n = 0;
+		for (int rate : SAMPLE_RATES) {
+			if (getMinBufferSize(rate, 1) > 0) {
+				supported[n++] = rate;
+			}
+		}
+		final int[] result = new int[n];
+		System.arraycopy(supported, 0, result, 0, n);
+		return result;
+	}
+
+	@Override
+	public void open() throws IOException {
+		recorder = new AudioRecord(MediaRecorder.AudioSource.DEFAULT, sampleRate,
+				getChannelConfig(channels), AudioFormat.ENCODING_PCM_16BIT,
+				buffersize);
+		if (recorder.getState() != AudioRecord.STATE_INITIALIZED) {
+			throw new IOException(recorder.toString());
+		}
+		Log.d(TAG, "Recorder Created");
+		recorder.startRecording();
+		Log.d(TAG, "Recorder Started");
+	}
+
+	@Override
+	public int read(ByteBuffer dst, int sizeInBytes) {
+		final AudioRecord r = recorder;
+		return r == null ? -1 : r.read(dst, sizeInBytes);
+	}
+
+	@Override
+	public void close() {
+		final AudioRecord r = recorder;
+		recorder = null;
+		if (r == null) {
+			return;
+		}
+		try {
+			if (r.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING) {
+				r.stop();
+			}
+			r.release();
+		} catch (IllegalStateException e) {
+			Log.w(TAG, "Caught Illegal State Exception: " + e.toString());
+		}
+		Log.d(TAG, "Recorder Released");
+	}
+
+	@Override
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	@Override
+	public int getChannelCount() {
+		return channels;
+	}
+
+	@Override
+	public int getBufferSizeInBytes() {
+		return buffersize;
+	}
+}
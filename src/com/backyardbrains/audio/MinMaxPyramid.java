@@ -0,0 +1,257 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Min/max summary of the live audio history at several resolutions. Level 0
+ * holds the minimum and maximum of every {@link #BASE_BUCKET_SIZE} samples,
+ * and each level above it merges pairs of buckets from the level below, so
+ * a window of any width can be drawn from about one bucket per pixel column
+ * instead of touching every sample.
+ * 
+ * Buckets are addressed by absolute sample index, like {@link RingBuffer},
+ * and the summary is updated incrementally as blocks arrive at a constant
+ * amortised cost per sample.
+ */
+public class MinMaxPyramid {
+	public static final int BASE_BUCKET_SHIFT = 4;
+	public static final int BASE_BUCKET_SIZE = 1 << BASE_BUCKET_SHIFT;
+	/** stop adding levels once the top one holds this few buckets */
+	private static final int MIN_TOP_LEVEL_BUCKETS = 64;
+
+	private final int levels;
+	private final short[][] mins;
+	private final short[][] maxs;
+	private final int[] masks;
+	/** number of complete buckets ever written at each level */
+	private final long[] bucketsWritten;
+	/** the bucket being filled at each level */
+	private final short[] partialMin;
+	private final short[] partialMax;
+	private final int[] partialCount;
+	private short[] scratch;
+
+	/**
+	 * @param historySize
+	 *            how many samples of history to summarise, normally the
+	 *            capacity of the {@link RingBuffer} being drawn
+	 */
+	public MinMaxPyramid(int historySize) {
+		int buckets = Integer.highestOneBit(Math.max(historySize
+				>> BASE_BUCKET_SHIFT, MIN_TOP_LEVEL_BUCKETS));
+		if (buckets < (historySize >> BASE_BUCKET_SHIFT)) {
+			buckets <<= 1;
+		}
+		int n = 1;
+		while ((buckets >> n) >= MIN_TOP_LEVEL_BUCKETS) {
+			n++;
+		}
+		levels = n;
+		mins = new short[levels][];
+		maxs = new short[levels][];
+		masks = new int[levels];
+		for (int l = 0; l < levels; l++) {
+			mins[l] = new short[buckets >> l];
+			maxs[l] = new short[buckets >> l];
+			masks[l] = (buckets >> l) - 1;
+		}
+		bucketsWritten = new long[levels];
+		partialMin = new short[levels];
+		partialMax = new short[levels];
+		partialCount = new int[levels];
+	}
+
+	/**
+	 * Fold a block of native order 16-bit PCM into the summary.
+	 */
+	public synchronized void add(ByteBuffer incoming) {
+		incoming.clear();
+		final ShortBuffer sb = incoming.asShortBuffer();
+		final int n = sb.remaining();
+		if (scratch == null || scratch.length < n) {
+			scratch = new short[n];
+		}
+		sb.get(scratch, 0, n);
+		fold(scratch, n);
+	}
+
+	/**
+	 * Move the end of the summary forward to absolute sample {@code index}
+	 * as silence, the way {@link RingBuffer#skipTo(long)} moves the history
+	 * it summarises, so the two stay lined up when a writer misses some
+	 * blocks. Does nothing unless {@code index} is ahead of
+	 * {@link #getWritten()}.
+	 */
+	public synchronized void skipTo(long index) {
+		long gap = index - getWritten();
+		if (gap <= 0) {
+			return;
+		}
+		if (scratch == null) {
+			scratch = new short[BASE_BUCKET_SIZE];
+		}
+		// the silence costs what the missed blocks would have
+		while (gap > 0) {
+			final int n = (int) Math.min(gap, scratch.length);
+			Arrays.fill(scratch, 0, n, (short) 0);
+			fold(scratch, n);
+			gap -= n;
+		}
+	}
+
+	/**
+	 * @return the absolute index one past the newest sample summarised
+	 */
+	public synchronized long getWritten() {
+		return (bucketsWritten[0] << BASE_BUCKET_SHIFT) + partialCount[0];
+	}
+
+	/**
+	 * Fold {@code samples[0..n)} into the level 0 bucket being filled,
+	 * committing each one that completes.
+	 */
+	private void fold(short[] samples, int n) {
+		short lo = partialMin[0];
+		short hi = partialMax[0];
+		int count = partialCount[0];
+		for (int i = 0; i < n; i++) {
+			final short s = samples[i];
+			if (count == 0) {
+				lo = s;
+				hi = s;
+			} else if (s < lo) {
+				lo = s;
+			} else if (s > hi) {
+				hi = s;
+			}
+			if (++count == BASE_BUCKET_SIZE) {
+				commit(0, lo, hi);
+				count = 0;
+			}
+		}
+		partialMin[0] = lo;
+		partialMax[0] = hi;
+		partialCount[0] = count;
+	}
+
+	/**
+	 * Store a finished bucket and merge it into the level above.
+	 */
+	private void commit(int level, short lo, short hi) {
+		while (true) {
+			final int slot = (int) (bucketsWritten[level] & masks[level]);
+			mins[level][slot] = lo;
+			maxs[level][slot] = hi;
+			bucketsWritten[level]++;
+			final int up = level + 1;
+			if (up == levels) {
+				return;
+			}
+			if (partialCount[up] == 0) {
+				partialMin[up] = lo;
+				partialMax[up] = hi;
+				partialCount[up] = 1;
+				return;
+			}
+			lo = (short) Math.min(lo, partialMin[up]);
+			hi = (short) Math.max(hi, partialMax[up]);
+			partialCount[up] = 0;
+			level = up;
+		}
+	}
+
+	/**
+	 * @return the coarsest level whose buckets are no wider than
+	 *         {@code samplesPerColumn}, or -1 if even level 0 is too coarse
+	 */
+	public int levelFor(int samplesPerColumn) {
+		if (samplesPerColumn < BASE_BUCKET_SIZE) {
+			return -1;
+		}
+		int level = 0;
+		while (level + 1 < levels
+				&& getBucketSize(level + 1) <= samplesPerColumn) {
+			level++;
+		}
+		return level;
+	}
+
+	public int getLevels() {
+		return levels;
+	}
+
+	/**
+	 * @return how many samples one bucket at {@code level} covers
+	 */
+	public int getBucketSize(int level) {
+		return BASE_BUCKET_SIZE << level;
+	}
+
+	/**
+	 * Fill {@code lo[i]} and {@code hi[i]} with the extremes of column
+	 * {@code i}, where column {@code i} is {@code bucketsPerColumn} buckets of
+	 * {@code level} starting at the bucket holding
+	 * {@code firstSample + i * bucketsPerColumn * getBucketSize(level)}.
+	 * Buckets that have been overwritten are skipped, and filling stops at
+	 * the newest complete bucket.
+	 * 
+	 * @return the number of columns filled
+	 */
+	public synchronized int readColumns(int level, long firstSample,
+			int bucketsPerColumn, int columns, short[] lo, short[] hi) {
+		final int shift = BASE_BUCKET_SHIFT + level;
+		final long newest = bucketsWritten[level];
+		final long oldest = Math.max(0, newest - mins[level].length);
+		final short[] levelMin = mins[level];
+		final short[] levelMax = maxs[level];
+		final int mask = masks[level];
+		long bucket = Math.max(0, firstSample) >> shift;
+		int filled = 0;
+		for (int c = 0; c < columns; c++) {
+			final long end = bucket + bucketsPerColumn;
+			if (end > newest) {
+				break;
+			}
+			short cMin = Short.MAX_VALUE;
+			short cMax = Short.MIN_VALUE;
+			for (long b = Math.max(bucket, oldest); b < end; b++) {
+				final int slot = (int) (b & mask);
+				if (levelMin[slot] < cMin) {
+					cMin = levelMin[slot];
+				}
+				if (levelMax[slot] > cMax) {
+					cMax = levelMax[slot];
+				}
+			}
+			if (cMin > cMax) {
+				cMin = 0;
+				cMax = 0;
+			}
+			lo[filled] = cMin;
+			hi[filled] = cMax;
+			filled++;
+			bucket = end;
+		}
+		return filled;
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+/**
+ * Base for sources that generate or replay samples on their own schedule.
+ * When running in real time, {@link #pace(int)} sleeps so samples come out
+ * no faster than the wall clock would deliver them from a microphone;
+ * otherwise samples are produced as fast as the consumer can take them.
+ */
+public abstract class PacedAudioSource implements AudioSource {
+	private final boolean realTime;
+	private long startNanos;
+	private long samplesDelivered;
+
+	protected PacedAudioSource(boolean realTime) {
+		this.realTime = realTime;
+	}
+
+	/**
+	 * Reset the pacing clock; call from {@link #open()}.
+	 */
+	protected void startClock() {
+		startNanos = System.nanoTime();
+		samplesDelivered = 0;
+	}
+
+	/**
+	 * Account for {@code samples} frames about to be handed out, sleeping
+	 * first if that would run ahead of real time.
+	 */
+	protected void pace(int samples) {
+		samplesDelivered += samples;
+		if (!realTime) {
+			return;
+		}
+		final long dueNanos = startNanos + samplesDelivered * 1000000000L
+				/ getSampleRate();
+		final long waitMillis = (dueNanos - System.nanoTime()) / 1000000L;
+		if (waitMillis > 0) {
+			try {
+				Thread.sleep(waitMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Mono unless a subclass says otherwise.
+	 */
+	@Override
+	public int getChannelCount() {
+		return 1;
+	}
+
+	public boolean isRealTime() {
+		return realTime;
+	}
+}
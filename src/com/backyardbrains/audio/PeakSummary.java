@@ -0,0 +1,548 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Multi-resolution min/max summary of a recording, kept in a {@code .peaks}
+ * sidecar next to the WAV file so the shape of a long recording can be
+ * drawn without reading its samples. Level 0 holds the minimum and maximum
+ * of every {@link #BASE_BUCKET_SIZE} samples and each level above merges
+ * {@link #LEVEL_FACTOR} buckets of the one below.
+ * 
+ * The sidecar is written by {@link Writer} while recording, or afterwards
+ * by {@link #generate(File)} for files that don't have one. Reading maps the
+ * file, so opening a summary costs nothing until its buckets are used. A
+ * sidecar a Writer still has open is never current, and is left alone by
+ * {@link #generate(File)}.
+ * 
+ * Layout, little-endian: a fixed header (magic, version, sample rate,
+ * channels, base bucket size, level factor, level count, sample count and a
+ * bucket count for each of {@link #MAX_LEVELS} levels), then each level's
+ * buckets in turn, each bucket a (min, max) pair of shorts for every
+ * channel. Sample and bucket counts are per channel, so a mono summary is
+ * just the single-channel case of the same layout.
+ */
+public class PeakSummary {
+	public static final String SIDECAR_EXTENSION = ".peaks";
+	public static final int BASE_BUCKET_SIZE = 256;
+	public static final int LEVEL_FACTOR = 4;
+	public static final int MAX_LEVELS = 12;
+	/** the files every unclosed {@link Writer} is writing */
+	private static final Set<File> openWriters = new HashSet<File>();
+	private static final int MAGIC = 0x42594250; // "BYBP"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 7 * 4 + 8 + MAX_LEVELS * 8;
+
+	private final int sampleRate;
+	private final int channels;
+	private final long sampleCount;
+	private final int levels;
+	private final long[] bucketCounts;
+	/** (min, max) pairs for each level, one per channel per bucket */
+	private final ShortBuffer[] buckets;
+
+	private PeakSummary(ByteBuffer map) throws IOException {
+		map.order(ByteOrder.LITTLE_ENDIAN);
+		if (map.capacity() < HEADER_SIZE || map.getInt(0) != MAGIC
+				|| map.getInt(4) != VERSION) {
+			throw new IOException("Not a peak summary");
+		}
+		sampleRate = map.getInt(8);
+		channels = map.getInt(12);
+		if (channels < 1) {
+			throw new IOException("Bad peak summary channel count " + channels);
+		}
+		if (map.getInt(16) != BASE_BUCKET_SIZE
+				|| map.getInt(20) != LEVEL_FACTOR) {
+			throw new IOException("Unsupported peak summary layout");
+		}
+		levels = map.getInt(24);
+		sampleCount = map.getLong(28);
+		if (levels < 1 || levels > MAX_LEVELS) {
+			throw new IOException("Bad peak summary level count " + levels);
+		}
+		bucketCounts = new long[levels];
+		buckets = new ShortBuffer[levels];
+		long offset = HEADER_SIZE;
+		for (int l = 0; l < levels; l++) {
+			bucketCounts[l] = map.getLong(36 + l * 8);
+			final long bytes = bucketCounts[l] * 4 * channels;
+			if (bucketCounts[l] < 0 || offset + bytes > map.capacity()) {
+				throw new IOException("Peak summary is truncated");
+			}
+			map.limit((int) (offset + bytes));
+			map.position((int) offset);
+			buckets[l] = map.slice().order(ByteOrder.LITTLE_ENDIAN)
+					.asShortBuffer();
+			map.clear();
+			offset += bytes;
+		}
+	}
+
+	/**
+	 * @return where the sidecar for {@code wav} lives
+	 */
+	public static File sidecarFor(File wav) {
+		String name = wav.getName();
+		final int dot = name.lastIndexOf('.');
+		if (dot > 0) {
+			name = name.substring(0, dot);
+		}
+		return new File(wav.getParentFile(), name + SIDECAR_EXTENSION);
+	}
+
+	/**
+	 * @return true if {@code wav} has a finished sidecar written after its
+	 *         last change
+	 */
+	public static boolean hasCurrentSidecar(File wav) {
+		final File peaks = sidecarFor(wav);
+		return !isBeingWritten(peaks) && peaks.isFile()
+				&& peaks.lastModified() >= wav.lastModified();
+	}
+
+	/**
+	 * @return true while a {@link Writer} in this process has {@code peaks}
+	 *         open, as it does for the recording in progress
+	 */
+	public static boolean isBeingWritten(File peaks) {
+		synchronized (openWriters) {
+			return openWriters.contains(peaks.getAbsoluteFile());
+		}
+	}
+
+	/**
+	 * Map a sidecar file.
+	 * 
+	 * @throws IOException
+	 *             if it can't be read or was never finished
+	 */
+	public static PeakSummary open(File peaks) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(peaks, "r");
+		try {
+			final MappedByteBuffer map = raf.getChannel().map(
+					FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			return new PeakSummary(map);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Build the sidecar for a 16-bit recording that doesn't have one, in a
+	 * single streaming read of its data chunk. It is built under a temporary
+	 * name and renamed into place only if no {@link Writer} has taken the
+	 * sidecar meanwhile, so a half-built summary is never left behind.
+	 * 
+	 * @throws IOException
+	 *             if the recording can't be read or is still being recorded
+	 */
+	public static void generate(File wav) throws IOException {
+		final File peaks = sidecarFor(wav);
+		if (isBeingWritten(peaks)) {
+			throw new IOException(peaks.getName() + " is still being written");
+		}
+		final File temp = new File(peaks.getPath() + ".tmp");
+		try {
+			summarise(wav, temp);
+			synchronized (openWriters) {
+				if (isBeingWritten(peaks)) {
+					throw new IOException(peaks.getName()
+							+ " is still being written");
+				}
+				if (!temp.renameTo(peaks)) {
+					throw new IOException("Couldn't replace " + peaks.getName());
+				}
+			}
+		} finally {
+			temp.delete();
+		}
+	}
+
+	private static void summarise(File wav, File peaks) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(wav, "r");
+		try {
+			final FileChannel channel = raf.getChannel();
+			final WavHeader header = WavHeader.read(channel);
+			if (header.getBitsPerSample() != 16) {
+				throw new IOException("Only 16-bit recordings are summarised");
+			}
+			final Writer writer = new Writer(peaks, header.getSampleRate(),
+					header.getChannels());
+			try {
+				final ByteBuffer buf = ByteBuffer.allocateDirect(64 * 1024)
+						.order(ByteOrder.LITTLE_ENDIAN);
+				long position = header.getDataOffset();
+				final long end = position + header.getDataSize();
+				while (position < end) {
+					buf.clear();
+					buf.limit((int) Math.min(buf.capacity(), end - position) & ~1);
+					final int read = channel.read(buf, position);
+					if (read <= 0) {
+						break;
+					}
+					position += read;
+					buf.flip();
+					writer.add(buf);
+				}
+			} finally {
+				writer.close();
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	public int getChannels() {
+		return channels;
+	}
+
+	/**
+	 * @return how many samples of each channel were summarised
+	 */
+	public long getSampleCount() {
+		return sampleCount;
+	}
+
+	public int getLevels() {
+		return levels;
+	}
+
+	public long getBucketCount(int level) {
+		return bucketCounts[level];
+	}
+
+	/**
+	 * @return how many samples one bucket at {@code level} covers
+	 */
+	public static long getBucketSize(int level) {
+		long size = BASE_BUCKET_SIZE;
+		for (int l = 0; l < level; l++) {
+			size *= LEVEL_FACTOR;
+		}
+		return size;
+	}
+
+	/**
+	 * @return the coarsest level whose buckets are no wider than
+	 *         {@code samplesPerColumn}, or -1 if even level 0 is too coarse
+	 */
+	public int levelFor(long samplesPerColumn) {
+		if (samplesPerColumn < BASE_BUCKET_SIZE) {
+			return -1;
+		}
+		int level = 0;
+		while (level + 1 < levels
+				&& getBucketSize(level + 1) <= samplesPerColumn) {
+			level++;
+		}
+		return level;
+	}
+
+	/**
+	 * As {@link #readColumns(int, int, long, int, int, short[], short[])}
+	 * for the first channel.
+	 */
+	public int readColumns(int level, long firstSample, int bucketsPerColumn,
+			int columns, short[] lo, short[] hi) {
+		return readColumns(0, level, firstSample, bucketsPerColumn, columns,
+				lo, hi);
+	}
+
+	/**
+	 * Fill {@code lo[i]} and {@code hi[i]} with the extremes of column
+	 * {@code i} of {@code channel}, where column {@code i} is
+	 * {@code bucketsPerColumn} buckets of {@code level} starting at the
+	 * bucket holding {@code firstSample}. Filling stops at the end of the
+	 * recording.
+	 * 
+	 * @return the number of columns filled
+	 */
+	public int readColumns(int channel, int level, long firstSample,
+			int bucketsPerColumn, int columns, short[] lo, short[] hi) {
+		final ShortBuffer levelBuckets = buckets[level];
+		final long count = bucketCounts[level];
+		long bucket = Math.max(0, firstSample) / getBucketSize(level);
+		int filled = 0;
+		for (int c = 0; c < columns && bucket < count; c++) {
+			final long end = Math.min(bucket + bucketsPerColumn, count);
+			short cMin = Short.MAX_VALUE;
+			short cMax = Short.MIN_VALUE;
+			for (long b = bucket; b < end; b++) {
+				final int at = (int) ((b * channels + channel) * 2);
+				final short bMin = levelBuckets.get(at);
+				final short bMax = levelBuckets.get(at + 1);
+				if (bMin < cMin) {
+					cMin = bMin;
+				}
+				if (bMax > cMax) {
+					cMax = bMax;
+				}
+			}
+			lo[filled] = cMin;
+			hi[filled] = cMax;
+			filled++;
+			bucket = end;
+		}
+		return filled;
+	}
+
+	/**
+	 * Streams a summary to disk as samples arrive. Level 0 goes straight to
+	 * its place in the file through a small buffer; the coarser levels are
+	 * about a third of its size and are kept in memory until
+	 * {@link #close()} writes them out with the header. A summary that was
+	 * never closed has no valid header and is simply regenerated. Samples
+	 * come in interleaved, as in the WAV file, and each channel is
+	 * summarised separately.
+	 */
+	public static class Writer {
+		private final File file;
+		private final RandomAccessFile raf;
+		private final FileChannel channel;
+		private final int sampleRate;
+		private final int channels;
+		private final ByteBuffer out = ByteBuffer.allocateDirect(16 * 1024)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		private long level0Position = HEADER_SIZE;
+		private long sampleCount;
+		private final long[] bucketCounts = new long[MAX_LEVELS];
+		/** (min, max) pairs for levels 1 and up */
+		private final short[][] upper = new short[MAX_LEVELS][];
+		/** the bucket being filled at each level, for each channel */
+		private final short[] partialMin;
+		private final short[] partialMax;
+		/** frames or buckets folded into the partial bucket at each level */
+		private final int[] partialCount = new int[MAX_LEVELS];
+		/** the channel the next sample belongs to */
+		private int nextChannel;
+		private short[] scratch;
+
+		public Writer(File file, int sampleRate, int channels)
+				throws IOException {
+			if (channels < 1) {
+				throw new IllegalArgumentException("Bad channel count "
+						+ channels);
+			}
+			this.file = file;
+			this.sampleRate = sampleRate;
+			this.channels = channels;
+			partialMin = new short[MAX_LEVELS * channels];
+			partialMax = new short[MAX_LEVELS * channels];
+			synchronized (openWriters) {
+				if (!openWriters.add(file.getAbsoluteFile())) {
+					throw new IOException(file.getName()
+							+ " is already being written");
+				}
+			}
+			try {
+				raf = new RandomAccessFile(file, "rw");
+				raf.setLength(0);
+			} catch (IOException e) {
+				release();
+				throw e;
+			}
+			channel = raf.getChannel();
+		}
+
+		private void release() {
+			synchronized (openWriters) {
+				openWriters.remove(file.getAbsoluteFile());
+			}
+		}
+
+		/**
+		 * Fold the samples between {@code pcm}'s position and limit into the
+		 * summary, in the buffer's own byte order. The buffer's position is
+		 * left where it was.
+		 */
+		public void add(ByteBuffer pcm) throws IOException {
+			final ShortBuffer sb = pcm.asShortBuffer();
+			final int n = sb.remaining();
+			if (scratch == null || scratch.length < n) {
+				scratch = new short[n];
+			}
+			sb.get(scratch, 0, n);
+			for (int i = 0; i < n; i++) {
+				final short s = scratch[i];
+				final int p = nextChannel;
+				if (partialCount[0] == 0) {
+					partialMin[p] = s;
+					partialMax[p] = s;
+				} else if (s < partialMin[p]) {
+					partialMin[p] = s;
+				} else if (s > partialMax[p]) {
+					partialMax[p] = s;
+				}
+				if (++nextChannel == channels) {
+					nextChannel = 0;
+					sampleCount++;
+					if (++partialCount[0] == BASE_BUCKET_SIZE) {
+						commit(0);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Store the partial bucket of every channel at {@code level} as
+		 * finished and merge it into the level above.
+		 */
+		private void commit(int level) throws IOException {
+			while (true) {
+				final int base = level * channels;
+				for (int c = 0; c < channels; c++) {
+					final short lo = partialMin[base + c];
+					final short hi = partialMax[base + c];
+					if (level == 0) {
+						if (out.remaining() < 4) {
+							flushLevel0();
+						}
+						out.putShort(lo).putShort(hi);
+					} else {
+						append(level, c, lo, hi);
+					}
+				}
+				partialCount[level] = 0;
+				bucketCounts[level]++;
+				final int up = level + 1;
+				if (up == MAX_LEVELS) {
+					return;
+				}
+				final int upBase = up * channels;
+				for (int c = 0; c < channels; c++) {
+					final short lo = partialMin[base + c];
+					final short hi = partialMax[base + c];
+					if (partialCount[up] == 0) {
+						partialMin[upBase + c] = lo;
+						partialMax[upBase + c] = hi;
+					} else {
+						partialMin[upBase + c] = (short) Math.min(lo,
+								partialMin[upBase + c]);
+						partialMax[upBase + c] = (short) Math.max(hi,
+								partialMax[upBase + c]);
+					}
+				}
+				if (++partialCount[up] < LEVEL_FACTOR) {
+					return;
+				}
+				level = up;
+			}
+		}
+
+		private void append(int level, int channel, short lo, short hi) {
+			final int at = (int) ((bucketCounts[level] * channels + channel) * 2);
+			if (upper[level] == null) {
+				upper[level] = new short[256 * channels];
+			} else if (upper[level].length < at + 2) {
+				final short[] grown = new short[upper[level].length * 2];
+				System.arraycopy(upper[level], 0, grown, 0, at);
+				upper[level] = grown;
+			}
+			upper[level][at] = lo;
+			upper[level][at + 1] = hi;
+		}
+
+		private void flushLevel0() throws IOException {
+			out.flip();
+			while (out.hasRemaining()) {
+				level0Position += channel.write(out, level0Position);
+			}
+			out.clear();
+		}
+
+		/**
+		 * Close off the partial buckets, write the coarser levels and the
+		 * header, and close the file.
+		 */
+		public void close() throws IOException {
+			try {
+				// a partial bucket committed at one level may start or fill
+				// one at the next, so this has to run bottom up
+				for (int level = 0; level < MAX_LEVELS; level++) {
+					if (partialCount[level] > 0) {
+						commit(level);
+					}
+				}
+				flushLevel0();
+				int levels = 1;
+				while (levels < MAX_LEVELS && bucketCounts[levels] > 0
+						&& bucketCounts[levels - 1] > 1) {
+					levels++;
+				}
+				long position = level0Position;
+				final ByteBuffer buf = ByteBuffer.allocate(16 * 1024).order(
+						ByteOrder.LITTLE_ENDIAN);
+				for (int l = 1; l < levels; l++) {
+					final int shorts = (int) (bucketCounts[l] * 2 * channels);
+					for (int i = 0; i < shorts; i++) {
+						if (buf.remaining() < 2) {
+							position += writeOut(buf, position);
+						}
+						buf.putShort(upper[l][i]);
+					}
+				}
+				position += writeOut(buf, position);
+
+				buf.clear();
+				buf.putInt(MAGIC).putInt(VERSION).putInt(sampleRate)
+						.putInt(channels).putInt(BASE_BUCKET_SIZE)
+						.putInt(LEVEL_FACTOR).putInt(levels)
+						.putLong(sampleCount);
+				for (int l = 0; l < MAX_LEVELS; l++) {
+					buf.putLong(l < levels ? bucketCounts[l] : 0);
+				}
+				writeOut(buf, 0);
+				channel.truncate(position);
+			} finally {
+				raf.close();
+				release();
+			}
+		}
+
+		private int writeOut(ByteBuffer buf, long position) throws IOException {
+			buf.flip();
+			int written = 0;
+			while (buf.hasRemaining()) {
+				written += channel.write(buf, position + written);
+			}
+			buf.clear();
+			return written;
+		}
+
+		public File getFile() {
+			return file;
+		}
+	}
+}
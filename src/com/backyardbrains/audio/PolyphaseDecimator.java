@@ -0,0 +1,189 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Lowers the sample rate of a native-order stream by a whole factor for
+ * slow signals. Each kept output is the windowed-sinc low-pass applied at
+ * that instant, which is the sum of the filter's polyphase branches, so
+ * only one output in {@link #getFactor()} is ever computed: about
+ * {@value #TAPS_PER_PHASE} multiply-adds per input sample whatever the
+ * factor.
+ * 
+ * Outputs are gathered into fixed-size blocks, since the dispatcher
+ * downstream expects every block to be the same length; an input block
+ * may complete none, one or several of them. Interleaved multi-channel
+ * input is decimated channel by channel and comes out interleaved the same
+ * way. Nothing is allocated after construction.
+ */
+public class PolyphaseDecimator {
+	private static final int TAPS_PER_PHASE = 16;
+	/** half-amplitude cutoff as a fraction of the output Nyquist frequency */
+	private static final double CUTOFF = 0.8;
+
+	private final int factor;
+	private final int channels;
+	private final float[] taps;
+	/**
+	 * the last {@code taps.length} inputs of each channel, stored twice to
+	 * avoid wrapping; channel {@code c} starts at {@code c * 2 * taps.length}
+	 */
+	private final float[] history;
+	private int historyPos;
+	private int phase;
+	private final ByteBuffer out;
+	private final int outputBlockSamples;
+	private int outFill;
+
+	public PolyphaseDecimator(int factor, int outputBlockSamples) {
+		this(factor, outputBlockSamples, 1);
+	}
+
+	/**
+	 * @param factor
+	 *            keep one sample in this many, at least 2
+	 * @param outputBlockSamples
+	 *            how many output samples of each channel each block handed
+	 *            on holds
+	 * @param channels
+	 *            how many channels the input interleaves
+	 */
+	public PolyphaseDecimator(int factor, int outputBlockSamples, int channels) {
+		if (factor < 2 || outputBlockSamples < 1 || channels < 1) {
+			throw new IllegalArgumentException("Bad decimation factor "
+					+ factor + ", block size " + outputBlockSamples
+					+ " or channel count " + channels);
+		}
+		this.factor = factor;
+		this.outputBlockSamples = outputBlockSamples;
+		this.channels = channels;
+		taps = designLowPass(factor * TAPS_PER_PHASE, CUTOFF / 2 / factor);
+		history = new float[taps.length * 2 * channels];
+		out = ByteBuffer.allocateDirect(outputBlockSamples * 2 * channels);
+		out.order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Blackman-windowed sinc with unity gain at DC.
+	 * 
+	 * @param cutoff
+	 *            as a fraction of the input sample rate
+	 */
+	private static float[] designLowPass(int length, double cutoff) {
+		final double[] h = new double[length];
+		final double middle = (length - 1) / 2.0;
+		double sum = 0;
+		for (int i = 0; i < length; i++) {
+			final double t = i - middle;
+			final double sinc = t == 0 ? 2 * cutoff : Math.sin(2 * Math.PI
+					* cutoff * t)
+					/ (Math.PI * t);
+			final double window = 0.42 - 0.5
+					* Math.cos(2 * Math.PI * i / (length - 1)) + 0.08
+					* Math.cos(4 * Math.PI * i / (length - 1));
+			h[i] = sinc * window;
+			sum += h[i];
+		}
+		final float[] taps = new float[length];
+		for (int i = 0; i < length; i++) {
+			taps[i] = (float) (h[i] / sum);
+		}
+		return taps;
+	}
+
+	/**
+	 * Filter the whole of {@code in} and hand each output block to
+	 * {@code receiver} as it fills. The block passed on is reused, so the
+	 * receiver must copy it before returning.
+	 */
+	public void process(ByteBuffer in, ReceivesAudio receiver) {
+		final int n = taps.length;
+		final int frameBytes = channels * 2;
+		final int end = in.capacity() - in.capacity() % frameBytes;
+		for (int i = 0; i < end; i += frameBytes) {
+			for (int c = 0, base = 0; c < channels; c++, base += 2 * n) {
+				final float x = in.getShort(i + c * 2);
+				history[base + historyPos] = x;
+				history[base + historyPos + n] = x;
+			}
+			if (++historyPos == n) {
+				historyPos = 0;
+			}
+			if (++phase < factor) {
+				continue;
+			}
+			phase = 0;
+			for (int c = 0, base = 0; c < channels; c++, base += 2 * n) {
+				// the taps are symmetric, so oldest-first order doesn't matter
+				float y = 0;
+				for (int k = 0, h = base + historyPos; k < n; k++, h++) {
+					y += taps[k] * history[h];
+				}
+				final int rounded = Math.round(y);
+				out.putShort((outFill * channels + c) * 2, (short) Math.max(
+						Short.MIN_VALUE, Math.min(Short.MAX_VALUE, rounded)));
+			}
+			if (++outFill == outputBlockSamples) {
+				outFill = 0;
+				out.clear();
+				receiver.receiveAudio(out);
+			}
+		}
+	}
+
+	/**
+	 * Pick the factor that brings {@code inputRate} nearest to
+	 * {@code targetRate} while leaving a whole number of samples per second,
+	 * so the result can be written to a WAV header.
+	 * 
+	 * @return the factor, or 1 if no decimation is wanted or possible
+	 */
+	public static int factorFor(int inputRate, int targetRate) {
+		if (targetRate <= 0 || targetRate * 2 > inputRate) {
+			return 1;
+		}
+		int best = 1;
+		for (int f = 2; f <= inputRate / 2; f++) {
+			if (inputRate % f == 0
+					&& Math.abs(inputRate / f - targetRate) < Math
+							.abs(inputRate / best - targetRate)) {
+				best = f;
+			}
+		}
+		return best;
+	}
+
+	public int getFactor() {
+		return factor;
+	}
+
+	/**
+	 * @return how many samples of each channel every output block holds
+	 */
+	public int getOutputBlockSamples() {
+		return outputBlockSamples;
+	}
+
+	public int getChannelCount() {
+		return channels;
+	}
+}
@@ -0,0 +1,231 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.util.Log;
+
+/**
+ * Keeps the metadata of every recording in a small cache file, keyed by
+ * path and checked against each file's size and modification time, so the
+ * file list can be shown straight from the cache and a rescan only opens
+ * the files that changed. Durations come from the real WAV header rather
+ * than from the file length.
+ * 
+ * Both {@link #load()} and {@link #scan(File)} touch the disk and belong on
+ * a background thread.
+ */
+public class RecordingIndex {
+	private static final String TAG = RecordingIndex.class.getCanonicalName();
+	private static final int CACHE_VERSION = 1;
+
+	private final File cacheFile;
+	private final Map<String, RecordingInfo> entries =
+			new HashMap<String, RecordingInfo>();
+	private int lastRescanned;
+
+	/**
+	 * @param cacheFile
+	 *            where the index is kept, normally in the app's private files
+	 */
+	public RecordingIndex(File cacheFile) {
+		this.cacheFile = cacheFile;
+	}
+
+	/**
+	 * Read the cache file. A missing or unreadable cache just means an
+	 * empty index.
+	 * 
+	 * @return the cached recordings, newest first, without checking the
+	 *         files themselves
+	 */
+	public synchronized List<RecordingInfo> load() {
+		entries.clear();
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(cacheFile)));
+			if (in.readInt() != CACHE_VERSION) {
+				return sorted();
+			}
+			final int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				final File f = new File(in.readUTF());
+				final RecordingInfo info = new RecordingInfo(f, in.readLong(),
+						in.readLong(), in.readLong(), in.readInt(), in.readInt());
+				entries.put(f.getAbsolutePath(), info);
+			}
+		} catch (FileNotFoundException e) {
+			// first run
+		} catch (IOException e) {
+			Log.w(TAG, "Discarding unreadable recording index: " + e.getMessage());
+			entries.clear();
+		} finally {
+			closeQuietly(in);
+		}
+		return sorted();
+	}
+
+	/**
+	 * Bring the index up to date with {@code directory}: files whose size
+	 * and modification time match their entry are taken from the cache, the
+	 * rest have their header parsed, and entries for files that are gone
+	 * are dropped. Peak summary sidecars are not recordings and are skipped. The cache file is rewritten only if something changed.
+	 * 
+	 * @return every recording in the directory, newest first
+	 */
+	public synchronized List<RecordingInfo> scan(File directory) {
+		final File[] files = directory.listFiles();
+		final Map<String, RecordingInfo> current =
+				new HashMap<String, RecordingInfo>();
+		lastRescanned = 0;
+		if (files != null) {
+			for (File f : files) {
+				if (!f.isFile() || f.getName().endsWith(
+						PeakSummary.SIDECAR_EXTENSION)) {
+					continue;
+				}
+				final String path = f.getAbsolutePath();
+				RecordingInfo info = entries.get(path);
+				if (info == null || !info.isCurrent(f)) {
+					info = readInfo(f);
+					lastRescanned++;
+				}
+				current.put(path, info);
+			}
+		}
+		final boolean changed = lastRescanned > 0
+				|| current.size() != entries.size();
+		entries.clear();
+		entries.putAll(current);
+		if (changed) {
+			save();
+		}
+		return sorted();
+	}
+
+	/**
+	 * @return how many files the last {@link #scan(File)} had to open
+	 */
+	public synchronized int getLastRescanned() {
+		return lastRescanned;
+	}
+
+	private static RecordingInfo readInfo(File f) {
+		final long size = f.length();
+		final long lastModified = f.lastModified();
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(f, "r");
+			final WavHeader header = WavHeader.read(raf.getChannel());
+			return new RecordingInfo(f, size, lastModified,
+					header.getDurationMillis(), header.getSampleRate(),
+					header.getChannels());
+		} catch (IOException e) {
+			Log.d(TAG, "No usable WAV header in " + f.getName() + ": "
+					+ e.getMessage());
+			return new RecordingInfo(f, size, lastModified, -1, 0, 0);
+		} finally {
+			if (raf != null) {
+				try {
+					raf.close();
+				} catch (IOException e) {
+					// nothing to do
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write the index to a temporary file and move it into place, so a
+	 * crash mid-write leaves the old cache intact.
+	 */
+	private void save() {
+		final File tmp = new File(cacheFile.getPath() + ".tmp");
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(tmp)));
+			out.writeInt(CACHE_VERSION);
+			out.writeInt(entries.size());
+			for (RecordingInfo info : entries.values()) {
+				out.writeUTF(info.getFile().getAbsolutePath());
+				out.writeLong(info.getSize());
+				out.writeLong(info.getLastModified());
+				out.writeLong(info.getDurationMillis());
+				out.writeInt(info.getSampleRate());
+				out.writeInt(info.getChannels());
+			}
+			out.close();
+			out = null;
+			if (!tmp.renameTo(cacheFile)) {
+				Log.w(TAG, "Could not replace " + cacheFile.getName());
+			}
+		} catch (IOException e) {
+			Log.w(TAG, "Could not save recording index: " + e.getMessage());
+		} finally {
+			closeQuietly(out);
+		}
+	}
+
+	private List<RecordingInfo> sorted() {
+		final List<RecordingInfo> list = new ArrayList<RecordingInfo>(
+				entries.values());
+		Collections.sort(list, NEWEST_FIRST);
+		return list;
+	}
+
+	private static void closeQuietly(Closeable c) {
+		if (c != null) {
+			try {
+				c.close();
+			} catch (IOException e) {
+				// nothing to do
+			}
+		}
+	}
+
+	private static final Comparator<RecordingInfo> NEWEST_FIRST =
+			new Comparator<RecordingInfo>() {
+		@Override
+		public int compare(RecordingInfo a, RecordingInfo b) {
+			if (a.getLastModified() == b.getLastModified()) {
+				return a.getFile().getName().compareTo(b.getFile().getName());
+			}
+			return a.getLastModified() > b.getLastModified() ? -1 : 1;
+		}
+	};
+}
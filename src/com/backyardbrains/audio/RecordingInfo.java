@@ -0,0 +1,83 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+import java.io.File;
+
+/**
+ * What the file list shows about one recording: the facts needed to tell
+ * whether it changed, and what was read from its header.
+ */
+public class RecordingInfo {
+	private final File file;
+	private final long size;
+	private final long lastModified;
+	private final long durationMillis;
+	private final int sampleRate;
+	private final int channels;
+
+	/**
+	 * @param durationMillis
+	 *            length of the audio, or -1 if the header could not be read
+	 */
+	public RecordingInfo(File file, long size, long lastModified,
+			long durationMillis, int sampleRate, int channels) {
+		this.file = file;
+		this.size = size;
+		this.lastModified = lastModified;
+		this.durationMillis = durationMillis;
+		this.sampleRate = sampleRate;
+		this.channels = channels;
+	}
+
+	/**
+	 * @return true if this describes {@code f} as it is on disk right now
+	 */
+	public boolean isCurrent(File f) {
+		return f.length() == size && f.lastModified() == lastModified;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	public long getDurationMillis() {
+		return durationMillis;
+	}
+
+	public boolean hasValidHeader() {
+		return durationMillis >= 0;
+	}
+
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	public int getChannels() {
+		return channels;
+	}
+}
@@ -19,14 +19,9 @@
 
 package com.backyardbrains.audio;
 
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.ShortBuffer;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
@@ -37,19 +32,29 @@ import android.util.Log;
 public class RecordingSaver implements ReceivesAudio {
 
 	public static final String TAG = RecordingSaver.class.getCanonicalName();
-	private ByteArrayOutputStream mArrayToRecordTo;
-	private BufferedOutputStream bufferedStream;
-	private DataOutputStream dataOutputStreamInstance;
+	private final int sampleRate;
+	private final int channels;
+	private WavWriter wavWriter;
+	private PeakSummary.Writer summaryWriter;
 	private File bybDirectory;
 
-	public RecordingSaver(String filename) {
+	/**
+	 * @param sampleRate
+	 *            written to the WAV header and the peak summary
+	 * @param channels
+	 *            how many channels the blocks interleave; the WAV file keeps
+	 *            them interleaved
+	 */
+	public RecordingSaver(String filename, int sampleRate, int channels) {
+		this.sampleRate = sampleRate;
+		this.channels = channels;
 		initializeAndCreateFile(filename);
 	}
 
 	/**
 	 * Create a the BackyardBrains directory on the sdcard if it doesn't exist,
-	 * then set up a file output stream in that directory which we'll use to
-	 * write to later
+	 * then open a wave file in that directory which we'll stream samples into
+	 * as they arrive
 	 * 
 	 * @param filename
 	 */
@@ -57,13 +62,22 @@ public class RecordingSaver implements ReceivesAudio {
 
 		bybDirectory = createBybDirectory();
 
-		mArrayToRecordTo = new ByteArrayOutputStream();
+		File outputFile = new File(bybDirectory, new SimpleDateFormat(
+				"d_MMM_yyyy_HH_mm_s_a").format(new Date(System
+				.currentTimeMillis()))
+				+ ".wav");
 		try {
-			bufferedStream = new BufferedOutputStream(mArrayToRecordTo);
-		} catch (Exception e) {
+			wavWriter = new WavWriter(outputFile, sampleRate, channels);
+		} catch (IOException e) {
 			throw new IllegalStateException("Cannot open file for writing", e);
 		}
-		dataOutputStreamInstance = new DataOutputStream(bufferedStream);
+		try {
+			summaryWriter = new PeakSummary.Writer(
+					PeakSummary.sidecarFor(outputFile), sampleRate, channels);
+		} catch (IOException e) {
+			// the file list regenerates missing summaries, so carry on
+			Log.w(TAG, "Cannot open peak summary: " + e.getMessage());
+		}
 
 	}
 
@@ -80,106 +94,78 @@ public class RecordingSaver implements ReceivesAudio {
 	}
 
 	/**
-	 * Our data comes in big-endian, but we need to write 16-bit PCM in
-	 * little-endian, so we'll loop through the buffer, reversing bytes as we
-	 * spit out to the our data output stream.
+	 * Hand the whole block of native-order samples to the {@link WavWriter}
+	 * in one call. On little-endian devices it goes to disk without any
+	 * per-sample work; otherwise the writer swaps it in bulk. The same block
+	 * is then folded into the peak summary, so the sidecar is finished along
+	 * with the recording without another pass over it.
 	 */
 	@Override
 	public void receiveAudio(ByteBuffer audioInfo) {
-		ShortBuffer sb = audioInfo.asShortBuffer();
-		while (sb.hasRemaining()) {
+		try {
+			wavWriter.write(audioInfo);
+		} catch (IOException e) {
+			throw new IllegalStateException(
+					"Could not write bytes out to file");
+		}
+		if (summaryWriter != null) {
+			audioInfo.rewind();
 			try {
-				dataOutputStreamInstance
-						.writeShort(Short.reverseBytes(sb.get()));
+				summaryWriter.add(audioInfo);
 			} catch (IOException e) {
-				throw new IllegalStateException(
-						"Could not write bytes out to file");
+				Log.w(TAG, "Giving up on peak summary: " + e.getMessage());
+				closeSummary();
 			}
 		}
 	}
 
-	/**
-	 * close the stream that our data is being sent to, then convert the array
-	 * we've been caching to in RAM to a wave file after it's done writing PCM
-	 * to the disk.
-	 */
-	public void finishRecording() {
+	private void closeSummary() {
 		try {
-			bufferedStream.close();
-			new ConvertToWavefile().execute(mArrayToRecordTo);
+			summaryWriter.close();
 		} catch (IOException e) {
-			throw new IllegalStateException("Cannot close buffered writer.");
+			Log.w(TAG, "Couldn't finish peak summary: " + e.getMessage());
 		}
+		summaryWriter = null;
 	}
 
-	private class ConvertToWavefile extends
-			AsyncTask<ByteArrayOutputStream, Void, String> {
+	/**
+	 * Flush the last buffered samples and fill in the header's chunk sizes in
+	 * the background. No more audio may be sent after this.
+	 */
+	public void finishRecording() {
+		new FinishWavefile(summaryWriter).execute(wavWriter);
+		summaryWriter = null;
+	}
 
-		/**
-		 * Takes a ByteArrayOutputStream provided to our execute() method, and
-		 * add a PCM WAVE header and write it out to the disk.
-		 * 
-		 * @param byteData
-		 * @return
-		 * @throws IOException
-		 */
-		private String convertToWave(ByteArrayOutputStream byteData)
-				throws IOException {
-			byte[] mFileToRecordTo2 = byteData.toByteArray();
-			File outputFile = new File(bybDirectory, new SimpleDateFormat(
-					"d_MMM_yyyy_HH_mm_s_a").format(new Date(System
-					.currentTimeMillis()))
-					+ ".wav");
-			FileOutputStream out = new FileOutputStream(outputFile);
-			DataOutputStream datastream = new DataOutputStream(out);
-
-			int mSampleRate = 44100;
-			int mChannels = 1;
-			int mBitsPerSample = 16;
-
-			long subchunk2size = mFileToRecordTo2.length / 2 // # of samples
-					* mChannels * (mBitsPerSample / 2);
-
-			long chunksize = subchunk2size + 36;
-			int byteRate = mSampleRate * mChannels * mBitsPerSample / 8;
-
-			datastream.writeBytes("RIFF");
-			datastream.writeInt(Integer.reverseBytes((int) chunksize));
-			datastream.writeBytes("WAVEfmt ");
-			datastream.writeInt(Integer.reverseBytes(16));
-			datastream.writeShort(Short.reverseBytes((short) 1));
-			datastream.writeShort(Short.reverseBytes((short) mChannels));
-			datastream.writeInt(Integer.reverseBytes(mSampleRate));
-			datastream.writeInt(Integer.reverseBytes(byteRate));
-			datastream.writeShort(Short.reverseBytes((short) (mChannels
-					* mBitsPerSample / 8))); // block align
-			datastream.writeShort(Short.reverseBytes((short) mBitsPerSample));
-			datastream.writeBytes("data");
-			datastream.writeInt(Integer.reverseBytes((int) subchunk2size));
-
-			datastream.write(mFileToRecordTo2);
-			out.close();
-			datastream.close();
-			return outputFile.getName();
+	private class FinishWavefile extends AsyncTask<WavWriter, Void, String> {
+		private final PeakSummary.Writer summary;
+
+		FinishWavefile(PeakSummary.Writer summary) {
+			this.summary = summary;
 		}
 
 		/**
-		 * Whip through the list of ByteArrays (currently only the one) and
-		 * convert each to proper WAV formats
+		 * Close each writer (currently only the one), which writes out what
+		 * it still buffers and patches its header, then the peak summary, so
+		 * that the sidecar ends up no older than its WAV.
 		 */
 		@Override
-		protected String doInBackground(ByteArrayOutputStream... params) {
+		protected String doInBackground(WavWriter... params) {
 			StringBuilder s = new StringBuilder();
-			for (ByteArrayOutputStream f : params) {
+			for (WavWriter w : params) {
 				try {
-					String writtenFile = convertToWave(f);
-					s.append(" - " + writtenFile);
-					// f.delete();
-					// f = null;
+					w.close();
+					s.append(" - " + w.getFile().getName());
 				} catch (IOException e) {
-					Log.e(TAG, "Couldn't write wav file ");
+					Log.e(TAG, "Couldn't finish wav file ");
 					e.printStackTrace();
-					f = null;
+				}
+			}
+			if (summary != null) {
+				try {
+					summary.close();
+				} catch (IOException e) {
+					Log.w(TAG, "Couldn't finish peak summary: " + e.getMessage());
 				}
 			}
 			Log.d(getClass().getCanonicalName(),
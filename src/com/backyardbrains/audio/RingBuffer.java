@@ -21,49 +21,205 @@ package com.backyardbrains.audio;
 
 import java.nio.ByteBuffer;
 import java.nio.ShortBuffer;
+import java.util.Arrays;
 
+/**
+ * Fixed-size circular history of the most recent samples. Writing a block
+ * only touches the slots it overwrites, and readers pull the window they
+ * need with {@link #readLatest(short[], int)} or
+ * {@link #readRange(long, short[], int, int)} instead of copying the whole
+ * history.
+ *
+ * Samples are addressed by their absolute index since the buffer was
+ * created, so a reader can remember where it left off and ask only for what
+ * arrived since.
+ */
 public class RingBuffer {
-	private short[] buffer;
-	private int beginning;
-
+	private final short[] buffer;
+	private final int mask;
 	/**
-	 * @return the beginning
+	 * total number of samples ever written; the next sample goes to
+	 * {@code written & mask}
 	 */
-	public int getBeginning() {
-		return beginning;
-	}
+	private volatile long written;
 
 	/**
-	 * @return the end
+	 * @param size
+	 *            requested capacity in samples, rounded up to the next power
+	 *            of two
 	 */
-	public int getEnd() {
-		return end;
+	public RingBuffer(int size) {
+		int capacity = Integer.highestOneBit(Math.max(size, 1));
+		if (capacity < size) {
+			capacity <<= 1;
+		}
+		buffer = new short[capacity];
+		mask = capacity - 1;
+		written = 0;
 	}
 
-	private int end;
-
-	public RingBuffer(int size) {
-		buffer = new short[size];
-		beginning = end = -1;
+	/**
+	 * A buffer of at least {@code size} samples carrying on from
+	 * {@code from}: it holds as much of the same history as fits, at the same
+	 * absolute indices, so a reader can grow its history without losing its
+	 * place.
+	 */
+	public RingBuffer(int size, RingBuffer from) {
+		this(size);
+		synchronized (from) {
+			final long end = from.written;
+			final long start = Math.max(0, end
+					- Math.min(from.buffer.length, buffer.length));
+			for (long i = start; i < end; i++) {
+				buffer[(int) (i & mask)] = from.buffer[(int) (i & from.mask)];
+			}
+			written = end;
+		}
 	}
 
+	/**
+	 * Append every sample in the incoming buffer (native order 16-bit PCM)
+	 * to the end of the history, overwriting the oldest samples.
+	 */
 	public void add(final ByteBuffer incoming) {
 		incoming.clear();
 		final ShortBuffer sb = incoming.asShortBuffer();
-		System.arraycopy(buffer, sb.capacity(), buffer, 0, buffer.length-sb.capacity());
-		sb.get(buffer, buffer.length-sb.capacity(), sb.capacity());
-		//System.arraycopy(s, 0, buffer, buffer.length-s.length, s.length);
+		synchronized (this) {
+			int remaining = sb.remaining();
+			if (remaining > buffer.length) {
+				// only the tail of an oversized block can survive
+				sb.position(remaining - buffer.length);
+				written += remaining - buffer.length;
+				remaining = buffer.length;
+			}
+			final int start = (int) (written & mask);
+			final int firstPart = Math.min(remaining, buffer.length - start);
+			sb.get(buffer, start, firstPart);
+			if (firstPart < remaining) {
+				sb.get(buffer, 0, remaining - firstPart);
+			}
+			written += remaining;
+		}
+	}
+
+	/**
+	 * Append {@code samples[offset..offset+length)} to the end of the
+	 * history, overwriting the oldest samples. For a caller that already has
+	 * the block as an array, this copies without making a buffer view.
+	 */
+	public synchronized void add(short[] samples, int offset, int length) {
+		if (length > buffer.length) {
+			// only the tail of an oversized block can survive
+			offset += length - buffer.length;
+			written += length - buffer.length;
+			length = buffer.length;
+		}
+		final int start = (int) (written & mask);
+		final int firstPart = Math.min(length, buffer.length - start);
+		System.arraycopy(samples, offset, buffer, start, firstPart);
+		if (firstPart < length) {
+			System.arraycopy(samples, offset + firstPart, buffer, 0, length
+					- firstPart);
+		}
+		written += length;
+	}
+
+	/**
+	 * Move the end of the history forward to absolute index {@code index},
+	 * filling the samples skipped over with silence, so a writer that missed
+	 * some blocks stays lined up with the stream it follows. Does nothing
+	 * unless {@code index} is ahead of {@link #getWritten()}.
+	 */
+	public synchronized void skipTo(long index) {
+		final long gap = index - written;
+		if (gap <= 0) {
+			return;
+		}
+		final int fill = (int) Math.min(gap, buffer.length);
+		final int start = (int) ((index - fill) & mask);
+		final int firstPart = Math.min(fill, buffer.length - start);
+		Arrays.fill(buffer, start, start + firstPart, (short) 0);
+		if (firstPart < fill) {
+			Arrays.fill(buffer, 0, fill - firstPart, (short) 0);
+		}
+		written = index;
+	}
+
+	/**
+	 * Copy the newest {@code n} samples, oldest first, into
+	 * {@code dst[0..n)}.
+	 *
+	 * @return the number of samples copied, which is less than {@code n} if
+	 *         the buffer has not seen that many samples yet
+	 */
+	public int readLatest(short[] dst, int n) {
+		return readLatest(dst, 0, n);
+	}
+
+	/**
+	 * Copy the newest {@code n} samples, oldest first, into
+	 * {@code dst[offset..offset+n)}. If fewer than {@code n} samples are
+	 * available the copied samples are right-aligned so the newest sample
+	 * always lands at {@code dst[offset+n-1]}.
+	 *
+	 * @return the number of samples copied
+	 */
+	public synchronized int readLatest(short[] dst, int offset, int n) {
+		final long from = written - n;
+		if (from < 0) {
+			return readRange(0, dst, offset - (int) from, n + (int) from);
+		}
+		return readRange(from, dst, offset, n);
+	}
+
+	/**
+	 * Copy samples with absolute indices
+	 * {@code [fromSample, fromSample+n)} into {@code dst[offset..)}. Any
+	 * part of the range that has already been overwritten or has not been
+	 * written yet is skipped, so the result is clamped to the history that
+	 * is actually held.
+	 *
+	 * @return the number of samples copied
+	 */
+	public synchronized int readRange(long fromSample, short[] dst,
+			int offset, int n) {
+		final long oldest = Math.max(0, written - buffer.length);
+		if (fromSample < oldest) {
+			final int skip = (int) Math.min(n, oldest - fromSample);
+			fromSample += skip;
+			offset += skip;
+			n -= skip;
+		}
+		n = (int) Math.min(n, written - fromSample);
+		if (n <= 0) {
+			return 0;
+		}
+		final int start = (int) (fromSample & mask);
+		final int firstPart = Math.min(n, buffer.length - start);
+		System.arraycopy(buffer, start, dst, offset, firstPart);
+		if (firstPart < n) {
+			System.arraycopy(buffer, 0, dst, offset + firstPart, n
+					- firstPart);
+		}
+		return n;
+	}
+
+	/**
+	 * @return the absolute index one past the newest sample, i.e. the total
+	 *         number of samples ever added
+	 */
+	public long getWritten() {
+		return written;
 	}
 
 	/**
-	 * return an order-adjusted version of the whole buffer
-	 * 
-	 * @return
+	 * @return how many samples of history this buffer holds
 	 */
-	public short[] getArray() {
-		return buffer;
+	public int getCapacity() {
+		return buffer.length;
 	}
 
-	public void zeroFill() {
+	public synchronized void zeroFill() {
+		Arrays.fill(buffer, (short) 0);
 	}
 }
@@ -0,0 +1,62 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A reusable chunk of native-order 16-bit PCM handed out by a
+ * {@link SampleBlockPool}. Whoever acquired a block calls {@link #release()}
+ * once it is done, and the block goes back to its pool to be filled again.
+ * Receivers of the buffer copy out what they keep, so a block has a single
+ * owner at a time.
+ */
+public class SampleBlock {
+	private final SampleBlockPool pool;
+	private final ByteBuffer buffer;
+	private boolean inUse;
+
+	SampleBlock(SampleBlockPool pool, int sizeInBytes) {
+		this.pool = pool;
+		buffer = ByteBuffer.allocateDirect(sizeInBytes);
+		buffer.order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * @return the direct buffer backing this block, sized exactly to one
+	 *         read so {@link ByteBuffer#clear()} exposes just its samples
+	 */
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	public void release() {
+		if (!inUse) {
+			throw new IllegalStateException("Block released too many times");
+		}
+		inUse = false;
+		pool.recycle(this);
+	}
+
+	void claim() {
+		inUse = true;
+		buffer.clear();
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+/**
+ * A fixed set of preallocated {@link SampleBlock}s for the capture thread.
+ * Blocks come back through {@link SampleBlock#release()}, so a loop that
+ * releases each block before acquiring the next allocates nothing. If the
+ * pool ever runs dry a new block is allocated and counted in
+ * {@link #getAllocationCount()}.
+ */
+public class SampleBlockPool {
+	private final SampleBlock[] free;
+	private final int blockSizeInBytes;
+	private int freeCount;
+	private int allocationCount;
+
+	public SampleBlockPool(int blockSizeInBytes, int poolSize) {
+		this.blockSizeInBytes = blockSizeInBytes;
+		free = new SampleBlock[poolSize];
+		for (int i = 0; i < poolSize; i++) {
+			free[freeCount++] = new SampleBlock(this, blockSizeInBytes);
+		}
+	}
+
+	/**
+	 * @return a cleared block, owned by the caller until it is released
+	 */
+	public SampleBlock acquire() {
+		SampleBlock block = null;
+		synchronized (this) {
+			if (freeCount > 0) {
+				block = free[--freeCount];
+				free[freeCount] = null;
+			} else {
+				allocationCount++;
+			}
+		}
+		if (block == null) {
+			block = new SampleBlock(this, blockSizeInBytes);
+		}
+		block.claim();
+		return block;
+	}
+
+	synchronized void recycle(SampleBlock block) {
+		// blocks allocated past the pool size are left for the GC
+		if (freeCount < free.length) {
+			free[freeCount++] = block;
+		}
+	}
+
+	/**
+	 * @return how many blocks had to be allocated after construction because
+	 *         the pool was empty; stays at zero while consumers keep up
+	 */
+	public synchronized int getAllocationCount() {
+		return allocationCount;
+	}
+
+	public int getBlockSizeInBytes() {
+		return blockSizeInBytes;
+	}
+}
@@ -0,0 +1,228 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Turns a stream of samples into spectrogram columns, one transform every
+ * {@link #getHop()} samples, and keeps the newest {@link #getColumns()} of
+ * them in a circular tile of 8-bit levels. Column {@code c} always lives at
+ * slot {@code c % columns}, {@link #getRows()} bytes from DC upwards, so a
+ * renderer that remembers how many columns it has seen only needs to
+ * upload the slots written since.
+ * 
+ * Columns are written by one thread; {@link #getColumnsWritten()} is only
+ * advanced once a column is complete, so readers on other threads never
+ * see a half-written one unless they fall a whole tile behind.
+ */
+public class SpectrogramEngine {
+	public static final int DEFAULT_SIZE = 1024;
+	public static final int DEFAULT_HOP = DEFAULT_SIZE / 4;
+	public static final int DEFAULT_COLUMNS = 512;
+	/** levels span this many decibels below a full-scale sine */
+	private static final float RANGE_DB = 100;
+	private static final float MIN_POWER = 1e-12f;
+
+	private final Fft fft;
+	private final int hop;
+	private final int columns;
+	private final int rows;
+	private final short[] window;
+	private final float[] power;
+	private final ByteBuffer tile;
+	private short[] incomingSamples;
+	/** samples received, capped once the window is full */
+	private int filled;
+	private int sinceColumn;
+	private volatile long columnsWritten;
+	private final int sampleRate;
+
+	/**
+	 * @param sampleRate
+	 *            of the stream, for labelling
+	 * @param size
+	 *            transform size, a power of two from {@link Fft#MIN_SIZE} to
+	 *            {@link Fft#MAX_SIZE}
+	 * @param hop
+	 *            samples between columns, at least 1
+	 * @param columns
+	 *            how many columns the tile holds; a power of two keeps it
+	 *            usable as a texture
+	 */
+	public SpectrogramEngine(int sampleRate, int size, int hop, int columns) {
+		if (hop < 1 || columns < 1) {
+			throw new IllegalArgumentException("Bad spectrogram hop " + hop
+					+ " or columns " + columns);
+		}
+		fft = new Fft(size);
+		this.sampleRate = sampleRate;
+		this.hop = hop;
+		this.columns = columns;
+		// the Nyquist bin is dropped so the rows are a power of two too
+		rows = size / 2;
+		window = new short[size];
+		power = new float[fft.getBins()];
+		tile = ByteBuffer.allocateDirect(columns * rows);
+		tile.order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Build an overview of a whole recording, with the hop chosen so it
+	 * fills the tile. Only one window per column is read, so a long
+	 * recording costs no more than a short one.
+	 */
+	public static SpectrogramEngine overview(MappedRecording recording,
+			int size, int columns) throws IOException {
+		final long count = recording.getSampleCount();
+		final int hop = (int) Math.max(1, (count + columns - 1) / columns);
+		final SpectrogramEngine engine = new SpectrogramEngine(
+				recording.getSampleRate(), size, hop, columns);
+		final short[] w = engine.window;
+		for (int c = 0; c < columns; c++) {
+			final long end = Math.min(count, (long) (c + 1) * hop);
+			final long start = end - size;
+			final int skip = (int) Math.max(0, -start);
+			final int read = skip < size ? recording.readRange(start + skip, w,
+					skip, size - skip) : 0;
+			Arrays.fill(w, 0, skip, (short) 0);
+			Arrays.fill(w, skip + read, size, (short) 0);
+			engine.writeColumn();
+		}
+		return engine;
+	}
+
+	/**
+	 * Add a block of native-order samples.
+	 * 
+	 * @return the number of columns it completed
+	 */
+	public synchronized int push(ByteBuffer incoming) {
+		incoming.clear();
+		final int n = incoming.remaining() / 2;
+		if (incomingSamples == null || incomingSamples.length < n) {
+			incomingSamples = new short[n];
+		}
+		// absolute reads, so no view of the block is made per push
+		for (int i = 0; i < n; i++) {
+			incomingSamples[i] = incoming.getShort(i * 2);
+		}
+		return add(incomingSamples, 0, n);
+	}
+
+	/**
+	 * Add {@code length} samples from {@code samples}.
+	 * 
+	 * @return the number of columns they completed
+	 */
+	public synchronized int add(short[] samples, int offset, int length) {
+		final int size = window.length;
+		int written = 0;
+		while (length > 0) {
+			final int n = Math.min(length, Math.min(size, hop - sinceColumn));
+			System.arraycopy(window, n, window, 0, size - n);
+			System.arraycopy(samples, offset, window, size - n, n);
+			offset += n;
+			length -= n;
+			filled = Math.min(size, filled + n);
+			sinceColumn += n;
+			if (sinceColumn >= hop) {
+				sinceColumn = 0;
+				if (filled == size) {
+					writeColumn();
+					written++;
+				}
+			}
+		}
+		return written;
+	}
+
+	/**
+	 * Transform the window and quantize it into the next slot.
+	 */
+	private void writeColumn() {
+		fft.powerSpectrum(window, 0, power);
+		final int base = getSlot(columnsWritten) * rows;
+		for (int k = 0; k < rows; k++) {
+			final float db = (float) (10 * Math.log10(Math.max(power[k],
+					MIN_POWER)));
+			final int level = (int) ((db + RANGE_DB) * (255 / RANGE_DB));
+			tile.put(base + k, (byte) Math.max(0, Math.min(255, level)));
+		}
+		columnsWritten++;
+	}
+
+	/**
+	 * Start again from an empty window; the tile keeps its old columns until
+	 * they are overwritten.
+	 */
+	public synchronized void reset() {
+		filled = 0;
+		sinceColumn = 0;
+	}
+
+	/**
+	 * @return the tile, {@link #getColumns()} slots of {@link #getRows()}
+	 *         levels each; callers should use a duplicate to move its
+	 *         position
+	 */
+	public ByteBuffer getTile() {
+		return tile;
+	}
+
+	/**
+	 * @return the slot column {@code column} is written to
+	 */
+	public int getSlot(long column) {
+		return (int) (column % columns);
+	}
+
+	/**
+	 * @return how many columns have been completed so far
+	 */
+	public long getColumnsWritten() {
+		return columnsWritten;
+	}
+
+	public int getColumns() {
+		return columns;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public int getHop() {
+		return hop;
+	}
+
+	public int getSize() {
+		return window.length;
+	}
+
+	/**
+	 * @return the sample rate the columns' times and frequencies refer to
+	 */
+	public int getSampleRate() {
+		return sampleRate;
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps an averaged spectrum of the newest samples. Every block pushed
+ * triggers a transform over the last {@link #getSize()} samples, so
+ * successive transforms overlap and the display keeps up with the input;
+ * the powers are folded into an exponential average over the last
+ * {@link #getAverages()} transforms.
+ */
+public class SpectrumAnalyzer {
+	public static final int DEFAULT_SIZE = 4096;
+	public static final int DEFAULT_AVERAGES = 4;
+	/** floor for converting powers to decibels */
+	private static final float MIN_POWER = 1e-12f;
+
+	private final RingBuffer history = new RingBuffer(Fft.MAX_SIZE);
+	private Fft fft;
+	private int averages;
+	private short[] latest;
+	private float[] power;
+	private float[] averaged;
+	private int transformsAveraged;
+	private int sampleRate = TriggerAverager.DEFAULT_SAMPLE_RATE;
+
+	public SpectrumAnalyzer() {
+		configure(DEFAULT_SIZE, DEFAULT_AVERAGES);
+	}
+
+	/**
+	 * Change the transform size (a power of two from {@link Fft#MIN_SIZE} to
+	 * {@link Fft#MAX_SIZE}) and how many transforms are averaged. A new size
+	 * starts the average over.
+	 */
+	public synchronized void configure(int size, int averages) {
+		this.averages = Math.max(1, averages);
+		if (fft == null || fft.getSize() != size) {
+			fft = new Fft(size);
+			latest = new short[size];
+			power = new float[fft.getBins()];
+			averaged = new float[fft.getBins()];
+			transformsAveraged = 0;
+		}
+		if (transformsAveraged > this.averages) {
+			transformsAveraged = this.averages;
+		}
+	}
+
+	/**
+	 * Add a block of native-order samples and update the average once
+	 * there are enough samples for a transform.
+	 * 
+	 * @return true if the spectrum changed
+	 */
+	public synchronized boolean push(ByteBuffer incoming) {
+		incoming.clear();
+		history.add(incoming);
+		if (history.getWritten() < latest.length) {
+			return false;
+		}
+		history.readLatest(latest, latest.length);
+		fft.powerSpectrum(latest, 0, power);
+		if (transformsAveraged < averages) {
+			transformsAveraged++;
+		}
+		final float weight = 1f / transformsAveraged;
+		for (int k = 0; k < power.length; k++) {
+			averaged[k] += (power[k] - averaged[k]) * weight;
+		}
+		return true;
+	}
+
+	/**
+	 * Copy the averaged spectrum into {@code dst} in decibels relative to a
+	 * full-scale sine, one value per bin from DC to Nyquist.
+	 * 
+	 * @return the number of bins copied
+	 */
+	public synchronized int getSpectrumDb(float[] dst) {
+		final int n = Math.min(dst.length, averaged.length);
+		for (int k = 0; k < n; k++) {
+			dst[k] = (float) (10 * Math.log10(Math.max(averaged[k], MIN_POWER)));
+		}
+		return n;
+	}
+
+	/**
+	 * Follow a change in the stream's sample rate; the average starts over.
+	 */
+	public synchronized void setSampleRate(int rate) {
+		sampleRate = rate;
+		for (int k = 0; k < averaged.length; k++) {
+			averaged[k] = 0;
+		}
+		transformsAveraged = 0;
+	}
+
+	public synchronized int getSize() {
+		return fft.getSize();
+	}
+
+	public synchronized int getBins() {
+		return fft.getBins();
+	}
+
+	public synchronized int getAverages() {
+		return averages;
+	}
+
+	/**
+	 * @return the frequency at the centre of bin {@code k}
+	 */
+	public synchronized float getBinFrequency(int k) {
+		return k * (float) sampleRate / fft.getSize();
+	}
+}
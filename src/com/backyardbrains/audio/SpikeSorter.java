@@ -0,0 +1,400 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Pulls individual spikes out of the live stream and sorts them into
+ * clusters as they arrive. Spikes are found with an {@link EdgeDetector} on
+ * the same threshold the trigger view uses; each one is cut from recent
+ * history, reduced to a few features and assigned to the nearest cluster by
+ * sequential (online) k-means, which also moves that cluster's centroid and
+ * mean waveform towards it.
+ * 
+ * Everything is sized up front, so sorting a spike allocates nothing and a
+ * block costs at most a fixed number of spikes' worth of work.
+ */
+public class SpikeSorter {
+
+	public static final int DEFAULT_MAX_CLUSTERS = 3;
+	public static final float DEFAULT_PRE_SPIKE_MS = 0.5f;
+	public static final float DEFAULT_POST_SPIKE_MS = 1.5f;
+	/** peak amplitude, trough-to-peak width and RMS energy */
+	public static final int FEATURES = 3;
+	public static final int FEATURE_PEAK = 0;
+	public static final int FEATURE_WIDTH = 1;
+	public static final int FEATURE_ENERGY = 2;
+	private static final float HYSTERESIS_FRACTION = 0.25f;
+	/**
+	 * a spike further than this from every centroid (in normalised feature
+	 * units) starts a new cluster while there is room for one
+	 */
+	private static final float NEW_CLUSTER_DISTANCE = 0.5f;
+	/**
+	 * centroids and mean waveforms weigh new spikes at least 1 / this, so
+	 * they keep following slow drift in the recording
+	 */
+	private static final int ADAPTATION_WINDOW = 500;
+
+	private final EdgeDetector detector;
+	private final int maxClusters;
+	private final int preSpikeSamples;
+	private final int postSpikeSamples;
+	private final int spikeLength;
+	private RingBuffer history;
+	private short[] incomingAsArray;
+	private int[] events;
+	/** history indices of spikes waiting for their tail */
+	private long[] pendingSpikes;
+	/** stream index minus history index when each pending spike was found */
+	private long[] pendingOffsets;
+	private int pendingHead;
+	private int pendingCount;
+	private int threshold;
+
+	private final short[] waveform;
+	private final float[] features = new float[FEATURES];
+	private int clusters;
+	private final float[][] centroids;
+	private final float[][] meanWaveforms;
+	private final long[] spikeCounts;
+	private long totalSpikes;
+	private SpikeListener spikeListener;
+
+	/**
+	 * @param sampleRate
+	 *            of the stream to be sorted; the spike window is sized from
+	 *            it, so a new rate needs a new sorter
+	 */
+	public SpikeSorter(int sampleRate) {
+		this(sampleRate, DEFAULT_MAX_CLUSTERS, DEFAULT_PRE_SPIKE_MS,
+				DEFAULT_POST_SPIKE_MS);
+	}
+
+	public SpikeSorter(int sampleRate, int maxClusters, float preSpikeMs,
+			float postSpikeMs) {
+		this.maxClusters = Math.max(1, maxClusters);
+		preSpikeSamples = Math.max(0, msToSamples(preSpikeMs, sampleRate));
+		postSpikeSamples = Math.max(2, msToSamples(postSpikeMs, sampleRate));
+		spikeLength = preSpikeSamples + postSpikeSamples;
+		// a spike's window can't hold another spike
+		detector = new EdgeDetector(0, 0, postSpikeSamples);
+		waveform = new short[spikeLength];
+		incomingAsArray = new short[0];
+		ensureHistory();
+		centroids = new float[this.maxClusters][FEATURES];
+		meanWaveforms = new float[this.maxClusters][spikeLength];
+		spikeCounts = new long[this.maxClusters];
+	}
+
+	/**
+	 * Told of each spike as it is sorted.
+	 */
+	public interface SpikeListener {
+		/**
+		 * @param sampleIndex
+		 *            where the spike crossed the threshold, on the clock
+		 *            passed to {@link SpikeSorter#push(ByteBuffer, long)}
+		 */
+		void onSpike(long sampleIndex, int cluster);
+
+		/**
+		 * Every spike before {@code sampleIndex} has now been reported.
+		 */
+		void onStreamPosition(long sampleIndex);
+	}
+
+	public synchronized void setSpikeListener(SpikeListener listener) {
+		spikeListener = listener;
+	}
+
+	/**
+	 * Use a new detection threshold. Features are measured relative to it,
+	 * so the clusters start over when it changes.
+	 */
+	public synchronized void setThreshold(int threshold) {
+		if (threshold == this.threshold) {
+			return;
+		}
+		this.threshold = threshold;
+		detector.setThreshold(threshold);
+		detector.setHysteresis((int) (Math.abs(threshold) * HYSTERESIS_FRACTION));
+		pendingCount = 0;
+		reset();
+	}
+
+	public synchronized int getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * Forget every cluster.
+	 */
+	public synchronized void reset() {
+		clusters = 0;
+		totalSpikes = 0;
+		for (int c = 0; c < maxClusters; c++) {
+			spikeCounts[c] = 0;
+		}
+	}
+
+	/**
+	 * Detect the spikes in a block of native-order samples and sort every
+	 * spike whose window is now complete.
+	 * 
+	 * @return the number of spikes sorted
+	 */
+	public int push(ByteBuffer incoming) {
+		return push(incoming, -1);
+	}
+
+	/**
+	 * As {@link #push(ByteBuffer)}, for a block whose first sample is
+	 * {@code streamStart} on a clock shared with other consumers (or -1 to
+	 * count from the first block pushed here). Spikes are reported to the
+	 * {@link SpikeListener} on that clock.
+	 */
+	public synchronized int push(ByteBuffer incoming, long streamStart) {
+		incoming.clear();
+		final int length = incoming.remaining() / 2;
+		if (length > incomingAsArray.length) {
+			// longer than setMaxBlockSamples allowed for; grow once
+			incomingAsArray = new short[length];
+			ensureHistory();
+		}
+		// absolute reads, so no view of the block is made per push
+		for (int i = 0; i < length; i++) {
+			incomingAsArray[i] = incoming.getShort(i * 2);
+		}
+		final long blockStart = history.getWritten();
+		final long streamOffset = streamStart >= 0 ? streamStart - blockStart : 0;
+		history.add(incomingAsArray, 0, length);
+		if (threshold == 0) {
+			return 0;
+		}
+
+		final int found = detector.scan(incomingAsArray, 0, length, events);
+		for (int e = 0; e < found; e++) {
+			final long index = blockStart + events[e];
+			if (index < preSpikeSamples) {
+				continue;
+			}
+			if (pendingCount == pendingSpikes.length) {
+				pendingHead = (pendingHead + 1) % pendingSpikes.length;
+				pendingCount--;
+			}
+			final int slot = (pendingHead + pendingCount) % pendingSpikes.length;
+			pendingSpikes[slot] = index;
+			pendingOffsets[slot] = streamOffset;
+			pendingCount++;
+		}
+
+		final long written = history.getWritten();
+		int sorted = 0;
+		while (pendingCount > 0) {
+			final long spike = pendingSpikes[pendingHead];
+			if (spike + postSpikeSamples > written) {
+				break;
+			}
+			final long offset = pendingOffsets[pendingHead];
+			pendingHead = (pendingHead + 1) % pendingSpikes.length;
+			pendingCount--;
+			history.readRange(spike - preSpikeSamples, waveform, 0, spikeLength);
+			extractFeatures();
+			final int cluster = assign();
+			if (spikeListener != null) {
+				spikeListener.onSpike(spike + offset, cluster);
+			}
+			sorted++;
+		}
+		if (spikeListener != null) {
+			// anything still pending crossed after this
+			spikeListener.onStreamPosition(written - postSpikeSamples
+					+ streamOffset + 1);
+		}
+		return sorted;
+	}
+
+	/**
+	 * Size the history for a spike window plus the longest block, and the
+	 * queue and event arrays for as many spikes as can fit in that. The
+	 * history and any pending spikes carry over.
+	 */
+	private void ensureHistory() {
+		final int blockLength = incomingAsArray.length;
+		final int needed = spikeLength + blockLength;
+		if (history == null) {
+			history = new RingBuffer(needed);
+		} else if (history.getCapacity() < needed) {
+			history = new RingBuffer(needed, history);
+		}
+		events = new int[detector.maxEventsPerBlock(blockLength)];
+		final int maxPending = detector.maxEventsPerBlock(postSpikeSamples
+				+ blockLength);
+		if (pendingSpikes == null || pendingSpikes.length < maxPending) {
+			final long[] spikes = new long[maxPending];
+			final long[] offsets = new long[maxPending];
+			for (int i = 0; i < pendingCount; i++) {
+				final int from = (pendingHead + i) % pendingSpikes.length;
+				spikes[i] = pendingSpikes[from];
+				offsets[i] = pendingOffsets[from];
+			}
+			pendingSpikes = spikes;
+			pendingOffsets = offsets;
+			pendingHead = 0;
+		}
+	}
+
+	/**
+	 * Size everything for blocks of up to {@code samples} samples, the most
+	 * the dispatcher feeding this can hand over at once, so blocks of any
+	 * length up to that are sorted without allocating.
+	 */
+	public synchronized void setMaxBlockSamples(int samples) {
+		if (samples > incomingAsArray.length) {
+			incomingAsArray = new short[samples];
+			ensureHistory();
+		}
+	}
+
+	/**
+	 * Measure the spike in {@link #waveform}. The peak is the extreme on the
+	 * threshold's side of zero and the trough the opposite extreme after it;
+	 * amplitude and energy are in units of the threshold and width in units
+	 * of the post-spike window, so all three are of similar size.
+	 */
+	private void extractFeatures() {
+		final boolean positive = threshold > 0;
+		int peakIndex = preSpikeSamples;
+		long energy = 0;
+		for (int i = 0; i < spikeLength; i++) {
+			final int s = waveform[i];
+			energy += s * s;
+			if (i >= preSpikeSamples
+					&& (positive ? s > waveform[peakIndex] : s < waveform[peakIndex])) {
+				peakIndex = i;
+			}
+		}
+		int troughIndex = peakIndex;
+		for (int i = peakIndex + 1; i < spikeLength; i++) {
+			final int s = waveform[i];
+			if (positive ? s < waveform[troughIndex] : s > waveform[troughIndex]) {
+				troughIndex = i;
+			}
+		}
+		final float scale = Math.abs(threshold);
+		features[FEATURE_PEAK] = Math.abs(waveform[peakIndex]) / scale;
+		features[FEATURE_WIDTH] = (troughIndex - peakIndex)
+				/ (float) postSpikeSamples;
+		features[FEATURE_ENERGY] = (float) Math.sqrt(energy
+				/ (double) spikeLength) / scale;
+	}
+
+	/**
+	 * Put the spike in the nearest cluster, or a new one if it is far from
+	 * all of them and there is room, and pull that cluster towards it.
+	 * 
+	 * @return the cluster
+	 */
+	private int assign() {
+		int nearest = -1;
+		float nearestDistance = Float.MAX_VALUE;
+		for (int c = 0; c < clusters; c++) {
+			float d = 0;
+			for (int f = 0; f < FEATURES; f++) {
+				final float diff = features[f] - centroids[c][f];
+				d += diff * diff;
+			}
+			if (d < nearestDistance) {
+				nearestDistance = d;
+				nearest = c;
+			}
+		}
+		if (nearest < 0
+				|| (clusters < maxClusters && nearestDistance > NEW_CLUSTER_DISTANCE
+						* NEW_CLUSTER_DISTANCE)) {
+			nearest = clusters++;
+			spikeCounts[nearest] = 0;
+		}
+		final long count = ++spikeCounts[nearest];
+		totalSpikes++;
+		final float rate = 1f / Math.min(count, ADAPTATION_WINDOW);
+		final float[] centroid = centroids[nearest];
+		for (int f = 0; f < FEATURES; f++) {
+			centroid[f] += (features[f] - centroid[f]) * rate;
+		}
+		final float[] mean = meanWaveforms[nearest];
+		for (int i = 0; i < spikeLength; i++) {
+			mean[i] += (waveform[i] - mean[i]) * rate;
+		}
+		return nearest;
+	}
+
+	/**
+	 * @return how many clusters have been found so far
+	 */
+	public synchronized int getClusterCount() {
+		return clusters;
+	}
+
+	public int getMaxClusters() {
+		return maxClusters;
+	}
+
+	/**
+	 * @return how many spikes have been put in {@code cluster}
+	 */
+	public synchronized long getSpikeCount(int cluster) {
+		return cluster < clusters ? spikeCounts[cluster] : 0;
+	}
+
+	public synchronized long getTotalSpikeCount() {
+		return totalSpikes;
+	}
+
+	/**
+	 * Copy the mean waveform of {@code cluster} into {@code dst}, which
+	 * needs {@link #getSpikeLength()} elements. The spike's threshold
+	 * crossing is at {@link #getPreSpikeSamples()}.
+	 */
+	public synchronized void getMeanWaveform(int cluster, float[] dst) {
+		System.arraycopy(meanWaveforms[cluster], 0, dst, 0, spikeLength);
+	}
+
+	/**
+	 * Copy the feature centroid of {@code cluster} into {@code dst},
+	 * indexed by the {@code FEATURE_} constants.
+	 */
+	public synchronized void getCentroid(int cluster, float[] dst) {
+		System.arraycopy(centroids[cluster], 0, dst, 0, FEATURES);
+	}
+
+	public int getSpikeLength() {
+		return spikeLength;
+	}
+
+	public int getPreSpikeSamples() {
+		return preSpikeSamples;
+	}
+
+	private static int msToSamples(float ms, int sampleRate) {
+		return (int) (ms * sampleRate / 1000);
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Generates a Poisson spike train on top of Gaussian noise, so the
+ * pipeline can be exercised with a known signal and no microphone. The
+ * output is deterministic for a given seed.
+ */
+public class SyntheticSpikeSource extends PacedAudioSource {
+	private static final int BUFFER_SIZE_IN_BYTES = 4096;
+	/** length of one spike waveform */
+	private static final float SPIKE_DURATION_MS = 2f;
+
+	private final int sampleRate;
+	private final float spikesPerSecond;
+	private final short spikeAmplitude;
+	private final float noiseAmplitude;
+	private final long seed;
+	private final short[] spikeShape;
+	private Random random;
+	/** samples until the next spike starts */
+	private long untilNextSpike;
+	/** position inside the spike being drawn, or -1 */
+	private int spikePosition;
+
+	/**
+	 * @param spikesPerSecond
+	 *            mean firing rate of the spike train
+	 * @param spikeAmplitude
+	 *            peak of each spike in PCM units
+	 * @param noiseAmplitude
+	 *            standard deviation of the background noise in PCM units
+	 */
+	public SyntheticSpikeSource(int sampleRate, float spikesPerSecond,
+			short spikeAmplitude, float noiseAmplitude, boolean realTime,
+			long seed) {
+		super(realTime);
+		this.sampleRate = sampleRate;
+		this.spikesPerSecond = spikesPerSecond;
+		this.spikeAmplitude = spikeAmplitude;
+		this.noiseAmplitude = noiseAmplitude;
+		this.seed = seed;
+		spikeShape = buildSpikeShape(sampleRate, spikeAmplitude);
+	}
+
+	/**
+	 * A biphasic action potential: a sharp positive peak followed by a
+	 * shallower, wider trough.
+	 */
+	private static short[] buildSpikeShape(int sampleRate, short amplitude) {
+		final int length = Math.max(4,
+				(int) (SPIKE_DURATION_MS * sampleRate / 1000));
+		final short[] shape = new short[length];
+		final int peak = length / 4;
+		for (int i = 0; i < length; i++) {
+			final double t = (double) (i - peak) / length;
+			final double value = Math.exp(-t * t * 400) - 0.4
+					* Math.exp(-(t - 0.25) * (t - 0.25) * 60);
+			shape[i] = (short) (amplitude * value);
+		}
+		return shape;
+	}
+
+	@Override
+	public void open() {
+		random = new Random(seed);
+		untilNextSpike = nextInterval();
+		spikePosition = -1;
+		startClock();
+	}
+
+	private long nextInterval() {
+		if (spikesPerSecond <= 0) {
+			return Long.MAX_VALUE;
+		}
+		final double u = 1.0 - random.nextDouble();
+		return (long) (-Math.log(u) * sampleRate / spikesPerSecond);
+	}
+
+	@Override
+	public int read(ByteBuffer dst, int sizeInBytes) {
+		if (random == null) {
+			return -1;
+		}
+		final int samples = sizeInBytes / 2;
+		dst.clear();
+		for (int i = 0; i < samples; i++) {
+			int value = (int) (random.nextGaussian() * noiseAmplitude);
+			if (spikePosition < 0 && --untilNextSpike <= 0) {
+				spikePosition = 0;
+				untilNextSpike = nextInterval();
+			}
+			if (spikePosition >= 0) {
+				value += spikeShape[spikePosition++];
+				if (spikePosition == spikeShape.length) {
+					spikePosition = -1;
+				}
+			}
+			dst.putShort((short) Math.max(Short.MIN_VALUE,
+					Math.min(Short.MAX_VALUE, value)));
+		}
+		pace(samples);
+		return samples * 2;
+	}
+
+	@Override
+	public void close() {
+		random = null;
+	}
+
+	@Override
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	@Override
+	public int getBufferSizeInBytes() {
+		return BUFFER_SIZE_IN_BYTES;
+	}
+
+	public short getSpikeAmplitude() {
+		return spikeAmplitude;
+	}
+}
@@ -20,131 +20,513 @@
 package com.backyardbrains.audio;
 
 import java.nio.ByteBuffer;
-import java.nio.ShortBuffer;
-import java.util.ArrayList;
 
 import android.os.Handler;
 
+/**
+ * Averages sweeps of audio around threshold crossings. The average is
+ * kept as a running per-sample sum over the last {@link #getMaxsize()}
+ * sweeps: each new sweep is added in and the sweep it evicts is subtracted,
+ * so an update costs O(sweep length) no matter how many sweeps are averaged.
+ * 
+ * Triggers come from an {@link EdgeDetector}, so a spike yields one sweep
+ * however long it stays past the threshold. Each sweep is cut from a
+ * contiguous stretch of recent history, {@link #getPreTriggerMillis()}
+ * before the trigger to {@link #getPostTriggerMillis()} after it, once
+ * enough later blocks have arrived to fill the post-trigger part.
+ * 
+ * With several channels, only the trigger channel is scanned, and each
+ * sweep is cut from every channel at the same stream position, so the
+ * other channels are averaged around the trigger channel's spikes. Each
+ * channel arrives through its own {@link #push(int, ByteBuffer, long)} and
+ * the histories are kept lined up on the stream clock.
+ */
 public class TriggerAverager {
 
 	// private static final String TAG = TriggerAverager.class.getCanonicalName();
+	public static final int DEFAULT_SAMPLE_RATE = 44100;
+	/** a spike and its after-ringing are over well within this */
+	public static final float DEFAULT_DEAD_TIME_MS = 5;
+	/** re-arm once the signal falls back this far inside the threshold */
+	private static final float HYSTERESIS_FRACTION = 0.25f;
+	public static final float DEFAULT_PRE_TRIGGER_MS = 25;
+	public static final float DEFAULT_POST_TRIGGER_MS = 25;
+	/**
+	 * how many blocks one channel's consumer may get ahead of another's
+	 * before its dispatcher starts dropping blocks, and so how much extra
+	 * history each channel keeps
+	 */
+	private static final int CHANNEL_SKEW_BLOCKS = 32;
 	private int maxsize;
-	private short[] averagedSamples;
-	private ArrayList<short[]> sampleBuffersInAverage;
+	/** the average of each channel */
+	private short[][] averagedSamples;
+	/**
+	 * per-sample sum of every sweep currently in the average, one sweep
+	 * length per channel
+	 */
+	private long[] runningSum;
+	/**
+	 * ring of the sweeps in the average, oldest at {@link #oldestSweep};
+	 * each holds every channel's window one after another
+	 */
+	private short[][] sweeps;
+	private int oldestSweep;
+	private int sweepCount;
+	private short[] incomingAsArray;
+	private final EdgeDetector detector;
+	private int channels = 1;
+	private int triggerChannel;
+	/**
+	 * recent input of each channel, so sweeps can span block boundaries,
+	 * indexed by stream position where the stream clock is given
+	 */
+	private RingBuffer[] histories;
+	private int preTriggerSamples;
+	private int postTriggerSamples;
+	/**
+	 * absolute sample indices of triggers waiting for their post-trigger
+	 * window, oldest at {@link #pendingHead}
+	 */
+	private long[] pendingTriggers;
+	private int pendingHead;
+	private int pendingCount;
+	/** indices of the crossings found in the current block */
+	private int[] events;
 
 	private Handler handler;
-	private int triggerValue;
+	private TriggerListener triggerListener;
+	/** stream index minus history index for the block being scanned */
+	private long streamOffset;
+	private volatile int triggerValue;
 	private int lastTriggeredValue;
+	private int sampleRate = DEFAULT_SAMPLE_RATE;
 
 	public TriggerAverager(int size) {
+		incomingAsArray = new short[0];
+		detector = new EdgeDetector(0, 0, msToSamples(DEFAULT_DEAD_TIME_MS));
+		preTriggerSamples = msToSamples(DEFAULT_PRE_TRIGGER_MS);
+		postTriggerSamples = msToSamples(DEFAULT_POST_TRIGGER_MS);
+		ensureHistory();
+		sweeps = new short[Math.max(size, 1)][];
 		resetBuffers();
 		setMaxsize(size);
 		handler = new TriggerHandler();
 	}
 
-	public void resetBuffers() {
-		sampleBuffersInAverage = new ArrayList<short[]>();
+	public synchronized void resetBuffers() {
+		for (int i = 0; i < sweeps.length; i++) {
+			sweeps[i] = null;
+		}
+		oldestSweep = 0;
+		sweepCount = 0;
+		runningSum = null;
 		averagedSamples = null;
 	}
 
-	public void push (ByteBuffer incoming) {
-		incoming.clear();
-		//Log.d(TAG, "Got buffer of samples: "+incoming.capacity());
+	/**
+	 * Told of each trigger as it is found.
+	 */
+	public interface TriggerListener {
+		/**
+		 * @param sampleIndex
+		 *            where the trigger fell, on the clock passed to
+		 *            {@link TriggerAverager#push(ByteBuffer, long)}
+		 */
+		void onTrigger(long sampleIndex);
+	}
 
-		ShortBuffer sb = incoming.asShortBuffer();
+	public synchronized void setTriggerListener(TriggerListener listener) {
+		triggerListener = listener;
+	}
 
-		short[] incomingAsArray = new short [sb.capacity()];
-		sb.get(incomingAsArray, 0, incomingAsArray.length);
-		
-		// Scan for triggers 
+	/**
+	 * Scan a block for triggers and fold in any sweeps it completes.
+	 * 
+	 * @return true if the average changed
+	 */
+	public boolean push(ByteBuffer incoming) {
+		return push(incoming, -1);
+	}
 
-		
-		for (int i = 0; i<incomingAsArray.length; i++) {
-			short s = incomingAsArray[i];
+	/**
+	 * As {@link #push(ByteBuffer)}, for a block whose first sample is
+	 * {@code streamStart} on a clock shared with other consumers (or -1 to
+	 * count from the first block pushed here). Triggers are reported to the
+	 * {@link TriggerListener} on that clock.
+	 */
+	public synchronized boolean push(ByteBuffer incoming, long streamStart) {
+		return push(triggerChannel, incoming, streamStart);
+	}
 
-			if ((triggerValue >= 0 && s > triggerValue) || (triggerValue < 0 && s < triggerValue)) {
-				if(lastTriggeredValue != triggerValue) {
-					resetBuffers();
-					lastTriggeredValue = triggerValue;
-				}
-				incomingAsArray = wrapToCenter(incomingAsArray, i);
-				pushToSampleBuffers(incomingAsArray);
+	/**
+	 * As {@link #push(ByteBuffer, long)}, for a block of {@code channel}.
+	 * Only the trigger channel is scanned; a block of any other channel is
+	 * just kept for cutting sweeps, which it may complete.
+	 */
+	public synchronized boolean push(int channel, ByteBuffer incoming,
+			long streamStart) {
+		incoming.clear();
+		final int length = incoming.remaining() / 2;
+		if (length > incomingAsArray.length) {
+			// longer than setMaxBlockSamples allowed for; grow once
+			incomingAsArray = new short[length];
+			ensureHistory();
+		}
+		// absolute reads, so no view of the block is made per push
+		for (int i = 0; i < length; i++) {
+			incomingAsArray[i] = incoming.getShort(i * 2);
+		}
+		if (channel != triggerChannel) {
+			final RingBuffer h = histories[channel];
+			if (streamStart > h.getWritten()) {
+				h.skipTo(streamStart);
 			}
+			h.add(incomingAsArray, 0, length);
+			return completePendingSweeps();
 		}
-		
-		if (averagedSamples == null) {
+		//Log.d(TAG, "Got buffer of samples: "+incoming.capacity());
+
+		final RingBuffer history = histories[triggerChannel];
+		if (streamStart > history.getWritten()) {
+			// blocks were dropped; leave a gap so the channels stay lined up
+			history.skipTo(streamStart);
+		}
+		final long blockStart = history.getWritten();
+		streamOffset = streamStart >= 0 ? streamStart - blockStart : 0;
+		history.add(incomingAsArray, 0, length);
+
+		// Scan for crossings and queue them until their post-trigger
+		// window has arrived
+		if (detector.getThreshold() != triggerValue) {
+			detector.setThreshold(triggerValue);
+			detector.setHysteresis((int) (Math.abs(triggerValue) * HYSTERESIS_FRACTION));
+			pendingCount = 0;
+		}
+		final int found = detector.scan(incomingAsArray, 0, length, events);
+		for (int e = 0; e < found; e++) {
+			queueTrigger(blockStart + events[e]);
+		}
+
+		return completePendingSweeps();
+	}
+
+	/**
+	 * Remember a trigger at absolute sample {@code index}. Triggers too close
+	 * to the start of the stream to have a full pre-trigger window are
+	 * skipped; if the queue is full the oldest trigger is given up.
+	 */
+	private void queueTrigger(long index) {
+		if (index < preTriggerSamples) {
 			return;
 		}
-		
-		for(int i = 0; i < averagedSamples.length; i++) {
-			Integer curAvg = 0;
-			for (short[] prev : sampleBuffersInAverage) {
-				curAvg += prev[i];
-			}
-			curAvg /= sampleBuffersInAverage.size();
-			averagedSamples[i] = curAvg.shortValue();
+		if (pendingCount == pendingTriggers.length) {
+			pendingHead = (pendingHead + 1) % pendingTriggers.length;
+			pendingCount--;
+		}
+		pendingTriggers[(pendingHead + pendingCount) % pendingTriggers.length] = index;
+		pendingCount++;
+		if (triggerListener != null) {
+			triggerListener.onTrigger(index + streamOffset);
 		}
 	}
 
-	private short[] wrapToCenter(short[] incomingAsArray, int index) {
-		final int middleOfArray = incomingAsArray.length / 2;
-		// create a new array to copy the adjusted samples into
-		short [] sampleChunk = new short[incomingAsArray.length];
-		int sampleChunkPosition = 0;
-		if(index > middleOfArray) {
-			// Log.d(TAG, "Wrapping from end onto beginning");
-			final int samplesToMove = index - middleOfArray;
-			for (int i = 0; i<incomingAsArray.length-samplesToMove; i++) {
-				sampleChunk[sampleChunkPosition++] = incomingAsArray[i+samplesToMove];
+	/**
+	 * Cut every queued trigger whose post-trigger window is now in the
+	 * history of every channel straight into a sweep slot and add it to the
+	 * average. A trigger whose window some channel has already overwritten
+	 * is given up.
+	 * 
+	 * @return true if any sweep was added
+	 */
+	private boolean completePendingSweeps() {
+		long written = Long.MAX_VALUE;
+		long oldest = 0;
+		for (RingBuffer h : histories) {
+			written = Math.min(written, h.getWritten());
+			oldest = Math.max(oldest, h.getWritten() - h.getCapacity());
+		}
+		final int length = preTriggerSamples + postTriggerSamples;
+		boolean added = false;
+		while (pendingCount > 0) {
+			final long trigger = pendingTriggers[pendingHead];
+			if (trigger + postTriggerSamples > written) {
+				break;
 			}
-			for (int i = 0; i<samplesToMove; i++) {
-				sampleChunk[sampleChunkPosition++] = incomingAsArray[i];
+			pendingHead = (pendingHead + 1) % pendingTriggers.length;
+			pendingCount--;
+			final long start = trigger - preTriggerSamples;
+			if (start < oldest) {
+				continue;
 			}
-		} else {
-			// it's near beginning, wrap from end on to front
-			// Log.d(TAG, "Wrapping from beginning onto end");
-			final int samplesToMove = middleOfArray - index;
-			for (int i = incomingAsArray.length - samplesToMove - 1; i < incomingAsArray.length; i++) {
-				sampleChunk[sampleChunkPosition++] = incomingAsArray[i];
+			if (lastTriggeredValue != triggerValue) {
+				resetBuffers();
+				lastTriggeredValue = triggerValue;
 			}
-			for (int i = 0; i<incomingAsArray.length - samplesToMove -1; i++) {
-				sampleChunk[sampleChunkPosition++] = incomingAsArray[i];
+			final short[] sweep = nextSweepSlot(length * channels);
+			for (int c = 0; c < channels; c++) {
+				histories[c].readRange(start, sweep, c * length, length);
 			}
-			
+			addSweep(sweep);
+			added = true;
+		}
+		if (added) {
+			updateAverage();
 		}
-		return sampleChunk;
+		return added;
 	}
 
-	private void pushToSampleBuffers(short[] incomingAsArray) {
-		if (averagedSamples == null) {
-			averagedSamples = incomingAsArray;
-			sampleBuffersInAverage.add(incomingAsArray);
-			return;
+	/**
+	 * Size the sample histories, trigger queue and scratch arrays for the
+	 * current window, the longest block and the channels. A history has to
+	 * reach back over a whole window plus the block that completed it, and
+	 * with several channels also over however far the other channels may
+	 * have got ahead. Whatever is already held, queued triggers included,
+	 * carries over into anything that has to grow.
+	 */
+	private void ensureHistory() {
+		final int blockLength = incomingAsArray.length;
+		final int skew = channels > 1 ? blockLength * CHANNEL_SKEW_BLOCKS : 0;
+		final int needed = preTriggerSamples + postTriggerSamples + blockLength
+				+ skew;
+		if (histories == null || histories.length != channels) {
+			histories = new RingBuffer[channels];
+			for (int c = 0; c < channels; c++) {
+				histories[c] = new RingBuffer(needed);
+			}
+		} else if (histories[0].getCapacity() < needed) {
+			for (int c = 0; c < channels; c++) {
+				histories[c] = new RingBuffer(needed, histories[c]);
+			}
 		}
+		final int maxPending = detector.maxEventsPerBlock(postTriggerSamples
+				+ blockLength + skew);
+		if (pendingTriggers == null || pendingTriggers.length < maxPending) {
+			final long[] grown = new long[maxPending];
+			for (int i = 0; i < pendingCount; i++) {
+				grown[i] = pendingTriggers[(pendingHead + i) % pendingTriggers.length];
+			}
+			pendingTriggers = grown;
+			pendingHead = 0;
+		}
+		final int maxEvents = detector.maxEventsPerBlock(blockLength);
+		if (events == null || events.length < maxEvents) {
+			events = new int[maxEvents];
+		}
+	}
 
-		while (sampleBuffersInAverage.size() >= getMaxsize()) {
-			sampleBuffersInAverage.remove(0);
+	/**
+	 * Size everything for blocks of up to {@code samples} samples, the most
+	 * the dispatcher feeding this can hand over at once, so blocks of any
+	 * length up to that are taken without allocating.
+	 */
+	public synchronized void setMaxBlockSamples(int samples) {
+		if (samples > incomingAsArray.length) {
+			incomingAsArray = new short[samples];
+			ensureHistory();
+		}
+	}
+
+	/**
+	 * Make room for one more sweep of {@code length} samples, evicting the
+	 * oldest one if the average is full, and return an array to fill. The
+	 * evicted sweep's array is reused when the length matches.
+	 */
+	private short[] nextSweepSlot(int length) {
+		if (runningSum != null && runningSum.length != length) {
+			resetBuffers();
+		}
+		if (runningSum == null) {
+			runningSum = new long[length];
+			averagedSamples = new short[channels][length / channels];
+		}
+		short[] recycled = null;
+		if (sweepCount >= maxsize) {
+			recycled = evictOldest();
+		}
+		return recycled != null ? recycled : new short[length];
+	}
+
+	private void addSweep(short[] sweep) {
+		for (int i = 0; i < sweep.length; i++) {
+			runningSum[i] += sweep[i];
+		}
+		sweeps[(oldestSweep + sweepCount) % sweeps.length] = sweep;
+		sweepCount++;
+	}
+
+	/**
+	 * Subtract the oldest sweep out of the running sum and drop it.
+	 * 
+	 * @return the evicted sweep's array
+	 */
+	private short[] evictOldest() {
+		final short[] oldest = sweeps[oldestSweep];
+		for (int i = 0; i < oldest.length; i++) {
+			runningSum[i] -= oldest[i];
+		}
+		sweeps[oldestSweep] = null;
+		oldestSweep = (oldestSweep + 1) % sweeps.length;
+		sweepCount--;
+		return oldest;
+	}
+
+	private void updateAverage() {
+		if (sweepCount == 0) {
+			return;
+		}
+		for (int c = 0, i = 0; c < channels; c++) {
+			final short[] average = averagedSamples[c];
+			for (int j = 0; j < average.length; j++, i++) {
+				average[j] = (short) (runningSum[i] / sweepCount);
+			}
 		}
-		
-		sampleBuffersInAverage.add(incomingAsArray);
 	}
 	
+	/**
+	 * @return the average of the trigger channel, or null before the first
+	 *         sweep
+	 */
 	public short[] getAveragedSamples() {
-		return averagedSamples;
+		return getAveragedSamples(triggerChannel);
+	}
+
+	/**
+	 * @return the average of {@code channel} around the trigger channel's
+	 *         triggers, or null before the first sweep
+	 */
+	public short[] getAveragedSamples(int channel) {
+		final short[][] averages = averagedSamples;
+		return averages != null && channel < averages.length ? averages[channel]
+				: null;
+	}
+
+	/**
+	 * Average {@code channels} channels, triggering on
+	 * {@code triggerChannel}. The histories and the average start over.
+	 */
+	public synchronized void setChannels(int channels, int triggerChannel) {
+		if (channels < 1 || triggerChannel < 0 || triggerChannel >= channels) {
+			throw new IllegalArgumentException("Bad trigger channel "
+					+ triggerChannel + " of " + channels);
+		}
+		this.channels = channels;
+		this.triggerChannel = triggerChannel;
+		histories = null;
+		pendingCount = 0;
+		resetBuffers();
+		ensureHistory();
+	}
+
+	public synchronized int getChannelCount() {
+		return channels;
+	}
+
+	public synchronized int getTriggerChannel() {
+		return triggerChannel;
 	}
 	
 	public int getMaxsize() {
 		return maxsize;
 	}
 
-	public void setMaxsize(int maxsize) {
-		this.maxsize = maxsize;
+	/**
+	 * Change how many sweeps are averaged. Shrinking evicts the oldest sweeps
+	 * straight away.
+	 */
+	public synchronized void setMaxsize(int maxsize) {
+		this.maxsize = Math.max(maxsize, 1);
+		if (sweeps.length < this.maxsize) {
+			final short[][] grown = new short[this.maxsize][];
+			for (int i = 0; i < sweepCount; i++) {
+				grown[i] = sweeps[(oldestSweep + i) % sweeps.length];
+			}
+			sweeps = grown;
+			oldestSweep = 0;
+		}
+		boolean evicted = false;
+		while (sweepCount > this.maxsize) {
+			evictOldest();
+			evicted = true;
+		}
+		if (evicted) {
+			updateAverage();
+		}
+	}
+
+	/**
+	 * @return how long after a trigger further crossings are ignored
+	 */
+	public synchronized float getDeadTimeMillis() {
+		return detector.getDeadTimeSamples() * 1000f / sampleRate;
+	}
+
+	public synchronized void setDeadTimeMillis(float ms) {
+		detector.setDeadTimeSamples(msToSamples(ms));
+		ensureHistory();
+	}
+
+	public synchronized float getPreTriggerMillis() {
+		return preTriggerSamples * 1000f / sampleRate;
+	}
+
+	public synchronized float getPostTriggerMillis() {
+		return postTriggerSamples * 1000f / sampleRate;
+	}
+
+	/**
+	 * @return where the trigger falls within each averaged sweep
+	 */
+	public synchronized int getPreTriggerSamples() {
+		return preTriggerSamples;
+	}
+
+	/**
+	 * Change how much signal is kept before and after each trigger. The
+	 * sweep length changes, so the average starts over.
+	 */
+	public synchronized void setTriggerWindowMillis(float preMs, float postMs) {
+		preTriggerSamples = Math.max(msToSamples(preMs), 0);
+		postTriggerSamples = Math.max(msToSamples(postMs), 1);
+		resetBuffers();
+		ensureHistory();
+	}
+
+	/**
+	 * Follow a change in the stream's sample rate, keeping the dead time and
+	 * trigger window as long in milliseconds. The average starts over.
+	 */
+	public synchronized void setSampleRate(int rate) {
+		if (rate == sampleRate) {
+			return;
+		}
+		final float deadMs = getDeadTimeMillis();
+		final float preMs = getPreTriggerMillis();
+		final float postMs = getPostTriggerMillis();
+		sampleRate = rate;
+		detector.setDeadTimeSamples(msToSamples(deadMs));
+		setTriggerWindowMillis(preMs, postMs);
+	}
+
+	public synchronized int getSampleRate() {
+		return sampleRate;
+	}
+
+	private int msToSamples(float ms) {
+		return Math.round(ms * sampleRate / 1000);
 	}
 
 	public Handler getHandler() {
 		return handler;
 	}
 
+	/**
+	 * @return the threshold last set through the {@link TriggerHandler}, 0
+	 *         until one has been
+	 */
+	public int getTriggerValue() {
+		return triggerValue;
+	}
+
 	public class TriggerHandler extends Handler {
 		public void setThreshold(float y) {
 			//Log.d(TAG, "Got new triggerValue of "+y);
@@ -0,0 +1,172 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Replays a 16-bit WAV file, e.g. one of our own recordings from the
+ * BackyardBrains directory, either at real-time speed or as fast as it can
+ * be read. Multi-channel files are handed out interleaved, as recorded.
+ */
+public class WavFileSource extends PacedAudioSource {
+	private static final int BUFFER_SIZE_IN_BYTES = 4096;
+
+	private final File file;
+	private final boolean looping;
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private WavHeader header;
+	private long dataEnd;
+
+	/**
+	 * @param realTime
+	 *            deliver samples at the file's sample rate rather than as
+	 *            fast as possible
+	 * @param looping
+	 *            start again from the top instead of ending at the end of
+	 *            the data chunk
+	 */
+	public WavFileSource(File file, boolean realTime, boolean looping) {
+		super(realTime);
+		this.file = file;
+		this.looping = looping;
+	}
+
+	@Override
+	public void open() throws IOException {
+		raf = new RandomAccessFile(file, "r");
+		channel = raf.getChannel();
+		header = WavHeader.read(channel);
+		if (header.getChannels() < 1 || header.getBitsPerSample() != 16) {
+			close();
+			throw new IOException("Only 16-bit files can be replayed: "
+					+ file.getName());
+		}
+		dataEnd = header.getDataOffset() + header.getDataSize();
+		channel.position(header.getDataOffset());
+		startClock();
+	}
+
+	@Override
+	public int read(ByteBuffer dst, int sizeInBytes) throws IOException {
+		final FileChannel ch = channel;
+		if (ch == null) {
+			return -1;
+		}
+		// keep whole frames
+		final int frameBytes = header.getBlockAlign();
+		sizeInBytes -= sizeInBytes % frameBytes;
+		dst.clear();
+		while (dst.position() < sizeInBytes) {
+			long left = dataEnd - ch.position();
+			if (left < frameBytes) {
+				if (!looping || header.getDataSize() < frameBytes) {
+					break;
+				}
+				// carry straight on from the top of the data, so the loop
+				// has no gap in it
+				ch.position(header.getDataOffset());
+				left = header.getDataSize();
+			}
+			dst.limit((int) Math.min(sizeInBytes, dst.position() + left));
+			if (ch.read(dst) < 0) {
+				break;
+			}
+		}
+		final int read = dst.position() - dst.position() % frameBytes;
+		if (read == 0) {
+			return -1;
+		}
+		if (ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN) {
+			swapToNativeOrder(dst, read);
+		}
+		pace(read / frameBytes);
+		return read;
+	}
+
+	private static void swapToNativeOrder(ByteBuffer dst, int length) {
+		dst.position(0);
+		dst.limit(length);
+		final ShortBuffer in = dst.duplicate().order(ByteOrder.LITTLE_ENDIAN)
+				.asShortBuffer();
+		final ShortBuffer out = dst.duplicate().order(ByteOrder.nativeOrder())
+				.asShortBuffer();
+		for (int i = 0; i < in.limit(); i++) {
+			out.put(i, in.get(i));
+		}
+	}
+
+	@Override
+	public void close() {
+		channel = null;
+		if (raf != null) {
+			try {
+				raf.close();
+			} catch (IOException e) {
+				// nothing left to clean up
+			}
+			raf = null;
+		}
+	}
+
+	/**
+	 * @return the file's header, read on first use if the file isn't open
+	 *         yet so the rate and channel count are known before
+	 *         {@link #open()}; null if it can't be read
+	 */
+	private WavHeader getHeader() {
+		if (header == null) {
+			try {
+				final RandomAccessFile r = new RandomAccessFile(file, "r");
+				try {
+					header = WavHeader.read(r.getChannel());
+				} finally {
+					r.close();
+				}
+			} catch (IOException e) {
+				return null;
+			}
+		}
+		return header;
+	}
+
+	@Override
+	public int getSampleRate() {
+		final WavHeader h = getHeader();
+		return h != null ? h.getSampleRate() : 44100;
+	}
+
+	@Override
+	public int getChannelCount() {
+		final WavHeader h = getHeader();
+		return h != null ? Math.max(1, h.getChannels()) : 1;
+	}
+
+	@Override
+	public int getBufferSizeInBytes() {
+		return BUFFER_SIZE_IN_BYTES;
+	}
+}
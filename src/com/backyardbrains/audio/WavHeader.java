@@ -0,0 +1,166 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * The parts of a RIFF/WAVE header we care about, read by walking the chunk
+ * list rather than assuming the canonical 44 byte layout.
+ */
+public class WavHeader {
+	public static final int CANONICAL_HEADER_SIZE = 44;
+
+	private int sampleRate;
+	private int channels;
+	private int bitsPerSample;
+	private long dataOffset;
+	private long dataSize;
+	private long declaredDataSize;
+	private long riffSize;
+	private boolean truncated;
+
+	/**
+	 * Parse the header of the file behind {@code channel}. The channel's
+	 * position is left unspecified.
+	 * 
+	 * @throws IOException
+	 *             if the file is not a PCM WAVE file
+	 */
+	public static WavHeader read(FileChannel channel) throws IOException {
+		final ByteBuffer buf = ByteBuffer.allocate(16);
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+		final long fileSize = channel.size();
+
+		readFully(channel, buf, 0, 12);
+		if (buf.getInt(0) != 0x46464952 /* RIFF */
+				|| buf.getInt(8) != 0x45564157 /* WAVE */) {
+			throw new IOException("Not a RIFF/WAVE file");
+		}
+
+		final WavHeader header = new WavHeader();
+		header.riffSize = buf.getInt(4) & 0xffffffffL;
+		boolean sawFormat = false;
+		long position = 12;
+		while (position + 8 <= fileSize) {
+			readFully(channel, buf, position, 8);
+			final int id = buf.getInt(0);
+			final long size = buf.getInt(4) & 0xffffffffL;
+			position += 8;
+			if (id == 0x20746d66 /* fmt */) {
+				readFully(channel, buf, position, 16);
+				if (buf.getShort(0) != 1) {
+					throw new IOException("Only PCM WAVE files are supported");
+				}
+				header.channels = buf.getShort(2);
+				header.sampleRate = buf.getInt(4);
+				header.bitsPerSample = buf.getShort(14);
+				sawFormat = true;
+			} else if (id == 0x61746164 /* data */) {
+				if (!sawFormat) {
+					throw new IOException("data chunk before fmt chunk");
+				}
+				header.dataOffset = position;
+				header.declaredDataSize = size;
+				final long available = fileSize - position;
+				header.truncated = size == 0 || size > available;
+				header.dataSize = header.truncated ? available : size;
+				return header;
+			}
+			// chunks are padded to an even length
+			position += size + (size & 1);
+		}
+		throw new IOException("No data chunk found");
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buf,
+			long position, int length) throws IOException {
+		buf.clear();
+		buf.limit(length);
+		while (buf.hasRemaining()) {
+			if (channel.read(buf, position + buf.position()) < 0) {
+				throw new IOException("Unexpected end of file");
+			}
+		}
+	}
+
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	public int getChannels() {
+		return channels;
+	}
+
+	public int getBitsPerSample() {
+		return bitsPerSample;
+	}
+
+	public int getBlockAlign() {
+		return channels * bitsPerSample / 8;
+	}
+
+	/**
+	 * @return the file offset of the first PCM byte
+	 */
+	public long getDataOffset() {
+		return dataOffset;
+	}
+
+	/**
+	 * @return the number of PCM bytes, clamped to what the file actually
+	 *         holds
+	 */
+	public long getDataSize() {
+		return dataSize;
+	}
+
+	/**
+	 * @return the data chunk size as written in the header
+	 */
+	public long getDeclaredDataSize() {
+		return declaredDataSize;
+	}
+
+	/**
+	 * @return the RIFF chunk size as written in the header
+	 */
+	public long getRiffSize() {
+		return riffSize;
+	}
+
+	/**
+	 * @return true if the data chunk's declared size was zero or ran past
+	 *         the end of the file
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	public long getDurationMillis() {
+		final int blockAlign = getBlockAlign();
+		if (sampleRate <= 0 || blockAlign <= 0) {
+			return 0;
+		}
+		return dataSize / blockAlign * 1000 / sampleRate;
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import android.util.Log;
+
+/**
+ * Repairs recordings whose header was never finalized because the process
+ * died mid-recording. {@link WavWriter} checkpoints the chunk sizes while it
+ * records, so such a file has a header that is stale (or still empty) and
+ * PCM running to the end of the file; we stretch the sizes to cover it.
+ */
+public class WavRecovery {
+	private static final String TAG = WavRecovery.class.getCanonicalName();
+
+	/**
+	 * Check every WAV file in {@code directory} last modified before
+	 * {@code modifiedBefore} (so a recording that has just started is left
+	 * alone) and repair the truncated ones.
+	 * 
+	 * @return the number of files repaired
+	 */
+	public static int repairDirectory(File directory, long modifiedBefore) {
+		final File[] files = directory.listFiles();
+		if (files == null) {
+			return 0;
+		}
+		int repaired = 0;
+		for (File f : files) {
+			if (!f.isFile() || !f.getName().toLowerCase().endsWith(".wav")
+					|| f.lastModified() >= modifiedBefore) {
+				continue;
+			}
+			try {
+				if (repair(f)) {
+					repaired++;
+					Log.d(TAG, "Repaired " + f.getName());
+				}
+			} catch (IOException e) {
+				Log.w(TAG, "Could not check " + f.getName() + ": "
+						+ e.getMessage());
+			}
+		}
+		return repaired;
+	}
+
+	/**
+	 * Fix the chunk sizes of one file if they do not cover the PCM that is
+	 * actually there.
+	 * 
+	 * @return true if the file was changed
+	 */
+	public static boolean repair(File f) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(f, "rw");
+		try {
+			final FileChannel channel = raf.getChannel();
+			final WavHeader header = WavHeader.read(channel);
+			final long declaredEnd = header.getDataOffset()
+					+ header.getDeclaredDataSize();
+			// only touch files where data is the last chunk, as we write them
+			final boolean dataIsLast = header.getRiffSize() + 8 == declaredEnd;
+			if (!header.isTruncated()
+					&& !(dataIsLast && channel.size() > declaredEnd)) {
+				return false;
+			}
+			if (header.getDataOffset() != WavHeader.CANONICAL_HEADER_SIZE) {
+				// not one of ours; patching fixed offsets would corrupt it
+				return false;
+			}
+			final int blockAlign = Math.max(1, header.getBlockAlign());
+			final long available = channel.size() - header.getDataOffset();
+			final long dataBytes = available - available % blockAlign;
+			WavWriter.patchSizes(channel, dataBytes, ByteBuffer.allocate(4));
+			channel.truncate(header.getDataOffset() + dataBytes);
+			return true;
+		} finally {
+			raf.close();
+		}
+	}
+}
@@ -0,0 +1,259 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Streams 16-bit PCM straight into a WAV file. A header with empty chunk
+ * sizes is written up front, samples go out through a large direct buffer,
+ * and {@link #close()} patches the RIFF and data sizes in place, so memory
+ * use does not depend on how long the recording runs.
+ * 
+ * While recording, the chunk sizes are also checkpointed every few seconds
+ * so a file left behind by a killed process is playable up to the last
+ * checkpoint and can be repaired by {@link WavRecovery}. Each checkpoint is
+ * two four-byte positional writes; the writer times them and stretches the
+ * interval so they never take more than {@link #CHECKPOINT_IO_BUDGET} of
+ * the recording's duration.
+ */
+public class WavWriter {
+	private static final int BUFFER_SIZE_IN_BYTES = 64 * 1024;
+	private static final int RIFF_SIZE_OFFSET = 4;
+	private static final int DATA_SIZE_OFFSET = 40;
+	/** default seconds of audio between header checkpoints */
+	public static final int DEFAULT_CHECKPOINT_SECONDS = 5;
+	/** largest fraction of recording time checkpoints may spend on I/O */
+	public static final double CHECKPOINT_IO_BUDGET = 0.01;
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+	/** little-endian samples over the whole of {@link #buffer} */
+	private final ShortBuffer samples;
+	private final int sampleRate;
+	private final int channels;
+	private final ByteBuffer sizeScratch;
+	private final long bytesPerSecond;
+	private long dataBytes;
+	private long checkpointIntervalBytes;
+	private long lastCheckpointBytes;
+	private int checkpointCount;
+	private long checkpointNanos;
+
+	public WavWriter(File file, int sampleRate, int channels)
+			throws IOException {
+		this(file, sampleRate, channels, DEFAULT_CHECKPOINT_SECONDS);
+	}
+
+	/**
+	 * @param checkpointSeconds
+	 *            seconds of audio between header checkpoints; zero turns
+	 *            checkpoints off
+	 */
+	public WavWriter(File file, int sampleRate, int channels,
+			int checkpointSeconds) throws IOException {
+		this.file = file;
+		bytesPerSecond = (long) sampleRate * channels * 2;
+		checkpointIntervalBytes = checkpointSeconds > 0 ? checkpointSeconds
+				* bytesPerSecond : Long.MAX_VALUE;
+		sizeScratch = ByteBuffer.allocate(4);
+		this.sampleRate = sampleRate;
+		this.channels = channels;
+		raf = new RandomAccessFile(file, "rw");
+		raf.setLength(0);
+		channel = raf.getChannel();
+		buffer = ByteBuffer.allocateDirect(BUFFER_SIZE_IN_BYTES);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		samples = buffer.asShortBuffer();
+		writeHeader(buffer, sampleRate, channels, 0);
+		buffer.flip();
+		writeFully(buffer, 0);
+		buffer.clear();
+	}
+
+	/**
+	 * Fill in a canonical 44 byte PCM WAVE header for {@code dataBytes} of
+	 * 16-bit samples.
+	 */
+	static void writeHeader(ByteBuffer out, int sampleRate, int channels,
+			long dataBytes) {
+		final int bitsPerSample = 16;
+		final int blockAlign = channels * bitsPerSample / 8;
+		out.order(ByteOrder.LITTLE_ENDIAN);
+		out.put((byte) 'R').put((byte) 'I').put((byte) 'F').put((byte) 'F');
+		out.putInt((int) (dataBytes + 36));
+		out.put((byte) 'W').put((byte) 'A').put((byte) 'V').put((byte) 'E');
+		out.put((byte) 'f').put((byte) 'm').put((byte) 't').put((byte) ' ');
+		out.putInt(16);
+		out.putShort((short) 1);
+		out.putShort((short) channels);
+		out.putInt(sampleRate);
+		out.putInt(sampleRate * blockAlign);
+		out.putShort((short) blockAlign);
+		out.putShort((short) bitsPerSample);
+		out.put((byte) 'd').put((byte) 'a').put((byte) 't').put((byte) 'a');
+		out.putInt((int) dataBytes);
+	}
+
+	/**
+	 * Append every sample in {@code pcm}, 16-bit samples in the buffer's own
+	 * byte order, to the data chunk. Little-endian input is copied over as
+	 * raw bytes; anything else is read with absolute gets and swapped into a
+	 * little-endian view of the write buffer made up front, so no view is
+	 * created per block.
+	 */
+	public void write(ByteBuffer pcm) throws IOException {
+		final int end = pcm.limit() & ~1;
+		final boolean swap = pcm.order() != ByteOrder.LITTLE_ENDIAN;
+		while (pcm.position() < end) {
+			if (buffer.remaining() < 2) {
+				flush();
+			}
+			final int chunk = Math.min(end - pcm.position(),
+					buffer.remaining() & ~1);
+			pcm.limit(pcm.position() + chunk);
+			if (swap) {
+				final int from = pcm.position();
+				final int to = buffer.position() / 2;
+				for (int i = 0; i < chunk / 2; i++) {
+					samples.put(to + i, pcm.getShort(from + i * 2));
+				}
+				buffer.position(buffer.position() + chunk);
+				pcm.position(from + chunk);
+			} else {
+				buffer.put(pcm);
+			}
+		}
+		pcm.limit(end);
+	}
+
+	/**
+	 * Push everything buffered so far out to the file.
+	 */
+	public void flush() throws IOException {
+		buffer.flip();
+		final int length = buffer.remaining();
+		writeFully(buffer, WavHeader.CANONICAL_HEADER_SIZE + dataBytes);
+		dataBytes += length;
+		buffer.clear();
+		if (dataBytes - lastCheckpointBytes >= checkpointIntervalBytes) {
+			checkpoint();
+		}
+	}
+
+	/**
+	 * Write the current chunk sizes into the header. Data already handed to
+	 * the OS survives the process being killed, so after this the file is
+	 * valid up to {@link #getDataBytes()} minus whatever is still buffered.
+	 */
+	private void checkpoint() throws IOException {
+		final long start = System.nanoTime();
+		patchSizes(channel, dataBytes, sizeScratch);
+		final long cost = System.nanoTime() - start;
+		checkpointNanos += cost;
+		checkpointCount++;
+		lastCheckpointBytes = dataBytes;
+		// keep cost / interval within budget
+		final long minimumInterval = (long) (cost / CHECKPOINT_IO_BUDGET
+				/ 1e9 * bytesPerSecond);
+		if (minimumInterval > checkpointIntervalBytes) {
+			checkpointIntervalBytes = minimumInterval;
+		}
+	}
+
+	private void writeFully(ByteBuffer src, long position) throws IOException {
+		while (src.hasRemaining()) {
+			position += channel.write(src, position);
+		}
+	}
+
+	/**
+	 * Rewrite the RIFF and data chunk sizes of the file behind
+	 * {@code channel} for {@code dataBytes} bytes of PCM, using a four byte
+	 * scratch buffer.
+	 */
+	static void patchSizes(FileChannel channel, long dataBytes,
+			ByteBuffer size) throws IOException {
+		size.clear();
+		size.order(ByteOrder.LITTLE_ENDIAN);
+		size.putInt(0, (int) (dataBytes + 36));
+		channel.write(size, RIFF_SIZE_OFFSET);
+		size.clear();
+		size.putInt(0, (int) dataBytes);
+		channel.write(size, DATA_SIZE_OFFSET);
+	}
+
+	/**
+	 * Flush, patch the chunk sizes and close the file.
+	 */
+	public void close() throws IOException {
+		try {
+			flush();
+			patchSizes(channel, dataBytes, sizeScratch);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * @return bytes of PCM accepted so far, including any still buffered
+	 */
+	public long getDataBytes() {
+		return dataBytes + buffer.position();
+	}
+
+	public int getCheckpointCount() {
+		return checkpointCount;
+	}
+
+	/**
+	 * @return total wall time spent writing checkpoints
+	 */
+	public long getCheckpointNanos() {
+		return checkpointNanos;
+	}
+
+	/**
+	 * @return the current spacing between checkpoints in seconds of audio,
+	 *         which grows if checkpoints turn out to be slow
+	 */
+	public double getCheckpointIntervalSeconds() {
+		return (double) checkpointIntervalBytes / bytesPerSecond;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	public int getChannels() {
+		return channels;
+	}
+}
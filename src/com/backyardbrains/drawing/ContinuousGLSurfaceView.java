@@ -19,16 +19,27 @@
 
 package com.backyardbrains.drawing;
 
+import android.content.Context;
 import android.content.SharedPreferences;
 import android.opengl.GLSurfaceView;
+import android.os.SystemClock;
 import android.view.MotionEvent;
 import android.view.SurfaceHolder;
 
 import com.backyardbrains.BackyardAndroidActivity;
+import com.backyardbrains.R;
+import com.backyardbrains.audio.AudioDataListener;
+import com.backyardbrains.audio.AudioService;
 import com.backyardbrains.view.ScaleListener;
 import com.backyardbrains.view.TwoDimensionScaleGestureDetector;
 
-public class ContinuousGLSurfaceView extends GLSurfaceView {
+/**
+ * Draws only when the {@link AudioService} it listens to has something new,
+ * or when the user touches or zooms, and never more often than the
+ * configured maximum frame rate.
+ */
+public class ContinuousGLSurfaceView extends GLSurfaceView implements
+		AudioDataListener {
 
 	@SuppressWarnings("unused")
 	private static final String TAG = ContinuousGLSurfaceView.class
@@ -38,12 +49,96 @@ public class ContinuousGLSurfaceView extends GLSurfaceView {
 	protected OscilloscopeRenderer renderer;
 	protected SharedPreferences settings;
 
+	public static final int DEFAULT_MAX_FRAME_RATE = 30;
+	/** redraw requests are spaced at least this far apart */
+	private final long minFrameIntervalMillis;
+	private long lastRenderRequest;
+	private volatile boolean renderPending;
+	private AudioService listeningTo;
+	private final Runnable delayedRender = new Runnable() {
+		@Override
+		public void run() {
+			renderPending = false;
+			lastRenderRequest = SystemClock.uptimeMillis();
+			requestRender();
+		}
+	};
+
 	public ContinuousGLSurfaceView(BackyardAndroidActivity context) {
 		super(context);
 		settings = ((BackyardAndroidActivity) context)
 				.getPreferences(BackyardAndroidActivity.MODE_PRIVATE);
 
 		assignRenderer(context);
+		setRenderMode(RENDERMODE_WHEN_DIRTY);
+		minFrameIntervalMillis = 1000 / readMaxFrameRate(context);
+	}
+
+	private static int readMaxFrameRate(Context context) {
+		final SharedPreferences prefs = context.getSharedPreferences(
+				context.getString(R.string.global_prefs),
+				Context.MODE_WORLD_READABLE);
+		try {
+			return Math.max(1, Integer.parseInt(prefs.getString(
+					context.getString(R.string.max_frame_rate),
+					String.valueOf(DEFAULT_MAX_FRAME_RATE))));
+		} catch (NumberFormatException e) {
+			return DEFAULT_MAX_FRAME_RATE;
+		}
+	}
+
+	/**
+	 * Start redrawing whenever the service reports new data.
+	 */
+	public void listenTo(AudioService service) {
+		stopListening();
+		listeningTo = service;
+		service.addAudioDataListener(this);
+		requestRender();
+	}
+
+	public void stopListening() {
+		if (listeningTo != null) {
+			listeningTo.removeAudioDataListener(this);
+			listeningTo = null;
+		}
+		removeCallbacks(delayedRender);
+		renderPending = false;
+	}
+
+	@Override
+	public void onNewSamples() {
+		requestThrottledRender();
+	}
+
+	@Override
+	public void onNewTriggerAverage() {
+		// the continuous view doesn't draw the average
+	}
+
+	@Override
+	public void onNewSpectrum() {
+		// nor the spectrum
+	}
+
+	/**
+	 * Request a frame now if the last one was long enough ago, otherwise
+	 * schedule one for when it will be. Requests that arrive while one is
+	 * scheduled are folded into it.
+	 */
+	protected void requestThrottledRender() {
+		if (renderPending) {
+			return;
+		}
+		final long wait = lastRenderRequest + minFrameIntervalMillis
+				- SystemClock.uptimeMillis();
+		if (wait <= 0) {
+			lastRenderRequest = SystemClock.uptimeMillis();
+			requestRender();
+		} else {
+			renderPending = true;
+			postDelayed(delayedRender, wait);
+		}
 	}
 
 	protected void assignRenderer(BackyardAndroidActivity context) {
@@ -62,6 +157,7 @@ public class ContinuousGLSurfaceView extends GLSurfaceView {
 
 	@Override
 	public void surfaceDestroyed(SurfaceHolder holder) {
+		stopListening();
 		saveSettings();
 		setKeepScreenOn(false);
 		super.surfaceDestroyed(holder);
@@ -70,6 +166,7 @@ public class ContinuousGLSurfaceView extends GLSurfaceView {
 	@Override
 	public boolean onTouchEvent(MotionEvent event) {
 		mScaleDetector.onTouchEvent(event);
+		requestRender();
 		return super.onTouchEvent(event);
 	}
 
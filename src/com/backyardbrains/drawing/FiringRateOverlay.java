@@ -0,0 +1,118 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.drawing;
+
+import javax.microedition.khronos.opengles.GL10;
+
+import com.backyardbrains.audio.FiringRateMeter;
+
+/**
+ * Draws firing rates from a {@link FiringRateMeter} over whatever a
+ * renderer has drawn: the recent rate history as a strip along the top of
+ * the view, and the peri-stimulus time histogram along the bottom. Both are
+ * drawn in a 0..1 square laid over the view, so the renderer's own
+ * projection is left as it was.
+ */
+public class FiringRateOverlay {
+
+	private static final float RATE_BOTTOM = 0.78f;
+	private static final float RATE_HEIGHT = 0.18f;
+	private static final float PSTH_BOTTOM = 0.04f;
+	private static final float PSTH_HEIGHT = 0.22f;
+
+	private final float[] rates = new float[FiringRateMeter.RATE_HISTORY_LENGTH];
+	private final float[] psth = new float[FiringRateMeter.PSTH_BINS];
+	private final VertexStore rateLine = new VertexStore();
+	private final VertexStore psthLine = new VertexStore();
+
+	/**
+	 * Plot the rate history with the newest point at the right edge, scaled
+	 * to its highest rate.
+	 */
+	public void drawRateHistory(GL10 gl, FiringRateMeter meter) {
+		final int n = meter.getRateHistory(rates);
+		if (n < 2) {
+			return;
+		}
+		final float max = Math.max(1f, max(rates, n));
+		final float step = 1f / (rates.length - 1);
+		rateLine.layoutLinear(n, 1f - (n - 1) * step, step);
+		for (int i = 0; i < n; i++) {
+			rateLine.setY(i, RATE_BOTTOM + rates[i] / max * RATE_HEIGHT);
+		}
+		begin(gl);
+		gl.glColor4f(1f, 1f, 0f, 0.8f);
+		gl.glVertexPointer(2, GL10.GL_FLOAT, 0, rateLine.getBuffer(n));
+		gl.glDrawArrays(GL10.GL_LINE_STRIP, 0, n);
+		end(gl);
+	}
+
+	/**
+	 * Plot the histogram between {@code xStart} and {@code xEnd}, as
+	 * fractions of the view's width, so it can be lined up under the sweep
+	 * it was taken around.
+	 */
+	public void drawPsth(GL10 gl, FiringRateMeter meter, float xStart,
+			float xEnd) {
+		if (meter.getPsth(psth) == 0) {
+			return;
+		}
+		final float max = Math.max(1f, max(psth, psth.length));
+		final float binWidth = (xEnd - xStart) / psth.length;
+		psthLine.layoutLinear(psth.length, xStart + binWidth / 2, binWidth);
+		for (int b = 0; b < psth.length; b++) {
+			psthLine.setY(b, PSTH_BOTTOM + psth[b] / max * PSTH_HEIGHT);
+		}
+		begin(gl);
+		gl.glColor4f(0f, 0.6f, 1f, 0.8f);
+		gl.glVertexPointer(2, GL10.GL_FLOAT, 0, psthLine.getBuffer(psth.length));
+		gl.glDrawArrays(GL10.GL_LINE_STRIP, 0, psth.length);
+		end(gl);
+	}
+
+	private static float max(float[] values, int n) {
+		float max = 0;
+		for (int i = 0; i < n; i++) {
+			if (values[i] > max) {
+				max = values[i];
+			}
+		}
+		return max;
+	}
+
+	private void begin(GL10 gl) {
+		gl.glMatrixMode(GL10.GL_PROJECTION);
+		gl.glPushMatrix();
+		gl.glLoadIdentity();
+		gl.glOrthof(0f, 1f, 0f, 1f, -1f, 1f);
+		gl.glMatrixMode(GL10.GL_MODELVIEW);
+		gl.glPushMatrix();
+		gl.glLoadIdentity();
+		gl.glEnableClientState(GL10.GL_VERTEX_ARRAY);
+		gl.glLineWidth(2f);
+	}
+
+	private void end(GL10 gl) {
+		gl.glDisableClientState(GL10.GL_VERTEX_ARRAY);
+		gl.glPopMatrix();
+		gl.glMatrixMode(GL10.GL_PROJECTION);
+		gl.glPopMatrix();
+		gl.glMatrixMode(GL10.GL_MODELVIEW);
+	}
+}
@@ -19,10 +19,7 @@
 
 package com.backyardbrains.drawing;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
-import java.text.DecimalFormat;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -33,6 +30,10 @@ import android.os.SystemClock;
 import android.util.Log;
 
 import com.backyardbrains.BackyardAndroidActivity;
+import com.backyardbrains.audio.AudioService;
+import com.backyardbrains.audio.FiringRateMeter;
+import com.backyardbrains.audio.MinMaxPyramid;
+import com.backyardbrains.audio.RingBuffer;
 
 public class OscilloscopeRenderer implements GLSurfaceView.Renderer {
 
@@ -50,6 +51,23 @@ public class OscilloscopeRenderer implements GLSurfaceView.Renderer {
 	protected int height;
 	protected int width;
 	private long firstBufferDrawn = 0;
+	/** absolute sample index just past the end of {@link #mBufferToDraws} */
+	protected long bufferEndSample;
+	private short[] columnMins;
+	private short[] columnMaxs;
+	/** vertices for the waveform, refilled in place every frame */
+	protected final VertexStore waveformVertices = new VertexStore();
+	/** how far the waveform strip is shifted along x when drawn */
+	protected float waveformOffsetX;
+	/** per channel, live samples already converted to vertices, zoomed in */
+	private VertexRing[] vertexRings = new VertexRing[0];
+	/** the channel whose lane {@link #getWaveformBuffer(short[])} is building */
+	protected int drawnChannel;
+	private final int[] rangeFirst = new int[2];
+	private final int[] rangeCount = new int[2];
+	private final float[] rangeOffsetX = new float[2];
+	private int waveformRanges;
+	protected final FiringRateOverlay firingRateOverlay = new FiringRateOverlay();
 
 	public OscilloscopeRenderer(BackyardAndroidActivity backyardAndroidActivity) {
 		context = backyardAndroidActivity;
@@ -58,7 +76,7 @@ public class OscilloscopeRenderer implements GLSurfaceView.Renderer {
 	@Override
 	public void onDrawFrame(GL10 gl) {
 		// grab current audio from audioservice
-		if (context.getmAudioService() == null)
+		if (!isSourceReady())
 			return;
 
 		getCurrentAudio();
@@ -86,40 +104,119 @@ public class OscilloscopeRenderer implements GLSurfaceView.Renderer {
 		gl.glEnable(GL10.GL_DEPTH_TEST);
 	}
 
+	/**
+	 * @return true once there is something to draw from
+	 */
+	protected boolean isSourceReady() {
+		return context.getmAudioService() != null;
+	}
+
 	private void glClear(GL10 gl) {
 		gl.glClear(GL10.GL_COLOR_BUFFER_BIT | GL10.GL_DEPTH_BUFFER_BIT);
 	}
 
 	protected void preDrawingHandler() {
 		// scale the right side to the number of data points we have
-		if (mBufferToDraws.length < glWindowHorizontalSize) {
-			setGlWindowHorizontalSize(mBufferToDraws.length);
+		if (getMaxWindowSize() < glWindowHorizontalSize) {
+			setGlWindowHorizontalSize(getMaxWindowSize());
 		}
 		setLabels(glWindowHorizontalSize);
 	}
 
+	/**
+	 * Overlay the live firing rate once any spikes have been found, and
+	 * show the rate over the last second as a label.
+	 */
 	protected void postDrawingHandler(GL10 gl) {
-		// stub
+		final FiringRateMeter meter = getFiringRateMeter();
+		if (meter != null && meter.getSpikeTotal() > 0) {
+			firingRateOverlay.drawRateHistory(gl, meter);
+			context.getLabelChannel().setFiringRate(meter.getRate(1));
+		}
+	}
+
+	/**
+	 * @return the service's firing rate meter, or null without a service
+	 */
+	protected FiringRateMeter getFiringRateMeter() {
+		final AudioService service = context.getmAudioService();
+		return service != null ? service.getFiringRateMeter() : null;
 	}
 
+	/**
+	 * Draw each channel in its own lane, squeezed to fit, with the vertex
+	 * strips built one channel at a time.
+	 */
 	private void drawingHandler(GL10 gl) {
 		setGlWindow(gl, glWindowHorizontalSize, mBufferToDraws.length);
-		FloatBuffer mVertexBuffer = getWaveformBuffer(mBufferToDraws);
-
 		firstBufferDrawnCheck();
 		autoScaleCheck();
 
+		final int channels = getChannelCount();
+		if (vertexRings.length != channels) {
+			vertexRings = new VertexRing[channels];
+			for (int c = 0; c < channels; c++) {
+				vertexRings[c] = new VertexRing();
+			}
+		}
+
 		gl.glMatrixMode(GL10.GL_MODELVIEW);
-		gl.glLoadIdentity();
 
 		gl.glEnableClientState(GL10.GL_VERTEX_ARRAY);
 		gl.glLineWidth(1f);
 		gl.glColor4f(0f, 1f, 0f, 1f);
-		gl.glVertexPointer(2, GL10.GL_FLOAT, 0, mVertexBuffer);
-		gl.glDrawArrays(GL10.GL_LINE_STRIP, 0, mVertexBuffer.limit() / 2);
+		for (int c = 0; c < channels; c++) {
+			drawnChannel = c;
+			waveformOffsetX = 0;
+			waveformRanges = 0;
+			FloatBuffer mVertexBuffer = getWaveformBuffer(mBufferToDraws);
+			if (waveformRanges == 0) {
+				addWaveformRange(0, mVertexBuffer.limit() / 2, waveformOffsetX);
+			}
+			gl.glVertexPointer(2, GL10.GL_FLOAT, 0, mVertexBuffer);
+			final float centre = getLaneCentre(c);
+			for (int r = 0; r < waveformRanges; r++) {
+				gl.glLoadIdentity();
+				gl.glTranslatef(rangeOffsetX[r], centre, 0f);
+				gl.glScalef(1f, 1f / channels, 1f);
+				gl.glDrawArrays(GL10.GL_LINE_STRIP, rangeFirst[r], rangeCount[r]);
+			}
+		}
+		drawnChannel = 0;
+		gl.glLoadIdentity();
 		gl.glDisableClientState(GL10.GL_VERTEX_ARRAY);
 	}
 
+	/**
+	 * @return how many channels there are to draw, one lane each
+	 */
+	protected int getChannelCount() {
+		final AudioService service = context.getmAudioService();
+		return service != null ? service.getChannelCount() : 1;
+	}
+
+	/**
+	 * @return the y the middle of {@code channel}'s lane is drawn at; the
+	 *         lanes split the window evenly, the first channel at the top
+	 */
+	protected float getLaneCentre(int channel) {
+		final float lane = getGlWindowVerticalSize() / (float) getChannelCount();
+		return getGlWindowVerticalSize() / 2f - (channel + 0.5f) * lane;
+	}
+
+	/**
+	 * Draw {@code count} vertices of the waveform buffer starting at
+	 * {@code first}, shifted {@code offsetX} along x. When
+	 * {@link #getWaveformBuffer(short[])} adds no ranges the whole buffer is
+	 * drawn at {@link #waveformOffsetX}.
+	 */
+	protected void addWaveformRange(int first, int count, float offsetX) {
+		rangeFirst[waveformRanges] = first;
+		rangeCount[waveformRanges] = count;
+		rangeOffsetX[waveformRanges] = offsetX;
+		waveformRanges++;
+	}
+
 	private void firstBufferDrawnCheck() {
 		if (firstBufferDrawn == 0) {
 			firstBufferDrawn = SystemClock.currentThreadTimeMillis();
@@ -163,29 +260,103 @@ public class OscilloscopeRenderer implements GLSurfaceView.Renderer {
 		setAutoScaled(true);
 	}
 
+	/**
+	 * Build the line strip of {@link #drawnChannel} for the visible window
+	 * plus one mic block of lead-in. Once there are more samples than pixel
+	 * columns the window is reduced to a min/max pair per column so peaks
+	 * survive however far out we zoom. Zoomed in, the columns come from the
+	 * channel's {@link VertexRing}, which only converts what arrived since
+	 * the last frame; once a summary level is fine enough they are read from
+	 * the service's {@link MinMaxPyramid} instead.
+	 */
 	protected FloatBuffer getWaveformBuffer(short[] shortArrayToDraw) {
 		int micSize = context.getmAudioService().getMicListenerBufferSizeInSamples();
-		float[] arr = new float[(glWindowHorizontalSize + micSize) * 2];
-		int j = 0; // index of arr
-		try {
-			for (int i = shortArrayToDraw.length - glWindowHorizontalSize
-					- micSize; i < shortArrayToDraw.length; i++) {
-				arr[j++] = i;
-				arr[j++] = shortArrayToDraw[i];
-			}
-		} catch (ArrayIndexOutOfBoundsException e) {
-			Log.e(TAG, "Array size out of sync while building new waveform buffer");
+		final int from = Math.max(0, shortArrayToDraw.length
+				- glWindowHorizontalSize - micSize);
+		final int samplesPerColumn = getSamplesPerColumn();
+		final MinMaxPyramid summary = context.getmAudioService()
+				.getAudioSummary(drawnChannel);
+		final int level = summary != null ? summary.levelFor(samplesPerColumn) : -1;
+		if (level >= 0) {
+			return getSummaryWaveformBuffer(summary, level, samplesPerColumn,
+					from, shortArrayToDraw.length);
 		}
-		return getFloatBufferFromFloatArray(arr);
+		return getRingWaveformBuffer(samplesPerColumn, shortArrayToDraw.length
+				- from, shortArrayToDraw.length);
 	}
 
-	FloatBuffer getFloatBufferFromFloatArray(final float[] array) {
-		final ByteBuffer temp = ByteBuffer.allocateDirect(array.length * 4);
-		temp.order(ByteOrder.nativeOrder());
-		final FloatBuffer buf = temp.asFloatBuffer();
-		buf.put(array);
-		buf.position(0);
-		return buf;
+	/**
+	 * @return how many samples share one pixel column at the current zoom
+	 */
+	protected int getSamplesPerColumn() {
+		if (width <= 0) {
+			return 1;
+		}
+		return (glWindowHorizontalSize + width - 1) / width;
+	}
+
+	private FloatBuffer getRingWaveformBuffer(int samplesPerColumn,
+			int samples, int length) {
+		final RingBuffer ring = context.getmAudioService().getAudioRingBuffer(
+				drawnChannel);
+		final VertexRing vertexRing = vertexRings[drawnChannel];
+		final int columns = Math.min(samples / samplesPerColumn + 1,
+				ring.getCapacity() / samplesPerColumn);
+		vertexRing.configure(samplesPerColumn, columns);
+		// the other channels are fed on their own threads and may lag a block
+		vertexRing.update(ring, Math.min(bufferEndSample, ring.getWritten()));
+
+		final int capacity = vertexRing.getCapacity();
+		final int perColumn = vertexRing.getVerticesPerColumn();
+		final long end = vertexRing.getEndColumn();
+		final long first = Math.max(0, end - capacity);
+		final int count = (int) (end - first);
+		final int firstSlot = vertexRing.getSlot(first);
+		// array index 0 holds absolute sample bufferEndSample - length
+		final float offsetX = (first - firstSlot) * samplesPerColumn
+				- (bufferEndSample - length);
+		if (firstSlot + count <= capacity) {
+			addWaveformRange(firstSlot * perColumn, count * perColumn, offsetX);
+		} else {
+			// the spare slot past the end joins this range to the next
+			addWaveformRange(firstSlot * perColumn, (capacity + 1 - firstSlot)
+					* perColumn, offsetX);
+			addWaveformRange(0, (firstSlot + count - capacity) * perColumn,
+					offsetX + (float) capacity * samplesPerColumn);
+		}
+		return vertexRing.getBuffer();
+	}
+
+	/**
+	 * Columns are aligned to absolute sample indices so the summary buckets
+	 * line up with them; their x coordinates are laid out from zero and the
+	 * strip is shifted into place with {@link #waveformOffsetX}.
+	 */
+	private FloatBuffer getSummaryWaveformBuffer(MinMaxPyramid summary,
+			int level, int samplesPerColumn, int from, int length) {
+		final int bucketSize = summary.getBucketSize(level);
+		final int bucketsPerColumn = (samplesPerColumn + bucketSize - 1)
+				/ bucketSize;
+		final int columnSamples = bucketsPerColumn * bucketSize;
+		final int columns = (length - from) / columnSamples + 2;
+		if (columnMins == null || columnMins.length < columns) {
+			columnMins = new short[columns];
+			columnMaxs = new short[columns];
+		}
+		// array index 0 holds absolute sample bufferEndSample - length
+		final long arrayStart = bufferEndSample - length;
+		final long firstSample = (arrayStart + from) / columnSamples
+				* columnSamples;
+		final int filled = summary.readColumns(level, firstSample,
+				bucketsPerColumn, columns, columnMins, columnMaxs);
+		waveformVertices.layoutColumns(columns, 0, columnSamples);
+		int v = 0;
+		for (int c = 0; c < filled; c++) {
+			waveformVertices.setY(v++, columnMins[c]);
+			waveformVertices.setY(v++, columnMaxs[c]);
+		}
+		waveformOffsetX = firstSample - arrayStart;
+		return waveformVertices.getBuffer(v);
 	}
 
 	protected boolean isValidAudioBuffer() {
@@ -194,25 +365,24 @@ public class OscilloscopeRenderer implements GLSurfaceView.Renderer {
 
 	protected void setLabels(int samplesToShow) {
 		setmVText();
-		final float millisecondsInThisWindow = samplesToShow / 44100.0f * 1000 / 3;
+		final float millisecondsInThisWindow = samplesToShow
+				/ (float) getSampleRate() * 1000 / 3;
 		setMsText(millisecondsInThisWindow);
 	}
 
 	protected void setmVText() {
-		float yPerDiv = (float) getGlWindowVerticalSize() / 4.0f / 24.5f / 1000;
+		// each lane is squeezed by the number of channels
+		float yPerDiv = (float) getGlWindowVerticalSize() * getChannelCount()
+				/ 4.0f / 24.5f / 1000;
 		setmVText(yPerDiv);
 	}
 
-	public void setMsText(Float ms) {
-		String msString = new DecimalFormat("#.#").format(ms);
-		broadcastTextUpdate("BYBUpdateMillisecondsReciever",
-				"millisecondsDisplayedString", msString + " ms");
+	public void setMsText(float ms) {
+		context.getLabelChannel().setMilliseconds(ms);
 	}
 
-	public void setmVText(Float ms) {
-		String msString = new DecimalFormat("#.##").format(ms);
-		broadcastTextUpdate("BYBUpdateMillivoltReciever",
-				"millivoltsDisplayedString", msString + " mV");
+	public void setmVText(float mv) {
+		context.getLabelChannel().setMillivolts(mv);
 	}
 
 	private void setMillivoltLabelPosition(int height) {
@@ -222,33 +392,21 @@ public class OscilloscopeRenderer implements GLSurfaceView.Renderer {
 		context.sendBroadcast(i);
 	}
 	
-	private void broadcastTextUpdate(String action, String name, String data) {
-		Intent i = new Intent();
-		i.setAction(action);
-		i.putExtra(name, data);
-		context.sendBroadcast(i);
-	}
-
-	/*
-	private long samplesToMs(long samps) {
-		return Math.round(samps / 44.1);
-	}
-	*/
-
-	private long msToSamples(long timeSince) {
-		return Math.round(44.1 * timeSince);
+	/**
+	 * @return the rate of the samples being drawn
+	 */
+	protected int getSampleRate() {
+		return context.getmAudioService().getSampleRate();
 	}
 
+	/**
+	 * Frames are drawn as blocks arrive, so the window simply ends at the
+	 * newest sample and the trace moves on a block at a time.
+	 */
 	protected void setGlWindow(GL10 gl, final int samplesToShow,
 			final int lengthOfSampleSet) {
-		
-		final int micBufferSize = context.getmAudioService().getMicListenerBufferSizeInSamples();
-		final long lastTimestamp = context.getmAudioService().getLastSamplesReceivedTimestamp();
-		final long timeSince = System.currentTimeMillis() - lastTimestamp;
-		
-		long xEnd = Math.min(lengthOfSampleSet, lengthOfSampleSet - micBufferSize + msToSamples(timeSince));
-		long xBegin = Math.min(lengthOfSampleSet - glWindowHorizontalSize, xEnd - glWindowHorizontalSize);
-		xBegin = Math.max(0, xBegin);
+		final long xEnd = lengthOfSampleSet;
+		final long xBegin = Math.max(0, xEnd - glWindowHorizontalSize);
 		initGL(gl, xBegin,
 				xEnd, -getGlWindowVerticalSize() / 2,
 				getGlWindowVerticalSize() / 2);
@@ -280,10 +438,16 @@ public class OscilloscopeRenderer implements GLSurfaceView.Renderer {
 		gl.glHint(GL10.GL_PERSPECTIVE_CORRECTION_HINT, GL10.GL_NICEST);
 	}
 
+	/**
+	 * @return the widest window, in samples, there is data for; 0 if not
+	 *         known yet
+	 */
+	protected int getMaxWindowSize() {
+		return mBufferToDraws != null ? mBufferToDraws.length : 0;
+	}
+
 	public void setGlWindowHorizontalSize(final int newSize) {
-		int maxlength = 0;
-		if (mBufferToDraws != null)
-			maxlength = mBufferToDraws.length;
+		final int maxlength = getMaxWindowSize();
 		if (newSize < 16 || (maxlength > 0 && newSize > maxlength))
 			return;
 		this.glWindowHorizontalSize = newSize;
@@ -308,8 +472,29 @@ public class OscilloscopeRenderer implements GLSurfaceView.Renderer {
 		return glWindowHorizontalSize;
 	}
 
+	/**
+	 * Pull just the visible window (plus one mic block of lead-in) out of the
+	 * service's ring buffer into the tail of {@link #mBufferToDraws}, keeping
+	 * the array the same length as the ring so sample indices stay stable.
+	 * The waveform itself is drawn straight from the ring, so the copy is
+	 * only made until the first frame has picked the vertical scale.
+	 */
 	protected void getCurrentAudio() {
-		mBufferToDraws = context.getmAudioService().getAudioBuffer();
+		final RingBuffer ring = context.getmAudioService().getAudioRingBuffer();
+		if (mBufferToDraws == null
+				|| mBufferToDraws.length != ring.getCapacity()) {
+			mBufferToDraws = new short[ring.getCapacity()];
+		}
+		bufferEndSample = ring.getWritten();
+		if (isAutoScaled()) {
+			return;
+		}
+		final int micSize = context.getmAudioService()
+				.getMicListenerBufferSizeInSamples();
+		final int toRead = Math.min(mBufferToDraws.length,
+				glWindowHorizontalSize + micSize);
+		ring.readRange(bufferEndSample - toRead, mBufferToDraws,
+				mBufferToDraws.length - toRead, toRead);
 	}
 
 	public boolean isAutoScaled() {
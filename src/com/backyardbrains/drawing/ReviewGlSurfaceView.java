@@ -0,0 +1,101 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.drawing;
+
+import android.view.MotionEvent;
+
+import com.backyardbrains.BackyardAndroidActivity;
+import com.backyardbrains.ReviewActivity;
+import com.backyardbrains.view.ScaleListener;
+import com.backyardbrains.view.TwoDimensionScaleGestureDetector;
+
+/**
+ * Shows a recording through a {@link ReviewRenderer}: pinch to zoom as in
+ * the live view, drag with one finger to scrub. Frames are drawn only when
+ * the view changes.
+ */
+public class ReviewGlSurfaceView extends ContinuousGLSurfaceView {
+
+	@SuppressWarnings("unused")
+	private static final String TAG = ReviewGlSurfaceView.class
+			.getCanonicalName();
+	protected ReviewRenderer renderer;
+	private boolean dragging;
+	private float lastDragX;
+
+	public ReviewGlSurfaceView(ReviewActivity context) {
+		super(context);
+	}
+
+	@Override
+	public void onNewSamples() {
+		// nothing live is drawn here
+	}
+
+	@Override
+	protected void assignRenderer(BackyardAndroidActivity context) {
+		renderer = new ReviewRenderer((ReviewActivity) context);
+		super.renderer = renderer;
+		setRenderer(renderer);
+		mScaleDetector = new TwoDimensionScaleGestureDetector(context,
+				new ScaleListener(renderer));
+	}
+
+	/**
+	 * Each recording starts fully zoomed in at its beginning, so there is
+	 * nothing to carry over between files.
+	 */
+	@Override
+	protected void readSettings() {
+	}
+
+	@Override
+	protected void saveSettings() {
+	}
+
+	@Override
+	public boolean onTouchEvent(MotionEvent event) {
+		final boolean result = super.onTouchEvent(event);
+		switch (event.getAction() & MotionEvent.ACTION_MASK) {
+		case MotionEvent.ACTION_DOWN:
+			dragging = true;
+			lastDragX = event.getX();
+			break;
+		case MotionEvent.ACTION_MOVE:
+			if (mScaleDetector.isInProgress() || event.getPointerCount() != 1) {
+				dragging = false;
+			} else if (!dragging) {
+				// a pinch just ended; pick the drag up from here
+				dragging = true;
+				lastDragX = event.getX();
+			} else {
+				renderer.panBy(event.getX() - lastDragX);
+				lastDragX = event.getX();
+				requestRender();
+			}
+			break;
+		case MotionEvent.ACTION_POINTER_UP:
+		case MotionEvent.ACTION_UP:
+		case MotionEvent.ACTION_CANCEL:
+			dragging = false;
+			break;
+		}
+		return result;
+	}
+}
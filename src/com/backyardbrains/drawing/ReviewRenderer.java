@@ -0,0 +1,266 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.drawing;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+
+import javax.microedition.khronos.opengles.GL10;
+
+import android.util.Log;
+
+import com.backyardbrains.ReviewActivity;
+import com.backyardbrains.audio.MappedRecording;
+import com.backyardbrains.audio.PeakSummary;
+
+/**
+ * Draws a window of a recorded file instead of live audio. The window is
+ * zoomed with the usual {@link com.backyardbrains.view.ScaleListener} and
+ * panned with {@link #panBy(float)}. Zoomed out, columns come from the
+ * recording's {@link PeakSummary}; zoomed in, only the visible samples are
+ * read from the mapped file. Either way a frame touches a bounded number of
+ * samples however long the recording is.
+ */
+public class ReviewRenderer extends OscilloscopeRenderer {
+
+	private static final String TAG = ReviewRenderer.class.getCanonicalName();
+	/** widest window drawn from raw samples when there is no summary */
+	private static final int MAX_RAW_WINDOW = 1 << 20;
+
+	private final ReviewActivity reviewActivity;
+	private MappedRecording recording;
+	/** sample at the middle of the window, or -1 to start at the beginning */
+	private volatile long viewCenter = -1;
+	private short[] columnMins;
+	private short[] columnMaxs;
+
+	public ReviewRenderer(ReviewActivity reviewActivity) {
+		super(reviewActivity);
+		this.reviewActivity = reviewActivity;
+		mBufferToDraws = new short[0];
+	}
+
+	@Override
+	protected boolean isSourceReady() {
+		return reviewActivity.getRecording() != null;
+	}
+
+	/**
+	 * Pick up the recording once it has been opened, and scale the window
+	 * to its loudest peak the first time it is seen.
+	 */
+	@Override
+	protected void getCurrentAudio() {
+		final MappedRecording current = reviewActivity.getRecording();
+		if (current != recording) {
+			recording = current;
+			viewCenter = -1;
+			scaleToRecording();
+		}
+	}
+
+	@Override
+	protected boolean isValidAudioBuffer() {
+		return recording != null && recording.getSampleCount() > 0;
+	}
+
+	@Override
+	protected int getSampleRate() {
+		return recording.getSampleRate();
+	}
+
+	@Override
+	protected int getChannelCount() {
+		return recording != null ? recording.getChannels() : 1;
+	}
+
+	@Override
+	protected int getMaxWindowSize() {
+		if (recording == null) {
+			return 0;
+		}
+		final long max = recording.getSummary() != null ? Integer.MAX_VALUE
+				: MAX_RAW_WINDOW;
+		return (int) Math.min(recording.getSampleCount(), max);
+	}
+
+	private void scaleToRecording() {
+		final PeakSummary summary = recording.getSummary();
+		int peak = 0;
+		for (int channel = 0; channel < recording.getChannels(); channel++) {
+			if (summary != null) {
+				final int level = summary.getLevels() - 1;
+				final int buckets = (int) summary.getBucketCount(level);
+				ensureColumns(buckets);
+				final int filled = summary.readColumns(channel, level, 0, 1,
+						buckets, columnMins, columnMaxs);
+				for (int c = 0; c < filled; c++) {
+					peak = Math.max(peak, Math.max(-columnMins[c], columnMaxs[c]));
+				}
+			} else {
+				final int n = readRaw(channel, 0, getMaxWindowSize());
+				for (int i = 0; i < n; i++) {
+					peak = Math.max(peak, Math.abs(mBufferToDraws[i]));
+				}
+			}
+		}
+		if (peak > 0) {
+			setGlWindowVerticalSize(peak * 4);
+		}
+		setAutoScaled(true);
+	}
+
+	/**
+	 * Move the window by {@code pixels} screen pixels; dragging right shows
+	 * earlier samples.
+	 */
+	public void panBy(float pixels) {
+		if (width <= 0) {
+			return;
+		}
+		final int size = glWindowHorizontalSize;
+		viewCenter = getWindowStart() + size / 2
+				- Math.round((double) pixels * size / width);
+	}
+
+	/**
+	 * @return the first sample in the window, kept inside the recording
+	 */
+	private long getWindowStart() {
+		final MappedRecording r = recording;
+		if (r == null) {
+			return 0;
+		}
+		final int size = glWindowHorizontalSize;
+		final long center = viewCenter < 0 ? size / 2 : viewCenter;
+		return Math.max(0,
+				Math.min(center - size / 2, r.getSampleCount() - size));
+	}
+
+	/**
+	 * The projection spans the window in samples from its start; vertex x
+	 * coordinates are relative to it too, so they stay exact however far
+	 * into a long recording the window is.
+	 */
+	@Override
+	protected void setGlWindow(GL10 gl, int samplesToShow, int lengthOfSampleSet) {
+		initGL(gl, 0, samplesToShow, -getGlWindowVerticalSize() / 2,
+				getGlWindowVerticalSize() / 2);
+	}
+
+	@Override
+	protected FloatBuffer getWaveformBuffer(short[] shortArrayToDraw) {
+		final long start = getWindowStart();
+		final int samplesPerColumn = getSamplesPerColumn();
+		final PeakSummary summary = recording.getSummary();
+		final int level = summary != null ? summary.levelFor(samplesPerColumn)
+				: -1;
+		if (level >= 0) {
+			return getSummaryWaveformBuffer(summary, level, samplesPerColumn,
+					start);
+		}
+		return getRawWaveformBuffer(samplesPerColumn, start);
+	}
+
+	/**
+	 * Columns are aligned to whole summary buckets so they don't shimmer
+	 * while panning.
+	 */
+	private FloatBuffer getSummaryWaveformBuffer(PeakSummary summary,
+			int level, int samplesPerColumn, long start) {
+		final long bucketSize = PeakSummary.getBucketSize(level);
+		final int bucketsPerColumn = (int) ((samplesPerColumn + bucketSize - 1) / bucketSize);
+		final long columnSamples = bucketsPerColumn * bucketSize;
+		final int columns = (int) (glWindowHorizontalSize / columnSamples) + 2;
+		ensureColumns(columns);
+		final long firstSample = start / columnSamples * columnSamples;
+		final int filled = summary.readColumns(drawnChannel, level,
+				firstSample, bucketsPerColumn, columns, columnMins, columnMaxs);
+		waveformVertices.layoutColumns(columns, firstSample - start,
+				columnSamples);
+		int v = 0;
+		for (int c = 0; c < filled; c++) {
+			waveformVertices.setY(v++, columnMins[c]);
+			waveformVertices.setY(v++, columnMaxs[c]);
+		}
+		return waveformVertices.getBuffer(v);
+	}
+
+	/**
+	 * Read just the visible samples, plus one so the strip reaches the
+	 * right edge, and reduce them to a min/max pair per column when there
+	 * are more samples than columns.
+	 */
+	private FloatBuffer getRawWaveformBuffer(int samplesPerColumn, long start) {
+		final int n = readRaw(drawnChannel, start, glWindowHorizontalSize + 1);
+		if (samplesPerColumn <= 1) {
+			waveformVertices.layoutLinear(n, 0, 1);
+			for (int i = 0; i < n; i++) {
+				waveformVertices.setY(i, mBufferToDraws[i]);
+			}
+			return waveformVertices.getBuffer(n);
+		}
+		final int columns = (n + samplesPerColumn - 1) / samplesPerColumn;
+		waveformVertices.layoutColumns(columns, 0, samplesPerColumn);
+		int v = 0;
+		for (int from = 0; from < n; from += samplesPerColumn) {
+			final int to = Math.min(n, from + samplesPerColumn);
+			short lo = mBufferToDraws[from];
+			short hi = lo;
+			for (int i = from + 1; i < to; i++) {
+				final short s = mBufferToDraws[i];
+				if (s < lo) {
+					lo = s;
+				} else if (s > hi) {
+					hi = s;
+				}
+			}
+			waveformVertices.setY(v++, lo);
+			waveformVertices.setY(v++, hi);
+		}
+		return waveformVertices.getBuffer(v);
+	}
+
+	/**
+	 * Read samples of {@code channel} into {@link #mBufferToDraws}, growing
+	 * it if needed.
+	 * 
+	 * @return the number of samples read
+	 */
+	private int readRaw(int channel, long start, int length) {
+		if (mBufferToDraws.length < length) {
+			mBufferToDraws = new short[length];
+		}
+		try {
+			return recording.readRange(channel, start, mBufferToDraws, 0,
+					length);
+		} catch (IOException e) {
+			Log.w(TAG, "Couldn't read " + recording.getFile().getName() + ": "
+					+ e.getMessage());
+			return 0;
+		}
+	}
+
+	private void ensureColumns(int columns) {
+		if (columnMins == null || columnMins.length < columns) {
+			columnMins = new short[columns];
+			columnMaxs = new short[columns];
+		}
+	}
+}
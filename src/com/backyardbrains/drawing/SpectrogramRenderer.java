@@ -0,0 +1,182 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.drawing;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.opengles.GL10;
+
+import com.backyardbrains.SpectrogramActivity;
+import com.backyardbrains.audio.SpectrogramEngine;
+
+/**
+ * Draws a {@link SpectrogramEngine}'s tile as one textured quad, time along
+ * x and frequency up to Nyquist along y. The texture mirrors the tile slot
+ * for slot, so each frame uploads only the columns written since the last
+ * one and scrolls by shifting the texture coordinates, which wrap.
+ */
+public class SpectrogramRenderer extends OscilloscopeRenderer {
+
+	@SuppressWarnings("unused")
+	private static final String TAG = SpectrogramRenderer.class
+			.getCanonicalName();
+
+	private final SpectrogramActivity spectrogramActivity;
+	private SpectrogramEngine engine;
+	/** the engine's tile, with a position of our own */
+	private ByteBuffer tileView;
+	private final int[] texture = new int[1];
+	private long uploadedColumns;
+	private final FloatBuffer quad = newFloatBuffer(8);
+	private final FloatBuffer texCoords = newFloatBuffer(8);
+
+	public SpectrogramRenderer(SpectrogramActivity spectrogramActivity) {
+		super(spectrogramActivity);
+		this.spectrogramActivity = spectrogramActivity;
+		setAutoScaled(true);
+	}
+
+	private static FloatBuffer newFloatBuffer(int floats) {
+		return ByteBuffer.allocateDirect(floats * 4)
+				.order(ByteOrder.nativeOrder()).asFloatBuffer();
+	}
+
+	@Override
+	public void onSurfaceCreated(GL10 gl, EGLConfig config) {
+		super.onSurfaceCreated(gl, config);
+		// textures don't survive the context
+		texture[0] = 0;
+	}
+
+	@Override
+	public void onDrawFrame(GL10 gl) {
+		final SpectrogramEngine current = spectrogramActivity
+				.getSpectrogramEngine();
+		if (current == null) {
+			return;
+		}
+		if (current != engine) {
+			if (texture[0] != 0) {
+				gl.glDeleteTextures(1, texture, 0);
+				texture[0] = 0;
+			}
+			engine = current;
+			tileView = engine.getTile().duplicate();
+		}
+		preDrawingHandler();
+		initGL(gl, 0, glWindowHorizontalSize, 0, 1);
+		gl.glEnable(GL10.GL_TEXTURE_2D);
+		if (texture[0] == 0) {
+			createTexture(gl);
+		} else {
+			gl.glBindTexture(GL10.GL_TEXTURE_2D, texture[0]);
+			uploadNewColumns(gl);
+		}
+		drawTile(gl);
+		gl.glDisable(GL10.GL_TEXTURE_2D);
+	}
+
+	private void createTexture(GL10 gl) {
+		gl.glGenTextures(1, texture, 0);
+		gl.glBindTexture(GL10.GL_TEXTURE_2D, texture[0]);
+		gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_MIN_FILTER,
+				GL10.GL_LINEAR);
+		gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_MAG_FILTER,
+				GL10.GL_LINEAR);
+		gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_WRAP_S,
+				GL10.GL_CLAMP_TO_EDGE);
+		gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_WRAP_T,
+				GL10.GL_REPEAT);
+		gl.glPixelStorei(GL10.GL_UNPACK_ALIGNMENT, 1);
+		// anything written during the upload goes up with the next frame
+		uploadedColumns = engine.getColumnsWritten();
+		tileView.position(0);
+		gl.glTexImage2D(GL10.GL_TEXTURE_2D, 0, GL10.GL_LUMINANCE,
+				engine.getRows(), engine.getColumns(), 0, GL10.GL_LUMINANCE,
+				GL10.GL_UNSIGNED_BYTE, tileView);
+	}
+
+	/**
+	 * Upload the slots written since the last frame, in at most two runs
+	 * when they wrap around the end of the tile.
+	 */
+	private void uploadNewColumns(GL10 gl) {
+		final int columns = engine.getColumns();
+		final int rows = engine.getRows();
+		final long written = engine.getColumnsWritten();
+		long from = Math.max(uploadedColumns, written - columns);
+		while (from < written) {
+			final int slot = engine.getSlot(from);
+			final int n = (int) Math.min(written - from, columns - slot);
+			tileView.position(slot * rows);
+			gl.glTexSubImage2D(GL10.GL_TEXTURE_2D, 0, 0, slot, rows, n,
+					GL10.GL_LUMINANCE, GL10.GL_UNSIGNED_BYTE, tileView);
+			from += n;
+		}
+		uploadedColumns = written;
+	}
+
+	/**
+	 * The newest column sits at the right edge; texture t runs over the
+	 * slots from the oldest one shown and wraps past the end of the tile.
+	 */
+	private void drawTile(GL10 gl) {
+		final int shown = glWindowHorizontalSize;
+		final int columns = engine.getColumns();
+		final float t0 = (float) engine.getSlot(uploadedColumns % columns
+				+ columns - shown) / columns;
+		final float t1 = t0 + (float) shown / columns;
+		quad.put(0, 0).put(1, 0).put(2, shown).put(3, 0);
+		quad.put(4, 0).put(5, 1).put(6, shown).put(7, 1);
+		texCoords.put(0, 0).put(1, t0).put(2, 0).put(3, t1);
+		texCoords.put(4, 1).put(5, t0).put(6, 1).put(7, t1);
+
+		gl.glMatrixMode(GL10.GL_MODELVIEW);
+		gl.glLoadIdentity();
+		gl.glColor4f(0f, 1f, 0f, 1f);
+		gl.glEnableClientState(GL10.GL_VERTEX_ARRAY);
+		gl.glEnableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
+		gl.glVertexPointer(2, GL10.GL_FLOAT, 0, quad);
+		gl.glTexCoordPointer(2, GL10.GL_FLOAT, 0, texCoords);
+		gl.glDrawArrays(GL10.GL_TRIANGLE_STRIP, 0, 4);
+		gl.glDisableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
+		gl.glDisableClientState(GL10.GL_VERTEX_ARRAY);
+	}
+
+	/**
+	 * @return the tile's width in columns, or 0 before there is an engine
+	 */
+	@Override
+	protected int getMaxWindowSize() {
+		return engine != null ? engine.getColumns() : 0;
+	}
+
+	/**
+	 * Label a third of the width in milliseconds as elsewhere; the top of
+	 * the view is always the Nyquist frequency.
+	 */
+	@Override
+	protected void setLabels(int columnsToShow) {
+		setMsText((float) columnsToShow * engine.getHop()
+				/ engine.getSampleRate() * 1000 / 3);
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.drawing;
+
+import android.content.SharedPreferences;
+
+import com.backyardbrains.BackyardAndroidActivity;
+import com.backyardbrains.view.ScaleListener;
+import com.backyardbrains.view.TwoDimensionScaleGestureDetector;
+
+public class SpectrumGlSurfaceView extends ContinuousGLSurfaceView {
+
+	protected SpectrumRenderer renderer;
+
+	public SpectrumGlSurfaceView(BackyardAndroidActivity context) {
+		super(context);
+	}
+
+	@Override
+	public void onNewSamples() {
+		// only the spectrum is drawn here
+	}
+
+	@Override
+	public void onNewSpectrum() {
+		requestThrottledRender();
+	}
+
+	@Override
+	protected void assignRenderer(BackyardAndroidActivity context) {
+		renderer = new SpectrumRenderer(context);
+		setRenderer(renderer);
+		mScaleDetector = new TwoDimensionScaleGestureDetector(context,
+				new ScaleListener(renderer));
+	}
+
+	protected void readSettings() {
+		renderer.setGlWindowHorizontalSize(settings.getInt(
+				"spectrumGlWindowHorizontalSize",
+				renderer.getGlWindowHorizontalSize()));
+		renderer.setGlWindowVerticalSize(settings.getInt(
+				"spectrumGlWindowVerticalSize",
+				renderer.getGlWindowVerticalSize()));
+	}
+
+	protected void saveSettings() {
+		final SharedPreferences.Editor editor = settings.edit();
+		editor.clear();
+		editor.putInt("spectrumGlWindowHorizontalSize",
+				renderer.getGlWindowHorizontalSize());
+		editor.putInt("spectrumGlWindowVerticalSize",
+				renderer.getGlWindowVerticalSize());
+		editor.commit();
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.drawing;
+
+import java.nio.FloatBuffer;
+
+import javax.microedition.khronos.opengles.GL10;
+
+import com.backyardbrains.BackyardAndroidActivity;
+import com.backyardbrains.audio.SpectrumAnalyzer;
+
+/**
+ * Draws the service's averaged spectrum instead of the waveform: x is the
+ * bin from DC upwards, y is the power in hundredths of a decibel below a
+ * full-scale sine, so the usual {@link com.backyardbrains.view.ScaleListener}
+ * zooms into the low frequencies and stretches the decibel range.
+ */
+public class SpectrumRenderer extends OscilloscopeRenderer {
+
+	@SuppressWarnings("unused")
+	private static final String TAG = SpectrumRenderer.class
+			.getCanonicalName();
+	/** y units per decibel */
+	private static final int DB_SCALE = 100;
+
+	private float[] spectrumDb;
+	private int bins;
+
+	public SpectrumRenderer(BackyardAndroidActivity backyardAndroidActivity) {
+		super(backyardAndroidActivity);
+		// the decibel scale is fixed, there is nothing to fit to
+		setAutoScaled(true);
+	}
+
+	/**
+	 * Copy the averaged spectrum. {@link #mBufferToDraws} is only kept the
+	 * length of the spectrum so the window bookkeeping works in bins.
+	 */
+	@Override
+	protected void getCurrentAudio() {
+		final SpectrumAnalyzer analyzer = context.getmAudioService()
+				.getSpectrumAnalyzer();
+		final int n = analyzer.getBins();
+		if (spectrumDb == null || spectrumDb.length != n) {
+			spectrumDb = new float[n];
+			mBufferToDraws = new short[n];
+		}
+		bins = analyzer.getSpectrumDb(spectrumDb);
+	}
+
+	@Override
+	protected void setGlWindow(GL10 gl, int samplesToShow, int lengthOfSampleSet) {
+		initGL(gl, 0, samplesToShow, -getGlWindowVerticalSize(), 0);
+	}
+
+	@Override
+	protected FloatBuffer getWaveformBuffer(short[] shortArrayToDraw) {
+		final int n = Math.min(bins, glWindowHorizontalSize + 1);
+		waveformVertices.layoutLinear(n, 0, 1);
+		for (int k = 0; k < n; k++) {
+			waveformVertices.setY(k, spectrumDb[k] * DB_SCALE);
+		}
+		return waveformVertices.getBuffer(n);
+	}
+
+	/**
+	 * Label a division, a third of the width and a quarter of the height as
+	 * elsewhere, in hertz and decibels.
+	 */
+	@Override
+	protected void setLabels(int binsToShow) {
+		final SpectrumAnalyzer analyzer = context.getmAudioService()
+				.getSpectrumAnalyzer();
+		context.getLabelChannel().setHertz(
+				analyzer.getBinFrequency(binsToShow) / 3);
+		context.getLabelChannel().setDecibels(
+				(float) getGlWindowVerticalSize() / DB_SCALE / 4);
+	}
+}
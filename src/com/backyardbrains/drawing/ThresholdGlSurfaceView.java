@@ -38,6 +38,16 @@ public class ThresholdGlSurfaceView extends ContinuousGLSurfaceView {
 		super(context);
 	}
 
+	@Override
+	public void onNewSamples() {
+		// only the average is drawn here
+	}
+
+	@Override
+	public void onNewTriggerAverage() {
+		requestThrottledRender();
+	}
+
 	@Override
 	protected void assignRenderer(BackyardAndroidActivity context) {
 		renderer = new ThresholdRenderer(context);
@@ -92,6 +102,7 @@ public class ThresholdGlSurfaceView extends ContinuousGLSurfaceView {
 
 				final float y = event.getY();
 				renderer.adjustThresholdValue(y);
+				requestRender();
 			}
 			break;
 		}
@@ -24,17 +24,19 @@ import java.nio.FloatBuffer;
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
-import android.util.Log;
-
 import com.backyardbrains.BackyardAndroidActivity;
+import com.backyardbrains.audio.AudioService;
+import com.backyardbrains.audio.FiringRateMeter;
 import com.backyardbrains.audio.TriggerAverager.TriggerHandler;
 
 public class ThresholdRenderer extends OscilloscopeRenderer {
 
+	@SuppressWarnings("unused")
 	private static final String TAG = ThresholdRenderer.class
 			.getCanonicalName();
 	private float thresholdPixelHeight;
 	private boolean drewFirstFrame;
+	private final VertexStore thresholdLine = new VertexStore();
 	
 	
 	
@@ -54,7 +56,7 @@ public class ThresholdRenderer extends OscilloscopeRenderer {
 	}
 
 	public void defaultThresholdValue() {
-		adjustThresholdValue(glHeightToPixelHeight(getGlWindowVerticalSize()/4));
+		adjustThresholdValue(glHeightToPixelHeight(signalToGlHeight(getGlWindowVerticalSize()/4)));
 	}
 	
 	@Override
@@ -74,36 +76,73 @@ public class ThresholdRenderer extends OscilloscopeRenderer {
 	@Override
 	protected void postDrawingHandler(GL10 gl) {
 		super.postDrawingHandler(gl);
+		drawPsth(gl);
 		final float thresholdLineLength = mBufferToDraws.length;
-		final float thresholdValue = getThresholdValue();
-		float[] thresholdLine = new float[] { -thresholdLineLength*2, thresholdValue,
-				thresholdLineLength*2, thresholdValue };
-		FloatBuffer thl = getFloatBufferFromFloatArray(thresholdLine);
+		final float thresholdValue = pixelHeightToGlHeight(thresholdPixelHeight);
+		thresholdLine.layoutLinear(2, -thresholdLineLength * 2,
+				thresholdLineLength * 4);
+		thresholdLine.setY(0, thresholdValue);
+		thresholdLine.setY(1, thresholdValue);
 		gl.glEnableClientState(GL10.GL_VERTEX_ARRAY);
 		gl.glColor4f(1.0f, 0.0f, 0.0f, 1.0f);
 		gl.glLineWidth(2.0f);
-		gl.glVertexPointer(2, GL10.GL_FLOAT, 0, thl);
+		gl.glVertexPointer(2, GL10.GL_FLOAT, 0, thresholdLine.getBuffer(2));
 		gl.glDrawArrays(GL10.GL_LINES, 0, 2);
 		gl.glDisableClientState(GL10.GL_VERTEX_ARRAY);
 	}
 
+	/**
+	 * Line the histogram up under the averaged sweep, whose window it
+	 * shares, as {@link #setGlWindow(GL10, int, int)} places it.
+	 */
+	private void drawPsth(GL10 gl) {
+		final FiringRateMeter meter = getFiringRateMeter();
+		if (meter == null) {
+			return;
+		}
+		final int length = mBufferToDraws.length;
+		final int shown = glWindowHorizontalSize;
+		final float xBegin = (length - shown) / 2;
+		firingRateOverlay.drawPsth(gl, meter, -xBegin / shown, (length - xBegin)
+				/ shown);
+	}
+
+	/**
+	 * Every channel is averaged around the same triggers; the arrays are
+	 * all as long as the trigger channel's, which sets the window.
+	 */
 	@Override
 	protected FloatBuffer getWaveformBuffer(short[] shortArrayToDraw) {
-		float[] arr = new float[shortArrayToDraw.length * 2]; // array to fill
-		int j = 0; // index of arr
-		try {
-			for (int i = 0; i < shortArrayToDraw.length; i++) {
-				arr[j++] = i;
-				arr[j++] = shortArrayToDraw[i];
-			}
-		} catch (ArrayIndexOutOfBoundsException e) {
-			Log.e(TAG, e.getMessage());
+		final short[] lane = context.getmAudioService().getTriggerBuffer(
+				drawnChannel);
+		waveformVertices.layoutLinear(shortArrayToDraw.length, 0, 1);
+		if (lane == null || lane.length != shortArrayToDraw.length) {
+			return waveformVertices.getBuffer(0);
+		}
+		shortArrayToDraw = lane;
+		for (int i = 0; i < shortArrayToDraw.length; i++) {
+			waveformVertices.setY(i, shortArrayToDraw[i]);
 		}
-		return getFloatBufferFromFloatArray(arr);
+		return waveformVertices.getBuffer(shortArrayToDraw.length);
 	}
 
+	/**
+	 * @return the threshold in sample units, undoing the squeeze of the
+	 *         trigger channel's lane
+	 */
 	public float getThresholdValue() {
-		return pixelHeightToGlHeight(thresholdPixelHeight);
+		final float glHeight = pixelHeightToGlHeight(thresholdPixelHeight);
+		return (glHeight - getLaneCentre(getTriggerChannel()))
+				* getChannelCount();
+	}
+
+	private float signalToGlHeight(float value) {
+		return getLaneCentre(getTriggerChannel()) + value / getChannelCount();
+	}
+
+	private int getTriggerChannel() {
+		final AudioService service = context.getmAudioService();
+		return service != null ? service.getTriggerChannel() : 0;
 	}
 	
 	@Override
@@ -113,7 +152,7 @@ public class ThresholdRenderer extends OscilloscopeRenderer {
 	
 	@Override
 	protected void setmVText () {
-		final float glHeight = pixelHeightToGlHeight(thresholdPixelHeight);
+		final float glHeight = getThresholdValue();
 		final float yPerDiv = glHeight / 4 / 24.5f / 1000;
 
 		super.setmVText(yPerDiv);
@@ -153,7 +192,7 @@ public class ThresholdRenderer extends OscilloscopeRenderer {
 		thresholdPixelHeight = dy;
 		//Log.d(TAG, "Adjusted threshold by " + dy + " pixels");
 		if (context.getmAudioService() != null) {
-			final float glHeight = pixelHeightToGlHeight(thresholdPixelHeight);
+			final float glHeight = getThresholdValue();
 			context.getmAudioService().getTriggerHandler().post(new Runnable() {
 				@Override public void run() {
 					((TriggerHandler)context.getmAudioService().getTriggerHandler()).setThreshold(glHeight);
@@ -0,0 +1,170 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.drawing;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import com.backyardbrains.audio.RingBuffer;
+
+/**
+ * Circular vertex buffer that mirrors a {@link RingBuffer}. Samples are
+ * grouped into columns aligned to absolute sample indices; a column of one
+ * sample is one vertex, and a wider column is reduced to a min/max pair.
+ * Column {@code c} always lives in slot {@code c % capacity}, whose x
+ * coordinates are written once when the ring is configured, so each frame
+ * only converts the columns completed since the last one.
+ * 
+ * The visible columns usually wrap around the end of the ring and are drawn
+ * as two ranges. The vertices of slot 0 are mirrored into one spare slot
+ * past the end so the first range joins up with the second.
+ */
+public class VertexRing {
+	private FloatBuffer vertices;
+	private int capacity;
+	private int samplesPerColumn;
+	private int verticesPerColumn;
+	/** absolute index of the next column to convert, or -1 after a reset */
+	private long nextColumn = -1;
+	private short[] scratch;
+
+	/**
+	 * Set the ring up for {@code columns} columns of
+	 * {@code samplesPerColumn} samples. Nothing happens if it already is.
+	 * 
+	 * @return true if the ring was reset and will be refilled
+	 */
+	public boolean configure(int samplesPerColumn, int columns) {
+		samplesPerColumn = Math.max(samplesPerColumn, 1);
+		columns = Math.max(columns, 1);
+		if (samplesPerColumn == this.samplesPerColumn && columns == capacity) {
+			return false;
+		}
+		this.samplesPerColumn = samplesPerColumn;
+		capacity = columns;
+		verticesPerColumn = samplesPerColumn == 1 ? 1 : 2;
+		final int count = (capacity + 1) * verticesPerColumn;
+		if (vertices == null || vertices.capacity() < count * 2) {
+			vertices = ByteBuffer.allocateDirect(count * 2 * 4)
+					.order(ByteOrder.nativeOrder()).asFloatBuffer();
+		}
+		vertices.clear();
+		for (int slot = 0; slot <= capacity; slot++) {
+			final float x = (float) slot * samplesPerColumn;
+			if (verticesPerColumn == 1) {
+				vertices.put(slot * 2, x);
+			} else {
+				vertices.put(slot * 4, x);
+				vertices.put(slot * 4 + 2, x + samplesPerColumn / 2f);
+			}
+		}
+		nextColumn = -1;
+		return true;
+	}
+
+	/**
+	 * Convert every column that is complete in {@code ring} up to absolute
+	 * sample {@code endSample} and has not been converted yet.
+	 */
+	public void update(RingBuffer ring, long endSample) {
+		final long endColumn = endSample / samplesPerColumn;
+		if (nextColumn < 0 || endColumn - nextColumn > capacity) {
+			nextColumn = Math.max(0, endColumn - capacity);
+		}
+		final int n = (int) (endColumn - nextColumn);
+		if (n <= 0) {
+			return;
+		}
+		final int samples = n * samplesPerColumn;
+		if (scratch == null || scratch.length < samples) {
+			scratch = new short[samples];
+		}
+		ring.readRange(nextColumn * samplesPerColumn, scratch, 0, samples);
+		vertices.clear();
+		for (int c = 0; c < n; c++) {
+			final int slot = (int) ((nextColumn + c) % capacity);
+			final int start = c * samplesPerColumn;
+			if (verticesPerColumn == 1) {
+				setColumn(slot, scratch[start], scratch[start]);
+				continue;
+			}
+			int minAt = start;
+			int maxAt = start;
+			for (int i = start + 1; i < start + samplesPerColumn; i++) {
+				if (scratch[i] < scratch[minAt]) {
+					minAt = i;
+				} else if (scratch[i] > scratch[maxAt]) {
+					maxAt = i;
+				}
+			}
+			// keep the order they occurred in so the trace keeps its shape
+			setColumn(slot, scratch[Math.min(minAt, maxAt)],
+					scratch[Math.max(minAt, maxAt)]);
+		}
+		nextColumn = endColumn;
+	}
+
+	private void setColumn(int slot, short first, short second) {
+		if (verticesPerColumn == 1) {
+			vertices.put(slot * 2 + 1, first);
+			if (slot == 0) {
+				vertices.put(capacity * 2 + 1, first);
+			}
+		} else {
+			vertices.put(slot * 4 + 1, first);
+			vertices.put(slot * 4 + 3, second);
+			if (slot == 0) {
+				vertices.put(capacity * 4 + 1, first);
+				vertices.put(capacity * 4 + 3, second);
+			}
+		}
+	}
+
+	/**
+	 * @return the whole vertex buffer, positioned at zero
+	 */
+	public FloatBuffer getBuffer() {
+		vertices.clear();
+		return vertices;
+	}
+
+	/**
+	 * @return the absolute index one past the newest converted column
+	 */
+	public long getEndColumn() {
+		return Math.max(nextColumn, 0);
+	}
+
+	public int getSlot(long column) {
+		return (int) (column % capacity);
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public int getSamplesPerColumn() {
+		return samplesPerColumn;
+	}
+
+	public int getVerticesPerColumn() {
+		return verticesPerColumn;
+	}
+}
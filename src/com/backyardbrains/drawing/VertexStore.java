@@ -0,0 +1,107 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.drawing;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * A direct buffer of (x, y) vertices that lives across frames. The x
+ * coordinates are laid out once for a given zoom and left alone; each frame
+ * only rewrites the y values in place and moves the limit, so drawing
+ * allocates nothing once the buffer has grown to the largest zoom used.
+ * 
+ * Each frame calls one of the layout methods, then {@link #setY(int, float)}
+ * for every vertex it uses, then {@link #getBuffer(int)}.
+ */
+public class VertexStore {
+	private FloatBuffer vertices;
+	/** the layout the x coordinates were last written for */
+	private int layoutCount = -1;
+	private float layoutStart;
+	private float layoutStep;
+	private boolean layoutPaired;
+
+	/**
+	 * Lay out {@code count} vertices at {@code x0}, {@code x0 + step}, ...
+	 * unless they already are.
+	 */
+	public void layoutLinear(int count, float x0, float step) {
+		layout(count, x0, step, false);
+	}
+
+	/**
+	 * Lay out {@code columns} pairs of vertices, one pair per pixel column
+	 * of {@code columnWidth} units starting at {@code x0}: the first of each
+	 * pair at the column's start and the second halfway across, unless they
+	 * already are.
+	 */
+	public void layoutColumns(int columns, float x0, float columnWidth) {
+		layout(columns * 2, x0, columnWidth, true);
+	}
+
+	private void layout(int count, float x0, float step, boolean paired) {
+		if (vertices != null) {
+			vertices.clear();
+		}
+		if (count == layoutCount && x0 == layoutStart && step == layoutStep
+				&& paired == layoutPaired) {
+			return;
+		}
+		ensureCapacity(count);
+		for (int i = 0; i < count; i++) {
+			final float x = paired ? x0 + (i >> 1) * step + (i & 1) * step / 2
+					: x0 + i * step;
+			vertices.put(i * 2, x);
+		}
+		layoutCount = count;
+		layoutStart = x0;
+		layoutStep = step;
+		layoutPaired = paired;
+	}
+
+	private void ensureCapacity(int count) {
+		if (vertices == null || vertices.capacity() < count * 2) {
+			vertices = ByteBuffer.allocateDirect(count * 2 * 4)
+					.order(ByteOrder.nativeOrder()).asFloatBuffer();
+		}
+	}
+
+	public void setY(int vertex, float y) {
+		vertices.put(vertex * 2 + 1, y);
+	}
+
+	/**
+	 * @return the buffer positioned at zero with its limit set to cover the
+	 *         first {@code count} vertices
+	 */
+	public FloatBuffer getBuffer(int count) {
+		vertices.limit(Math.min(count, layoutCount) * 2);
+		vertices.position(0);
+		return vertices;
+	}
+
+	/**
+	 * @return how many vertices the current layout holds
+	 */
+	public int getLayoutCount() {
+		return Math.max(layoutCount, 0);
+	}
+}
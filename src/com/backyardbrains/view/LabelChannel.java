@@ -0,0 +1,223 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.view;
+
+import java.text.DecimalFormat;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.app.Activity;
+import android.os.SystemClock;
+import android.util.Log;
+import android.widget.TextView;
+
+/**
+ * Carries the scale and firing-rate labels from a renderer to its
+ * activity's text views without going through system broadcasts. The
+ * renderer offers a value every frame; it is only formatted when it differs
+ * from the last one, and only handed to the UI thread when the formatted
+ * text changes. Changes that arrive before the UI thread has picked up the
+ * previous one are folded into it, so the views are updated at most once
+ * per UI frame.
+ * 
+ * Values are offered from one thread (the GL thread) only.
+ */
+public class LabelChannel {
+	private static final String TAG = LabelChannel.class.getCanonicalName();
+	private static final long STATS_INTERVAL_MILLIS = 60 * 1000;
+	/**
+	 * what each offered value used to cost: a DecimalFormat, the formatted
+	 * String, the String with its unit, and the Intent that carried it.
+	 * This is read off the code, not measured, and leaves out what Intent,
+	 * Bundle and the binder allocate, so the allocations saved that
+	 * {@link #checkStats()} logs are only an estimate.
+	 */
+	private static final int ALLOCATIONS_PER_BROADCAST = 4;
+	/** a change costs the formatted String and the String with its unit */
+	private static final int ALLOCATIONS_PER_CHANGE = 2;
+
+	private final Activity activity;
+	private final TextView msView;
+	private final TextView mVView;
+	private final TextView rateView;
+	private final DecimalFormat msFormat = new DecimalFormat("#.#");
+	private final DecimalFormat mVFormat = new DecimalFormat("#.##");
+
+	private float lastMs = Float.NaN;
+	private float lastMv = Float.NaN;
+	private float lastRate = Float.NaN;
+	private float lastHz = Float.NaN;
+	private float lastDb = Float.NaN;
+	private String shownMs;
+	private String shownMv;
+	private String shownRate;
+	private String shownHz;
+	private String shownDb;
+	private volatile String pendingMs;
+	private volatile String pendingMv;
+	private volatile String pendingRate;
+	private final AtomicBoolean updatePosted = new AtomicBoolean();
+
+	private long statsSince = SystemClock.uptimeMillis();
+	private int offered;
+	private int changed;
+	private int posted;
+
+	private final Runnable update = new Runnable() {
+		@Override
+		public void run() {
+			updatePosted.set(false);
+			final String ms = pendingMs;
+			final String mv = pendingMv;
+			final String rate = pendingRate;
+			if (ms != null && msView != null) {
+				msView.setText(ms);
+			}
+			if (mv != null && mVView != null) {
+				mVView.setText(mv);
+			}
+			if (rate != null && rateView != null) {
+				rateView.setText(rate);
+			}
+		}
+	};
+
+	public LabelChannel(Activity activity, TextView msView, TextView mVView,
+			TextView rateView) {
+		this.activity = activity;
+		this.msView = msView;
+		this.mVView = mVView;
+		this.rateView = rateView;
+	}
+
+	/**
+	 * Show how many milliseconds one division spans.
+	 */
+	public void setMilliseconds(float ms) {
+		offered++;
+		if (ms != lastMs) {
+			lastMs = ms;
+			final String text = msFormat.format(ms);
+			if (!text.equals(shownMs)) {
+				shownMs = text;
+				changed++;
+				pendingMs = text + " ms";
+				post();
+			}
+		}
+		checkStats();
+	}
+
+	/**
+	 * Show how many millivolts one division spans.
+	 */
+	public void setMillivolts(float mv) {
+		offered++;
+		if (mv != lastMv) {
+			lastMv = mv;
+			final String text = mVFormat.format(mv);
+			if (!text.equals(shownMv)) {
+				shownMv = text;
+				changed++;
+				pendingMv = text + " mV";
+				post();
+			}
+		}
+		checkStats();
+	}
+
+	/**
+	 * Show how many hertz one division spans, in the milliseconds view.
+	 */
+	public void setHertz(float hz) {
+		offered++;
+		if (hz != lastHz) {
+			lastHz = hz;
+			final String text = msFormat.format(hz);
+			if (!text.equals(shownHz)) {
+				shownHz = text;
+				changed++;
+				pendingMs = text + " Hz";
+				post();
+			}
+		}
+		checkStats();
+	}
+
+	/**
+	 * Show how many decibels one division spans, in the millivolts view.
+	 */
+	public void setDecibels(float db) {
+		offered++;
+		if (db != lastDb) {
+			lastDb = db;
+			final String text = msFormat.format(db);
+			if (!text.equals(shownDb)) {
+				shownDb = text;
+				changed++;
+				pendingMv = text + " dB";
+				post();
+			}
+		}
+		checkStats();
+	}
+
+	/**
+	 * Show the current firing rate in spikes per second.
+	 */
+	public void setFiringRate(float hz) {
+		offered++;
+		if (hz != lastRate) {
+			lastRate = hz;
+			final String text = msFormat.format(hz);
+			if (!text.equals(shownRate)) {
+				shownRate = text;
+				changed++;
+				pendingRate = text + " Hz";
+				post();
+			}
+		}
+		checkStats();
+	}
+
+	private void post() {
+		if (updatePosted.compareAndSet(false, true)) {
+			posted++;
+			activity.runOnUiThread(update);
+		}
+	}
+
+	private void checkStats() {
+		final long now = SystemClock.uptimeMillis();
+		if (now - statsSince < STATS_INTERVAL_MILLIS) {
+			return;
+		}
+		final float minutes = (now - statsSince) / (float) STATS_INTERVAL_MILLIS;
+		final int broadcastsSaved = (int) ((offered - posted) / minutes);
+		final int allocationsSaved = (int) ((offered
+				* ALLOCATIONS_PER_BROADCAST - changed * ALLOCATIONS_PER_CHANGE) / minutes);
+		Log.d(TAG, "Label updates: " + offered + " offered, " + posted
+				+ " posted; saved " + broadcastsSaved
+				+ " broadcasts and an estimated " + allocationsSaved
+				+ " allocations per minute");
+		statsSince = now;
+		offered = 0;
+		changed = 0;
+		posted = 0;
+	}
+}
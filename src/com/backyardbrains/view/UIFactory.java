@@ -49,9 +49,7 @@ public class UIFactory {
 	
 	private TextView msView;
 	private TextView mVView;
-	private UpdateMillisecondsReciever upmillirec;
 	private SetMillivoltViewSizeReceiver milliVoltSize;
-	private UpdateMillivoltReciever upmillivolt;
 	private ShowRecordingButtonsReceiver showRecordingButtonsReceiver;
 	
 	private static UIFactory instance = null;
@@ -67,16 +65,6 @@ public class UIFactory {
 	
 	public void registerReceivers(Activity context) {
 		
-		IntentFilter intentFilter = new IntentFilter(
-				"BYBUpdateMillisecondsReciever");
-		upmillirec = new UpdateMillisecondsReciever();
-		context.registerReceiver(upmillirec, intentFilter);
-
-		IntentFilter intentFilterVolts = new IntentFilter(
-				"BYBUpdateMillivoltReciever");
-		upmillivolt = new UpdateMillivoltReciever();
-		context.registerReceiver(upmillivolt, intentFilterVolts);
-
 		IntentFilter intentFilterVoltSize = new IntentFilter(
 				"BYBMillivoltsViewSize");
 		milliVoltSize = new SetMillivoltViewSizeReceiver();
@@ -91,8 +79,6 @@ public class UIFactory {
 
 
 	public void unregisterReceivers(Activity context) {
-		context.unregisterReceiver(upmillirec);
-		context.unregisterReceiver(upmillivolt);
 		context.unregisterReceiver(milliVoltSize);
 		context.unregisterReceiver(showRecordingButtonsReceiver);
 	}
@@ -269,22 +255,6 @@ public class UIFactory {
 		}
 	}
 
-	private class UpdateMillisecondsReciever extends BroadcastReceiver {
-		@Override
-		public void onReceive(android.content.Context context,
-				android.content.Intent intent) {
-			msView.setText(intent.getStringExtra("millisecondsDisplayedString"));
-		};
-	}
-
-	private class UpdateMillivoltReciever extends BroadcastReceiver {
-		@Override
-		public void onReceive(android.content.Context context,
-				android.content.Intent intent) {
-			mVView.setText(intent.getStringExtra("millivoltsDisplayedString"));
-		};
-	}
-
 	private class SetMillivoltViewSizeReceiver extends BroadcastReceiver {
 		@Override
 		public void onReceive(android.content.Context context,
@@ -0,0 +1,354 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.backyardbrains.audio.AudioDispatcher.Consumer;
+import com.backyardbrains.audio.AudioDispatcher.SlowConsumerPolicy;
+
+public class AudioDispatcherTest extends TestCase {
+	private static final int RING_SIZE = 8;
+	private static final int BLOCK_SAMPLES = 64;
+
+	private final ByteBuffer block = ByteBuffer.allocateDirect(
+			BLOCK_SAMPLES * 2).order(ByteOrder.nativeOrder());
+	private AudioDispatcher dispatcher;
+
+	@Override
+	protected void setUp() {
+		dispatcher = new AudioDispatcher(RING_SIZE, BLOCK_SAMPLES * 2);
+	}
+
+	@Override
+	protected void tearDown() {
+		dispatcher.stop();
+	}
+
+	/** every sample of block {@code seq} is {@code seq} */
+	private void publish(long seq) {
+		block.clear();
+		for (int i = 0; i < BLOCK_SAMPLES; i++) {
+			block.putShort(i * 2, (short) seq);
+		}
+		dispatcher.receiveAudio(block);
+	}
+
+	private static void awaitCaughtUp(Consumer c) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + 5000;
+		while (c.getLag() > 0) {
+			assertTrue("consumer never caught up",
+					System.currentTimeMillis() < deadline);
+			Thread.sleep(1);
+		}
+	}
+
+	/**
+	 * Records the sequence of every block handed over, failing any block
+	 * whose samples were not all written together.
+	 */
+	private static class Recorder implements ReceivesAudio {
+		final ArrayList<Long> seen = new ArrayList<Long>();
+		final ArrayList<Integer> deliveries = new ArrayList<Integer>();
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		volatile String torn;
+		/** set if a delivery was not placed at its first block's sample */
+		volatile String misplaced;
+		/** when set, the first delivery waits for {@link #release} */
+		volatile boolean holdFirst;
+		/** spin this long on every fourth block, in microseconds */
+		volatile int stallMicros;
+
+		@Override
+		public void receiveAudio(ByteBuffer buffer) {
+			final int blocks = buffer.remaining() / 2 / BLOCK_SAMPLES;
+			synchronized (this) {
+				deliveries.add(blocks);
+				final long start = buffer.getShort(buffer.position())
+						* (long) BLOCK_SAMPLES;
+				if (AudioDispatcher.getDeliveringSample() != start) {
+					misplaced = "delivery at " + start + " said to start at "
+							+ AudioDispatcher.getDeliveringSample();
+				}
+				for (int b = 0; b < blocks; b++) {
+					final int base = buffer.position() + b * BLOCK_SAMPLES * 2;
+					final short seq = buffer.getShort(base);
+					for (int i = 1; i < BLOCK_SAMPLES; i++) {
+						if (buffer.getShort(base + i * 2) != seq) {
+							torn = "block " + seq + " is torn at sample " + i;
+						}
+					}
+					seen.add((long) seq);
+				}
+			}
+			if (holdFirst) {
+				holdFirst = false;
+				entered.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			if (stallMicros > 0 && (seen.get(seen.size() - 1) & 3) == 0) {
+				final long until = System.nanoTime() + stallMicros * 1000L;
+				while (System.nanoTime() < until) {
+					// busy, like a trigger scan
+				}
+			}
+		}
+	}
+
+	/**
+	 * A channel's display history and summary, written the way the service's
+	 * display consumer writes them: padded out to the delivering sample
+	 * first, so missed blocks leave silence rather than a shift.
+	 */
+	private static class Lane implements ReceivesAudio {
+		final RingBuffer history = new RingBuffer(RING_SIZE * 8 * BLOCK_SAMPLES);
+		final MinMaxPyramid summary = new MinMaxPyramid(history.getCapacity());
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		volatile boolean holdFirst;
+
+		@Override
+		public void receiveAudio(ByteBuffer buffer) {
+			final long at = AudioDispatcher.getDeliveringSample();
+			history.skipTo(at);
+			summary.skipTo(at);
+			history.add(buffer);
+			summary.add(buffer);
+			if (holdFirst) {
+				holdFirst = false;
+				entered.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+	/**
+	 * One channel's display consumer is lapped and drops blocks the other
+	 * channel's is given; both histories still end at the same sample, and
+	 * everything the lagging one did get sits at the same place as in the
+	 * other.
+	 */
+	public void testDroppedBlocksLeaveLanesAligned() throws Exception {
+		final AudioDispatcher other = new AudioDispatcher(RING_SIZE,
+				BLOCK_SAMPLES * 2);
+		try {
+			final Lane steady = new Lane();
+			final Lane lagging = new Lane();
+			lagging.holdFirst = true;
+			// the steady lane holds the producer back rather than drop
+			final Consumer s = dispatcher.addConsumer("display 1", steady,
+					SlowConsumerPolicy.BLOCK);
+			final Consumer l = other.addConsumer("display 2", lagging,
+					SlowConsumerPolicy.COALESCE);
+			dispatcher.start();
+			other.start();
+			final int published = 1 + RING_SIZE * 3;
+			for (int seq = 0; seq < published; seq++) {
+				// no block is silent, so a gap can't pass for one
+				block.clear();
+				for (int i = 0; i < BLOCK_SAMPLES; i++) {
+					block.putShort(i * 2, (short) (seq + 1));
+				}
+				dispatcher.receiveAudio(block);
+				other.receiveAudio(block);
+				if (seq == 0) {
+					assertTrue(lagging.entered.await(5, TimeUnit.SECONDS));
+				}
+			}
+			lagging.release.countDown();
+			awaitCaughtUp(s);
+			awaitCaughtUp(l);
+			assertTrue("nothing was dropped", l.getDroppedBlocks() > 0);
+
+			final long end = published * (long) BLOCK_SAMPLES;
+			assertEquals(end, steady.history.getWritten());
+			assertEquals(end, lagging.history.getWritten());
+			assertEquals(end, steady.summary.getWritten());
+			assertEquals(end, lagging.summary.getWritten());
+
+			final int n = (int) end;
+			final short[] a = new short[n];
+			final short[] b = new short[n];
+			steady.history.readRange(0, a, 0, n);
+			lagging.history.readRange(0, b, 0, n);
+			int gaps = 0;
+			for (int i = 0; i < n; i++) {
+				assertEquals(i / BLOCK_SAMPLES + 1, a[i]);
+				if (b[i] == 0) {
+					gaps++;
+				} else {
+					assertEquals("sample " + i, a[i], b[i]);
+				}
+			}
+			assertEquals(l.getDroppedBlocks() * BLOCK_SAMPLES, gaps);
+
+			final int columns = n / MinMaxPyramid.BASE_BUCKET_SIZE;
+			final short[] lo = new short[columns];
+			final short[] hi = new short[columns];
+			assertEquals(columns, lagging.summary.readColumns(0, 0, 1, columns,
+					lo, hi));
+			for (int c = 0; c < columns; c++) {
+				assertEquals(b[c * MinMaxPyramid.BASE_BUCKET_SIZE], hi[c]);
+			}
+		} finally {
+			other.stop();
+		}
+	}
+
+	public void testBlockingConsumerSeesEveryBlockInOrder() throws Exception {
+		final Recorder r = new Recorder();
+		final Consumer c = dispatcher.addConsumer("block", r,
+				SlowConsumerPolicy.BLOCK);
+		dispatcher.start();
+		for (int seq = 0; seq < RING_SIZE * 10; seq++) {
+			publish(seq);
+		}
+		awaitCaughtUp(c);
+		assertEquals(RING_SIZE * 10, r.seen.size());
+		assertNull(r.misplaced, r.misplaced);
+		for (int seq = 0; seq < r.seen.size(); seq++) {
+			assertEquals(seq, r.seen.get(seq).longValue());
+		}
+		assertEquals(0, c.getDroppedBlocks());
+	}
+
+	public void testLappedDropConsumerSkipsToNewest() throws Exception {
+		final Recorder r = new Recorder();
+		r.holdFirst = true;
+		final Consumer c = dispatcher.addConsumer("drop", r,
+				SlowConsumerPolicy.DROP);
+		dispatcher.start();
+		publish(0);
+		assertTrue(r.entered.await(5, TimeUnit.SECONDS));
+		// lap the consumer three times over while it is stuck on block 0
+		final int published = 1 + RING_SIZE * 3;
+		for (int seq = 1; seq < published; seq++) {
+			publish(seq);
+		}
+		r.release.countDown();
+		awaitCaughtUp(c);
+
+		assertNull(r.torn, r.torn);
+		assertEquals(2, r.seen.size());
+		assertEquals(0, r.seen.get(0).longValue());
+		assertEquals(published - 1, r.seen.get(1).longValue());
+		assertEquals(published, c.getDeliveredBlocks() + c.getDroppedBlocks());
+	}
+
+	public void testCoalescingConsumerGetsPendingBlocksInOneBuffer()
+			throws Exception {
+		final Recorder r = new Recorder();
+		r.holdFirst = true;
+		final Consumer c = dispatcher.addConsumer("coalesce", r,
+				SlowConsumerPolicy.COALESCE);
+		dispatcher.start();
+		publish(0);
+		assertTrue(r.entered.await(5, TimeUnit.SECONDS));
+		// three blocks pile up, fewer than the half a ring it may fall behind
+		for (int seq = 1; seq <= 3; seq++) {
+			publish(seq);
+		}
+		r.release.countDown();
+		awaitCaughtUp(c);
+
+		assertNull(r.torn, r.torn);
+		assertEquals(2, r.deliveries.size());
+		assertEquals(1, r.deliveries.get(0).intValue());
+		assertEquals(3, r.deliveries.get(1).intValue());
+		for (int seq = 0; seq < r.seen.size(); seq++) {
+			assertEquals(seq, r.seen.get(seq).longValue());
+		}
+		assertEquals(0, c.getDroppedBlocks());
+	}
+
+	public void testLappedCoalescingConsumerKeepsHalfARing() throws Exception {
+		final Recorder r = new Recorder();
+		r.holdFirst = true;
+		final Consumer c = dispatcher.addConsumer("coalesce", r,
+				SlowConsumerPolicy.COALESCE);
+		dispatcher.start();
+		publish(0);
+		assertTrue(r.entered.await(5, TimeUnit.SECONDS));
+		final int published = 1 + RING_SIZE * 3;
+		for (int seq = 1; seq < published; seq++) {
+			publish(seq);
+		}
+		r.release.countDown();
+		awaitCaughtUp(c);
+
+		assertNull(r.torn, r.torn);
+		assertNull(r.misplaced, r.misplaced);
+		assertEquals(RING_SIZE / 2, r.deliveries.get(1).intValue());
+		for (int k = 1; k < r.seen.size(); k++) {
+			assertEquals(published - RING_SIZE / 2 + k - 1, r.seen.get(k)
+					.longValue());
+		}
+		assertEquals(published, c.getDeliveredBlocks() + c.getDroppedBlocks());
+	}
+
+	/**
+	 * A producer that never waits, against consumers that stall now and
+	 * then, laps them in the middle of their copies; none of the blocks
+	 * they are handed may be torn, and nothing may go uncounted.
+	 */
+	public void testLappedCopiesAreNeverDeliveredTorn() throws Exception {
+		final Recorder drop = new Recorder();
+		final Recorder coalesce = new Recorder();
+		drop.stallMicros = 100;
+		coalesce.stallMicros = 100;
+		final Consumer d = dispatcher.addConsumer("drop", drop,
+				SlowConsumerPolicy.DROP);
+		final Consumer c = dispatcher.addConsumer("coalesce", coalesce,
+				SlowConsumerPolicy.COALESCE);
+		dispatcher.start();
+		final int published = 20000;
+		for (int seq = 0; seq < published; seq++) {
+			publish(seq);
+		}
+		awaitCaughtUp(d);
+		awaitCaughtUp(c);
+
+		for (Recorder r : new Recorder[] { drop, coalesce }) {
+			assertNull(r.torn, r.torn);
+			assertNull(r.misplaced, r.misplaced);
+			long previous = -1;
+			for (long seq : r.seen) {
+				assertTrue("out of order", seq > previous);
+				previous = seq;
+			}
+		}
+		assertEquals(published, d.getDeliveredBlocks() + d.getDroppedBlocks());
+		assertEquals(published, c.getDeliveredBlocks() + c.getDroppedBlocks());
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import junit.framework.TestCase;
+
+public class BiquadFilterBankTest extends TestCase {
+	private static final int SAMPLE_RATE = 44100;
+	private static final int BLOCK = 1024;
+
+	private final ByteBuffer block = ByteBuffer.allocateDirect(BLOCK * 2)
+			.order(ByteOrder.nativeOrder());
+
+	/**
+	 * @return the gain in dB of the cascade for a sine at {@code hz},
+	 *         measured once the filter has settled
+	 */
+	private double gain(double[][] sections, double hz) {
+		final BiquadFilterBank bank = new BiquadFilterBank();
+		bank.setSections(sections);
+		double in = 0;
+		double out = 0;
+		for (int b = 0; b < 400; b++) {
+			for (int i = 0; i < BLOCK; i++) {
+				block.putShort(i * 2, sine(hz, b * BLOCK + i));
+			}
+			bank.process(block);
+			if (b >= 200) {
+				for (int i = 0; i < BLOCK; i++) {
+					final double x = sine(hz, b * BLOCK + i);
+					final double y = block.getShort(i * 2);
+					in += x * x;
+					out += y * y;
+				}
+			}
+		}
+		return 10 * Math.log10(out / in);
+	}
+
+	private static short sine(double hz, long n) {
+		return (short) (10000 * Math.sin(2 * Math.PI * hz * n / SAMPLE_RATE));
+	}
+
+	public void testHumNotchRemovesMainsAndHarmonics() {
+		final double[][] hum = BiquadFilterBank.design(SAMPLE_RATE, 50, 0, 0);
+		assertEquals(BiquadFilterBank.HUM_HARMONICS, hum.length);
+		for (int h = 1; h <= BiquadFilterBank.HUM_HARMONICS; h++) {
+			assertTrue(h * 50 + " Hz", gain(hum, h * 50) < -60);
+		}
+		// spikes live well above the notches and must pass untouched
+		assertEquals(0, gain(hum, 1000), 0.05);
+		assertEquals(0, gain(hum, 55), 0.5);
+	}
+
+	public void testBandPassIsFlatBetweenItsCutoffs() {
+		final double[][] band = BiquadFilterBank.design(SAMPLE_RATE, 0, 300,
+				3000);
+		assertEquals(2, band.length);
+		assertEquals(-3, gain(band, 300), 0.5);
+		assertEquals(-3, gain(band, 3000), 0.5);
+		assertEquals(0, gain(band, 1000), 0.3);
+		assertTrue(gain(band, 30) < -30);
+		assertTrue(gain(band, 15000) < -15);
+	}
+
+	public void testHighPassRemovesDcOffset() {
+		final BiquadFilterBank bank = new BiquadFilterBank();
+		bank.setSections(BiquadFilterBank.design(SAMPLE_RATE, 0, 1, 0));
+		for (int b = 0; b < 200; b++) {
+			for (int i = 0; i < BLOCK; i++) {
+				block.putShort(i * 2, (short) 5000);
+			}
+			bank.process(block);
+		}
+		assertEquals(0, block.getShort((BLOCK - 1) * 2));
+	}
+
+	public void testNoSectionsLeavesBlocksAlone() {
+		final BiquadFilterBank bank = new BiquadFilterBank();
+		bank.setSections(BiquadFilterBank.design(SAMPLE_RATE, 0, 0, 0));
+		assertEquals(0, bank.getSectionCount());
+		for (int i = 0; i < BLOCK; i++) {
+			block.putShort(i * 2, sine(440, i));
+		}
+		bank.process(block);
+		for (int i = 0; i < BLOCK; i++) {
+			assertEquals(sine(440, i), block.getShort(i * 2));
+		}
+	}
+
+	/**
+	 * Each channel of an interleaved block is filtered with its own state,
+	 * exactly as a mono bank would filter it alone.
+	 */
+	public void testStereoFiltersEachChannelLikeMono() {
+		final double[][] sections = BiquadFilterBank.design(SAMPLE_RATE, 60,
+				300, 3000);
+		final BiquadFilterBank stereo = new BiquadFilterBank(2);
+		final BiquadFilterBank left = new BiquadFilterBank();
+		final BiquadFilterBank right = new BiquadFilterBank();
+		stereo.setSections(sections);
+		left.setSections(sections);
+		right.setSections(sections);
+		final ByteBuffer frames = ByteBuffer.allocateDirect(BLOCK * 4).order(
+				ByteOrder.nativeOrder());
+		final ByteBuffer other = ByteBuffer.allocateDirect(BLOCK * 2).order(
+				ByteOrder.nativeOrder());
+		for (int b = 0; b < 20; b++) {
+			for (int i = 0; i < BLOCK; i++) {
+				final long n = b * BLOCK + i;
+				frames.putShort(i * 4, sine(1000, n));
+				frames.putShort(i * 4 + 2, sine(60, n));
+				block.putShort(i * 2, sine(1000, n));
+				other.putShort(i * 2, sine(60, n));
+			}
+			stereo.process(frames);
+			left.process(block);
+			right.process(other);
+			for (int i = 0; i < BLOCK; i++) {
+				assertEquals(block.getShort(i * 2), frames.getShort(i * 4));
+				assertEquals(other.getShort(i * 2), frames.getShort(i * 4 + 2));
+			}
+		}
+	}
+
+	public void testRejectsTooManyOrMalformedSections() {
+		final double[] pass = { 1, 0, 0, 0, 0 };
+		final double[][] tooMany = new double[BiquadFilterBank.MAX_SECTIONS + 1][];
+		for (int s = 0; s < tooMany.length; s++) {
+			tooMany[s] = pass;
+		}
+		try {
+			new BiquadFilterBank().setSections(tooMany);
+			fail("took " + tooMany.length + " sections");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			new BiquadFilterBank().setSections(new double[][] { { 1, 0, 0 } });
+			fail("took a three-coefficient section");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import junit.framework.TestCase;
+
+public class ChannelSplitterTest extends TestCase {
+	private static final int FRAMES = 256;
+
+	private static ByteBuffer interleave(int channels) {
+		final ByteBuffer block = ByteBuffer.allocateDirect(
+				FRAMES * channels * 2).order(ByteOrder.nativeOrder());
+		for (int f = 0; f < FRAMES; f++) {
+			for (int c = 0; c < channels; c++) {
+				block.putShort((f * channels + c) * 2, sample(c, f));
+			}
+		}
+		return block;
+	}
+
+	private static short sample(int channel, int frame) {
+		return (short) (channel * 1000 - frame);
+	}
+
+	public void testEachChannelComesBackExactly() {
+		for (int channels = 2; channels <= 4; channels++) {
+			final ChannelSplitter splitter = new ChannelSplitter(channels,
+					FRAMES);
+			final ByteBuffer[] lanes = splitter.split(interleave(channels));
+			assertEquals(channels, lanes.length);
+			for (int c = 0; c < channels; c++) {
+				assertEquals(FRAMES * 2, lanes[c].remaining());
+				for (int f = 0; f < FRAMES; f++) {
+					assertEquals(sample(c, f), lanes[c].getShort(f * 2));
+				}
+			}
+		}
+	}
+
+	/**
+	 * The lanes are reused, so the second split overwrites the first in
+	 * place, with no block made per split.
+	 */
+	public void testLanesAreReused() {
+		final ChannelSplitter splitter = new ChannelSplitter(2, FRAMES);
+		final ByteBuffer first = splitter.split(interleave(2))[1];
+		final ByteBuffer block = interleave(2);
+		block.putShort(2, (short) 12345);
+		final ByteBuffer second = splitter.split(block)[1];
+		assertSame(first, second);
+		assertEquals(12345, second.getShort(0));
+	}
+
+	public void testMonoIsHandedThrough() {
+		final ByteBuffer block = interleave(1);
+		assertSame(block, new ChannelSplitter(1, FRAMES).split(block)[0]);
+	}
+
+	public void testRejectsABlockOfTheWrongSize() {
+		try {
+			new ChannelSplitter(2, FRAMES).split(interleave(1));
+			fail("split half a block");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+import junit.framework.TestCase;
+
+public class EdgeDetectorTest extends TestCase {
+	private static final int THRESHOLD = 50;
+	private static final int HYSTERESIS = 10;
+	private static final int DEAD_TIME = 10;
+
+	private final int[] events = new int[16];
+	private EdgeDetector detector;
+
+	@Override
+	protected void setUp() {
+		detector = new EdgeDetector(THRESHOLD, HYSTERESIS, DEAD_TIME);
+	}
+
+	private static short[] signal(int length, int... highRanges) {
+		final short[] s = new short[length];
+		for (int r = 0; r < highRanges.length; r += 2) {
+			for (int i = highRanges[r]; i < highRanges[r + 1]; i++) {
+				s[i] = 100;
+			}
+		}
+		return s;
+	}
+
+	public void testSpacedSpikesEachFireOnce() {
+		final short[] s = signal(60, 2, 5, 20, 23, 40, 43);
+		assertEquals(3, detector.scan(s, 0, s.length, events));
+		assertEquals(2, events[0]);
+		assertEquals(20, events[1]);
+		assertEquals(40, events[2]);
+	}
+
+	public void testSpikeRidingAboveThresholdFiresOnce() {
+		final short[] s = signal(60, 2, 50);
+		assertEquals(1, detector.scan(s, 0, s.length, events));
+		assertEquals(2, events[0]);
+	}
+
+	public void testRingingWithinHysteresisDoesNotRefire() {
+		final short[] s = signal(60, 2, 50);
+		// dips below the threshold but not past the re-arm level
+		for (int i = 5; i < 50; i += 3) {
+			s[i] = THRESHOLD - HYSTERESIS + 1;
+		}
+		assertEquals(1, detector.scan(s, 0, s.length, events));
+	}
+
+	public void testDipPastHysteresisAfterDeadTimeRefires() {
+		final short[] s = signal(60, 2, 50);
+		s[30] = THRESHOLD - HYSTERESIS - 1;
+		assertEquals(2, detector.scan(s, 0, s.length, events));
+		assertEquals(2, events[0]);
+		assertEquals(31, events[1]);
+	}
+
+	/**
+	 * A re-crossing inside the dead time must not leave the detector armed
+	 * to fire once the dead time runs out while the signal is still high.
+	 */
+	public void testRecrossDuringDeadTimeDoesNotFireLater() {
+		final short[] s = signal(40, 2, 3, 4, 30);
+		assertEquals(1, detector.scan(s, 0, s.length, events));
+		assertEquals(2, events[0]);
+	}
+
+	public void testStartingAboveThresholdWaitsForAQuietSample() {
+		final short[] s = signal(30, 0, 10, 20, 22);
+		assertEquals(1, detector.scan(s, 0, s.length, events));
+		assertEquals(20, events[0]);
+	}
+
+	public void testNegativeThresholdFiresOnFallingEdges() {
+		detector = new EdgeDetector(-THRESHOLD, HYSTERESIS, DEAD_TIME);
+		final short[] s = new short[40];
+		s[5] = -100;
+		s[6] = -100;
+		s[25] = 100;
+		assertEquals(1, detector.scan(s, 0, s.length, events));
+		assertEquals(5, events[0]);
+	}
+
+	public void testStateCarriesAcrossBlocks() {
+		final short[] s = signal(60, 8, 14, 18, 20, 40, 42);
+		// a spike split over two blocks fires once, the re-crossing at 18
+		// falls in the dead time, and indices are within the array
+		assertEquals(1, detector.scan(s, 0, 10, events));
+		assertEquals(8, events[0]);
+		assertEquals(0, detector.scan(s, 10, 20, events));
+		assertEquals(1, detector.scan(s, 30, 30, events));
+		assertEquals(40, events[0]);
+		assertEquals(60, detector.getPosition());
+		assertEquals(40, detector.getLastEvent());
+	}
+
+	public void testEventsPastTheArrayAreConsumedNotReported() {
+		final short[] s = signal(100, 2, 3, 22, 23, 42, 43, 62, 63);
+		final int[] two = new int[2];
+		assertEquals(2, detector.scan(s, 0, s.length, two));
+		assertEquals(62, detector.getLastEvent());
+		assertTrue(detector.maxEventsPerBlock(s.length) >= 4);
+	}
+}
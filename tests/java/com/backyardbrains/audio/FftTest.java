@@ -0,0 +1,96 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class FftTest extends TestCase {
+
+	/** a full-scale sine centred on {@code bin} */
+	private static short[] sine(int size, int bin) {
+		final short[] samples = new short[size];
+		for (int i = 0; i < size; i++) {
+			samples[i] = (short) (32767 * Math.sin(2 * Math.PI * bin * i / size));
+		}
+		return samples;
+	}
+
+	public void testFullScaleSineReadsOneInItsBin() {
+		for (int size = Fft.MIN_SIZE; size <= Fft.MAX_SIZE; size *= 2) {
+			final Fft fft = new Fft(size);
+			assertEquals(size / 2 + 1, fft.getBins());
+			final float[] power = new float[fft.getBins()];
+			fft.powerSpectrum(sine(size, 100), 0, power);
+			assertEquals("size " + size, 1f, power[100], 0.001f);
+			// the Hann window's side lobes fall away fast
+			assertTrue(power[110] < 1e-5f);
+			assertTrue(power[90] < 1e-5f);
+		}
+	}
+
+	/**
+	 * Every bin must match a direct DFT of the same Hann-windowed samples,
+	 * read from an offset into the array.
+	 */
+	public void testMatchesADirectTransform() {
+		final int size = Fft.MIN_SIZE;
+		final int offset = 7;
+		final Random random = new Random(1);
+		final short[] samples = new short[size + offset];
+		for (int i = 0; i < samples.length; i++) {
+			samples[i] = (short) (random.nextGaussian() * 5000);
+		}
+		final Fft fft = new Fft(size);
+		final float[] power = new float[fft.getBins()];
+		fft.powerSpectrum(samples, offset, power);
+
+		final double[] windowed = new double[size];
+		double windowSum = 0;
+		for (int i = 0; i < size; i++) {
+			final double w = 0.5 - 0.5 * Math.cos(2 * Math.PI * i / size);
+			windowSum += w;
+			windowed[i] = w * samples[offset + i];
+		}
+		final double scale = 1 / Math.pow(windowSum / 2 * 32768, 2);
+		for (int k = 0; k < power.length; k++) {
+			double re = 0;
+			double im = 0;
+			for (int i = 0; i < size; i++) {
+				final double angle = 2 * Math.PI * k * i / size;
+				re += windowed[i] * Math.cos(angle);
+				im -= windowed[i] * Math.sin(angle);
+			}
+			final double expected = (re * re + im * im) * scale;
+			assertEquals("bin " + k, expected, power[k], 1e-4 * expected + 1e-9);
+		}
+	}
+
+	public void testRejectsSizesOutsideThePowersOfTwoOffered() {
+		for (int size : new int[] { Fft.MIN_SIZE / 2, 3000, Fft.MAX_SIZE * 2 }) {
+			try {
+				new Fft(size);
+				fail("accepted " + size);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+import junit.framework.TestCase;
+
+public class FiringRateMeterTest extends TestCase {
+	private static final int SAMPLE_RATE = 44100;
+	/** 50 spikes a second, five to each 100 ms bin */
+	private static final int SPIKE_PERIOD = SAMPLE_RATE / 50;
+
+	private FiringRateMeter meter;
+
+	@Override
+	protected void setUp() {
+		meter = new FiringRateMeter();
+	}
+
+	/**
+	 * Report a steady train of spikes from 0 as the sorter would, for
+	 * {@code seconds} and half a period more, so no window edge lands on a
+	 * spike.
+	 */
+	private void spikeFor(int seconds) {
+		final long end = (long) seconds * SAMPLE_RATE + SPIKE_PERIOD / 2;
+		for (long t = 0; t < end; t += SPIKE_PERIOD) {
+			meter.onSpike(t, 0);
+		}
+		meter.onStreamPosition(end);
+	}
+
+	public void testEveryWindowSeesTheSteadyRate() {
+		spikeFor(20);
+		for (int w = 0; w < FiringRateMeter.WINDOW_MILLIS.length; w++) {
+			assertEquals("window " + w, 50f, meter.getRate(w), 0.5f);
+		}
+		assertEquals(20 * 50 + 1, meter.getSpikeTotal());
+	}
+
+	public void testYoungMeterAveragesOverWhatItHasSeen() {
+		spikeFor(2);
+		// the 10 s window has only 2 s of spikes in it
+		assertEquals(50f, meter.getRate(2), 0.5f);
+	}
+
+	public void testRateHistoryHoldsOnePointPerShortestWindow() {
+		spikeFor(40);
+		final float[] history = new float[FiringRateMeter.RATE_HISTORY_LENGTH];
+		assertEquals(history.length, meter.getRateHistory(history));
+		for (int i = 0; i < history.length; i++) {
+			assertEquals("point " + i, 50f, history[i], 0.01f);
+		}
+	}
+
+	/**
+	 * With a 10 ms + 40 ms window in 50 bins, a spike 10 ms before each
+	 * trigger falls in bin 0 and one 10 ms after it in bin 20.
+	 */
+	public void testPsthBinsSpikesAroundEachTrigger() {
+		meter.setPsthWindowMillis(10, 40);
+		final int tenMs = SAMPLE_RATE / 100;
+		for (int k = 0; k < 10; k++) {
+			final long trigger = 10000 + k * 5000;
+			meter.onTrigger(trigger);
+			meter.onSpike(trigger - tenMs, 0);
+			meter.onSpike(trigger + tenMs, 0);
+			meter.onStreamPosition(trigger + 4 * tenMs + 1);
+		}
+		// its post-trigger window hasn't been seen yet, so it must wait
+		meter.onTrigger(70000);
+		meter.onStreamPosition(70000);
+
+		final float[] psth = new float[FiringRateMeter.PSTH_BINS];
+		assertEquals(10, meter.getPsth(psth));
+		// one spike per trigger in a 1 ms bin is 1000 spikes a second
+		for (int b = 0; b < psth.length; b++) {
+			assertEquals("bin " + b, b == 0 || b == 20 ? 1000f : 0f, psth[b],
+					0.5f);
+		}
+		assertEquals(10, meter.getPsthPreMillis(), 0.01f);
+		assertEquals(40, meter.getPsthPostMillis(), 0.01f);
+	}
+
+	public void testWindowsKeepTheirLengthAtAnotherRate() {
+		final int rate = SAMPLE_RATE / 9;
+		meter.setSampleRate(rate);
+		meter.setPsthWindowMillis(10, 40);
+		for (long t = 0; t < 20L * rate; t += rate / 50) {
+			meter.onSpike(t, 0);
+		}
+		// half a period after the last spike, so no window edge lands on one
+		meter.onStreamPosition(20L * rate - rate / 100);
+		for (int w = 0; w < FiringRateMeter.WINDOW_MILLIS.length; w++) {
+			assertEquals("window " + w, 50f, meter.getRate(w), 0.5f);
+		}
+		assertEquals(10, meter.getPsthPreMillis(), 0.1f);
+		assertEquals(40, meter.getPsthPostMillis(), 0.1f);
+	}
+
+	public void testResetForgetsEverything() {
+		meter.onTrigger(100);
+		spikeFor(5);
+		meter.reset();
+		assertEquals(0, meter.getSpikeTotal());
+		assertEquals(0f, meter.getRate(1));
+		assertEquals(0, meter.getRateHistory(new float[10]));
+		assertEquals(0, meter.getPsth(new float[FiringRateMeter.PSTH_BINS]));
+	}
+}
@@ -0,0 +1,172 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import junit.framework.TestCase;
+
+public class MappedRecordingTest extends TestCase {
+	private static final int PAGE = MappedRecording.PAGE_SAMPLES;
+	/** more pages than stay mapped, ending part-way through the last */
+	private static final long SAMPLES = 5L * PAGE + PAGE / 2;
+
+	private static File wav;
+
+	@Override
+	protected void setUp() throws Exception {
+		if (wav == null) {
+			wav = File.createTempFile("review", ".wav");
+			wav.deleteOnExit();
+			final WavWriter writer = new WavWriter(wav, 44100, 1);
+			final ByteBuffer block = ByteBuffer.allocateDirect(64 * 1024)
+					.order(ByteOrder.nativeOrder());
+			for (long n = 0; n < SAMPLES;) {
+				block.clear();
+				for (int i = 0; i < block.capacity() / 2; i++, n++) {
+					block.putShort(i * 2, sample(n));
+				}
+				writer.write(block);
+			}
+			writer.close();
+		}
+	}
+
+	private static short sample(long n) {
+		return (short) (n * 7919 % 20000 - 10000);
+	}
+
+	private static void assertSamples(long first, short[] dst, int n) {
+		for (int i = 0; i < n; i++) {
+			assertEquals("sample " + (first + i), sample(first + i), dst[i]);
+		}
+	}
+
+	public void testReadsAcrossPageBoundaries() throws IOException {
+		final MappedRecording recording = new MappedRecording(wav);
+		try {
+			assertEquals(SAMPLES, recording.getSampleCount());
+			assertNull(recording.getSummary());
+			final short[] dst = new short[5000];
+			// every boundary, then back to the first once it was unmapped
+			for (long page = 1; page <= 5; page++) {
+				final long first = page * PAGE - 2500;
+				assertEquals(5000, recording.readRange(first, dst, 0, 5000));
+				assertSamples(first, dst, 5000);
+			}
+			assertEquals(5000, recording.readRange(0, dst, 0, 5000));
+			assertSamples(0, dst, 5000);
+		} finally {
+			recording.close();
+		}
+	}
+
+	public void testReadsStopAtTheEnds() throws IOException {
+		final MappedRecording recording = new MappedRecording(wav);
+		try {
+			final short[] dst = new short[1000];
+			assertEquals(100, recording.readRange(SAMPLES - 100, dst, 0, 1000));
+			assertSamples(SAMPLES - 100, dst, 100);
+			assertEquals(0, recording.readRange(SAMPLES, dst, 0, 1000));
+			assertEquals(1000, recording.readRange(-50, dst, 0, 1000));
+			assertSamples(0, dst, 1000);
+		} finally {
+			recording.close();
+		}
+	}
+
+	private static short stereoSample(int channel, long frame) {
+		return channel == 0 ? sample(frame) : (short) (frame % 3001 - 1500);
+	}
+
+	/**
+	 * A two-channel recording and its summary read back exactly, channel by
+	 * channel, across a page boundary.
+	 */
+	public void testStereoReadsBackPerChannel() throws IOException {
+		final File stereo = File.createTempFile("stereo", ".wav");
+		final File peaks = PeakSummary.sidecarFor(stereo);
+		final long frames = PAGE + PAGE / 4;
+		try {
+			final WavWriter writer = new WavWriter(stereo, 44100, 2);
+			final ByteBuffer block = ByteBuffer.allocateDirect(64 * 1024)
+					.order(ByteOrder.nativeOrder());
+			for (long f = 0; f < frames;) {
+				block.clear();
+				final int n = (int) Math.min(block.capacity() / 4, frames - f);
+				for (int i = 0; i < n; i++, f++) {
+					block.putShort(i * 4, stereoSample(0, f));
+					block.putShort(i * 4 + 2, stereoSample(1, f));
+				}
+				block.limit(n * 4);
+				writer.write(block);
+			}
+			writer.close();
+			PeakSummary.generate(stereo);
+
+			final MappedRecording recording = new MappedRecording(stereo);
+			try {
+				assertEquals(2, recording.getChannels());
+				assertEquals(frames, recording.getSampleCount());
+				final short[] dst = new short[5000];
+				final long first = PAGE - 2500;
+				for (int c = 0; c < 2; c++) {
+					assertEquals(5000, recording.readRange(c, first, dst, 0,
+							5000));
+					for (int i = 0; i < 5000; i++) {
+						assertEquals(stereoSample(c, first + i), dst[i]);
+					}
+				}
+
+				final PeakSummary summary = recording.getSummary();
+				assertNotNull(summary);
+				assertEquals(2, summary.getChannels());
+				final int columns = 64;
+				final short[] lo = new short[columns];
+				final short[] hi = new short[columns];
+				for (int c = 0; c < 2; c++) {
+					assertEquals(columns, summary.readColumns(c, 0, first, 1,
+							columns, lo, hi));
+					final long start = first / PeakSummary.BASE_BUCKET_SIZE
+							* PeakSummary.BASE_BUCKET_SIZE;
+					for (int k = 0; k < columns; k++) {
+						short min = Short.MAX_VALUE;
+						short max = Short.MIN_VALUE;
+						for (int i = 0; i < PeakSummary.BASE_BUCKET_SIZE; i++) {
+							final short s = stereoSample(c, start + k
+									* PeakSummary.BASE_BUCKET_SIZE + i);
+							min = (short) Math.min(min, s);
+							max = (short) Math.max(max, s);
+						}
+						assertEquals(min, lo[k]);
+						assertEquals(max, hi[k]);
+					}
+				}
+			} finally {
+				recording.close();
+			}
+		} finally {
+			stereo.delete();
+			peaks.delete();
+		}
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class MinMaxPyramidTest extends TestCase {
+	private static final int HISTORY = 8192;
+
+	private final Random random = new Random(11);
+	private MinMaxPyramid pyramid;
+	private short[] signal;
+
+	@Override
+	protected void setUp() {
+		pyramid = new MinMaxPyramid(HISTORY);
+		signal = new short[5 * HISTORY + 123];
+		for (int n = 0; n < signal.length; n++) {
+			signal[n] = (short) (random.nextInt(2000) - 1000);
+		}
+	}
+
+	private void addInRandomBlocks(int from, int to) {
+		while (from < to) {
+			final int length = Math.min(to - from, 1 + random.nextInt(700));
+			final ByteBuffer block = ByteBuffer.allocateDirect(length * 2)
+					.order(ByteOrder.nativeOrder());
+			for (int i = 0; i < length; i++) {
+				block.putShort(i * 2, signal[from + i]);
+			}
+			pyramid.add(block);
+			from += length;
+		}
+	}
+
+	public void testLevelForPicksCoarsestBucketNoWiderThanAColumn() {
+		assertEquals(4, pyramid.getLevels());
+		assertEquals(-1, pyramid.levelFor(MinMaxPyramid.BASE_BUCKET_SIZE - 1));
+		assertEquals(0, pyramid.levelFor(MinMaxPyramid.BASE_BUCKET_SIZE));
+		assertEquals(1, pyramid.levelFor(MinMaxPyramid.BASE_BUCKET_SIZE * 3));
+		assertEquals(3, pyramid.levelFor(1 << 20));
+	}
+
+	/**
+	 * Every level, read over the whole history it still holds, agrees with
+	 * a brute-force min/max of the samples.
+	 */
+	public void testColumnsMatchBruteForce() {
+		addInRandomBlocks(0, signal.length);
+		assertColumnsMatchSignal();
+	}
+
+	/**
+	 * Skipping ahead summarises the gap as silence, from the middle of one
+	 * bucket to the middle of another, and later blocks carry on from there.
+	 */
+	public void testSkipToSummarisesTheGapAsSilence() {
+		final int from = 3 * HISTORY + 7;
+		final int to = from + HISTORY / 2 + 5;
+		addInRandomBlocks(0, from);
+		assertEquals(from, pyramid.getWritten());
+		pyramid.skipTo(to);
+		assertEquals(to, pyramid.getWritten());
+		pyramid.skipTo(from);
+		assertEquals(to, pyramid.getWritten());
+		for (int n = from; n < to; n++) {
+			signal[n] = 0;
+		}
+		addInRandomBlocks(to, signal.length);
+		assertEquals(signal.length, pyramid.getWritten());
+		assertColumnsMatchSignal();
+	}
+
+	private void assertColumnsMatchSignal() {
+		final short[] lo = new short[HISTORY];
+		final short[] hi = new short[HISTORY];
+		for (int level = 0; level < pyramid.getLevels(); level++) {
+			final int bucketSize = pyramid.getBucketSize(level);
+			final long newest = signal.length / bucketSize;
+			for (int perColumn = 1; perColumn <= 3; perColumn++) {
+				final int columns = HISTORY / bucketSize / perColumn;
+				final long first = (newest - columns * perColumn) * bucketSize;
+				assertEquals(columns, pyramid.readColumns(level, first,
+						perColumn, columns, lo, hi));
+				for (int c = 0; c < columns; c++) {
+					final int start = (int) first + c * perColumn * bucketSize;
+					short min = Short.MAX_VALUE;
+					short max = Short.MIN_VALUE;
+					for (int n = start; n < start + perColumn * bucketSize; n++) {
+						min = (short) Math.min(min, signal[n]);
+						max = (short) Math.max(max, signal[n]);
+					}
+					final String where = "level " + level + " column " + c;
+					assertEquals(where, min, lo[c]);
+					assertEquals(where, max, hi[c]);
+				}
+			}
+		}
+	}
+
+	public void testReadingStopsAtNewestCompleteBucket() {
+		addInRandomBlocks(0, 10 * MinMaxPyramid.BASE_BUCKET_SIZE + 5);
+		final short[] lo = new short[20];
+		final short[] hi = new short[20];
+		assertEquals(10, pyramid.readColumns(0, 0, 1, 20, lo, hi));
+		assertEquals(5, pyramid.readColumns(0, 0, 2, 20, lo, hi));
+	}
+}
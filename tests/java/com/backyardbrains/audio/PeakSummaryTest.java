@@ -0,0 +1,162 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class PeakSummaryTest extends TestCase {
+	private static final int SAMPLE_RATE = 44100;
+
+	private final Random random = new Random(3);
+	private File dir;
+	private File wav;
+	private File peaks;
+
+	@Override
+	protected void setUp() throws Exception {
+		dir = File.createTempFile("peaks", "");
+		dir.delete();
+		assertTrue(dir.mkdir());
+		wav = new File(dir, "take.wav");
+		peaks = PeakSummary.sidecarFor(wav);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	/**
+	 * Record {@code total} random samples in random block sizes, writing
+	 * the sidecar live as RecordingSaver does.
+	 */
+	private short[] record(int total) throws IOException {
+		final WavWriter wavWriter = new WavWriter(wav, SAMPLE_RATE, 1);
+		final PeakSummary.Writer peakWriter = new PeakSummary.Writer(peaks,
+				SAMPLE_RATE, 1);
+		final short[] all = new short[total];
+		int n = 0;
+		while (n < total) {
+			final int length = Math.min(total - n, 1 + random.nextInt(5000));
+			final ByteBuffer block = ByteBuffer.allocateDirect(length * 2)
+					.order(ByteOrder.nativeOrder());
+			for (int i = 0; i < length; i++) {
+				all[n] = (short) (random.nextGaussian() * 3000 + 8000 * Math
+						.sin(n * 1e-4));
+				block.putShort(i * 2, all[n++]);
+			}
+			wavWriter.write(block);
+			block.clear();
+			peakWriter.add(block);
+		}
+		wavWriter.close();
+		peakWriter.close();
+		return all;
+	}
+
+	private static byte[] readAll(File f) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(f, "r");
+		try {
+			final byte[] bytes = new byte[(int) raf.length()];
+			raf.readFully(bytes);
+			return bytes;
+		} finally {
+			raf.close();
+		}
+	}
+
+	private void assertSidecarMatches(short[] all) throws IOException {
+		final PeakSummary summary = PeakSummary.open(peaks);
+		assertEquals(all.length, summary.getSampleCount());
+		assertEquals(SAMPLE_RATE, summary.getSampleRate());
+		for (int level = 0; level < summary.getLevels(); level++) {
+			final long size = PeakSummary.getBucketSize(level);
+			final int buckets = (int) summary.getBucketCount(level);
+			assertEquals((all.length + size - 1) / size, buckets);
+			final short[] lo = new short[buckets];
+			final short[] hi = new short[buckets];
+			assertEquals(buckets, summary.readColumns(level, 0, 1, buckets,
+					lo, hi));
+			for (int b = 0; b < buckets; b++) {
+				short min = Short.MAX_VALUE;
+				short max = Short.MIN_VALUE;
+				for (long i = b * size; i < Math.min(all.length, (b + 1) * size); i++) {
+					min = (short) Math.min(min, all[(int) i]);
+					max = (short) Math.max(max, all[(int) i]);
+				}
+				assertEquals("level " + level + " bucket " + b, min, lo[b]);
+				assertEquals("level " + level + " bucket " + b, max, hi[b]);
+			}
+		}
+	}
+
+	/**
+	 * The sidecar written while recording is the one generate() would
+	 * build afterwards, and every bucket at every level is right.
+	 */
+	public void testLiveSidecarMatchesGeneratedAndBruteForce()
+			throws IOException {
+		for (int total : new int[] { 100, 256, 1000, 300000 }) {
+			final short[] all = record(total);
+			assertSidecarMatches(all);
+			final byte[] live = readAll(peaks);
+			PeakSummary.generate(wav);
+			assertTrue("total " + total, Arrays.equals(live, readAll(peaks)));
+		}
+	}
+
+	public void testRecordingInProgressIsNeverRegenerated() throws IOException {
+		final PeakSummary.Writer writer = new PeakSummary.Writer(peaks,
+				SAMPLE_RATE, 1);
+		try {
+			assertTrue(PeakSummary.isBeingWritten(peaks));
+			assertFalse(PeakSummary.hasCurrentSidecar(wav));
+			try {
+				PeakSummary.generate(wav);
+				fail("generate clobbered the sidecar being written");
+			} catch (IOException expected) {
+				// refused
+			}
+			assertEquals(1, dir.listFiles().length);
+		} finally {
+			writer.close();
+		}
+		assertFalse(PeakSummary.isBeingWritten(peaks));
+	}
+
+	public void testMissingSidecarIsRegenerated() throws IOException {
+		final short[] all = record(5000);
+		assertTrue(peaks.delete());
+		assertFalse(PeakSummary.hasCurrentSidecar(wav));
+		PeakSummary.generate(wav);
+		assertTrue(PeakSummary.hasCurrentSidecar(wav));
+		assertSidecarMatches(all);
+	}
+}
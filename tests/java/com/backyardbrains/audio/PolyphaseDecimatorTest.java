@@ -0,0 +1,195 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import junit.framework.TestCase;
+
+public class PolyphaseDecimatorTest extends TestCase {
+	private static final int RATE = 44100;
+	private static final int IN_BLOCK = 2048;
+	private static final int OUT_BLOCK = 256;
+
+	/** counts the output blocks and keeps the peak of those after warm-up */
+	private static class Collector implements ReceivesAudio {
+		int blocks;
+		int peak;
+
+		@Override
+		public void receiveAudio(ByteBuffer buffer) {
+			assertEquals(OUT_BLOCK * 2, buffer.remaining());
+			if (++blocks < 4) {
+				return;
+			}
+			for (int i = 0; i < OUT_BLOCK; i++) {
+				peak = Math.max(peak, Math.abs(buffer.getShort(i * 2)));
+			}
+		}
+	}
+
+	/** feed {@code inBlocks} blocks of a 10000-peak sine at {@code hz} */
+	private static Collector run(int factor, double hz, int inBlocks) {
+		final PolyphaseDecimator decimator = new PolyphaseDecimator(factor,
+				OUT_BLOCK);
+		final ByteBuffer in = ByteBuffer.allocateDirect(IN_BLOCK * 2).order(
+				ByteOrder.nativeOrder());
+		final Collector collector = new Collector();
+		long t = 0;
+		for (int b = 0; b < inBlocks; b++) {
+			for (int i = 0; i < IN_BLOCK; i++, t++) {
+				in.putShort(i * 2, (short) Math.round(10000 * Math.sin(2
+						* Math.PI * hz * t / RATE)));
+			}
+			decimator.process(in, collector);
+		}
+		return collector;
+	}
+
+	private static double gainDb(int factor, double hz) {
+		return 20 * Math.log10(Math.max(run(factor, hz, 200).peak, 0.5) / 10000);
+	}
+
+	public void testFactorLeavesAWholeRateNearestTheTarget() {
+		assertEquals(4, PolyphaseDecimator.factorFor(RATE, 10000));
+		assertEquals(9, PolyphaseDecimator.factorFor(RATE, 5000));
+		assertEquals(21, PolyphaseDecimator.factorFor(RATE, 2000));
+		assertEquals(45, PolyphaseDecimator.factorFor(RATE, 1000));
+		assertEquals(48, PolyphaseDecimator.factorFor(48000, 1000));
+		for (int target = 500; target <= 20000; target += 500) {
+			final int factor = PolyphaseDecimator.factorFor(RATE, target);
+			assertEquals(0, RATE % factor);
+		}
+	}
+
+	public void testNoDecimationWhenOffOrTooClose() {
+		assertEquals(1, PolyphaseDecimator.factorFor(RATE, 0));
+		assertEquals(1, PolyphaseDecimator.factorFor(RATE, 30000));
+	}
+
+	/**
+	 * Output blocks are always full, so a run that isn't a whole number of
+	 * them leaves the rest waiting for the next input.
+	 */
+	public void testOneOutputPerFactorInputsInFullBlocks() {
+		for (int factor : new int[] { 2, 4, 9, 21, 45 }) {
+			final int inBlocks = 50;
+			final Collector collector = run(factor, 100, inBlocks);
+			assertEquals("factor " + factor, inBlocks * IN_BLOCK / factor
+					/ OUT_BLOCK, collector.blocks);
+		}
+	}
+
+	public void testPassesTheBandAndRejectsAliases() {
+		for (int target : new int[] { 10000, 2000 }) {
+			final int factor = PolyphaseDecimator.factorFor(RATE, target);
+			final double nyquist = RATE / factor / 2.0;
+			assertTrue(gainDb(factor, nyquist * 0.5) > -0.3);
+			// would fold back into the band without the filter
+			assertTrue(gainDb(factor, nyquist * 1.5) < -60);
+			assertTrue(gainDb(factor, nyquist * 3) < -60);
+		}
+	}
+
+	/** keeps every output sample of each of {@code channels} channels */
+	private static class Frames implements ReceivesAudio {
+		final int channels;
+		final short[][] samples;
+		int filled;
+
+		Frames(int channels, int capacity) {
+			this.channels = channels;
+			samples = new short[channels][capacity];
+		}
+
+		@Override
+		public void receiveAudio(ByteBuffer buffer) {
+			assertEquals(OUT_BLOCK * channels * 2, buffer.remaining());
+			for (int i = 0; i < OUT_BLOCK; i++, filled++) {
+				for (int c = 0; c < channels; c++) {
+					samples[c][filled] = buffer.getShort((i * channels + c) * 2);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Each channel of interleaved frames comes out exactly as a mono
+	 * decimator fed that channel alone would give it.
+	 */
+	public void testStereoMatchesTwoMonoDecimators() {
+		final int factor = 4;
+		final int inBlocks = 20;
+		final int outSamples = inBlocks * IN_BLOCK / factor;
+		final PolyphaseDecimator stereo = new PolyphaseDecimator(factor,
+				OUT_BLOCK, 2);
+		final Frames both = new Frames(2, outSamples);
+		final PolyphaseDecimator[] mono = new PolyphaseDecimator[2];
+		final Frames[] alone = new Frames[2];
+		final ByteBuffer[] lanes = new ByteBuffer[2];
+		for (int c = 0; c < 2; c++) {
+			mono[c] = new PolyphaseDecimator(factor, OUT_BLOCK);
+			alone[c] = new Frames(1, outSamples);
+			lanes[c] = ByteBuffer.allocateDirect(IN_BLOCK * 2).order(
+					ByteOrder.nativeOrder());
+		}
+		final ByteBuffer frames = ByteBuffer.allocateDirect(IN_BLOCK * 4)
+				.order(ByteOrder.nativeOrder());
+		long t = 0;
+		for (int b = 0; b < inBlocks; b++) {
+			for (int i = 0; i < IN_BLOCK; i++, t++) {
+				final short tone = (short) Math.round(10000 * Math.sin(2
+						* Math.PI * 440 * t / RATE));
+				final short ramp = (short) (t * 37 % 8000 - 4000);
+				frames.putShort(i * 4, tone);
+				frames.putShort(i * 4 + 2, ramp);
+				lanes[0].putShort(i * 2, tone);
+				lanes[1].putShort(i * 2, ramp);
+			}
+			stereo.process(frames, both);
+			for (int c = 0; c < 2; c++) {
+				mono[c].process(lanes[c], alone[c]);
+			}
+		}
+		assertEquals(outSamples, both.filled);
+		for (int c = 0; c < 2; c++) {
+			assertEquals(outSamples, alone[c].filled);
+			for (int i = 0; i < outSamples; i++) {
+				assertEquals("channel " + c + " sample " + i,
+						alone[c].samples[0][i], both.samples[c][i]);
+			}
+		}
+	}
+
+	public void testRejectsBadArguments() {
+		try {
+			new PolyphaseDecimator(1, OUT_BLOCK);
+			fail("took a factor of 1");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			new PolyphaseDecimator(4, 0);
+			fail("took empty blocks");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class RecordingIndexTest extends TestCase {
+	private static final int SAMPLE_RATE = 8000;
+	/** an hour ago, so every file gets a distinct, whole-second mtime */
+	private final long base = (System.currentTimeMillis() / 1000 - 3600) * 1000;
+
+	private File dir;
+	private File cache;
+
+	@Override
+	protected void setUp() throws Exception {
+		dir = File.createTempFile("recordings", "");
+		dir.delete();
+		assertTrue(dir.mkdir());
+		cache = File.createTempFile("recordings", ".idx");
+		cache.delete();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+		cache.delete();
+	}
+
+	private File record(String name, int millis, int age) throws IOException {
+		final File f = new File(dir, name);
+		final WavWriter writer = new WavWriter(f, SAMPLE_RATE, 1);
+		writer.write(ByteBuffer.allocateDirect(SAMPLE_RATE * millis / 1000 * 2)
+				.order(ByteOrder.nativeOrder()));
+		writer.close();
+		assertTrue(f.setLastModified(base - age * 1000L));
+		return f;
+	}
+
+	public void testScanParsesHeadersAndCachesThem() throws IOException {
+		record("a.wav", 1000, 3);
+		final File b = record("b.wav", 250, 2);
+		final File c = record("c.wav", 500, 1);
+		final File notes = new File(dir, "notes.txt");
+		final FileOutputStream out = new FileOutputStream(notes);
+		out.write("not a recording".getBytes("US-ASCII"));
+		out.close();
+		assertTrue(notes.setLastModified(base - 4000));
+
+		final RecordingIndex index = new RecordingIndex(cache);
+		assertTrue(index.load().isEmpty());
+		List<RecordingInfo> list = index.scan(dir);
+		assertEquals(4, index.getLastRescanned());
+		assertEquals(4, list.size());
+		// newest first
+		assertEquals("c.wav", list.get(0).getFile().getName());
+		assertEquals(500, list.get(0).getDurationMillis());
+		assertEquals(SAMPLE_RATE, list.get(0).getSampleRate());
+		assertEquals(1, list.get(0).getChannels());
+		assertEquals("b.wav", list.get(1).getFile().getName());
+		assertEquals(250, list.get(1).getDurationMillis());
+		assertEquals("notes.txt", list.get(3).getFile().getName());
+		assertFalse(list.get(3).hasValidHeader());
+
+		// a fresh index trusts the cache for unchanged files
+		final RecordingIndex reloaded = new RecordingIndex(cache);
+		assertEquals(4, reloaded.load().size());
+		assertEquals(4, reloaded.scan(dir).size());
+		assertEquals(0, reloaded.getLastRescanned());
+
+		// only the rewritten file is opened again; the deleted one goes
+		record("c.wav", 2000, 1);
+		assertTrue(b.delete());
+		list = reloaded.scan(dir);
+		assertEquals(1, reloaded.getLastRescanned());
+		assertEquals(3, list.size());
+		assertEquals(c.getName(), list.get(0).getFile().getName());
+		assertEquals(2000, list.get(0).getDurationMillis());
+		assertEquals("a.wav", list.get(1).getFile().getName());
+	}
+}
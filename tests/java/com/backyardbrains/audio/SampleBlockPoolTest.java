@@ -0,0 +1,130 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+public class SampleBlockPoolTest extends TestCase {
+	private static final int ITERATIONS = 100000;
+
+	public void testSteadyStateAllocatesNothing() {
+		final SampleBlockPool pool = new SampleBlockPool(256, 1);
+		for (int i = 0; i < ITERATIONS; i++) {
+			final SampleBlock block = pool.acquire();
+			try {
+				final ByteBuffer buffer = block.getBuffer();
+				while (buffer.hasRemaining()) {
+					buffer.put((byte) i);
+				}
+			} finally {
+				block.release();
+			}
+			assertEquals(0, pool.getAllocationCount());
+		}
+	}
+
+	public void testEmptyPoolAllocatesAndCounts() {
+		final SampleBlockPool pool = new SampleBlockPool(256, 1);
+		final SampleBlock first = pool.acquire();
+		final SampleBlock second = pool.acquire();
+		assertNotSame(first, second);
+		assertEquals(1, pool.getAllocationCount());
+		second.release();
+		first.release();
+		for (int i = 0; i < ITERATIONS; i++) {
+			pool.acquire().release();
+		}
+		assertEquals(1, pool.getAllocationCount());
+	}
+
+	public void testDoubleReleaseThrows() {
+		final SampleBlock block = new SampleBlockPool(256, 1).acquire();
+		block.release();
+		try {
+			block.release();
+			fail("second release should throw");
+		} catch (IllegalStateException expected) {
+		}
+	}
+
+	/**
+	 * Drive the real capture loop from a source that runs out after a fixed
+	 * number of blocks.
+	 */
+	public void testCaptureLoopAllocatesNothing() throws InterruptedException {
+		final CountingSource source = new CountingSource(ITERATIONS / 10);
+		final int[] received = new int[1];
+		final MicListener listener = new MicListener(source, 1);
+		listener.start(new ReceivesAudio() {
+			@Override
+			public void receiveAudio(ByteBuffer audioInfo) {
+				received[0]++;
+			}
+		});
+		listener.join();
+		assertEquals(ITERATIONS / 10, received[0]);
+		assertEquals(0, listener.getBlockPool().getAllocationCount());
+	}
+
+	private static class CountingSource implements AudioSource {
+		private int blocksLeft;
+
+		CountingSource(int blocks) {
+			blocksLeft = blocks;
+		}
+
+		@Override
+		public void open() {
+		}
+
+		@Override
+		public int read(ByteBuffer dst, int sizeInBytes) {
+			if (blocksLeft-- <= 0) {
+				return 0;
+			}
+			dst.clear();
+			dst.limit(sizeInBytes);
+			while (dst.hasRemaining()) {
+				dst.put((byte) blocksLeft);
+			}
+			return sizeInBytes;
+		}
+
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public int getSampleRate() {
+			return 44100;
+		}
+
+		@Override
+		public int getChannelCount() {
+			return 1;
+		}
+
+		@Override
+		public int getBufferSizeInBytes() {
+			return 512;
+		}
+	}
+}
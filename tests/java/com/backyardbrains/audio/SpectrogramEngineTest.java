@@ -0,0 +1,123 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import junit.framework.TestCase;
+
+public class SpectrogramEngineTest extends TestCase {
+	private static final int SAMPLE_RATE = 44100;
+	private static final int BLOCK = 1024;
+
+	private File wav;
+
+	@Override
+	protected void tearDown() {
+		if (wav != null) {
+			wav.delete();
+		}
+	}
+
+	/** a 1 kHz tone at -20 dB below full scale */
+	private static short tone(long n) {
+		return (short) (3276.7 * Math.sin(2 * Math.PI * 1000 * n / SAMPLE_RATE));
+	}
+
+	/** @return the row with the highest level in the newest column */
+	private static int loudestRow(SpectrogramEngine engine) {
+		final ByteBuffer tile = engine.getTile();
+		final int base = engine.getSlot(engine.getColumnsWritten() - 1)
+				* engine.getRows();
+		int loudest = 0;
+		for (int k = 1; k < engine.getRows(); k++) {
+			if ((tile.get(base + k) & 0xff) > (tile.get(base + loudest) & 0xff)) {
+				loudest = k;
+			}
+		}
+		return loudest;
+	}
+
+	public void testStreamedToneMakesAColumnPerHop() {
+		final SpectrogramEngine engine = new SpectrogramEngine(SAMPLE_RATE,
+				1024, 256, 512);
+		final ByteBuffer block = ByteBuffer.allocateDirect(BLOCK * 2).order(
+				ByteOrder.nativeOrder());
+		final int blocks = 2 * SAMPLE_RATE / BLOCK;
+		int columns = 0;
+		for (int b = 0; b < blocks; b++) {
+			for (int i = 0; i < BLOCK; i++) {
+				block.putShort(i * 2, tone((long) b * BLOCK + i));
+			}
+			columns += engine.push(block);
+		}
+		// the first column needs a full window, then one more per hop
+		assertEquals((blocks * BLOCK - 1024) / 256 + 1, columns);
+		assertEquals(columns, engine.getColumnsWritten());
+
+		final int row = loudestRow(engine);
+		assertEquals(Math.round(1000f * 1024 / SAMPLE_RATE), row);
+		// 8-bit levels span 100 dB, so -20 dB is 80 % of the way up
+		final int level = engine.getTile().get(
+				engine.getSlot(columns - 1) * engine.getRows() + row) & 0xff;
+		assertEquals(204, level, 3);
+	}
+
+	public void testColumnsWrapAroundTheTile() {
+		final SpectrogramEngine engine = new SpectrogramEngine(SAMPLE_RATE,
+				1024, 1024, 8);
+		final short[] samples = new short[1024 * 20];
+		assertEquals(20, engine.add(samples, 0, samples.length));
+		assertEquals(20, engine.getColumnsWritten());
+		assertEquals(19 % 8, engine.getSlot(19));
+		assertEquals(8 * engine.getRows(), engine.getTile().capacity());
+	}
+
+	public void testOverviewFillsTheTileFromARecording() throws Exception {
+		wav = File.createTempFile("overview", ".wav");
+		final WavWriter writer = new WavWriter(wav, SAMPLE_RATE, 1);
+		final ByteBuffer block = ByteBuffer.allocateDirect(BLOCK * 2).order(
+				ByteOrder.nativeOrder());
+		final long samples = 10L * SAMPLE_RATE;
+		for (long n = 0; n < samples; n += BLOCK) {
+			block.clear();
+			for (int i = 0; i < BLOCK; i++) {
+				block.putShort(i * 2, tone(n + i));
+			}
+			writer.write(block);
+		}
+		writer.close();
+
+		final MappedRecording recording = new MappedRecording(wav);
+		try {
+			final long count = recording.getSampleCount();
+			final SpectrogramEngine engine = SpectrogramEngine.overview(
+					recording, 1024, 64);
+			assertEquals(64, engine.getColumnsWritten());
+			assertEquals((count + 63) / 64, engine.getHop());
+			assertEquals(SAMPLE_RATE, engine.getSampleRate());
+			assertEquals(Math.round(1000f * 1024 / SAMPLE_RATE),
+					loudestRow(engine));
+		} finally {
+			recording.close();
+		}
+	}
+}
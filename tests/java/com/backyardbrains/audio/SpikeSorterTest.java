@@ -0,0 +1,148 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class SpikeSorterTest extends TestCase {
+	private static final int SAMPLE_RATE = 44100;
+	private static final int THRESHOLD = 2500;
+	private static final int MIC_BLOCK = 512;
+
+	private final Random random = new Random(5);
+	private SpikeSorter sorter;
+	private short[] signal;
+	/** spikes of each shape put in {@link #signal} */
+	private final int[] truth = new int[2];
+
+	@Override
+	protected void setUp() {
+		sorter = new SpikeSorter(SAMPLE_RATE);
+		signal = new short[SAMPLE_RATE * 10];
+		for (int n = 0; n < signal.length; n++) {
+			signal[n] = (short) (random.nextGaussian() * 300);
+		}
+		// a tall narrow spike and a short wide one, far enough apart that
+		// no window holds two
+		for (int t = 1000; t < signal.length - 500; t += 300 + random
+				.nextInt(2000)) {
+			final int shape = random.nextInt(2);
+			truth[shape]++;
+			for (int j = 0; j < 120; j++) {
+				final double x = shape == 0 ? 9000 * gauss(j, 5, 2) - 3000
+						* gauss(j, 14, 4) : 4500 * gauss(j, 8, 4) - 2500
+						* gauss(j, 40, 10);
+				signal[t + j] += (short) x;
+			}
+		}
+	}
+
+	private static double gauss(int x, double centre, double width) {
+		final double d = (x - centre) / width;
+		return Math.exp(-d * d);
+	}
+
+	/** push all of {@link #signal} in blocks of the given mic blocks each */
+	private int pushAll(int... micBlocksPerPush) {
+		int sorted = 0;
+		for (int pushed = 0, k = 0; pushed < signal.length; k++) {
+			final int length = Math.min(signal.length - pushed, MIC_BLOCK
+					* micBlocksPerPush[k % micBlocksPerPush.length]);
+			final ByteBuffer block = ByteBuffer.allocateDirect(length * 2)
+					.order(ByteOrder.nativeOrder());
+			for (int i = 0; i < length; i++) {
+				block.putShort(i * 2, signal[pushed + i]);
+			}
+			sorted += sorter.push(block);
+			pushed += length;
+		}
+		return sorted;
+	}
+
+	public void testIdlesWithoutAThreshold() {
+		assertEquals(0, pushAll(1));
+		assertEquals(0, sorter.getClusterCount());
+	}
+
+	public void testSeparatesTwoSpikeShapes() {
+		sorter.setThreshold(THRESHOLD);
+		final int sorted = pushAll(2);
+		final int spikes = truth[0] + truth[1];
+		assertTrue(sorted + " of " + spikes + " sorted", sorted >= spikes - 2);
+		assertEquals(2, sorter.getClusterCount());
+
+		// each cluster holds about as many spikes as one shape, and the
+		// tall narrow one has the taller peak and the shorter width
+		final float[][] centroids = new float[2][SpikeSorter.FEATURES];
+		int tall = 0;
+		for (int c = 0; c < 2; c++) {
+			sorter.getCentroid(c, centroids[c]);
+			if (centroids[c][SpikeSorter.FEATURE_PEAK] > centroids[tall][SpikeSorter.FEATURE_PEAK]) {
+				tall = c;
+			}
+		}
+		final int wide = 1 - tall;
+		assertTrue(Math.abs(sorter.getSpikeCount(tall) - truth[0]) <= 2);
+		assertTrue(Math.abs(sorter.getSpikeCount(wide) - truth[1]) <= 2);
+		assertTrue(centroids[tall][SpikeSorter.FEATURE_PEAK] > 1.5f * centroids[wide][SpikeSorter.FEATURE_PEAK]);
+		assertTrue(centroids[tall][SpikeSorter.FEATURE_WIDTH] < centroids[wide][SpikeSorter.FEATURE_WIDTH]);
+		assertEquals(sorter.getSpikeCount(tall) + sorter.getSpikeCount(wide),
+				sorter.getTotalSpikeCount());
+	}
+
+	/**
+	 * Coalesced blocks vary in length from one push to the next; spikes
+	 * whose tails land in the next block must still be sorted.
+	 */
+	public void testBlocksOfChangingLengthLoseNoSpikes() {
+		sorter.setMaxBlockSamples(MIC_BLOCK * 32);
+		sorter.setThreshold(THRESHOLD);
+		final int steady = pushAll(1);
+		sorter = new SpikeSorter(SAMPLE_RATE);
+		sorter.setMaxBlockSamples(MIC_BLOCK * 32);
+		sorter.setThreshold(THRESHOLD);
+		assertEquals(steady, pushAll(1, 7, 32, 3, 1, 16, 2));
+	}
+
+	/**
+	 * A block longer than any seen before grows the sorter; a spike still
+	 * waiting for its tail must survive that.
+	 */
+	public void testSpikeWaitingForItsTailSurvivesAGrowingBlock() {
+		sorter.setThreshold(THRESHOLD);
+		signal = new short[MIC_BLOCK * 5];
+		for (int j = 0; j < 20; j++) {
+			signal[MIC_BLOCK - 10 + j] = (short) (6000 - j * 600);
+		}
+		assertEquals(1, pushAll(1, 4));
+	}
+
+	public void testChangingTheThresholdStartsOver() {
+		sorter.setThreshold(THRESHOLD);
+		pushAll(2);
+		assertTrue(sorter.getClusterCount() > 0);
+		sorter.setThreshold(THRESHOLD + 500);
+		assertEquals(0, sorter.getClusterCount());
+		assertEquals(0, sorter.getTotalSpikeCount());
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TriggerAveragerTest extends TestCase {
+	private static final int SPIKE_PERIOD = 3000;
+	private static final int SPIKE_PHASE = 1500;
+	private static final int SPIKES = 41;
+	private static final int THRESHOLD = 5000;
+	private static final int MIC_BLOCK = 512;
+
+	private TriggerAverager averager;
+	private short[] signal;
+	private int pushed;
+
+	@Override
+	protected void setUp() {
+		averager = new TriggerAverager(SPIKES);
+		((TriggerAverager.TriggerHandler) averager.getHandler())
+				.setThreshold(THRESHOLD);
+		signal = new short[SPIKES * SPIKE_PERIOD];
+		for (int n = 0; n < signal.length; n++) {
+			signal[n] = background(n);
+		}
+		// each spike a little taller than the last, so the averaged peak
+		// shows whether every one of them made it in
+		for (int j = 0; j < SPIKES; j++) {
+			signal[SPIKE_PHASE + j * SPIKE_PERIOD] = (short) (6000 + 10 * j);
+		}
+	}
+
+	/** a sawtooth that repeats with the spikes and stays under threshold */
+	private static short background(long n) {
+		return (short) ((n % SPIKE_PERIOD) / 4);
+	}
+
+	private void push(int length) {
+		length = Math.min(length, signal.length - pushed);
+		final ByteBuffer block = ByteBuffer.allocateDirect(length * 2).order(
+				ByteOrder.nativeOrder());
+		for (int i = 0; i < length; i++) {
+			block.putShort(i * 2, signal[pushed + i]);
+		}
+		averager.push(block);
+		pushed += length;
+	}
+
+	/**
+	 * Every sweep is the same stretch of sawtooth around its spike, so the
+	 * average must be exactly that, with the mean spike at the trigger.
+	 */
+	private void assertAverageOfEverySpike() {
+		final short[] average = averager.getAveragedSamples();
+		assertNotNull("no sweeps were cut", average);
+		final int pre = averager.getPreTriggerSamples();
+		assertEquals(6000 + 10 * (SPIKES - 1) / 2, average[pre]);
+		for (int k = 0; k < average.length; k++) {
+			if (k != pre) {
+				assertEquals("sample " + k, background(SPIKE_PHASE - pre + k
+						+ SPIKE_PERIOD), average[k]);
+			}
+		}
+	}
+
+	public void testSweepsSpanBlockBoundaries() {
+		while (pushed < signal.length) {
+			push(MIC_BLOCK);
+		}
+		assertAverageOfEverySpike();
+	}
+
+	/**
+	 * A coalescing consumer is handed anything from one mic block to half
+	 * a ring of them at once; triggers waiting for their post-trigger
+	 * window must survive the length changing under them.
+	 */
+	public void testPendingTriggersSurviveBlocksOfVaryingLength() {
+		averager.setMaxBlockSamples(AudioDispatcher.getMaxDeliveredSamples(
+				64, MIC_BLOCK));
+		final Random random = new Random(7);
+		while (pushed < signal.length) {
+			push(MIC_BLOCK * (1 + random.nextInt(32)));
+		}
+		assertAverageOfEverySpike();
+	}
+
+	/**
+	 * A block longer than setMaxBlockSamples allowed for grows the history
+	 * once, carrying the held samples and queued triggers over.
+	 */
+	public void testLongerBlockGrowsWithoutLosingTriggers() {
+		averager.setMaxBlockSamples(MIC_BLOCK);
+		while (pushed < SPIKE_PHASE + 100) {
+			push(MIC_BLOCK);
+		}
+		// the first spike is queued, its window not yet complete
+		assertNull(averager.getAveragedSamples());
+		while (pushed < signal.length) {
+			push(MIC_BLOCK * 8);
+		}
+		assertAverageOfEverySpike();
+	}
+
+	/** a second channel with no spikes, unlike the first anywhere */
+	private static short otherChannel(long n) {
+		return (short) (-1000 - (n % SPIKE_PERIOD) / 2);
+	}
+
+	private static ByteBuffer block(int channel, int index, short[] signal) {
+		final ByteBuffer block = ByteBuffer.allocateDirect(MIC_BLOCK * 2)
+				.order(ByteOrder.nativeOrder());
+		for (int i = 0; i < MIC_BLOCK; i++) {
+			final int n = index * MIC_BLOCK + i;
+			block.putShort(i * 2, channel == 0 ? signal[n] : otherChannel(n));
+		}
+		return block;
+	}
+
+	/**
+	 * The second channel is averaged around the first channel's spikes.
+	 * Its blocks arrive a block late, and one falling between two sweeps
+	 * never arrives, yet both averages come out exact.
+	 */
+	public void testOtherChannelIsAveragedAroundTriggerSpikes() {
+		averager.setChannels(2, 0);
+		averager.setMaxBlockSamples(MIC_BLOCK);
+		// spans stream samples 5632 to 6144, clear of every sweep window
+		final int dropped = 11;
+		final int blocks = signal.length / MIC_BLOCK;
+		for (int b = 0; b < blocks; b++) {
+			averager.push(0, block(0, b, signal), b * (long) MIC_BLOCK);
+			if (b > 0 && b - 1 != dropped) {
+				averager.push(1, block(1, b - 1, signal), (b - 1)
+						* (long) MIC_BLOCK);
+			}
+		}
+		averager.push(1, block(1, blocks - 1, signal), (blocks - 1)
+				* (long) MIC_BLOCK);
+
+		assertAverageOfEverySpike();
+		final short[] other = averager.getAveragedSamples(1);
+		assertNotNull(other);
+		final int pre = averager.getPreTriggerSamples();
+		for (int k = 0; k < other.length; k++) {
+			assertEquals("sample " + k, otherChannel(SPIKE_PHASE - pre + k),
+					other[k]);
+		}
+	}
+}
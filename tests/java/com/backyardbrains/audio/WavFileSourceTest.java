@@ -0,0 +1,110 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import junit.framework.TestCase;
+
+public class WavFileSourceTest extends TestCase {
+	private static final int SAMPLES = 1000;
+	private static final int BLOCK_SAMPLES = 300;
+
+	private File file;
+
+	@Override
+	protected void setUp() throws Exception {
+		file = File.createTempFile("replay", ".wav");
+		writeRamp(file, SAMPLES);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		file.delete();
+	}
+
+	/**
+	 * A looping replay runs straight from the last sample into the first,
+	 * with no silence or short block at the seam.
+	 */
+	public void testLoopWrapsWithoutGap() throws IOException {
+		final WavFileSource source = new WavFileSource(file, false, true);
+		source.open();
+		final ByteBuffer block = ByteBuffer.allocateDirect(BLOCK_SAMPLES * 2)
+				.order(ByteOrder.nativeOrder());
+		int expected = 0;
+		for (int b = 0; b < 10; b++) {
+			assertEquals(BLOCK_SAMPLES * 2,
+					source.read(block, BLOCK_SAMPLES * 2));
+			for (int i = 0; i < BLOCK_SAMPLES; i++) {
+				assertEquals(expected % SAMPLES + 1, block.getShort(i * 2));
+				expected++;
+			}
+		}
+		source.close();
+	}
+
+	public void testOneShotReplayEndsAtTheData() throws IOException {
+		final WavFileSource source = new WavFileSource(file, false, false);
+		source.open();
+		final ByteBuffer block = ByteBuffer.allocateDirect(BLOCK_SAMPLES * 2)
+				.order(ByteOrder.nativeOrder());
+		int total = 0;
+		int read;
+		while ((read = source.read(block, BLOCK_SAMPLES * 2)) > 0) {
+			total += read / 2;
+		}
+		assertEquals(SAMPLES, total);
+		source.close();
+	}
+
+	/**
+	 * Write a mono 16-bit file whose samples count up from 1.
+	 */
+	private static void writeRamp(File file, int samples) throws IOException {
+		final ByteBuffer b = ByteBuffer.allocate(
+				WavHeader.CANONICAL_HEADER_SIZE + samples * 2).order(
+				ByteOrder.LITTLE_ENDIAN);
+		b.put("RIFF".getBytes("US-ASCII"));
+		b.putInt(36 + samples * 2);
+		b.put("WAVEfmt ".getBytes("US-ASCII"));
+		b.putInt(16);
+		b.putShort((short) 1);
+		b.putShort((short) 1);
+		b.putInt(44100);
+		b.putInt(44100 * 2);
+		b.putShort((short) 2);
+		b.putShort((short) 16);
+		b.put("data".getBytes("US-ASCII"));
+		b.putInt(samples * 2);
+		for (int i = 1; i <= samples; i++) {
+			b.putShort((short) i);
+		}
+		final FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(b.array());
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import junit.framework.TestCase;
+
+public class WavRecoveryTest extends TestCase {
+	private static final int SAMPLE_RATE = 8000;
+	private static final int BYTES_PER_SECOND = SAMPLE_RATE * 2;
+
+	private File dir;
+
+	@Override
+	protected void setUp() throws Exception {
+		dir = File.createTempFile("recovery", "");
+		dir.delete();
+		assertTrue(dir.mkdir());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	private static void writeSeconds(WavWriter writer, double seconds)
+			throws IOException {
+		final ByteBuffer block = ByteBuffer.allocateDirect(
+				(int) (seconds * BYTES_PER_SECOND)).order(
+				ByteOrder.nativeOrder());
+		writer.write(block);
+		writer.flush();
+	}
+
+	/** add a partial sample, as a process dying mid-write can leave */
+	private static void appendStrayByte(File f) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(f, "rw");
+		try {
+			raf.seek(raf.length());
+			raf.write(0x7f);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/** a file as the writer leaves it before its first checkpoint */
+	private static void writeUnfinished(File f, int dataBytes)
+			throws IOException {
+		final ByteBuffer contents = ByteBuffer
+				.allocate(WavHeader.CANONICAL_HEADER_SIZE + dataBytes);
+		WavWriter.writeHeader(contents, SAMPLE_RATE, 1, 0);
+		final FileOutputStream out = new FileOutputStream(f);
+		try {
+			out.write(contents.array());
+		} finally {
+			out.close();
+		}
+	}
+
+	private static WavHeader readHeader(File f) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(f, "r");
+		try {
+			return WavHeader.read(raf.getChannel());
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static void assertRepairedTo(File f, long dataBytes)
+			throws IOException {
+		final WavHeader header = readHeader(f);
+		assertFalse(header.isTruncated());
+		assertEquals(dataBytes, header.getDeclaredDataSize());
+		assertEquals(dataBytes + 36, header.getRiffSize());
+		assertEquals(WavHeader.CANONICAL_HEADER_SIZE + dataBytes, f.length());
+	}
+
+	/**
+	 * A recording killed between checkpoints has a header that covers only
+	 * what had been written by the last one.
+	 */
+	public void testStaleCheckpointIsStretchedToTheData() throws IOException {
+		final File f = new File(dir, "killed.wav");
+		final WavWriter writer = new WavWriter(f, SAMPLE_RATE, 1, 1);
+		try {
+			writeSeconds(writer, 1);
+			writeSeconds(writer, 1);
+			writeSeconds(writer, 0.5);
+			assertEquals(2, writer.getCheckpointCount());
+			appendStrayByte(f);
+
+			final WavHeader stale = readHeader(f);
+			assertFalse(stale.isTruncated());
+			assertEquals(2 * BYTES_PER_SECOND, stale.getDeclaredDataSize());
+
+			assertTrue(WavRecovery.repair(f));
+			assertRepairedTo(f, 5 * BYTES_PER_SECOND / 2);
+			assertFalse(WavRecovery.repair(f));
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * A recording killed before its first checkpoint still has the empty
+	 * sizes the writer starts with.
+	 */
+	public void testEmptyHeaderIsFilledIn() throws IOException {
+		final File f = new File(dir, "early.wav");
+		final WavWriter writer = new WavWriter(f, SAMPLE_RATE, 1, 0);
+		try {
+			writeSeconds(writer, 0.5);
+			assertTrue(readHeader(f).isTruncated());
+
+			assertTrue(WavRecovery.repair(f));
+			assertRepairedTo(f, BYTES_PER_SECOND / 2);
+		} finally {
+			writer.close();
+		}
+	}
+
+	public void testFinishedRecordingIsLeftAlone() throws IOException {
+		final File f = new File(dir, "done.wav");
+		final WavWriter writer = new WavWriter(f, SAMPLE_RATE, 1);
+		writeSeconds(writer, 1);
+		writer.close();
+		final long length = f.length();
+
+		assertFalse(WavRecovery.repair(f));
+		assertEquals(length, f.length());
+	}
+
+	public void testRecordingStartedSinceIsSkipped() throws IOException {
+		final long cutoff = System.currentTimeMillis() - 60000;
+		final File old = new File(dir, "old.wav");
+		final File recent = new File(dir, "recent.wav");
+		for (File f : new File[] { old, recent }) {
+			writeUnfinished(f, BYTES_PER_SECOND / 4);
+		}
+		assertTrue(old.setLastModified(cutoff - 60000));
+
+		assertEquals(1, WavRecovery.repairDirectory(dir, cutoff));
+		assertFalse(readHeader(old).isTruncated());
+		assertTrue(readHeader(recent).isTruncated());
+	}
+}
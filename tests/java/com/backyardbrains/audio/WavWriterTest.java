@@ -0,0 +1,95 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import junit.framework.TestCase;
+
+public class WavWriterTest extends TestCase {
+	/** enough to go through the write buffer a few times */
+	private static final int SAMPLES = 100000;
+	private static final int BLOCK_SAMPLES = 1000;
+
+	private File file;
+
+	@Override
+	protected void setUp() throws Exception {
+		file = File.createTempFile("writer", ".wav");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		file.delete();
+	}
+
+	private static short sample(int i) {
+		return (short) (i * 37);
+	}
+
+	private void writeBlocks(ByteOrder order) throws IOException {
+		final WavWriter writer = new WavWriter(file, 44100, 1);
+		final ByteBuffer block = ByteBuffer.allocateDirect(BLOCK_SAMPLES * 2)
+				.order(order);
+		for (int i = 0; i < SAMPLES; i += BLOCK_SAMPLES) {
+			block.clear();
+			for (int j = 0; j < BLOCK_SAMPLES; j++) {
+				block.putShort(j * 2, sample(i + j));
+			}
+			writer.write(block);
+			assertFalse(block.hasRemaining());
+		}
+		assertEquals(SAMPLES * 2, writer.getDataBytes());
+		writer.close();
+	}
+
+	private void assertFileHoldsSamples() throws IOException {
+		final RandomAccessFile in = new RandomAccessFile(file, "r");
+		final ByteBuffer contents;
+		try {
+			assertEquals(WavHeader.CANONICAL_HEADER_SIZE + SAMPLES * 2,
+					in.length());
+			contents = ByteBuffer.allocate((int) in.length()).order(
+					ByteOrder.LITTLE_ENDIAN);
+			in.readFully(contents.array());
+		} finally {
+			in.close();
+		}
+		assertEquals(36 + SAMPLES * 2, contents.getInt(4));
+		assertEquals(SAMPLES * 2, contents.getInt(40));
+		for (int i = 0; i < SAMPLES; i++) {
+			assertEquals(sample(i), contents.getShort(
+					WavHeader.CANONICAL_HEADER_SIZE + i * 2));
+		}
+	}
+
+	public void testLittleEndianBlocksAreCopiedAsIs() throws IOException {
+		writeBlocks(ByteOrder.LITTLE_ENDIAN);
+		assertFileHoldsSamples();
+	}
+
+	public void testBigEndianBlocksAreSwapped() throws IOException {
+		writeBlocks(ByteOrder.BIG_ENDIAN);
+		assertFileHoldsSamples();
+	}
+}
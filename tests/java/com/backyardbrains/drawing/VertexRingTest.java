@@ -0,0 +1,123 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.drawing;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.backyardbrains.audio.RingBuffer;
+
+public class VertexRingTest extends TestCase {
+	private static final int COLUMNS = 100;
+
+	private final Random random = new Random(3);
+	private final RingBuffer ring = new RingBuffer(4096);
+	private final VertexRing vertices = new VertexRing();
+	private short[] signal;
+	private int written;
+
+	@Override
+	protected void setUp() {
+		signal = new short[40000];
+		for (int n = 0; n < signal.length; n++) {
+			signal[n] = (short) (random.nextInt(2000) - 1000);
+		}
+	}
+
+	private void append(int length) {
+		final ByteBuffer block = ByteBuffer.allocateDirect(length * 2).order(
+				ByteOrder.nativeOrder());
+		for (int i = 0; i < length; i++) {
+			block.putShort(i * 2, signal[written + i]);
+		}
+		ring.add(block);
+		written += length;
+	}
+
+	/**
+	 * Every column in the ring, and the bridge slot, holds what a
+	 * from-scratch conversion of the samples would give.
+	 */
+	private void assertMatchesBruteForce(int samplesPerColumn) {
+		final FloatBuffer b = vertices.getBuffer();
+		final int perColumn = vertices.getVerticesPerColumn();
+		final long end = vertices.getEndColumn();
+		assertEquals(written / samplesPerColumn, end);
+		for (long c = Math.max(0, end - COLUMNS); c < end; c++) {
+			final int start = (int) c * samplesPerColumn;
+			int minAt = start;
+			int maxAt = start;
+			for (int n = start + 1; n < start + samplesPerColumn; n++) {
+				if (signal[n] < signal[minAt]) {
+					minAt = n;
+				}
+				if (signal[n] > signal[maxAt]) {
+					maxAt = n;
+				}
+			}
+			final int slot = vertices.getSlot(c);
+			final int v = slot * perColumn * 2;
+			assertEquals((float) slot * samplesPerColumn, b.get(v));
+			if (perColumn == 1) {
+				assertEquals((float) signal[start], b.get(v + 1));
+			} else {
+				assertEquals((float) signal[Math.min(minAt, maxAt)],
+						b.get(v + 1));
+				assertEquals((float) signal[Math.max(minAt, maxAt)],
+						b.get(v + 3));
+			}
+		}
+		for (int i = 1; i < perColumn * 2; i += 2) {
+			assertEquals(b.get(i), b.get(COLUMNS * perColumn * 2 + i));
+		}
+	}
+
+	private void replayFrames(int samplesPerColumn) {
+		assertTrue(vertices.configure(samplesPerColumn, COLUMNS));
+		assertFalse(vertices.configure(samplesPerColumn, COLUMNS));
+		while (written + 600 < signal.length) {
+			append(1 + random.nextInt(600));
+			vertices.update(ring, ring.getWritten());
+			assertMatchesBruteForce(samplesPerColumn);
+		}
+	}
+
+	public void testOneSamplePerColumn() {
+		replayFrames(1);
+	}
+
+	public void testMinMaxPairs() {
+		replayFrames(3);
+	}
+
+	public void testWideColumns() {
+		replayFrames(7);
+	}
+
+	public void testRezoomStartsOver() {
+		replayFrames(3);
+		assertTrue(vertices.configure(5, COLUMNS));
+		vertices.update(ring, ring.getWritten());
+		assertMatchesBruteForce(5);
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * Backyard Brains Android App
+ * Copyright (C) 2011 Backyard Brains
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.backyardbrains.drawing;
+
+import java.nio.FloatBuffer;
+
+import junit.framework.TestCase;
+
+public class VertexStoreTest extends TestCase {
+	private final VertexStore store = new VertexStore();
+
+	public void testLinearLayout() {
+		store.layoutLinear(5, 10, 2);
+		for (int i = 0; i < 5; i++) {
+			store.setY(i, -i);
+		}
+		final FloatBuffer b = store.getBuffer(4);
+		assertEquals(0, b.position());
+		assertEquals(8, b.limit());
+		for (int i = 0; i < 4; i++) {
+			assertEquals(10f + 2 * i, b.get(i * 2));
+			assertEquals((float) -i, b.get(i * 2 + 1));
+		}
+	}
+
+	public void testColumnPairsSitAtStartAndMiddleOfEachColumn() {
+		store.layoutColumns(3, 0, 4);
+		assertEquals(6, store.getLayoutCount());
+		final FloatBuffer b = store.getBuffer(6);
+		final float[] xs = { 0, 2, 4, 6, 8, 10 };
+		for (int i = 0; i < xs.length; i++) {
+			assertEquals(xs[i], b.get(i * 2));
+		}
+	}
+
+	public void testLimitNeverPassesTheLayout() {
+		store.layoutLinear(3, 0, 1);
+		assertEquals(6, store.getBuffer(10).limit());
+	}
+
+	/**
+	 * Laying out again for the same zoom leaves the x values alone, and a
+	 * buffer grown for a wide zoom is kept for narrower ones.
+	 */
+	public void testBufferIsReusedAcrossFramesAndZooms() {
+		store.layoutLinear(100, 0, 1);
+		final FloatBuffer small = store.getBuffer(100);
+		store.layoutLinear(100, 0, 1);
+		assertSame(small, store.getBuffer(100));
+
+		store.layoutLinear(1000, 0, 0.5f);
+		final FloatBuffer large = store.getBuffer(1000);
+		assertNotSame(small, large);
+		store.layoutColumns(200, 5, 1);
+		assertSame(large, store.getBuffer(400));
+		assertEquals(5.5f, large.get(2));
+		store.layoutLinear(1000, 0, 0.5f);
+		assertSame(large, store.getBuffer(1000));
+		assertEquals(0.5f, large.get(2));
+	}
+}